@@ -100,13 +100,20 @@ public class ElectricAnnoScanner {
 
 		/* 
 		 * Read the *.xml file and process the content. This could take a long
-		 * time, so put the database in fast mode.
+		 * time, so make all the changes in a single batch. If the file can't be fully
+		 * processed, none of the changes are kept.
 		 */
-		boolean prevState = buildStore.setFastAccessMode(true);
+		buildStore.beginBatch();
+		boolean completed = false;
 		try {
 			parser.parse(new InputSource(in));
+			completed = true;
 		} finally {
-			buildStore.setFastAccessMode(prevState);
+			if (completed) {
+				buildStore.commitBatch();
+			} else {
+				buildStore.rollbackBatch();
+			}
 		}
 	}
 	
@@ -44,6 +44,9 @@ public class LegacyBuildScanner {
 	/** The trace file name the user has chosen. */
 	private String traceFilePathName;
 	
+	/** Should the trace file be compressed when it's generated? */
+	private boolean compressTraceFile = true;
+	
 	/** 
 	 * The BuildStore we should generate, or null if we should parse the trace file without
 	 * creating a BuildStore.
@@ -94,6 +97,25 @@ public class LegacyBuildScanner {
 	 * the path name back to the default.
 	 */
 	public void setTraceFile(String traceFilePathName) {
+		setTraceFile(traceFilePathName, true);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+	
+	/**
+	 * Set this scanner's trace file name, and whether the trace file should be compressed
+	 * when it's generated by traceShellCommand(). An uncompressed trace file is much larger,
+	 * but is faster to generate and to parse, so is preferable for local builds on fast
+	 * disks. When the trace file is parsed, its format is detected automatically.
+	 * 
+	 * @param traceFilePathName The name of the file to scan to/from. If null, set
+	 * the path name back to the default.
+	 * @param compress True if the generated trace file should be compressed (the default),
+	 * or false to generate an uncompressed (memory-mappable) trace file.
+	 */
+	public void setTraceFile(String traceFilePathName, boolean compress) {
+
+		this.compressTraceFile = compress;
 
 		/* if a file name is provided... */
 		if (traceFilePathName != null) {
@@ -116,6 +138,16 @@ public class LegacyBuildScanner {
 		return this.traceFilePathName;
 	}
 	
+	/*-------------------------------------------------------------------------------------*/
+	
+	/**
+	 * Return whether the trace file will be compressed when it's generated.
+	 * @return True if the trace file will be compressed, else false.
+	 */
+	public boolean isTraceFileCompressed() {
+		return this.compressTraceFile;
+	}
+	
 	/*-------------------------------------------------------------------------------------*/
 
 	/**
@@ -257,6 +289,11 @@ public class LegacyBuildScanner {
 		allArgs.add("-d");
 		allArgs.add(String.valueOf(getDebugLevel()));
 		
+		/* should the trace file be written without compression? */
+		if (!compressTraceFile) {
+			allArgs.add("-u");
+		}
+		
 		/* should the command argument be passed through a shell? */
 		if (useShell) {
 			allArgs.add("-c");
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and 
+ *        implementation and/or initial documentation
+ *******************************************************************************/ 
+
+package com.buildml.scanner.legacy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An InputStream for reading an uncompressed trace file (as written by "cfs -u"). The
+ * trace file is memory-mapped, rather than read via system calls, and the stream returns
+ * the trace entries with the file header and chunk lengths removed. That is, the content
+ * of the stream is identical to the content of an (inflated) compressed trace file.
+ * <p>
+ * To support very large trace files, the file is mapped in a series of windows, rather
+ * than all at once.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package */ class MappedTraceInputStream extends InputStream {
+
+	/*=====================================================================================*
+	 * TYPES/FIELDS
+	 *=====================================================================================*/
+
+	/** The maximum number of bytes of the trace file to map into memory at once. */
+	private static final long MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/** The trace file we're reading. */
+	private RandomAccessFile file;
+
+	/** The channel used to map the trace file into memory. */
+	private FileChannel channel;
+
+	/** The total size of the trace file. */
+	private long fileSize;
+
+	/** The currently mapped portion of the trace file. */
+	private MappedByteBuffer window;
+
+	/** The position within the trace file of the start of the current window. */
+	private long windowStart;
+
+	/** The number of bytes remaining in the current chunk of trace entries. */
+	private int chunkRemaining = 0;
+
+	/** A small buffer for reading integers (which may span two windows). */
+	private byte intBuffer[] = new byte[4];
+
+	/*=====================================================================================*
+	 * CONSTRUCTORS
+	 *=====================================================================================*/
+
+	/**
+	 * Open an uncompressed trace file, and validate its header.
+	 *
+	 * @param fileName The name of the trace file.
+	 * @throws IOException If the file can't be opened, or isn't a valid uncompressed
+	 * trace file.
+	 */
+	/* package */ MappedTraceInputStream(String fileName) throws IOException {
+		file = new RandomAccessFile(fileName, "r");
+		channel = file.getChannel();
+		fileSize = channel.size();
+		mapWindow(0);
+
+		/* validate the trace_file_header */
+		if (readRawInt() != TraceFileFormat.TRACE_FILE_MAGIC) {
+			close();
+			throw new IOException("Not an uncompressed trace file: " + fileName);
+		}
+		int version = readRawInt();
+		if (version != TraceFileFormat.TRACE_FILE_VERSION) {
+			close();
+			throw new IOException("Unsupported trace file version: " + version);
+		}
+	}
+
+	/*=====================================================================================*
+	 * PUBLIC METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Determine whether a trace file starts with the header of an uncompressed trace file.
+	 *
+	 * @param header The first four bytes of the trace file.
+	 * @return True if the trace file is uncompressed.
+	 */
+	public static boolean isUncompressedHeader(byte header[]) {
+		return getInt(header) == TraceFileFormat.TRACE_FILE_MAGIC;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read()
+	 */
+	@Override
+	public int read() throws IOException {
+		byte oneByte[] = new byte[1];
+		if (read(oneByte, 0, 1) == -1) {
+			return -1;
+		}
+		return oneByte[0] & 0xff;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte buffer[], int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+
+		/* move to the next (non-empty) chunk, if necessary */
+		while (chunkRemaining == 0) {
+			if (windowStart + window.position() == fileSize) {
+				return -1;
+			}
+			chunkRemaining = readRawInt();
+			if (chunkRemaining < 0) {
+				throw new IOException("Invalid chunk length in trace file: " + chunkRemaining);
+			}
+		}
+
+		/* return as much of the chunk as we can */
+		int count = readRaw(buffer, offset, Math.min(length, chunkRemaining));
+		if (count == -1) {
+			throw new IOException("File appears to be truncated");
+		}
+		chunkRemaining -= count;
+		return count;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see java.io.InputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+		file.close();
+	}
+
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Map a new window of the trace file into memory.
+	 *
+	 * @param start The position within the trace file of the start of the window.
+	 * @throws IOException If the mapping fails.
+	 */
+	private void mapWindow(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+				Math.min(MAP_WINDOW_SIZE, fileSize - start));
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Read bytes directly from the trace file, without regard to chunk boundaries.
+	 *
+	 * @param buffer The buffer to read into.
+	 * @param offset The offset within the buffer to start writing at.
+	 * @param length The maximum number of bytes to read.
+	 * @return The number of bytes read, or -1 if the end of the file has been reached.
+	 * @throws IOException If mapping the next window of the file fails.
+	 */
+	private int readRaw(byte buffer[], int offset, int length) throws IOException {
+		if (!window.hasRemaining()) {
+			long nextStart = windowStart + window.limit();
+			if (nextStart == fileSize) {
+				return -1;
+			}
+			mapWindow(nextStart);
+		}
+		int count = Math.min(length, window.remaining());
+		window.get(buffer, offset, count);
+		return count;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Read a 4-byte little-endian integer directly from the trace file.
+	 *
+	 * @return The integer value.
+	 * @throws IOException If the end of the file is reached before the whole integer
+	 * is read.
+	 */
+	private int readRawInt() throws IOException {
+		int pos = 0;
+		while (pos != 4) {
+			int count = readRaw(intBuffer, pos, 4 - pos);
+			if (count == -1) {
+				throw new IOException("File appears to be truncated");
+			}
+			pos += count;
+		}
+		return getInt(intBuffer);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Convert the first four bytes of an array into a little-endian integer.
+	 *
+	 * @param bytes The array of bytes.
+	 * @return The integer value.
+	 */
+	private static int getInt(byte bytes[]) {
+		return (bytes[0] & 0xff) | ((bytes[1] & 0xff) << 8) |
+				((bytes[2] & 0xff) << 16) | ((bytes[3] & 0xff) << 24);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
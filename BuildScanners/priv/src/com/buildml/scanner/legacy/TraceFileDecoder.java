@@ -0,0 +1,718 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and 
+ *        implementation and/or initial documentation
+ *******************************************************************************/ 
+
+package com.buildml.scanner.legacy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.buildml.scanner.FatalBuildScannerError;
+import com.buildml.utils.string.ShellCommandUtils;
+
+/**
+ * Decodes the content of a CFS (capture file system) trace file into a sequence of
+ * TraceRecord objects. The work is split across a pipeline of threads, so that
+ * reading (and decompressing) the trace file, and decoding the records, can overlap
+ * with the caller's processing of the records (typically, writing to a BuildStore):
+ * <ol>
+ *   <li>The "reader" thread reads the input stream into large blocks of bytes, and
+ *       frames the content so that each block only contains complete records.</li>
+ *   <li>The "decoder" thread decodes each block of records into batches of
+ *       TraceRecord objects.</li>
+ *   <li>The caller's thread consumes the TraceRecord objects, via nextRecord().</li>
+ * </ol>
+ * The stages are connected by bounded queues, and all blocks and batches are recycled,
+ * so the amount of memory used doesn't depend on the size of the trace file.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package */ class TraceFileDecoder {
+
+	/*=====================================================================================*
+	 * TYPES/FIELDS
+	 *=====================================================================================*/
+
+	/** The initial size of each block of bytes (blocks will grow for larger records). */
+	private static final int BLOCK_SIZE = 256 * 1024;
+
+	/** The number of blocks passed between the reader and the decoder thread. */
+	private static final int NUM_BLOCKS = 4;
+
+	/** The number of records in each batch of decoded records. */
+	private static final int BATCH_SIZE = 1024;
+
+	/** The number of batches passed between the decoder thread and the caller. */
+	private static final int NUM_BATCHES = 8;
+
+	/** Strings in the trace file are single-byte characters. */
+	private static final Charset TRACE_CHARSET = Charset.forName("ISO-8859-1");
+
+	/** Returned by frameRecord() if there's not yet enough data to hold the full record. */
+	private static final int INCOMPLETE_RECORD = -1;
+
+	/** Returned by frameRecord() if the record has an invalid tag. */
+	private static final int INVALID_RECORD = -2;
+
+	/**
+	 * A block of bytes, read from the trace file. Each block contains only complete
+	 * records.
+	 */
+	private class TraceBlock {
+
+		/** The bytes read from the trace file. */
+		byte data[] = new byte[BLOCK_SIZE];
+
+		/** The number of valid bytes in data[]. */
+		int length;
+
+		/** The position within the trace file of data[0]. */
+		long filePos;
+
+		/** True if this is the final block in the trace file. */
+		boolean eof;
+
+		/** If not null, the error to report once this block's records are consumed. */
+		Throwable error;
+	}
+
+	/**
+	 * A batch of decoded TraceRecord objects.
+	 */
+	private class TraceRecordBatch {
+
+		/** The records in this batch (only the first "count" are valid). */
+		TraceRecord records[] = new TraceRecord[BATCH_SIZE];
+
+		/** The number of valid records. */
+		int count;
+
+		/** True if this is the final batch in the trace file. */
+		boolean eof;
+
+		/** If not null, the error to report once this batch's records are consumed. */
+		Throwable error;
+	}
+
+	/** The input stream we're reading the trace file from. */
+	private InputStream inputStream;
+
+	/** True if the environment of each new program should be decoded. */
+	private boolean keepEnvironment;
+
+	/** Blocks that are available for the reader thread to fill. */
+	private BlockingQueue<TraceBlock> freeBlocks;
+
+	/** Blocks that have been filled, and are waiting to be decoded. */
+	private BlockingQueue<TraceBlock> fullBlocks;
+
+	/** Batches that are available for the decoder thread to fill. */
+	private BlockingQueue<TraceRecordBatch> freeBatches;
+
+	/** Batches that have been filled, and are waiting to be consumed. */
+	private BlockingQueue<TraceRecordBatch> fullBatches;
+
+	/** The threads that read and decode the trace file. */
+	private Thread readerThread, decoderThread;
+
+	/** The batch of records the caller is currently consuming. */
+	private TraceRecordBatch currentBatch = null;
+
+	/** The index (within currentBatch) of the next record to return to the caller. */
+	private int currentIndex = 0;
+
+	/** The path names seen so far (only accessed by the decoder thread). */
+	private TracePathTable pathTable = new TracePathTable();
+
+	/**
+	 * A mapping from the path numbers defined by TRACE_PATH_DEFINE records, to the
+	 * corresponding path index in pathTable (or -1 if the path number isn't defined).
+	 * Only accessed by the decoder thread.
+	 */
+	private int pathNumberToIndex[] = new int[1024];
+
+	/** The record returned to the caller when the end of the trace file is reached. */
+	private TraceRecord eofRecord;
+
+	/*=====================================================================================*
+	 * CONSTRUCTORS
+	 *=====================================================================================*/
+
+	/**
+	 * Create a new TraceFileDecoder, and start the threads that read and decode
+	 * the trace file.
+	 *
+	 * @param inputStream The (uncompressed) stream to read the trace file from.
+	 * @param keepEnvironment True if the environment variables of each new program should
+	 *        be decoded (they're only useful for debugging).
+	 */
+	/* package */ TraceFileDecoder(InputStream inputStream, boolean keepEnvironment) {
+		this.inputStream = inputStream;
+		this.keepEnvironment = keepEnvironment;
+
+		eofRecord = new TraceRecord();
+		eofRecord.tag = TraceFileFormat.TRACE_FILE_EOF;
+		Arrays.fill(pathNumberToIndex, -1);
+
+		/* create the pool of recyclable blocks and batches */
+		freeBlocks = new ArrayBlockingQueue<TraceBlock>(NUM_BLOCKS);
+		fullBlocks = new ArrayBlockingQueue<TraceBlock>(NUM_BLOCKS);
+		for (int i = 0; i != NUM_BLOCKS; i++) {
+			freeBlocks.add(new TraceBlock());
+		}
+		freeBatches = new ArrayBlockingQueue<TraceRecordBatch>(NUM_BATCHES);
+		fullBatches = new ArrayBlockingQueue<TraceRecordBatch>(NUM_BATCHES);
+		for (int i = 0; i != NUM_BATCHES; i++) {
+			TraceRecordBatch batch = new TraceRecordBatch();
+			for (int j = 0; j != BATCH_SIZE; j++) {
+				batch.records[j] = new TraceRecord();
+			}
+			freeBatches.add(batch);
+		}
+
+		/* start the reader and decoder threads */
+		readerThread = new Thread("Trace File Reader") {
+			@Override
+			public void run() {
+				readBlocks();
+			}
+		};
+		decoderThread = new Thread("Trace File Decoder") {
+			@Override
+			public void run() {
+				decodeBlocks();
+			}
+		};
+		readerThread.setDaemon(true);
+		decoderThread.setDaemon(true);
+		readerThread.start();
+		decoderThread.start();
+	}
+
+	/*=====================================================================================*
+	 * PUBLIC METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Fetch the next record from the trace file. The returned TraceRecord is only valid
+	 * until the next call to this method.
+	 *
+	 * @return The next record, or a record with the tag TraceFileFormat.TRACE_FILE_EOF
+	 * if the end of the trace file has been reached.
+	 * @throws IOException If an I/O error occurred while reading the trace file.
+	 * @throws FatalBuildScannerError If the trace file content is invalid.
+	 */
+	public TraceRecord nextRecord() throws IOException {
+
+		while (true) {
+			if (currentBatch != null) {
+
+				/* return the next record from the current batch */
+				if (currentIndex < currentBatch.count) {
+					return currentBatch.records[currentIndex++];
+				}
+
+				/* the batch is exhausted - was it the last batch? */
+				if (currentBatch.error != null) {
+					Throwable error = currentBatch.error;
+					currentBatch.error = null;
+					rethrow(error);
+				}
+				if (currentBatch.eof) {
+					return eofRecord;
+				}
+
+				/* no, recycle it */
+				freeBatches.add(currentBatch);
+			}
+
+			/* fetch the next batch, waiting for it to be decoded if necessary */
+			try {
+				currentBatch = fullBatches.take();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while reading trace file");
+			}
+			currentIndex = 0;
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Stop reading the trace file, and close the input stream.
+	 *
+	 * @throws IOException If closing the stream fails.
+	 */
+	public void close() throws IOException {
+		readerThread.interrupt();
+		decoderThread.interrupt();
+		inputStream.close();
+	}
+
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * The main loop of the reader thread. Read the trace file into blocks, making sure
+	 * that each block only contains complete records. Any partial record at the end of a
+	 * block is carried over to the start of the next block.
+	 */
+	private void readBlocks() {
+
+		TraceBlock block = null;
+		try {
+			block = freeBlocks.take();
+			int length = 0;
+			long blockPos = 0;
+			boolean eof = false;
+
+			while (true) {
+
+				/* fill the block as much as possible */
+				while (length < block.data.length) {
+					int count = inputStream.read(block.data, length, block.data.length - length);
+					if (count == -1) {
+						eof = true;
+						break;
+					}
+					length += count;
+				}
+
+				/* determine how many complete records we have */
+				block.error = null;
+				block.filePos = blockPos;
+				int end = frameRecords(block, length);
+
+				/* a single record is larger than the whole block - grow the block */
+				if ((end == 0) && (length != 0) && !eof && (block.error == null)) {
+					block.data = Arrays.copyOf(block.data, block.data.length * 2);
+					continue;
+				}
+
+				/* a partial record at the end of the trace file is an error */
+				if (eof && (end != length) && (block.error == null)) {
+					block.error = new IOException("File appears to be truncated");
+				}
+				block.eof = eof || (block.error != null);
+
+				/* carry any partial record over to the next block */
+				TraceBlock nextBlock = null;
+				int leftover = length - end;
+				if (!block.eof) {
+					nextBlock = freeBlocks.take();
+					if (nextBlock.data.length < leftover * 2) {
+						nextBlock.data = new byte[leftover * 2];
+					}
+					System.arraycopy(block.data, end, nextBlock.data, 0, leftover);
+				}
+				block.length = end;
+				fullBlocks.put(block);
+				block = nextBlock;
+
+				if (block == null) {
+					return;
+				}
+				blockPos += end;
+				length = leftover;
+			}
+
+		} catch (InterruptedException e) {
+			/* we've been asked to stop */
+
+		} catch (Throwable e) {
+			/* pass the error to the decoder thread, so it can be reported to the caller */
+			if (block != null) {
+				block.length = 0;
+				block.eof = true;
+				block.error = e;
+				fullBlocks.offer(block);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Determine how many complete records are contained in a block.
+	 *
+	 * @param block The block of data to be examined.
+	 * @param length The number of valid bytes in the block.
+	 * @return The offset (within the block) of the end of the last complete record. If an
+	 * invalid record is found, the block's error field is set, and the offset of the
+	 * invalid record is returned.
+	 */
+	private int frameRecords(TraceBlock block, int length) {
+
+		int pos = 0;
+		while (pos < length) {
+			int end = frameRecord(block.data, pos, length);
+			if (end == INCOMPLETE_RECORD) {
+				break;
+			}
+			if (end == INVALID_RECORD) {
+				block.error = new FatalBuildScannerError("Invalid tag in trace file: " +
+						(block.data[pos] & 0xff) + " at trace file position " + (block.filePos + pos));
+				break;
+			}
+			pos = end;
+		}
+		return pos;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Determine the extent of a single record.
+	 *
+	 * @param data The array of bytes containing the record.
+	 * @param pos The offset of the record's tag.
+	 * @param limit The offset of the end of the valid data.
+	 * @return The offset of the end of the record, INCOMPLETE_RECORD if the record
+	 * extends past the limit, or INVALID_RECORD if the record's tag is invalid.
+	 */
+	private int frameRecord(byte data[], int pos, int limit) {
+
+		/* all records start with a tag, followed by a process number */
+		if (pos + 5 > limit) {
+			return INCOMPLETE_RECORD;
+		}
+		int tag = data[pos] & 0xff;
+		pos += 5;
+
+		/* accesses that refer to a path by number have a fixed size */
+		if ((tag & TraceFileFormat.TRACE_BY_PATH_NUMBER) != 0) {
+			if (!isPathAccessTag(tag & ~TraceFileFormat.TRACE_BY_PATH_NUMBER)) {
+				return INVALID_RECORD;
+			}
+			return (pos + 4 > limit) ? INCOMPLETE_RECORD : pos + 4;
+		}
+
+		switch (tag) {
+		case TraceFileFormat.TRACE_PATH_DEFINE:
+			if (pos + 4 > limit) {
+				return INCOMPLETE_RECORD;
+			}
+			return skipString(data, pos + 4, limit);
+
+		case TraceFileFormat.TRACE_FILE_REGISTER:
+		case TraceFileFormat.TRACE_FILE_WRITE:
+		case TraceFileFormat.TRACE_FILE_READ:
+		case TraceFileFormat.TRACE_FILE_MODIFY:
+		case TraceFileFormat.TRACE_FILE_DELETE:
+		case TraceFileFormat.TRACE_DIR_WRITE:
+		case TraceFileFormat.TRACE_DIR_READ:
+		case TraceFileFormat.TRACE_DIR_MODIFY:
+		case TraceFileFormat.TRACE_DIR_DELETE:
+			return skipString(data, pos, limit);
+
+		case TraceFileFormat.TRACE_FILE_RENAME:
+		case TraceFileFormat.TRACE_FILE_NEW_LINK:
+			return pos;
+
+		case TraceFileFormat.TRACE_FILE_NEW_PROGRAM:
+
+			/* parent process number, then current working directory */
+			pos += 4;
+			pos = skipString(data, pos, limit);
+			if ((pos == INCOMPLETE_RECORD) || (pos + 4 > limit)) {
+				return INCOMPLETE_RECORD;
+			}
+
+			/* command line arguments */
+			int argCount = getInt(data, pos);
+			pos += 4;
+			while (argCount-- > 0) {
+				pos = skipString(data, pos, limit);
+				if (pos == INCOMPLETE_RECORD) {
+					return INCOMPLETE_RECORD;
+				}
+			}
+
+			/* environment variables, terminated by an empty string */
+			while (true) {
+				int start = pos;
+				pos = skipString(data, pos, limit);
+				if (pos == INCOMPLETE_RECORD) {
+					return INCOMPLETE_RECORD;
+				}
+				if (pos == start + 1) {
+					return pos;
+				}
+			}
+
+		default:
+			return INVALID_RECORD;
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Determine whether a tag is for a file or directory access (which may refer to its
+	 * path by number).
+	 *
+	 * @param tag The tag (without the TRACE_BY_PATH_NUMBER flag).
+	 * @return True if the tag is for a file or directory access.
+	 */
+	private static boolean isPathAccessTag(int tag) {
+		switch (tag) {
+		case TraceFileFormat.TRACE_FILE_WRITE:
+		case TraceFileFormat.TRACE_FILE_READ:
+		case TraceFileFormat.TRACE_FILE_MODIFY:
+		case TraceFileFormat.TRACE_FILE_DELETE:
+		case TraceFileFormat.TRACE_DIR_WRITE:
+		case TraceFileFormat.TRACE_DIR_READ:
+		case TraceFileFormat.TRACE_DIR_MODIFY:
+		case TraceFileFormat.TRACE_DIR_DELETE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Skip over a NUL-terminated string.
+	 *
+	 * @param data The array of bytes containing the string.
+	 * @param pos The offset of the start of the string.
+	 * @param limit The offset of the end of the valid data.
+	 * @return The offset immediately after the string's NUL byte, or INCOMPLETE_RECORD if
+	 * there's no NUL byte before the limit.
+	 */
+	private int skipString(byte data[], int pos, int limit) {
+		while (pos < limit) {
+			if (data[pos++] == 0) {
+				return pos;
+			}
+		}
+		return INCOMPLETE_RECORD;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * The main loop of the decoder thread. Decode each block of records into batches
+	 * of TraceRecord objects.
+	 */
+	private void decodeBlocks() {
+
+		TraceRecordBatch batch = null;
+		try {
+			batch = freeBatches.take();
+			batch.count = 0;
+
+			while (true) {
+				TraceBlock block = fullBlocks.take();
+
+				/* decode each record in the block */
+				int pos = 0;
+				while (pos < block.length) {
+					if (batch.count == BATCH_SIZE) {
+						fullBatches.put(batch);
+						batch = freeBatches.take();
+						batch.count = 0;
+					}
+					TraceRecord record = batch.records[batch.count];
+					pos = decodeRecord(block.data, pos, block.filePos, record);
+
+					/* path definitions are only of interest to the decoder */
+					if (record.tag != TraceFileFormat.TRACE_PATH_DEFINE) {
+						batch.count++;
+					}
+				}
+
+				/* at the end of the file, pass on the final batch (and any error) */
+				if (block.eof) {
+					batch.eof = true;
+					batch.error = block.error;
+					fullBatches.put(batch);
+					return;
+				}
+				freeBlocks.put(block);
+			}
+
+		} catch (InterruptedException e) {
+			/* we've been asked to stop */
+
+		} catch (Throwable e) {
+			/* pass the error to the caller */
+			if (batch != null) {
+				batch.eof = true;
+				batch.error = e;
+				fullBatches.offer(batch);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Decode a single (complete) record.
+	 *
+	 * @param data The array of bytes containing the record.
+	 * @param pos The offset of the record's tag.
+	 * @param blockPos The position within the trace file of data[0].
+	 * @param record The TraceRecord to decode the record into.
+	 * @return The offset of the end of the record.
+	 */
+	private int decodeRecord(byte data[], int pos, long blockPos, TraceRecord record) {
+
+		record.filePos = blockPos + pos;
+		record.tag = data[pos] & 0xff;
+		record.processNum = getInt(data, pos + 1);
+		pos += 5;
+
+		/* a file or directory access that refers to a previously defined path number */
+		if ((record.tag & TraceFileFormat.TRACE_BY_PATH_NUMBER) != 0) {
+			record.tag &= ~TraceFileFormat.TRACE_BY_PATH_NUMBER;
+			int pathNumber = getInt(data, pos);
+			int pathIndex = (pathNumber >= 0) && (pathNumber < pathNumberToIndex.length) ?
+					pathNumberToIndex[pathNumber] : -1;
+			if (pathIndex == -1) {
+				throw new FatalBuildScannerError("Undefined path number in trace file: " +
+						pathNumber + " at trace file position " + record.filePos);
+			}
+			record.pathIndex = pathIndex;
+			record.path = pathTable.getPath(pathIndex);
+			return pos + 4;
+		}
+
+		switch (record.tag) {
+		case TraceFileFormat.TRACE_PATH_DEFINE:
+			int pathNumber = getInt(data, pos);
+			pos += 4;
+			int end = skipString(data, pos, data.length);
+			internPath(data, pos, end, record);
+			if (pathNumber < 0) {
+				throw new FatalBuildScannerError("Invalid path number in trace file: " +
+						pathNumber + " at trace file position " + record.filePos);
+			}
+			if (pathNumber >= pathNumberToIndex.length) {
+				int oldLength = pathNumberToIndex.length;
+				pathNumberToIndex = Arrays.copyOf(pathNumberToIndex,
+						Math.max(oldLength * 2, pathNumber + 1));
+				Arrays.fill(pathNumberToIndex, oldLength, pathNumberToIndex.length, -1);
+			}
+			pathNumberToIndex[pathNumber] = record.pathIndex;
+			return end;
+
+		case TraceFileFormat.TRACE_FILE_RENAME:
+		case TraceFileFormat.TRACE_FILE_NEW_LINK:
+			return pos;
+
+		case TraceFileFormat.TRACE_FILE_NEW_PROGRAM:
+			record.parentProcessNum = getInt(data, pos);
+			pos += 4;
+			end = skipString(data, pos, data.length);
+			internPath(data, pos, end, record);
+			pos = end;
+
+			/* fetch all the command line arguments */
+			int argCount = getInt(data, pos);
+			pos += 4;
+			StringBuilder commandArgs = new StringBuilder();
+			boolean first = true;
+			while (argCount-- > 0) {
+				end = skipString(data, pos, data.length);
+				String arg = new String(data, pos, end - pos - 1, TRACE_CHARSET);
+				pos = end;
+				if (first) {
+					first = false; /* no space separator required */
+				} else {
+					commandArgs.append(' ');  /* put a space between arguments */
+				}
+				commandArgs.append(ShellCommandUtils.shellEscapeString(arg));
+			}
+			record.command = commandArgs.toString();
+
+			/* and the environment variables, terminated by an empty string */
+			record.environment.clear();
+			while (true) {
+				end = skipString(data, pos, data.length);
+				if (end == pos + 1) {
+					return end;
+				}
+				if (keepEnvironment) {
+					record.environment.add(new String(data, pos, end - pos - 1, TRACE_CHARSET));
+				}
+				pos = end;
+			}
+
+		default:
+			/* all other records have a single path name */
+			end = skipString(data, pos, data.length);
+			internPath(data, pos, end, record);
+			return end;
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Record a path name in a TraceRecord. The path's bytes are looked up in the path
+	 * table, so that a new String is only created the first time a path is seen.
+	 *
+	 * @param data The array of bytes containing the path name.
+	 * @param pos The offset of the path name's first byte.
+	 * @param end The offset immediately after the path name's NUL byte.
+	 * @param record The TraceRecord to record the path in.
+	 */
+	private void internPath(byte data[], int pos, int end, TraceRecord record) {
+		int pathIndex = pathTable.intern(data, pos, end - pos - 1);
+		record.pathIndex = pathIndex;
+		record.path = pathTable.getPath(pathIndex);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Fetch a 4-byte little-endian integer from an array of bytes.
+	 *
+	 * @param data The array of bytes.
+	 * @param pos The offset of the integer.
+	 * @return The integer value.
+	 */
+	private static int getInt(byte data[], int pos) {
+		return (data[pos] & 0xff) | ((data[pos + 1] & 0xff) << 8) |
+				((data[pos + 2] & 0xff) << 16) | ((data[pos + 3] & 0xff) << 24);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Rethrow an error that was caught by the reader or decoder thread, so that it's
+	 * reported on the caller's thread.
+	 *
+	 * @param error The error to rethrow.
+	 * @throws IOException If the error is an IOException.
+	 */
+	private void rethrow(Throwable error) throws IOException {
+		if (error instanceof IOException) {
+			throw (IOException)error;
+		}
+		if (error instanceof RuntimeException) {
+			throw (RuntimeException)error;
+		}
+		if (error instanceof Error) {
+			throw (Error)error;
+		}
+		throw new IOException("Unable to read trace file: " + error.getMessage());
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and 
+ *        implementation and/or initial documentation
+ *******************************************************************************/ 
+
+package com.buildml.scanner.legacy;
+
+/**
+ * Constants describing the content of a CFS (capture file system) trace file.
+ *
+ * Important note: the content of this file must be kept in sync with trace_file_format.h
+ * (in CaptureFS). If any changes are made to the data being stored in the trace buffer,
+ * this file (and the TraceFileDecoder class) must also be updated.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package */ class TraceFileFormat {
+
+	/*=====================================================================================*
+	 * TYPES/FIELDS
+	 *=====================================================================================*/
+
+	/**
+	 * The magic number at the start of an uncompressed trace file (TF_MAGIC). This
+	 * is stored in little-endian order. Compressed trace files instead start with
+	 * the gzip magic number.
+	 */
+	/* package */ static final int TRACE_FILE_MAGIC = 0xBEEFFEED;
+
+	/** The version of the uncompressed trace file format that we understand (TF_VERSION). */
+	/* package */ static final int TRACE_FILE_VERSION = 1;
+
+	/*
+	 * Each entry in the trace buffer has a corresponding tag to state what
+	 * operation is being traced. See trace_file_format.h (in CaptureFS)
+	 * for details.
+	 */
+
+	/** The end of file has been reached. Note this tag isn't actually stored in the trace file. */
+	/* package */ static final int TRACE_FILE_EOF = -1;
+
+	/** CFS is registering the existence of a source file. */
+	/* package */ static final int TRACE_FILE_REGISTER = 1;
+
+	/** A file has been opened for write. */
+	/* package */ static final int TRACE_FILE_WRITE = 2;
+
+	/** A file has been opened for read. */
+	/* package */ static final int TRACE_FILE_READ = 3;
+
+	/** A file has been opened for update. */
+	/* package */ static final int TRACE_FILE_MODIFY = 4;
+
+	/** A file has been deleted. */
+	/* package */ static final int TRACE_FILE_DELETE = 5;
+
+	/** A file has been renamed. */
+	/* package */ static final int TRACE_FILE_RENAME	= 6;
+
+	/** A new symlink has been created. */
+	/* package */ static final int TRACE_FILE_NEW_LINK = 7;
+
+	/** A new program has been executed. */
+	/* package */ static final int TRACE_FILE_NEW_PROGRAM = 8;
+
+	/** A directory has been opened for write. */
+	/* package */ static final int TRACE_DIR_WRITE = 9;
+
+	/** A directory has been opened for read. */
+	/* package */ static final int TRACE_DIR_READ = 10;
+
+	/** A directory has been opened for update. */
+	/* package */ static final int TRACE_DIR_MODIFY = 11;
+
+	/** A directory has been deleted. */
+	/* package */ static final int TRACE_DIR_DELETE = 12;
+
+	/** A path number has been assigned to a path name. */
+	/* package */ static final int TRACE_PATH_DEFINE = 13;
+
+	/**
+	 * A flag that may be added to the tag of a file or directory access, to indicate
+	 * that the path is given by its path number, rather than its name.
+	 */
+	/* package */ static final int TRACE_BY_PATH_NUMBER = 0x80;
+
+	/*=====================================================================================*
+	 * CONSTRUCTORS
+	 *=====================================================================================*/
+
+	/**
+	 * This class only contains constants, so can't be instantiated.
+	 */
+	private TraceFileFormat() {
+		/* empty */
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
@@ -12,10 +12,13 @@
 
 package com.buildml.scanner.legacy;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.zip.GZIPInputStream;
 
@@ -26,7 +29,6 @@ import com.buildml.model.IFileMgr;
 import com.buildml.model.IFileMgr.PathType;
 import com.buildml.scanner.FatalBuildScannerError;
 import com.buildml.utils.errors.ErrorCode;
-import com.buildml.utils.string.ShellCommandUtils;
 
 /**
  * This class parses the output from a CFS (capture file system)
@@ -38,70 +40,17 @@ import com.buildml.utils.string.ShellCommandUtils;
 /* package */ class TraceFileScanner {
 	
 	/*
-	 * Important note: the content of this file must be kept in sync with the 
-	 * interposer functions in CFS. If any changes are made to the data being
-	 * stored in the trace buffer, the follow methods must also be updated.
+	 * Important note: the trace file is decoded by the TraceFileDecoder class, which
+	 * must be kept in sync with the interposer functions in CFS. If any changes are made
+	 * to the data being stored in the trace buffer, that class must also be updated.
 	 */
 	
 	/*=====================================================================================*
 	 * TYPES/FIELDS
 	 *=====================================================================================*/
 	
-	/* 
-	 * Each entry in the trace buffer has a corresponding tag to state what
-	 * operation is being traced. See trace_file_format.h (in CaptureFS)
-	 * for details.
-	 */
-	
-	/** The end of file has been reached. Note this tag isn't actually stored in the trace file. */
-	private static final int TRACE_FILE_EOF = -1;
-	
-	/** CFS is registering the existence of a source file. */
-	private static final int TRACE_FILE_REGISTER = 1;
-	
-	/** A file has been opened for write. */
-	private static final int TRACE_FILE_WRITE = 2;
-	
-	/** A file has been opened for read. */
-	private static final int TRACE_FILE_READ = 3;
-
-	/** A file has been opened for update. */
-	private static final int TRACE_FILE_MODIFY = 4;
-
-	/** A file has been deleted. */
-	private static final int TRACE_FILE_DELETE = 5;
-	
-	/** A file has been renamed. */
-	private static final int TRACE_FILE_RENAME	= 6;
-	
-	/** A new symlink has been created. */
-	private static final int TRACE_FILE_NEW_LINK = 7;
-	
-	/** A new program has been executed. */
-	private static final int TRACE_FILE_NEW_PROGRAM = 8;
-
-	/** A directory has been opened for write. */
-	private static final int TRACE_DIR_WRITE = 9;
-	
-	/** A directory has been opened for read. */
-	private static final int TRACE_DIR_READ = 10;
-
-	/** A directory has been opened for update. */
-	private static final int TRACE_DIR_MODIFY = 11;
-
-	/** A directory has been deleted. */
-	private static final int TRACE_DIR_DELETE = 12;
-
-	/** 
-	 * When reading data from the trace file, the amount of data we should read each time.
-	 */
-	private static final int readBufferMax = 65536;
-	
-	/** The input stream for reading the trace file. */
-	private InputStream inputStream;
-	
-	/** Tracks the current position within the input stream */
-	private int traceFilePos;
+	/** The decoder that reads and decodes records from the trace file. */
+	private TraceFileDecoder decoder;
 	
 	/** The BuildStore we should add trace file information to (null = don't add to BuildStore). */
 	private IBuildStore buildStore;
@@ -118,18 +67,6 @@ import com.buildml.utils.string.ShellCommandUtils;
 	/** The amount of debug output to provide (0, 1 or 2). */
 	private int debugLevel;
 	
-	/** 
-	 * An in-memory buffer of bytes read from the trace file. This will
-	 * be at most readBufferMax bytes in size.
-	 */
-	private byte[] readBuffer;
-	
-	/** The index of the next byte within readBuffer to be processed. */
-	private int bufferOffset = 0;
-	
-	/** The number of bytes still to be processed from readBuffer. */
-	private int bytesRemaining = 0;
-	
 	/** 
 	 * Mapping between the process numbers that CFS (and the trace file) provides us with
 	 * to the "action ID" numbers that BuildStore uses. As we encounter new processes, and
@@ -137,6 +74,16 @@ import com.buildml.utils.string.ShellCommandUtils;
 	 */
 	private HashMap<Integer, Integer> processToActionMap = null;
 	
+	/**
+	 * For each path index (as assigned by the decoder's TracePathTable), the BuildStore
+	 * path ID of that path, or -1 if the path ID isn't yet known. This saves us from
+	 * looking up the same path name in the BuildStore each time it's accessed.
+	 */
+	private int pathIndexToPathId[] = new int[0];
+	
+	/** For each path index, the type of the path recorded in pathIndexToPathId. */
+	private PathType pathIndexToType[] = new PathType[0];
+	
 	/*=====================================================================================*
 	 * CONSTRUCTORS
 	 *=====================================================================================*/
@@ -175,12 +122,12 @@ import com.buildml.utils.string.ShellCommandUtils;
 		processToActionMap = new HashMap<Integer, Integer>();
 		processToActionMap.put(Integer.valueOf(0), actionMgr.getRootAction("root"));
 		
-		/* set up input stream, and variables for reading it */
-		inputStream = new GZIPInputStream(new FileInputStream(fileName));
-		readBuffer = new byte[readBufferMax];
-		bufferOffset = 0;
-		bytesRemaining = 0;
-		traceFilePos = 0;
+		/* 
+		 * Start decoding the trace file. The environment variables of each new program
+		 * are only of interest when displaying detailed debug output.
+		 */
+		InputStream inputStream = openTraceFile(fileName);
+		decoder = new TraceFileDecoder(inputStream, (debugStream != null) && (debugLevel >= 2));
 	}
 	
 	/*=====================================================================================*
@@ -196,75 +143,86 @@ import com.buildml.utils.string.ShellCommandUtils;
 	 */
 	public void parse() throws IOException {
 		
-		/* we'll do a lot of writing to the database, speed up access in favour of safety. */
-		boolean prevState = buildStore.setFastAccessMode(true);
+		/* 
+		 * We'll do a lot of writing to the database, so make all the changes in a single
+		 * batch, and queue new paths/file-accesses so they can be written in large batches.
+		 * If the trace file can't be fully imported, none of the changes are kept.
+		 */
+		buildStore.beginBatch();
+		boolean prevBulkState = buildStore.setBulkWriteMode(true);
+		boolean completed = false;
 		
-		String fileName = null;
-		boolean eof = false;
-		do {
-			
-			/* all records start with a tag, followed by a process number */
-			int tagTraceFilePos = traceFilePos;
-			int tag = getTag();
-			int processNum = getInt();
-			
-			/* do something different for each tag */
-			switch (tag) {
-			case TRACE_FILE_EOF:
-				eof = true;
-				break;
-				
-			case TRACE_FILE_REGISTER:
-				fileName = getString();
-				debugln(1, "Registered file: " + fileName);
-				break;
-				
-			case TRACE_FILE_WRITE:
-			case TRACE_DIR_WRITE:
-				fileName = getString();
-				addPathAccess(fileName, processNum, OperationType.OP_WRITE,
-						(tag == TRACE_FILE_WRITE) ? PathType.TYPE_FILE : PathType.TYPE_DIR);
-				break;
-
-			case TRACE_FILE_READ:
-			case TRACE_DIR_READ:
-				fileName = getString();
-				addPathAccess(fileName, processNum, OperationType.OP_READ,
-						(tag == TRACE_FILE_READ) ? PathType.TYPE_FILE : PathType.TYPE_DIR);
-				break;
-				
-			case TRACE_FILE_MODIFY:
-			case TRACE_DIR_MODIFY:
-				fileName = getString();
-				addPathAccess(fileName, processNum, OperationType.OP_MODIFIED,
-						(tag == TRACE_FILE_MODIFY) ? PathType.TYPE_FILE : PathType.TYPE_DIR);
-				break;
-				
-			case TRACE_FILE_DELETE:
-			case TRACE_DIR_DELETE:
-				fileName = getString();
-				addPathAccess(fileName, processNum, OperationType.OP_DELETE,
-						(tag == TRACE_FILE_DELETE) ? PathType.TYPE_FILE : PathType.TYPE_DIR);
-				break;
-
-			case TRACE_FILE_RENAME:
-				break;
-
-			case TRACE_FILE_NEW_LINK:
-				break;
+		try {
+			boolean eof = false;
+			do {
+
+				/* 
+				 * Fetch the next record. The decoder reads and decodes the trace file on
+				 * separate threads, so this thread is free to update the BuildStore.
+				 */
+				TraceRecord record = decoder.nextRecord();
+				int tag = record.tag;
+
+				/* do something different for each tag */
+				switch (tag) {
+				case TraceFileFormat.TRACE_FILE_EOF:
+					eof = true;
+					break;
+
+				case TraceFileFormat.TRACE_FILE_REGISTER:
+					debugln(1, "Registered file: " + record.path);
+					break;
+
+				case TraceFileFormat.TRACE_FILE_WRITE:
+				case TraceFileFormat.TRACE_DIR_WRITE:
+					addPathAccess(record, OperationType.OP_WRITE,
+							(tag == TraceFileFormat.TRACE_FILE_WRITE) ? PathType.TYPE_FILE : PathType.TYPE_DIR);
+					break;
+
+				case TraceFileFormat.TRACE_FILE_READ:
+				case TraceFileFormat.TRACE_DIR_READ:
+					addPathAccess(record, OperationType.OP_READ,
+							(tag == TraceFileFormat.TRACE_FILE_READ) ? PathType.TYPE_FILE : PathType.TYPE_DIR);
+					break;
+
+				case TraceFileFormat.TRACE_FILE_MODIFY:
+				case TraceFileFormat.TRACE_DIR_MODIFY:
+					addPathAccess(record, OperationType.OP_MODIFIED,
+							(tag == TraceFileFormat.TRACE_FILE_MODIFY) ? PathType.TYPE_FILE : PathType.TYPE_DIR);
+					break;
+
+				case TraceFileFormat.TRACE_FILE_DELETE:
+				case TraceFileFormat.TRACE_DIR_DELETE:
+					addPathAccess(record, OperationType.OP_DELETE,
+							(tag == TraceFileFormat.TRACE_FILE_DELETE) ? PathType.TYPE_FILE : PathType.TYPE_DIR);
+					break;
+
+				case TraceFileFormat.TRACE_FILE_RENAME:
+					break;
+
+				case TraceFileFormat.TRACE_FILE_NEW_LINK:
+					break;
+
+				case TraceFileFormat.TRACE_FILE_NEW_PROGRAM:
+					addBuildAction(record);
+					break;
+
+				default:
+					throw new FatalBuildScannerError("Invalid tag in trace file: " + tag +
+							" at trace file position " + record.filePos);
+				}
 
-			case TRACE_FILE_NEW_PROGRAM:
-				addBuildAction(processNum);
-				break;
-				
-			default:
-				throw new FatalBuildScannerError("Invalid tag in trace file: " + tag +
-						" at trace file position " + tagTraceFilePos);
+			} while (!eof);
+			completed = true;
+			
+		} finally {
+			if (completed) {
+				buildStore.commitBatch();
+			} else {
+				buildStore.rollbackBatch();
 			}
-				
-		} while (!eof);
-		
-		buildStore.setFastAccessMode(prevState);
+			buildStore.setBulkWriteMode(prevBulkState);
+		}
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -275,7 +233,7 @@ import com.buildml.utils.string.ShellCommandUtils;
 	 * @throws IOException If closing the file fails.
 	 */
 	public void close() throws IOException {
-		inputStream.close();	
+		decoder.close();
 	}
 		
 	/*=====================================================================================*
@@ -283,43 +241,54 @@ import com.buildml.utils.string.ShellCommandUtils;
 	 *=====================================================================================*/
 
 	/**
-	 * Create a new build action in the BuildStore.
+	 * Open a trace file for reading. Compressed trace files are inflated as they're read,
+	 * whereas uncompressed trace files (as written by "cfs -u") are memory-mapped. The
+	 * format is detected by examining the start of the file.
 	 * 
-	 * @param processNum The Unix process ID of the scanned process.
-	 * @throws IOException A problem occurred while reading the trace file.
+	 * @param fileName Name of the trace file to read.
+	 * @return An InputStream that returns the (uncompressed) trace file entries.
+	 * @throws IOException If opening the file fails.
 	 */
-	private void addBuildAction(int processNum) throws IOException {
+	private InputStream openTraceFile(String fileName) throws IOException {
 		
-		/* which process spawned this new process? */
-		int parentProcessNum = getInt();
+		/* read the first few bytes, to determine the file's format */
+		byte header[] = new byte[4];
+		DataInputStream headerStream = new DataInputStream(new FileInputStream(fileName));
+		boolean isUncompressed;
+		try {
+			headerStream.readFully(header);
+			isUncompressed = MappedTraceInputStream.isUncompressedHeader(header);
+		} catch (EOFException e) {
+			isUncompressed = false;
+		} finally {
+			headerStream.close();
+		}
+		
+		if (isUncompressed) {
+			return new MappedTraceInputStream(fileName);
+		}
+		return new GZIPInputStream(new FileInputStream(fileName), 65536);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Create a new build action in the BuildStore.
+	 * 
+	 * @param record The TRACE_FILE_NEW_PROGRAM record read from the trace file.
+	 */
+	private void addBuildAction(TraceRecord record) {
 		
-		/* what was the current working directory for the process */
-		String cwd = getString();
+		int processNum = record.processNum;
+		int parentProcessNum = record.parentProcessNum;
+		String cwd = record.path;
+		String command = record.command;
 		
 		debug(1, "New Process " + processNum + " (parent " + parentProcessNum + 
 				", directory " + cwd + ") - ");
-		
-		/* fetch all the command line arguments */
-		int argCount = getInt();
-		StringBuffer commandArgs = new StringBuffer();
-		boolean first = true;
-		while (argCount-- != 0) {
-			String arg = getString();
-			if (first) {
-				first = false; /* no space separator required */
-			} else {
-				commandArgs.append(' ');  /* put a space between arguments */
-			}
-			String quotedArg = ShellCommandUtils.shellEscapeString(arg);
-			commandArgs.append(quotedArg);
-		}
-		String command = commandArgs.toString();
-		
 		debugln(1, command);
 		debugln(2, "Environment");
-		while (true) {
-			String env = getString();
-			if (env.isEmpty()){ break; }
+		for (String env : record.environment) {
 			debugln(2, " - " + env);
 		}
 		
@@ -385,41 +354,88 @@ import com.buildml.utils.string.ShellCommandUtils;
 	 * Record a file access in the BuildStore, based on a file access that was noted
 	 * in the trace file.
 	 * 
-	 * @param fileName The name of the file that was accessed.
-	 * @param processNum The Unix process ID of the process that did the accessing.
+	 * @param record The trace file record, containing the name of the file that was
+	 *        accessed, and the Unix process ID of the process that did the accessing.
 	 * @param direction The type of access (read, write).
 	 * @param type Is this a file, directory or symlink.
 	 */
-	private void addPathAccess(String fileName, int processNum, OperationType direction, PathType type) {
+	private void addPathAccess(TraceRecord record, OperationType direction, PathType type) {
 
+		String fileName = record.path;
+		int processNum = record.processNum;
+		
 		/* debug output */
-		String opString;
-		switch(direction) {
-		case OP_READ:
-			opString = "reading";
-			break;
-		case OP_WRITE:
-			opString = "writing";
-			break;
-		case OP_MODIFIED:
-			opString="modified";
-			break;
-		case OP_DELETE:
-			opString="deleted";
-			break;
-		default:
-			opString="unknown operation";
-			break;
+		if ((debugStream != null) && (debugLevel >= 1)) {
+			String opString;
+			switch(direction) {
+			case OP_READ:
+				opString = "reading";
+				break;
+			case OP_WRITE:
+				opString = "writing";
+				break;
+			case OP_MODIFIED:
+				opString="modified";
+				break;
+			case OP_DELETE:
+				opString="deleted";
+				break;
+			default:
+				opString="unknown operation";
+				break;
+			}
+			debugln(1, "Process " + processNum + " " + opString + " " +
+					fileName + 
+						" (" + ((type == PathType.TYPE_FILE) ? "File" :
+							(type == PathType.TYPE_DIR) ? "Directory" : "Symlink") + ")");
 		}
-		debugln(1, "Process " + processNum + " " + opString + " " +
-				fileName + 
-					" (" + ((type == PathType.TYPE_FILE) ? "File" :
-						(type == PathType.TYPE_DIR) ? "Directory" : "Symlink") + ")");
 		
 		/* get the BuildStore actionId for the current process */
 		int actionId = getActionId(processNum);
 		
-		/* get the BuildStore fileId */
+		/* get the BuildStore fileId, from our cache if we've seen this path before */
+		int fileId = getCachedPathId(record.pathIndex, type);
+		if (fileId == -1) {
+			fileId = addPath(fileName, type);
+			setCachedPathId(record.pathIndex, type, fileId);
+		}
+		
+		/* add the file access information to the build store */
+		actionMgr.addFileAccess(actionId, fileId, direction);
+		
+		/* 
+		 * Deleting a path may cause it to be moved to the trash, in which case our
+		 * cached path ID is no longer valid.
+		 */
+		if (direction == OperationType.OP_DELETE) {
+			setCachedPathId(record.pathIndex, type, -1);
+		
+			/* 
+			 * If the file we are accessing has been trashed, that's because it was a temporary
+			 * file that's no longer required. Because temporary file names can sometimes be
+			 * reused, we need to permanently empty the trash, otherwise we can't re-add the
+			 * same path. Other path indices may refer to the same (now deleted) path,
+			 * so our whole cache must be discarded.
+			 */
+			if (fileMgr.isPathTrashed(fileId)) {
+				buildStore.emptyTrash();
+				Arrays.fill(pathIndexToPathId, -1);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Add a path to the BuildStore (or find the existing path, if it's already there).
+	 * 
+	 * @param fileName The name of the path.
+	 * @param type Is this a file, directory or symlink.
+	 * @return The path's ID.
+	 * @throws FatalBuildScannerError If the path can't be added.
+	 */
+	private int addPath(String fileName, PathType type) {
+		
 		int fileId;
 		if (type == PathType.TYPE_FILE) {
 			fileId = fileMgr.addFile(fileName);
@@ -442,118 +458,48 @@ import com.buildml.utils.string.ShellCommandUtils;
 			
 			throw new FatalBuildScannerError(msg);
 		}
-		
-		/* add the file access information to the build store */
-		actionMgr.addFileAccess(actionId, fileId, direction);
-		
-		/* 
-		 * If the file we are accessing has been trashed, that's because it was a temporary
-		 * file that's no longer required. Because temporary file names can sometimes be
-		 * reused, we need to permanently empty the trash, otherwise we can't re-add the
-		 * same path.
-		 */
-		if (fileMgr.isPathTrashed(fileId)) {
-			buildStore.emptyTrash();
-		}
+		return fileId;
 	}
-
+	
 	/*-------------------------------------------------------------------------------------*/
 
 	/**
-	 * Read a single byte from the trace file, and return it as an
-	 * integer.
+	 * Fetch the cached BuildStore path ID for a path index.
 	 * 
-	 * @return The byte of data, or TRACE_FILE_EOF (-1) if there's no more data left.
-	 * @throws IOException If anything abnormal happens when reading the data.
+	 * @param pathIndex The path's index, as assigned by the decoder.
+	 * @param type The type of path we're expecting.
+	 * @return The cached path ID, or -1 if there's no cached path ID of the requested type.
 	 */
-	private int getByte() throws IOException {
-		
-		/* if there's no data left in the in-memory buffer, read some more */
-		if (bytesRemaining == 0){
-			bytesRemaining = inputStream.read(readBuffer);
-			bufferOffset = 0;
-		}
-		
-		/* if there are no more bytes in the input stream, inform the caller */
-		if (bytesRemaining == -1) {	
-			return TRACE_FILE_EOF;
+	private int getCachedPathId(int pathIndex, PathType type) {
+		if ((pathIndex >= pathIndexToPathId.length) || (pathIndexToType[pathIndex] != type)) {
+			return -1;
 		}
-		
-		bytesRemaining--;
-		int val = readBuffer[bufferOffset++];
-		
-		/* track the position within the input stream (regardless of buffer location) */
-		traceFilePos++;
-		
-		/* Java doesn't have unsigned bytes, so do the adjustment */
-		if (val < 0) {
-			val += 256;
-		}
-		return val;
+		return pathIndexToPathId[pathIndex];
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
 
 	/**
-	 * Fetch a trace file tag from the trace file.
+	 * Record (or invalidate) the cached BuildStore path ID for a path index.
 	 * 
-	 * @return The next tag in the file (e.g. TRACE_FILE_READ).
-	 * @throws IOException If something fails when reading the file.
+	 * @param pathIndex The path's index, as assigned by the decoder.
+	 * @param type The type of the path.
+	 * @param pathId The path's ID, or -1 to invalidate the cache entry.
 	 */
-	private int getTag() throws IOException {
-		return getByte();
+	private void setCachedPathId(int pathIndex, PathType type, int pathId) {
+		if (pathIndex >= pathIndexToPathId.length) {
+			int oldLength = pathIndexToPathId.length;
+			int newLength = Math.max(pathIndex + 1, oldLength * 2);
+			pathIndexToPathId = Arrays.copyOf(pathIndexToPathId, newLength);
+			pathIndexToType = Arrays.copyOf(pathIndexToType, newLength);
+			Arrays.fill(pathIndexToPathId, oldLength, newLength, -1);
+		}
+		pathIndexToPathId[pathIndex] = pathId;
+		pathIndexToType[pathIndex] = type;
 	}
 
 	/*-------------------------------------------------------------------------------------*/
 
-	/**
-	 * Fetch a NUL-terminated string from the trace file.
-	 * 
-	 * @return The string that was read from the trace file.
-	 * @throws IOException If something fails when reading the file. For example,
-	 * if the EOF is reached before a NUL character is seen.
-	 */
-	private String getString() throws IOException {
-		StringBuffer buf = new StringBuffer(256);
-
-		while (true) {
-			int val = getByte();
-			
-			/* a nul-byte is the end of the C-style string */
-			if (val == 0) {
-				break;
-				
-			/* but if we see an EOF in the middle of the string, error */
-			} else if (val == TRACE_FILE_EOF) {
-				throw new IOException("File appears to be truncated");
-			}
-			buf.append((char)val);
-		} 
-		return buf.toString();
-	}
-	
-	/*-------------------------------------------------------------------------------------*/
-
-	/**
-	 * Fetch a 4-byte little-endian integer from the trace file.
-	 * 
-	 * @return The integer that was read from the trace file.
-	 * @throws IOException If something fails while reading the integer.
-	 */
-	private int getInt() throws IOException {
-		
-		/* TODO: optimize if this ends up being slow */
-		int dig1 = getByte();
-		int dig2 = getByte();
-		int dig3 = getByte();
-		int dig4 = getByte();
-				
-		/* numbers are stored in little-endian order */
-		return (dig4 << 24) | (dig3 << 16) | (dig2 << 8) | dig1;
-	}
-	
-	/*-------------------------------------------------------------------------------------*/
-	
 	/**
 	 * Like println(), but display the message to the debug stream (if defined). Only
 	 * display the message if this message's debug level is less than or equal to the
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and 
+ *        implementation and/or initial documentation
+ *******************************************************************************/ 
+
+package com.buildml.scanner.legacy;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A table of path names that have been read from a CFS trace file. Each distinct path
+ * name is assigned a small "path index" (0, 1, 2, ...), which allows the TraceFileScanner
+ * to cache information about the path, rather than repeatedly looking it up in
+ * the BuildStore.
+ * <p>
+ * Path names are looked up by their raw bytes, directly from the trace file's data
+ * buffer. A new String is only created the first time each distinct path is seen, so
+ * repeated paths (for example, commonly used header files) don't create any garbage.
+ * <p>
+ * This class is not thread-safe. It's only updated by the TraceFileDecoder's decoder
+ * thread.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package */ class TracePathTable {
+
+	/*=====================================================================================*
+	 * TYPES/FIELDS
+	 *=====================================================================================*/
+
+	/** Strings in the trace file are single-byte characters. */
+	private static final Charset TRACE_CHARSET = Charset.forName("ISO-8859-1");
+
+	/** The initial number of paths the table can hold, before it must grow. */
+	private static final int INITIAL_CAPACITY = 4096;
+
+	/** The raw bytes of all path names, stored end-to-end. */
+	private byte pathBytes[] = new byte[INITIAL_CAPACITY * 64];
+
+	/** The number of bytes in pathBytes[] that are in use. */
+	private int pathBytesUsed = 0;
+
+	/** For each path index, the offset of the path's bytes within pathBytes[]. */
+	private int pathOffsets[] = new int[INITIAL_CAPACITY];
+
+	/** For each path index, the number of bytes in the path. */
+	private int pathLengths[] = new int[INITIAL_CAPACITY];
+
+	/** For each path index, the path's hash code. */
+	private int pathHashes[] = new int[INITIAL_CAPACITY];
+
+	/** For each path index, the path name as a String. */
+	private String pathStrings[] = new String[INITIAL_CAPACITY];
+
+	/** The number of paths in the table. */
+	private int pathCount = 0;
+
+	/**
+	 * An open-addressing hash table, mapping from a path's hash code to the path
+	 * index (or -1 for an empty slot). The size is always a power of two, and is
+	 * kept at least twice the number of paths.
+	 */
+	private int hashTable[];
+
+	/*=====================================================================================*
+	 * CONSTRUCTORS
+	 *=====================================================================================*/
+
+	/**
+	 * Create a new (empty) TracePathTable.
+	 */
+	/* package */ TracePathTable() {
+		hashTable = new int[INITIAL_CAPACITY * 2];
+		Arrays.fill(hashTable, -1);
+	}
+
+	/*=====================================================================================*
+	 * PUBLIC METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Look up a path name in the table, adding it if it's not already present.
+	 *
+	 * @param data The array of bytes containing the path name.
+	 * @param start The offset of the path name's first byte.
+	 * @param length The number of bytes in the path name.
+	 * @return The path's index in the table.
+	 */
+	public int intern(byte data[], int start, int length) {
+
+		/* compute the hash code of the raw bytes */
+		int hash = 0;
+		int end = start + length;
+		for (int i = start; i != end; i++) {
+			hash = (31 * hash) + data[i];
+		}
+		hash ^= (hash >>> 16);
+
+		/* search the hash table, stopping at the first empty slot */
+		int mask = hashTable.length - 1;
+		int slot = hash & mask;
+		while (true) {
+			int index = hashTable[slot];
+			if (index == -1) {
+				break;
+			}
+			if ((pathHashes[index] == hash) && (pathLengths[index] == length) &&
+					bytesEqual(data, start, pathOffsets[index], length)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		/* not found - add a new path */
+		if (pathCount == pathOffsets.length) {
+			int newCapacity = pathCount * 2;
+			pathOffsets = Arrays.copyOf(pathOffsets, newCapacity);
+			pathLengths = Arrays.copyOf(pathLengths, newCapacity);
+			pathHashes = Arrays.copyOf(pathHashes, newCapacity);
+			pathStrings = Arrays.copyOf(pathStrings, newCapacity);
+		}
+		if (pathBytesUsed + length > pathBytes.length) {
+			pathBytes = Arrays.copyOf(pathBytes, Math.max(pathBytes.length * 2, pathBytesUsed + length));
+		}
+		System.arraycopy(data, start, pathBytes, pathBytesUsed, length);
+
+		int index = pathCount++;
+		pathOffsets[index] = pathBytesUsed;
+		pathLengths[index] = length;
+		pathHashes[index] = hash;
+		pathStrings[index] = new String(data, start, length, TRACE_CHARSET);
+		pathBytesUsed += length;
+		hashTable[slot] = index;
+
+		/* keep the hash table sparse, so that searches are short */
+		if (pathCount * 2 > hashTable.length) {
+			rehash();
+		}
+		return index;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Fetch a path name, given its index in the table.
+	 *
+	 * @param index The path's index, as returned by intern().
+	 * @return The path name.
+	 */
+	public String getPath(int index) {
+		return pathStrings[index];
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return The number of distinct paths in the table.
+	 */
+	public int size() {
+		return pathCount;
+	}
+
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Compare a sequence of bytes against a path that's already in the table.
+	 *
+	 * @param data The array of bytes to compare.
+	 * @param start The offset within data[] of the first byte.
+	 * @param offset The offset within pathBytes[] of the existing path.
+	 * @param length The number of bytes to compare.
+	 * @return True if the bytes are identical.
+	 */
+	private boolean bytesEqual(byte data[], int start, int offset, int length) {
+		for (int i = 0; i != length; i++) {
+			if (data[start + i] != pathBytes[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Double the size of the hash table, and reinsert all the paths.
+	 */
+	private void rehash() {
+		hashTable = new int[hashTable.length * 2];
+		Arrays.fill(hashTable, -1);
+		int mask = hashTable.length - 1;
+		for (int index = 0; index != pathCount; index++) {
+			int slot = pathHashes[index] & mask;
+			while (hashTable[slot] != -1) {
+				slot = (slot + 1) & mask;
+			}
+			hashTable[slot] = index;
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
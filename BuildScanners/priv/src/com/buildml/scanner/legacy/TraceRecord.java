@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and 
+ *        implementation and/or initial documentation
+ *******************************************************************************/ 
+
+package com.buildml.scanner.legacy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single decoded record from a CFS trace file. TraceRecord objects are produced by
+ * the TraceFileDecoder, and are recycled once they've been consumed, so the fields
+ * are only valid until the next record is requested.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package */ class TraceRecord {
+
+	/*=====================================================================================*
+	 * TYPES/FIELDS
+	 *=====================================================================================*/
+
+	/** The record's tag (for example, TraceFileFormat.TRACE_FILE_READ). */
+	int tag;
+
+	/** The position of the record's tag within the (uncompressed) trace file. */
+	long filePos;
+
+	/** The CFS process number that the record relates to. */
+	int processNum;
+
+	/**
+	 * For file and directory records, the path name. For TRACE_FILE_NEW_PROGRAM,
+	 * the process's current working directory.
+	 */
+	String path;
+
+	/**
+	 * The index of "path" within the decoder's TracePathTable. Records with the same
+	 * path name always have the same path index.
+	 */
+	int pathIndex;
+
+	/** For TRACE_FILE_NEW_PROGRAM, the CFS process number of the parent process. */
+	int parentProcessNum;
+
+	/** For TRACE_FILE_NEW_PROGRAM, the (shell-escaped) command line arguments. */
+	String command;
+
+	/**
+	 * For TRACE_FILE_NEW_PROGRAM, the process's environment variables. This is only
+	 * populated if the decoder was asked to retain environment information.
+	 */
+	List<String> environment = new ArrayList<String>();
+
+	/*-------------------------------------------------------------------------------------*/
+}
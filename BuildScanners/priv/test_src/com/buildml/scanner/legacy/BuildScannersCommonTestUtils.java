@@ -88,6 +88,23 @@ public class BuildScannersCommonTestUtils {
 	 * @throws Exception Something bad happened
 	 */
 	public static IBuildStore parseLegacyProgram(File tmpDir, String program, String args[]) throws Exception {
+		return parseLegacyProgram(tmpDir, program, args, true);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+	
+	/**
+	 * Same as parseLegacyProgram(File, String, String[]), but with control over whether
+	 * the intermediate trace file is compressed.
+	 * @param tmpDir The directory into which temporary files should be placed.
+	 * @param program The entire body of the C program to be compiled/executed/scanned.
+	 * @param args The command line arguments for the program
+	 * @param compress True if the trace file (tmpDir/cfs.trace) should be compressed.
+	 * @return The BuildStore created by scanning the program
+	 * @throws Exception Something bad happened
+	 */
+	public static IBuildStore parseLegacyProgram(File tmpDir, String program, String args[],
+			boolean compress) throws Exception {
 		
 		/* our return value */
 		IBuildStore bs = null;
@@ -98,7 +115,7 @@ public class BuildScannersCommonTestUtils {
 		 * Invoke the legacy build scanner to create a trace the file
 		 */
 		LegacyBuildScanner lbs = new LegacyBuildScanner();
-		lbs.setTraceFile(tmpDir + "/cfs.trace");
+		lbs.setTraceFile(tmpDir + "/cfs.trace", compress);
 
 		/* set this to 1 or 2 for more debug information */
 		String debugLevelString = System.getenv("CFS_DEBUG");
@@ -14,12 +14,21 @@ package com.buildml.scanner.legacy;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
 
 import org.junit.Test;
 
 import com.buildml.model.CommonTestUtils;
+import com.buildml.model.IActionMgr;
+import com.buildml.model.IActionMgr.OperationType;
 import com.buildml.model.IBuildStore;
+import com.buildml.model.IFileMgr;
+import com.buildml.utils.os.SystemUtils;
 import com.buildml.scanner.legacy.LegacyBuildScanner;
 
 /**
@@ -56,6 +65,14 @@ public class TestLegacyBuildScanner {
 		/* set the default again */
 		buildScanner.setTraceFile(null);
 		assertEquals("cfs.trace", buildScanner.getTraceFile());
+		
+		/* by default, the trace file is compressed */
+		assertTrue(buildScanner.isTraceFileCompressed());
+		buildScanner.setTraceFile("uncompressed.trace", false);
+		assertEquals("uncompressed.trace", buildScanner.getTraceFile());
+		assertFalse(buildScanner.isTraceFileCompressed());
+		buildScanner.setTraceFile("compressed.trace");
+		assertTrue(buildScanner.isTraceFileCompressed());
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -122,5 +139,55 @@ public class TestLegacyBuildScanner {
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that an uncompressed trace file can be generated, and then parsed (with the
+	 * format being detected automatically).
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testUncompressedTraceFile() throws Exception {
+		
+		File tmpDir = SystemUtils.createTempDir();
+		try {
+			IBuildStore bs = BuildScannersCommonTestUtils.parseLegacyProgram(tmpDir,
+					"#include <stdio.h>\n" +
+					"int main() {" +
+					"  fclose(fopen(\"" + tmpDir + "/test-file1\", \"w\"));" +
+					"  fclose(fopen(\"/etc/passwd\", \"r\"));" +
+					"  return 0;" +
+					"}", null, false);
+			
+			/* the trace file should start with the (little-endian) TF_MAGIC number */
+			byte header[] = new byte[4];
+			FileInputStream in = new FileInputStream(tmpDir + "/cfs.trace");
+			assertEquals(4, in.read(header));
+			in.close();
+			assertTrue(MappedTraceInputStream.isUncompressedHeader(header));
+			
+			/* the program's file accesses should have been recorded */
+			IActionMgr actionMgr = bs.getActionMgr();
+			IFileMgr fileMgr = bs.getFileMgr();
+			Integer childActions[] = actionMgr.getChildren(actionMgr.getRootAction("root"));
+			assertEquals(1, childActions.length);
+			Integer fileWrites[] = actionMgr.getFilesAccessed(childActions[0], OperationType.OP_WRITE);
+			assertEquals(1, fileWrites.length);
+			assertEquals(fileMgr.getPath(tmpDir + "/test-file1"), fileWrites[0].intValue());
+			Integer fileReads[] = actionMgr.getFilesAccessed(childActions[0], OperationType.OP_READ);
+			boolean foundPasswd = false;
+			for (Integer fileId : fileReads) {
+				if (fileId == fileMgr.getPath("/etc/passwd")) {
+					foundPasswd = true;
+				}
+			}
+			assertTrue(foundPasswd);
+			bs.close();
+			
+		} finally {
+			SystemUtils.deleteDirectory(tmpDir);
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
 	
 }
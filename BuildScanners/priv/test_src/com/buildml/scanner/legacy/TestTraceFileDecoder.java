@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and 
+ *        implementation and/or initial documentation
+ *******************************************************************************/ 
+
+package com.buildml.scanner.legacy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.buildml.scanner.FatalBuildScannerError;
+
+/**
+ * Test methods for validating the TraceFileDecoder class. Rather than running CFS,
+ * these tests construct the trace file content directly.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+public class TestTraceFileDecoder {
+
+	/*=====================================================================================*
+	 * HELPER METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Append a tag and process number to a trace file under construction.
+	 */
+	private void putHeader(ByteArrayOutputStream out, int tag, int processNum) {
+		out.write(tag);
+		putInt(out, processNum);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Append a 4-byte little-endian integer to a trace file under construction.
+	 */
+	private void putInt(ByteArrayOutputStream out, int value) {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+		out.write((value >> 16) & 0xff);
+		out.write((value >> 24) & 0xff);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Append a NUL-terminated string to a trace file under construction.
+	 */
+	private void putString(ByteArrayOutputStream out, String value) {
+		byte bytes[] = value.getBytes();
+		out.write(bytes, 0, bytes.length);
+		out.write(0);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Create a TraceFileDecoder that reads from the content of a trace file under
+	 * construction.
+	 */
+	private TraceFileDecoder getDecoder(ByteArrayOutputStream out) {
+		return new TraceFileDecoder(new ByteArrayInputStream(out.toByteArray()), true);
+	}
+
+	/*=====================================================================================*
+	 * TEST METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Test decoding of a large number of records, which will span many blocks
+	 * and batches.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testManyRecords() throws Exception {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		putHeader(out, TraceFileFormat.TRACE_FILE_NEW_PROGRAM, 1);
+		putInt(out, 0);
+		putString(out, "/home/psmith/src");
+		putInt(out, 3);
+		putString(out, "gcc");
+		putString(out, "-c");
+		putString(out, "my file.c");
+		putString(out, "PATH=/bin");
+		putString(out, "HOME=/home/psmith");
+		putString(out, "");
+
+		final int numRecords = 100000;
+		for (int i = 0; i != numRecords; i++) {
+			putHeader(out, (i % 2 == 0) ? TraceFileFormat.TRACE_FILE_READ :
+				TraceFileFormat.TRACE_DIR_WRITE, i);
+			putString(out, "/home/psmith/src/dir" + (i % 100) + "/file" + i + ".c");
+		}
+
+		TraceFileDecoder decoder = getDecoder(out);
+
+		/* the first record describes a new program */
+		TraceRecord record = decoder.nextRecord();
+		assertEquals(TraceFileFormat.TRACE_FILE_NEW_PROGRAM, record.tag);
+		assertEquals(1, record.processNum);
+		assertEquals(0, record.parentProcessNum);
+		assertEquals("/home/psmith/src", record.path);
+		assertEquals("gcc -c 'my file.c'", record.command);
+		assertEquals(2, record.environment.size());
+		assertEquals("HOME=/home/psmith", record.environment.get(1));
+
+		/* then all the path accesses, in order */
+		for (int i = 0; i != numRecords; i++) {
+			record = decoder.nextRecord();
+			assertEquals((i % 2 == 0) ? TraceFileFormat.TRACE_FILE_READ :
+				TraceFileFormat.TRACE_DIR_WRITE, record.tag);
+			assertEquals(i, record.processNum);
+			assertEquals("/home/psmith/src/dir" + (i % 100) + "/file" + i + ".c", record.path);
+		}
+
+		/* the end of file is reported (repeatedly) */
+		assertEquals(TraceFileFormat.TRACE_FILE_EOF, decoder.nextRecord().tag);
+		assertEquals(TraceFileFormat.TRACE_FILE_EOF, decoder.nextRecord().tag);
+		decoder.close();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test decoding of a record that's larger than the decoder's default block size.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testLargeRecord() throws Exception {
+
+		StringBuffer longPath = new StringBuffer();
+		while (longPath.length() < 1024 * 1024) {
+			longPath.append("/abcdefghijklmnopqrstuvwxyz");
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		putHeader(out, TraceFileFormat.TRACE_FILE_WRITE, 5);
+		putString(out, "/a");
+		putHeader(out, TraceFileFormat.TRACE_FILE_WRITE, 6);
+		putString(out, longPath.toString());
+		putHeader(out, TraceFileFormat.TRACE_FILE_DELETE, 7);
+		putString(out, "/b");
+
+		TraceFileDecoder decoder = getDecoder(out);
+		assertEquals("/a", decoder.nextRecord().path);
+		TraceRecord record = decoder.nextRecord();
+		assertEquals(6, record.processNum);
+		assertEquals(longPath.toString(), record.path);
+		record = decoder.nextRecord();
+		assertEquals(TraceFileFormat.TRACE_FILE_DELETE, record.tag);
+		assertEquals("/b", record.path);
+		assertEquals(TraceFileFormat.TRACE_FILE_EOF, decoder.nextRecord().tag);
+		decoder.close();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that repeated path names are assigned the same path index, and share the
+	 * same String.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testPathInterning() throws Exception {
+
+		final int numPaths = 10000;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int pass = 0; pass != 3; pass++) {
+			for (int i = 0; i != numPaths; i++) {
+				putHeader(out, TraceFileFormat.TRACE_FILE_READ, pass);
+				putString(out, "/usr/include/header" + i + ".h");
+			}
+		}
+
+		TraceFileDecoder decoder = getDecoder(out);
+		String firstPass[] = new String[numPaths];
+		int firstPassIndex[] = new int[numPaths];
+		for (int i = 0; i != numPaths; i++) {
+			TraceRecord record = decoder.nextRecord();
+			assertEquals("/usr/include/header" + i + ".h", record.path);
+			firstPass[i] = record.path;
+			firstPassIndex[i] = record.pathIndex;
+			assertTrue(record.pathIndex < numPaths);
+		}
+		for (int pass = 1; pass != 3; pass++) {
+			for (int i = 0; i != numPaths; i++) {
+				TraceRecord record = decoder.nextRecord();
+				assertEquals(pass, record.processNum);
+				assertEquals(firstPassIndex[i], record.pathIndex);
+				assertSame(firstPass[i], record.path);
+			}
+		}
+		assertEquals(TraceFileFormat.TRACE_FILE_EOF, decoder.nextRecord().tag);
+		decoder.close();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that accesses can refer to paths by path number, once the path number has
+	 * been defined.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testPathNumbers() throws Exception {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		putHeader(out, TraceFileFormat.TRACE_PATH_DEFINE, 1);
+		putInt(out, 0);
+		putString(out, "/usr/include/stdio.h");
+		putHeader(out, TraceFileFormat.TRACE_FILE_READ | TraceFileFormat.TRACE_BY_PATH_NUMBER, 1);
+		putInt(out, 0);
+		putHeader(out, TraceFileFormat.TRACE_FILE_READ, 2);
+		putString(out, "/usr/include/stdio.h");
+
+		/* a large path number, defined by a different process */
+		putHeader(out, TraceFileFormat.TRACE_PATH_DEFINE, 2);
+		putInt(out, 5000);
+		putString(out, "/home/psmith/src/obj");
+		putHeader(out, TraceFileFormat.TRACE_DIR_DELETE | TraceFileFormat.TRACE_BY_PATH_NUMBER, 2);
+		putInt(out, 5000);
+		putHeader(out, TraceFileFormat.TRACE_FILE_WRITE | TraceFileFormat.TRACE_BY_PATH_NUMBER, 3);
+		putInt(out, 0);
+
+		/* the path definitions aren't returned, but the accesses refer to the paths */
+		TraceFileDecoder decoder = getDecoder(out);
+		TraceRecord record = decoder.nextRecord();
+		assertEquals(TraceFileFormat.TRACE_FILE_READ, record.tag);
+		assertEquals(1, record.processNum);
+		assertEquals("/usr/include/stdio.h", record.path);
+		int stdioIndex = record.pathIndex;
+		record = decoder.nextRecord();
+		assertEquals(TraceFileFormat.TRACE_FILE_READ, record.tag);
+		assertEquals(2, record.processNum);
+		assertEquals(stdioIndex, record.pathIndex);
+		record = decoder.nextRecord();
+		assertEquals(TraceFileFormat.TRACE_DIR_DELETE, record.tag);
+		assertEquals("/home/psmith/src/obj", record.path);
+		record = decoder.nextRecord();
+		assertEquals(TraceFileFormat.TRACE_FILE_WRITE, record.tag);
+		assertEquals(3, record.processNum);
+		assertEquals(stdioIndex, record.pathIndex);
+		assertEquals(TraceFileFormat.TRACE_FILE_EOF, decoder.nextRecord().tag);
+		decoder.close();
+
+		/* a path number that hasn't been defined is an error */
+		out = new ByteArrayOutputStream();
+		putHeader(out, TraceFileFormat.TRACE_FILE_READ, 1);
+		putString(out, "/a");
+		putHeader(out, TraceFileFormat.TRACE_FILE_READ | TraceFileFormat.TRACE_BY_PATH_NUMBER, 1);
+		putInt(out, 7);
+
+		decoder = getDecoder(out);
+		assertEquals("/a", decoder.nextRecord().path);
+		try {
+			decoder.nextRecord();
+			fail("Undefined path number not detected");
+		} catch (FatalBuildScannerError e) {
+			assertEquals("Undefined path number in trace file: 7 at trace file position 8", e.getMessage());
+		}
+		decoder.close();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that a truncated trace file, or a trace file with an invalid tag, is reported
+	 * only after all the preceding records have been returned.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testInvalidTraceFile() throws Exception {
+
+		/* a path name that's missing its NUL terminator */
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		putHeader(out, TraceFileFormat.TRACE_FILE_READ, 1);
+		putString(out, "/a");
+		putHeader(out, TraceFileFormat.TRACE_FILE_READ, 1);
+		out.write('/');
+
+		TraceFileDecoder decoder = getDecoder(out);
+		assertEquals("/a", decoder.nextRecord().path);
+		try {
+			decoder.nextRecord();
+			fail("Truncated trace file not detected");
+		} catch (IOException e) {
+			assertEquals("File appears to be truncated", e.getMessage());
+		}
+		decoder.close();
+
+		/* a record with an invalid tag */
+		out = new ByteArrayOutputStream();
+		putHeader(out, TraceFileFormat.TRACE_FILE_READ, 1);
+		putString(out, "/a");
+		putHeader(out, 99, 1);
+		putString(out, "/b");
+
+		decoder = getDecoder(out);
+		assertEquals("/a", decoder.nextRecord().path);
+		try {
+			decoder.nextRecord();
+			fail("Invalid tag not detected");
+		} catch (FatalBuildScannerError e) {
+			assertEquals("Invalid tag in trace file: 99 at trace file position 8", e.getMessage());
+		}
+		decoder.close();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
@@ -12,6 +12,8 @@
 
 package com.buildml.model;
 
+import com.buildml.utils.types.IIntConsumer;
+
 /**
  * The interface conformed-to by any ActionMgr object, which represents a
  * subset of the functionality managed by a BuildStore object. An ActionMgr
@@ -141,6 +143,18 @@ public interface IActionMgr {
 	 */
 	public abstract Integer[] getFilesAccessed(int actionId,
 			OperationType operation);
+
+	/**
+	 * Similar to getFilesAccessed(int, OperationType), but pass each file ID to the
+	 * consumer as it's read from the database, rather than returning an array.
+	 * 
+	 * @param actionId The build action that accessed the files.
+	 * @param operation The type of operation we're interested in (such as OP_READ,
+	 *    OP_WRITE, or OP_UNSPECIFIED if you don't care).
+	 * @param consumer The object that receives each file ID.
+	 */
+	public abstract void getFilesAccessed(int actionId, OperationType operation,
+			IIntConsumer consumer);
 	
 	/**
 	 * Return an array of files that were access by this set of actions, including
@@ -163,6 +177,18 @@ public interface IActionMgr {
 	public abstract Integer[] getActionsThatAccess(int fileId,
 			OperationType operation);
 
+	/**
+	 * Similar to getActionsThatAccess(int, OperationType), but pass each action ID to the
+	 * consumer as it's read from the database, rather than returning an array.
+	 * 
+	 * @param fileId The file we're interested in querying for.
+	 * @param operation The operation that the actions perform on this file (such as OP_READ,
+	 *    OP_WRITE, or OP_UNSPECIFIED if you don't care).
+	 * @param consumer The object that receives each action ID.
+	 */
+	public abstract void getActionsThatAccess(int fileId, OperationType operation,
+			IIntConsumer consumer);
+
 	/**
 	 * Remove all file-access information between the specified action and path. If there
 	 * is no pre-existing relationship between the action and path, no change is made.
@@ -210,6 +236,15 @@ public interface IActionMgr {
 	 */
 	public abstract Integer[] getChildren(int actionId);
 
+	/**
+	 * Similar to getChildren(int), but pass each child action ID to the consumer as
+	 * it's read from the database, rather than returning an array.
+	 * 
+	 * @param actionId The parent action of the children to be reported.
+	 * @param consumer The object that receives each child action ID.
+	 */
+	public abstract void getChildren(int actionId, IIntConsumer consumer);
+
 	/**
 	 * Return the ID of the action with the associated root name.
 	 * 
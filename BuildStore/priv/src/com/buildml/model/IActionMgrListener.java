@@ -25,13 +25,24 @@ public interface IActionMgrListener {
 	
 	/** one of the actions has been trashed (or revived) */
 	public static final int TRASHED_ACTION = 2;
+	
+	/** the operation of one of the action's file-accesses has changed */
+	public static final int CHANGED_FILE_ACCESS = 3;
+	
+	/** a new file-access has been added to the action */
+	public static final int NEW_FILE_ACCESS = 4;
+	
+	/** one of the action's file-accesses has been removed */
+	public static final int REMOVED_FILE_ACCESS = 5;
 
 	/**
 	 * Called to notify the listener that the specified action has changed.
 	 * 
 	 * @param actionId  The ActionMgr ID of the action that has changed.
 	 * @param how       An indication of how the action has changed (see above).
-	 * @param changeId  Which thing has changed (CHANGED_SLOT).
+	 * @param changeId  Which thing has changed (the slot ID for CHANGED_SLOT, or the
+	 *                  file ID for CHANGED_FILE_ACCESS, NEW_FILE_ACCESS and 
+	 *                  REMOVED_FILE_ACCESS).
 	 */
 	public void actionChangeNotification(int actionId, int how, int changeId);
 }
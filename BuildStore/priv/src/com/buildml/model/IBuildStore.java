@@ -128,17 +128,41 @@ public interface IBuildStore {
 	public abstract ISubPackageMgr getSubPackageMgr();
 	
 	/**
-	 * Specify whether database access should be fast (true) or safe (false). Fast
-	 * access is considerably faster than safe access, but won't ensure that
-	 * changes are written to the disk. Only use fast access for long-running
-	 * write operations that would otherwise be too slow in "safe" mode. Always
-	 * be sure to disable fast-access to ensure that changes are eventually
-	 * written to disk.
+	 * Start a batch of changes. None of the changes made to this BuildStore are committed
+	 * to the database until the matching call to commitBatch(). Batching changes is
+	 * considerably faster than committing each change individually, so any operation
+	 * that makes many changes (such as a scan or a refactoring) should be done within
+	 * a batch. Batches may be nested, in which case only the outermost batch commits.
+	 * Every call to beginBatch() must be matched by a call to commitBatch() or
+	 * rollbackBatch().
+	 */
+	public abstract void beginBatch();
+	
+	/**
+	 * Finish the current batch of changes. If this is the outermost batch, the changes
+	 * are committed to the database (unless a nested batch was rolled back).
+	 */
+	public abstract void commitBatch();
+	
+	/**
+	 * Finish the current batch of changes, discarding the changes. Partial rollback isn't
+	 * supported, so if this is a nested batch, all the changes made since the outermost
+	 * call to beginBatch() are discarded when the outermost batch finishes.
+	 */
+	public abstract void rollbackBatch();
+
+	/**
+	 * Specify whether new paths and file-accesses should be queued in memory and written
+	 * to the database in large batches (true), or written immediately (false). Bulk write
+	 * mode is intended for importing large amounts of data, such as when scanning a
+	 * build trace. Queued data is automatically written before any other database
+	 * query is performed, so all BuildStore methods continue to return correct results.
+	 * Always be sure to disable bulk write mode when the import is complete.
 	 * 
-	 * @param fast Set to true to enable fast access, or false for safe access.
-	 * @return The previous state of fast access mode (before this call was made).
+	 * @param bulk Set to true to enable bulk write mode, or false to disable it.
+	 * @return The previous state of bulk write mode (before this call was made).
 	 */
-	public abstract boolean setFastAccessMode(boolean fast);
+	public abstract boolean setBulkWriteMode(boolean bulk);
 
 	/**
 	 * Close the BuildStore, and release any resources associated with it.
@@ -12,6 +12,8 @@
 
 package com.buildml.model;
 
+import com.buildml.utils.types.IIntConsumer;
+
 /**
  * The interface conformed-to by any FileMgr object, which represents a
  * subset of the functionality managed by a BuildStore object. A FileMgr
@@ -19,6 +21,12 @@ package com.buildml.model;
  * <p>
  * There should be exactly one FileMgr object per BuildStore object. Use the
  * BuildStore's getFileMgr() method to obtain that one instance.
+ * <p>
+ * Queries may be made by multiple threads at the same time. Each thread of a BuildStore
+ * that's held in a disk file normally has its own database connection. However, while
+ * the BuildStore has uncommitted changes (within a batch), or if it's held in memory,
+ * all threads share a single connection. In that case, queries are only safe while no
+ * other thread is modifying the BuildStore.
  * 
  * @author Peter Smith <psmith@arapiki.com>
  */
@@ -104,6 +112,17 @@ public interface IFileMgr {
 	 */
 	public abstract int getPath(String fullPathName);
 
+	/**
+	 * Retrieve the ID of each of the specified paths. This is equivalent to calling 
+	 * getPath() for each of the path names, but is faster for large numbers of paths,
+	 * since the work of looking up a directory is shared by all the paths within it.
+	 * 
+	 * @param fullPathNames The full absolute path names to search for.
+	 * @return An array of path IDs, one for each element of fullPathNames. An element
+	 * will be ErrorCode.BAD_PATH if the corresponding path doesn't exist.
+	 */
+	public abstract int[] getPaths(String fullPathNames[]);
+
 	/**
 	 * Given a path ID, return a String containing the full path name, possibly
 	 * including root names.
@@ -140,6 +159,27 @@ public interface IFileMgr {
 	 */
 	public abstract String getPathName(int pathId);
 
+	/**
+	 * Given an array of path IDs, return the corresponding path names. This is equivalent
+	 * to calling getPathName(int, boolean) for each path, but is faster for large numbers
+	 * of paths, since the names of shared parent directories are only computed once, and
+	 * package information is fetched for all the paths at once.
+	 * 
+	 * @param pathIds The IDs of the paths to be displayed.
+	 * @param showRoots Whether to show root names in the path names.
+	 * @return An array of path names, one for each element of pathIds. An element will
+	 * be null if the corresponding path ID is invalid.
+	 */
+	public abstract String[] getPathNames(int pathIds[], boolean showRoots);
+
+	/**
+	 * Similar to getPathNames(int[], boolean), but don't show root names.
+	 * 
+	 * @param pathIds The IDs of the paths to be displayed.
+	 * @return An array of path names, one for each element of pathIds.
+	 */
+	public abstract String[] getPathNames(int pathIds[]);
+
 	/**
 	 * Fetch the base name of this path. For example, if the path represents "a/b/c/d", then 
 	 * return "d". If the pathId is invalid, return null.
@@ -187,6 +227,17 @@ public interface IFileMgr {
 	 */
 	public abstract Integer[] getChildPaths(int pathId);
 
+	/**
+	 * Similar to getChildPaths(int), but pass each child path ID to the consumer as
+	 * it's read from the database, rather than returning an array. This is better suited
+	 * to directories with a large number of children.
+	 * 
+	 * @param pathId The ID of the parent path.
+	 * @param consumer The object that receives each child path ID (in the same order
+	 * as getChildPaths(int) would return them).
+	 */
+	public abstract void getChildPaths(int pathId, IIntConsumer consumer);
+
 	/**
 	 * For the specified pathId, return the corresponding native path (on the underlying
 	 * file system), which is relevant for accessing files on the current build machine.
@@ -238,7 +289,30 @@ public interface IFileMgr {
 	 * @return True if the directory is an ancestor of the path.
 	 */
 	public abstract boolean isAncestorOf(int directoryId, int pathId);
-	
+
+	/**
+	 * Return the IDs of a path, and of all the paths below it in the tree (if the path is
+	 * a directory). Trashed paths are not included. This is equivalent to recursively
+	 * calling getChildPaths(), but is much faster for large directory hierarchies.
+	 * 
+	 * @param pathId The ID of the top-most path.
+	 * @return The IDs of the path and all of its descendants, in no particular order.
+	 */
+	public abstract int[] getSubTreePaths(int pathId);
+
+	/**
+	 * Specify whether the complete tree of paths should be held in memory (true), or
+	 * whether paths should be read from the database as they're needed (false). A resident
+	 * path tree makes path name lookups (in both directions) much faster, at the cost of
+	 * loading every path, and of the memory required to hold them. The paths are only
+	 * loaded when a lookup first needs them, so there's no cost if no paths are looked up.
+	 * This is best enabled immediately after the BuildStore is opened.
+	 *
+	 * @param resident True to hold the path tree in memory, or false to release it.
+	 * @return The previous "resident" state (before this call was made).
+	 */
+	public abstract boolean setPathTreeResident(boolean resident);
+
 	/**
 	 * Returns a reference to this FileMgr's BuildStore object. 
 	 * @return A reference to this FileMgr's BuildStore object.
@@ -156,6 +156,18 @@ public interface IPackageMemberMgr {
 	 * @return The PackageDesc, or null if any error occurs.
 	 */
 	public abstract PackageDesc getPackageOfMember(int memberType, int memberId);
+
+	/**
+	 * Obtain the PackageDesc (package and scope) for each of the specified members. This
+	 * is equivalent to calling getPackageOfMember() for each member, but is much faster
+	 * for large numbers of members.
+	 * 
+	 * @param memberType 	The type of the members to query (MEMBER_TYPE_FILE, etc).
+	 * @param memberIds		The IDs of the members (as defined in fileMgr, actionMgr, etc).
+	 * @return An array of PackageDesc, one for each element of memberIds. An element
+	 * will be null if the corresponding member isn't defined.
+	 */
+	public abstract PackageDesc[] getPackagesOfMembers(int memberType, int memberIds[]);
 	
 	/**
 	 * Retrieve the list of members in a specific package.
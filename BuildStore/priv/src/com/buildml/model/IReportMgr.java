@@ -17,6 +17,7 @@ import com.buildml.model.types.FileRecord;
 import com.buildml.model.types.FileSet;
 import com.buildml.model.types.PackageSet;
 import com.buildml.model.types.ActionSet;
+import com.buildml.utils.types.IIntConsumer;
 
 /**
  * The interface conformed-to by any ReportMgr object, which represents a
@@ -26,6 +27,11 @@ import com.buildml.model.types.ActionSet;
  * <p>
  * There should be exactly one ReportMgr object per BuildStore object. Use the
  * BuildStore's getReportMgr() method to obtain that one instance.
+ * <p>
+ * Reports may be generated by multiple threads at the same time, with the same
+ * restriction as for {@link IFileMgr} queries: if the BuildStore is held in memory, or
+ * has uncommitted changes, a report must not run while another thread is modifying
+ * the BuildStore.
  * 
  * @author Peter Smith <psmith@arapiki.com>
  */
@@ -153,6 +159,13 @@ public interface IReportMgr {
 	 */
 	public abstract FileSet reportAllFiles();
 
+	/**
+	 * Similar to reportAllFiles(), but pass each path ID to the consumer as it's read
+	 * from the database, rather than building a FileSet.
+	 * @param consumer The object that receives each path ID.
+	 */
+	public abstract void reportAllFiles(IIntConsumer consumer);
+
 	/**
 	 * Return the complete set of actions in the BuildStore. The allows us to generate
 	 * an ActionSet containing all known actions.
@@ -160,6 +173,13 @@ public interface IReportMgr {
 	 */
 	public abstract ActionSet reportAllActions();
 
+	/**
+	 * Similar to reportAllActions(), but pass each action ID to the consumer as it's read
+	 * from the database, rather than building an ActionSet.
+	 * @param consumer The object that receives each action ID.
+	 */
+	public abstract void reportAllActions(IIntConsumer consumer);
+
 	/**
 	 * Given a PackageSet, return the complete FileSet of all files that belong to packages
 	 * that are members of the set.
@@ -177,4 +197,21 @@ public interface IReportMgr {
 	 * @return The ActionSet of actions that are within the selected packages.
 	 */
 	public abstract ActionSet reportActionsFromPackageSet(PackageSet pkgSet);
+
+	/**
+	 * Set the number of threads used by reports that traverse the dependencies between
+	 * files, such as reportDerivedFiles() and reportInputFiles(). By default, there's one
+	 * thread per available processor. Small traversals are always performed in the
+	 * calling thread.
+	 * 
+	 * @param threads The number of threads (1 to disable parallel traversal).
+	 * @return ErrorCode.OK on success, or ErrorCode.BAD_VALUE if threads is less than 1.
+	 */
+	public abstract int setParallelism(int threads);
+
+	/**
+	 * @return The number of threads used by reports that traverse the dependencies
+	 * between files (see setParallelism()).
+	 */
+	public abstract int getParallelism();
 }
\ No newline at end of file
@@ -16,6 +16,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 
 import com.buildml.model.FatalBuildStoreError;
@@ -30,6 +32,7 @@ import com.buildml.model.IPackageMgr;
 import com.buildml.model.ISlotTypes;
 import com.buildml.model.ISlotTypes.SlotDetails;
 import com.buildml.utils.errors.ErrorCode;
+import com.buildml.utils.types.IIntConsumer;
 
 /**
  * A manager class (that supports the BuildStore class) responsible for managing all 
@@ -71,25 +74,174 @@ public class ActionMgr implements IActionMgr {
 	private PreparedStatement 
 		insertActionPrepStmt = null,
 		insertPackageMemberPrepStmt = null,
-		findParentPrepStmt = null,
 		updateParentPrepStmt = null,
-		findChildrenPrepStmt = null,
 		insertActionFilesPrepStmt = null,
 		removeActionFilesPrepStmt = null,
-		findFileAccessBySeqnoPrepStmt = null,
 		updateActionFilesPrepStmt = null,
+		trashActionPrepStmt = null,
+		maxSeqnoPrepStmt = null,
+		batchInsertActionFilesPrepStmt = null;
+	
+	/** Statements for queries that may be performed by multiple threads at the same time. */
+	private ReadStatement
+		findParentPrepStmt = null,
+		findChildrenPrepStmt = null,
+		findFileAccessBySeqnoPrepStmt = null,
 		findOperationInActionFilesPrepStmt = null,
 		findFilesInActionFilesPrepStmt = null,
 		findFilesByOperationInActionFilesPrepStmt = null,
 		findActionsByFileInActionFilesPrepStmt = null,
 		findActionsByFileAndOperationInActionFilesPrepStmt = null,
-		trashActionPrepStmt = null,
 		actionIsTrashPrepStmt = null,
 		findActionTypePrepStmt = null;
 	
 	/** The event listeners who are registered to learn about action changes */
 	private List<IActionMgrListener> listeners = new ArrayList<IActionMgrListener>();
 	
+	/**
+	 * The maximum number of new file-accesses we'll queue in memory (when in bulk write mode)
+	 * before writing them to the database.
+	 */
+	private static final int MAX_PENDING_ACCESSES = 50000;
+
+	/**
+	 * A file-access that has been queued in memory (while in bulk write mode), but has not
+	 * yet been written to the actionFiles table.
+	 */
+	private class PendingFileAccess {
+		
+		/** The access's sequence number (pre-assigned, since the database hasn't seen it yet). */
+		int seqno;
+		
+		/** The action that performs the access. */
+		int actionId;
+		
+		/** The file being accessed. */
+		int fileId;
+		
+		/** The (possibly merged) operation performed on the file. */
+		OperationType operation;
+	}
+	
+	/** The queued file-accesses, indexed by (actionId << 32 | fileId). */
+	private HashMap<Long, PendingFileAccess> pendingAccesses = new HashMap<Long, PendingFileAccess>();
+	
+	/** When in bulk write mode, the sequence number to assign to the next file-access. */
+	private int nextSeqno = 0;
+	
+	/**
+	 * The maximum number of file-accesses we'll record in memory for open actions. Beyond
+	 * this point, all open actions are closed, and further accesses are merged by querying
+	 * the database instead.
+	 */
+	private static final int MAX_OPEN_ACCESSES = 1000000;
+	
+	/** The operation value recorded for a file that an open action doesn't access. */
+	private static final byte NO_ACCESS = -1;
+	
+	/**
+	 * The complete set of file-accesses performed by an "open" action. That is, an action
+	 * that was created in the current bulk write session, and therefore has no file-accesses
+	 * other than those that were added via this ActionMgr. This is an open-addressed hash
+	 * table, mapping from file ID to the ordinal value of the operation.
+	 */
+	private static class OpenAction {
+		
+		/** The file IDs in each slot of the hash table, or -1 for an unused slot. */
+		private int fileIds[] = newFileIds(16);
+		
+		/** The operation (or NO_ACCESS) for the file in each slot of the hash table. */
+		private byte operations[] = new byte[16];
+		
+		/** The number of slots in use. */
+		private int size = 0;
+		
+		/**
+		 * @param fileId The file being accessed.
+		 * @return The operation performed on the file, or NO_ACCESS if there's no access.
+		 */
+		byte get(int fileId) {
+			int mask = fileIds.length - 1;
+			for (int i = hash(fileId) & mask; ; i = (i + 1) & mask) {
+				if (fileIds[i] == fileId) {
+					return operations[i];
+				} else if (fileIds[i] == -1) {
+					return NO_ACCESS;
+				}
+			}
+		}
+		
+		/**
+		 * Record the operation performed on a file.
+		 * 
+		 * @param fileId The file being accessed.
+		 * @param operation The operation performed on the file, or NO_ACCESS.
+		 * @return True if the file wasn't previously recorded, else false.
+		 */
+		boolean put(int fileId, byte operation) {
+			int mask = fileIds.length - 1;
+			int i = hash(fileId) & mask;
+			while (fileIds[i] != -1) {
+				if (fileIds[i] == fileId) {
+					operations[i] = operation;
+					return false;
+				}
+				i = (i + 1) & mask;
+			}
+			fileIds[i] = fileId;
+			operations[i] = operation;
+			
+			/* keep the table no more than half full */
+			if (++size * 2 > fileIds.length) {
+				int oldFileIds[] = fileIds;
+				byte oldOperations[] = operations;
+				fileIds = newFileIds(oldFileIds.length * 2);
+				operations = new byte[oldOperations.length * 2];
+				size = 0;
+				for (int j = 0; j != oldFileIds.length; j++) {
+					if (oldFileIds[j] != -1) {
+						put(oldFileIds[j], oldOperations[j]);
+					}
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * @param length The number of slots.
+		 * @return A new array of unused hash table slots.
+		 */
+		private static int[] newFileIds(int length) {
+			int result[] = new int[length];
+			Arrays.fill(result, -1);
+			return result;
+		}
+		
+		/**
+		 * @param fileId The file ID to be hashed.
+		 * @return The hash value, which is well-distributed for consecutive file IDs.
+		 */
+		private static int hash(int fileId) {
+			int h = fileId * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+	
+	/** The open actions (when in bulk write mode), indexed by action ID. */
+	private HashMap<Integer, OpenAction> openActions = new HashMap<Integer, OpenAction>();
+	
+	/** The total number of file-accesses recorded in the openActions map. */
+	private int openAccessCount = 0;
+
+	/**
+	 * Lock protecting the queued file-accesses (pendingAccesses and nextSeqno) and the
+	 * open actions (openActions and openAccessCount). File-accesses are only added by one
+	 * thread at a time, but any thread's query may flush the queue, so the queue must
+	 * never be read or modified without holding this lock. Listeners are always notified
+	 * (and other managers called) after the lock has been released.
+	 */
+	private final Object bulkLock = new Object();
+
 	/*=====================================================================================*
 	 * CONSTRUCTORS
 	 *=====================================================================================*/
@@ -109,33 +261,56 @@ public class ActionMgr implements IActionMgr {
 		/* create prepared database statements */
 		insertActionPrepStmt = db.prepareStatement("insert into buildActions values (null, 0, 0, ?)");
 		insertPackageMemberPrepStmt = db.prepareStatement("insert into packageMembers values (?, ?, ?, ?, -1, -1)");
-		findParentPrepStmt = db.prepareStatement("select parentActionId from buildActions where actionId = ?");
+		findParentPrepStmt = db.prepareReadStatement("select parentActionId from buildActions where actionId = ?");
 		updateParentPrepStmt = db.prepareStatement("update buildActions set parentActionId = ? where actionId = ?");
-		findChildrenPrepStmt = db.prepareStatement("select actionId from buildActions where parentActionId = ?" +
+		findChildrenPrepStmt = db.prepareReadStatement("select actionId from buildActions where parentActionId = ?" +
 				" and (parentActionId != actionId) and (trashed = 0) order by actionId");
 		insertActionFilesPrepStmt = db.prepareStatement("insert into actionFiles values (?, ?, ?, ?)");
 		removeActionFilesPrepStmt = 
 			db.prepareStatement("delete from actionFiles where actionId = ? and fileId = ?");
 		findFileAccessBySeqnoPrepStmt =
-			db.prepareStatement("select seqno, actionId, fileId, operation from actionFiles where seqno = ?");
+			db.prepareReadStatement("select seqno, actionId, fileId, operation from actionFiles where seqno = ?");
 		updateActionFilesPrepStmt = 
 			db.prepareStatement("update actionFiles set operation = ? where actionId = ? and fileId = ?");
 		findOperationInActionFilesPrepStmt = 
-			db.prepareStatement("select operation from actionFiles where actionId = ? and fileId = ?");
+			db.prepareReadStatement("select operation from actionFiles where actionId = ? and fileId = ?");
 		findFilesInActionFilesPrepStmt =
-			db.prepareStatement("select fileId from actionFiles where actionId = ?");
+			db.prepareReadStatement("select fileId from actionFiles where actionId = ?");
 		findFilesByOperationInActionFilesPrepStmt =
-			db.prepareStatement("select fileId from actionFiles where actionId = ? and operation = ?");
+			db.prepareReadStatement("select fileId from actionFiles where actionId = ? and operation = ?");
 		findActionsByFileInActionFilesPrepStmt =
-			db.prepareStatement("select actionId from actionFiles where fileId = ?");		
+			db.prepareReadStatement("select actionId from actionFiles where fileId = ?");		
 		findActionsByFileAndOperationInActionFilesPrepStmt =
-			db.prepareStatement("select actionId from actionFiles where fileId = ? and operation = ?");
+			db.prepareReadStatement("select actionId from actionFiles where fileId = ? and operation = ?");
 		trashActionPrepStmt =
 			db.prepareStatement("update buildActions set trashed = ? where actionId = ?");
 		actionIsTrashPrepStmt =
-			db.prepareStatement("select trashed from buildActions where actionId = ?");
+			db.prepareReadStatement("select trashed from buildActions where actionId = ?");
 		findActionTypePrepStmt =
-			db.prepareStatement("select actionType from buildActions where actionId = ?");
+			db.prepareReadStatement("select actionType from buildActions where actionId = ?");
+		maxSeqnoPrepStmt = db.prepareStatement("select max(seqno) from actionFiles");
+		
+		/* the SQLite driver doesn't permit batched and single-row use of the same statement */
+		batchInsertActionFilesPrepStmt = db.prepareStatement("insert into actionFiles values (?, ?, ?, ?)");
+		
+		/* 
+		 * When in bulk write mode, we queue new file-accesses in memory, and we track the
+		 * file-accesses of each new action, so they can be merged without database queries.
+		 */
+		db.addBulkWriter(new IBulkWriter() {
+			@Override
+			public void beginBulkWrite() {
+				Integer results[] = db.executePrepSelectIntegerColumn(maxSeqnoPrepStmt);
+				synchronized (bulkLock) {
+					nextSeqno = ((results.length == 1) ? results[0] : 0) + 1;
+					discardOpenActions();
+				}
+			}
+			@Override
+			public void flushBulkWrites() {
+				flushPendingAccesses();
+			}
+		});
 	}
 	
 	/*=====================================================================================*
@@ -176,6 +351,13 @@ public class ActionMgr implements IActionMgr {
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
+		
+		/* a new action has no file-accesses, so we can track them all in memory */
+		if (db.isBulkWriteMode()) {
+			synchronized (bulkLock) {
+				openActions.put(Integer.valueOf(lastRowId), new OpenAction());
+			}
+		}
 		return lastRowId;
 	}
 
@@ -285,8 +467,9 @@ public class ActionMgr implements IActionMgr {
 		if (seqno != -1) {
 			Integer intResults[] = null;
 			try {
-				findFileAccessBySeqnoPrepStmt.setInt(1, seqno);
-				intResults = db.executePrepSelectIntegerColumn(findFileAccessBySeqnoPrepStmt);
+				PreparedStatement stmt = findFileAccessBySeqnoPrepStmt.get();
+				stmt.setInt(1, seqno);
+				intResults = db.executePrepSelectIntegerColumn(stmt);
 
 			} catch (SQLException e) {
 				throw new FatalBuildStoreError("Unable to execute SQL statement", e);
@@ -308,36 +491,43 @@ public class ActionMgr implements IActionMgr {
 	 */
 	@Override
 	public Integer [] getFilesAccessed(int actionId, OperationType operation) {
-				
-		List<Integer> results;
-		
+		final List<Integer> results = new ArrayList<Integer>();
+		getFilesAccessed(actionId, operation, new IIntConsumer() {
+			@Override
+			public void accept(int value) {
+				results.add(value);
+			}
+		});
+		return results.toArray(new Integer[0]);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IActionMgr#getFilesAccessed(int, com.buildml.model.IActionMgr.OperationType, com.buildml.utils.types.IIntConsumer)
+	 */
+	@Override
+	public void getFilesAccessed(int actionId, OperationType operation, IIntConsumer consumer) {
 		try {
-			ResultSet rs;
+			PreparedStatement stmt;
 			
 			/* if we want all operation (OP_UNSPECIFIED), don't query the operation field */
 			if (operation == OperationType.OP_UNSPECIFIED) {
-				findFilesInActionFilesPrepStmt.setInt(1, actionId);
-				rs = db.executePrepSelectResultSet(findFilesInActionFilesPrepStmt);
+				stmt = findFilesInActionFilesPrepStmt.get();
+				stmt.setInt(1, actionId);
 			} 
 			
 			/* else, we need to limit the results, based on the operation */
 			else {
-				findFilesByOperationInActionFilesPrepStmt.setInt(1, actionId);
-				findFilesByOperationInActionFilesPrepStmt.setInt(2, operation.ordinal());
-				rs = db.executePrepSelectResultSet(findFilesByOperationInActionFilesPrepStmt);				
-			}
-			
-			/* read the results into an array */
-			results = new ArrayList<Integer>();
-			while (rs.next()) {
-				results.add(rs.getInt(1));
+				stmt = findFilesByOperationInActionFilesPrepStmt.get();
+				stmt.setInt(1, actionId);
+				stmt.setInt(2, operation.ordinal());
 			}
-			rs.close();
+			db.executePrepSelectIntegerColumn(stmt, consumer);
 		
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
-		return results.toArray(new Integer[0]);
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -395,37 +585,43 @@ public class ActionMgr implements IActionMgr {
 	 */
 	@Override
 	public Integer [] getActionsThatAccess(int fileId, OperationType operation) {
-		
-		List<Integer> results;
+		final List<Integer> results = new ArrayList<Integer>();
+		getActionsThatAccess(fileId, operation, new IIntConsumer() {
+			@Override
+			public void accept(int value) {
+				results.add(value);
+			}
+		});
+		return results.toArray(new Integer[0]);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
 
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IActionMgr#getActionsThatAccess(int, com.buildml.model.IActionMgr.OperationType, com.buildml.utils.types.IIntConsumer)
+	 */
+	@Override
+	public void getActionsThatAccess(int fileId, OperationType operation, IIntConsumer consumer) {
 		try {
-			ResultSet rs;
+			PreparedStatement stmt;
 			
 			/* if we want all operation (OP_UNSPECIFIED), don't query the operation field */
 			if (operation == OperationType.OP_UNSPECIFIED) {
-				findActionsByFileInActionFilesPrepStmt.setInt(1, fileId);
-				rs = db.executePrepSelectResultSet(findActionsByFileInActionFilesPrepStmt);
+				stmt = findActionsByFileInActionFilesPrepStmt.get();
+				stmt.setInt(1, fileId);
 			} 
 			
 			/* else, we need to limit the results, based on the operation */
 			else {
-				findActionsByFileAndOperationInActionFilesPrepStmt.setInt(1, fileId);
-				findActionsByFileAndOperationInActionFilesPrepStmt.setInt(2, operation.ordinal());
-				rs = db.executePrepSelectResultSet(findActionsByFileAndOperationInActionFilesPrepStmt);				
-			}
-			
-			/* read the results into an array */
-			results = new ArrayList<Integer>();
-			while (rs.next()) {
-				results.add(rs.getInt(1));
+				stmt = findActionsByFileAndOperationInActionFilesPrepStmt.get();
+				stmt.setInt(1, fileId);
+				stmt.setInt(2, operation.ordinal());
 			}
-			rs.close();
+			db.executePrepSelectIntegerColumn(stmt, consumer);
 		
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
-		return results.toArray(new Integer[0]);
-		
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -435,13 +631,18 @@ public class ActionMgr implements IActionMgr {
 	 */
 	@Override
 	public void removeFileAccess(int actionId, int pathId) {
+		int rowCount;
 		try {
 			removeActionFilesPrepStmt.setInt(1, actionId);
 			removeActionFilesPrepStmt.setInt(2, pathId);
-			db.executePrepUpdate(removeActionFilesPrepStmt);
+			rowCount = db.executePrepUpdate(removeActionFilesPrepStmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
-		}		
+		}
+		recordOpenAccess(actionId, pathId, NO_ACCESS);
+		if (rowCount != 0) {
+			notifyListeners(actionId, IActionMgrListener.REMOVED_FILE_ACCESS, pathId);
+		}
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -454,8 +655,9 @@ public class ActionMgr implements IActionMgr {
 				
 		Integer intResults[] = null;
 		try {
-			findActionTypePrepStmt.setInt(1, actionId);
-			intResults = db.executePrepSelectIntegerColumn(findActionTypePrepStmt);
+			PreparedStatement stmt = findActionTypePrepStmt.get();
+			stmt.setInt(1, actionId);
+			intResults = db.executePrepSelectIntegerColumn(stmt);
 			
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
@@ -480,8 +682,9 @@ public class ActionMgr implements IActionMgr {
 		/* query the database, based on the action Id */
 		Integer [] intResults = null;
 		try {
-			findParentPrepStmt.setInt(1, actionId);
-			intResults = db.executePrepSelectIntegerColumn(findParentPrepStmt);
+			PreparedStatement stmt = findParentPrepStmt.get();
+			stmt.setInt(1, actionId);
+			intResults = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			new FatalBuildStoreError("Error in SQL: " + e);
 		}
@@ -573,8 +776,9 @@ public class ActionMgr implements IActionMgr {
 		
 		Integer [] intResults = null;
 		try {
-			findChildrenPrepStmt.setInt(1, actionId);
-			intResults = db.executePrepSelectIntegerColumn(findChildrenPrepStmt);
+			PreparedStatement stmt = findChildrenPrepStmt.get();
+			stmt.setInt(1, actionId);
+			intResults = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			new FatalBuildStoreError("Error in SQL: " + e);
 		}
@@ -584,6 +788,22 @@ public class ActionMgr implements IActionMgr {
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IActionMgr#getChildren(int, com.buildml.utils.types.IIntConsumer)
+	 */
+	@Override
+	public void getChildren(int actionId, IIntConsumer consumer) {
+		try {
+			PreparedStatement stmt = findChildrenPrepStmt.get();
+			stmt.setInt(1, actionId);
+			db.executePrepSelectIntegerColumn(stmt, consumer);
+		} catch (SQLException e) {
+			throw new FatalBuildStoreError("Error in SQL: " + e);
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/* (non-Javadoc)
 	 * @see com.buildml.model.IActionMgr#getRootAction(java.lang.String)
 	 */
@@ -690,8 +910,9 @@ public class ActionMgr implements IActionMgr {
 		Integer results[] = null;
 		
 		try {
-			actionIsTrashPrepStmt.setInt(1, actionId);
-			results = db.executePrepSelectIntegerColumn(actionIsTrashPrepStmt);
+			PreparedStatement stmt = actionIsTrashPrepStmt.get();
+			stmt.setInt(1, actionId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 			
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error in SQL: " + e);
@@ -877,6 +1098,21 @@ public class ActionMgr implements IActionMgr {
 		/* empty for now */
 	}
 	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Discard the in-memory record of each open action's file-accesses, since the
+	 * "actionFiles" table may have been modified behind our back (for example, a batch
+	 * of changes was rolled back). Future file-accesses will be merged by querying the
+	 * database.
+	 */
+	/* package */ void discardOpenActions() {
+		synchronized (bulkLock) {
+			openActions.clear();
+			openAccessCount = 0;
+		}
+	}
+	
 	/*=====================================================================================*
 	 * PRIVATE METHODS
 	 *=====================================================================================*/
@@ -916,25 +1152,72 @@ public class ActionMgr implements IActionMgr {
 	private void addFileAccessCommon(int seqno, int actionId, 
 			int fileId, OperationType newOperation) {
 		
+		/*
+		 * In bulk write mode, a file-access that was queued earlier can be merged in memory.
+		 * Otherwise we must make sure the database is up to date before querying it. Given
+		 * that we're bypassing the bulk write mechanism, our in-memory record of the action's
+		 * file-accesses will no longer be complete.
+		 */
+		boolean bulkWrite = (seqno == -1) && db.isBulkWriteMode();
+		OpenAction openAction = null;
+		if (bulkWrite) {
+			if (mergePendingFileAccess(actionId, fileId, newOperation)) {
+				return;
+			}
+			synchronized (bulkLock) {
+				openAction = openActions.get(Integer.valueOf(actionId));
+			}
+		} else {
+			db.flushBulkWrites();
+			synchronized (bulkLock) {
+				OpenAction closedAction = openActions.remove(Integer.valueOf(actionId));
+				if (closedAction != null) {
+					openAccessCount -= closedAction.size;
+				}
+			}
+		}
+		
 		/* 
 		 * We don't want to add the same record twice, but we might want to merge the two
 		 * operations together. That is, if a action reads a file, then writes a file, we want
-		 * to mark it as OP_MODIFIED.
+		 * to mark it as OP_MODIFIED. For an open action, we already know all of its
+		 * file-accesses, so there's no need to query the database.
 		 */
-		Integer intResults[] = null;
-		try {
-			findOperationInActionFilesPrepStmt.setInt(1, actionId);
-			findOperationInActionFilesPrepStmt.setInt(2, fileId);
-			intResults = db.executePrepSelectIntegerColumn(findOperationInActionFilesPrepStmt);
+		int existingOp;
+		if (openAction != null) {
+			existingOp = openAction.get(fileId);
+		} else {
+			Integer intResults[] = null;
+			try {
+				PreparedStatement stmt = findOperationInActionFilesPrepStmt.get();
+				stmt.setInt(1, actionId);
+				stmt.setInt(2, fileId);
+				intResults = db.executePrepSelectIntegerColumnNoFlush(stmt);
+
+			} catch (SQLException e) {
+				throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+			}
 			
-		} catch (SQLException e) {
-			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+			/* can't have multiple entries */
+			if (intResults.length > 1) {
+				throw new FatalBuildStoreError("Multiple results find in actionFiles table for actionId = " 
+						+ actionId + " and fileId = " + fileId);
+			}
+			existingOp = (intResults.length == 0) ? NO_ACCESS : intResults[0];
+		}
+		
+		/*
+		 * In bulk write mode, a brand new file-access is queued in memory.
+		 */
+		if (bulkWrite && (existingOp == NO_ACCESS)) {
+			addPendingFileAccess(actionId, fileId, newOperation);
+			return;
 		}
 		
 		/*
 		 * If there was no existing record, we'll insert a fresh record.
 		 */
-		if (intResults.length == 0) {
+		if (existingOp == NO_ACCESS) {
 			try {
 				if (seqno == -1) {
 					insertActionFilesPrepStmt.setNull(1, java.sql.Types.INTEGER);
@@ -948,69 +1231,239 @@ public class ActionMgr implements IActionMgr {
 			} catch (SQLException e) {
 				throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 			}
+			
+			/* don't let future bulk writes reuse an explicitly-provided sequence number */
+			synchronized (bulkLock) {
+				if (seqno >= nextSeqno) {
+					nextSeqno = seqno + 1;
+				}
+			}
+			notifyListeners(actionId, IActionMgrListener.NEW_FILE_ACCESS, fileId);
 		}
 		
 		/*
-		 * Else, if there's one record, see if the operation needs to be merged. The DFA
-		 * for transitioning to a new state is as follows:
-		 * 
-		 *             New:    |  Read    Write   Modify  Delete
-		 *             -----------------------------------------
-		 *             Read    |  Read    Modify  Modify  Delete
-		 *  Existing:  Write   |  Write   Write   Write   Temporary
-		 *             Modify  |  Modify  Modify  Modify  Delete
-		 *             Delete  |  Read    Write   Modify  Delete
-		 *             
-		 *  Remember:
-		 *    - Read = the process has *only* ever read this file.
-		 *    - Write = the process created this file (it didn't exist before).
-		 *    - Modify = the process read and then wrote to this file.
-		 *    - Delete = the process ended up by deleting this file.
+		 * Else, there's an existing record, so see if the operation needs to be merged.
 		 */
-		else if (intResults.length == 1) {
-			OperationType existingOp = intToOperationType(intResults[0]);
-			OperationType combinedOp = operationTypeMapping[existingOp.ordinal()][newOperation.ordinal()];
+		else {
+			mergeFileAccess(actionId, fileId, intToOperationType(existingOp), newOperation);
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Merge a new operation into a file-access that's already in the actionFiles table. The
+	 * DFA for transitioning to a new state is as follows:
+	 * 
+	 *             New:    |  Read    Write   Modify  Delete
+	 *             -----------------------------------------
+	 *             Read    |  Read    Modify  Modify  Delete
+	 *  Existing:  Write   |  Write   Write   Write   Temporary
+	 *             Modify  |  Modify  Modify  Modify  Delete
+	 *             Delete  |  Read    Write   Modify  Delete
+	 *             
+	 *  Remember:
+	 *    - Read = the process has *only* ever read this file.
+	 *    - Write = the process created this file (it didn't exist before).
+	 *    - Modify = the process read and then wrote to this file.
+	 *    - Delete = the process ended up by deleting this file.
+	 *    
+	 * @param actionId The action that performs the access.
+	 * @param fileId The file that is accessed.
+	 * @param existingOp The operation currently recorded in the actionFiles table.
+	 * @param newOperation The new operation to merge into the file-access.
+	 */
+	private void mergeFileAccess(int actionId, int fileId, 
+			OperationType existingOp, OperationType newOperation) {
+		
+		OperationType combinedOp = operationTypeMapping[existingOp.ordinal()][newOperation.ordinal()];
+		
+		/*
+		 * Handle a special case of temporary files. That is, if the existingOp is WRITE,
+		 * and the combinedOp is DELETE, then this file was both created and deleted
+		 * by this action.
+		 */
+		if ((existingOp == OperationType.OP_WRITE) && (combinedOp == OperationType.OP_DELETE)) {
 			
+			/* remove all file accesses that we previously added */
+			removeFileAccess(actionId, fileId);
+
 			/*
-			 * Handle a special case of temporary files. That is, if the existingOp is WRITE,
-			 * and the combinedOp is DELETE, then this file was both created and deleted
-			 * by this action.
+			 * Attempt to remove the file from the FileMgr. This will fail if the
+			 * same path is already used by some other action, but that's acceptable. We
+			 * only want to remove paths that were used exclusively by this action.
 			 */
+			fileMgr.movePathToTrash(fileId);
+		}
+		
+		/*
+		 * else, the normal case is to replace the old state with the new state (if
+		 * it has actually changed).
+		 */
+		else if (combinedOp != existingOp) {
+			try {
+				updateActionFilesPrepStmt.setInt(1, combinedOp.ordinal());
+				updateActionFilesPrepStmt.setInt(2, actionId);
+				updateActionFilesPrepStmt.setInt(3, fileId);
+				db.executePrepUpdateNoFlush(updateActionFilesPrepStmt);
+			} catch (SQLException e) {
+				throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+			}
+			recordOpenAccess(actionId, fileId, (byte)combinedOp.ordinal());
+			notifyListeners(actionId, IActionMgrListener.CHANGED_FILE_ACCESS, fileId);
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * When in bulk write mode, queue a new file-access in memory, rather than writing it
+	 * to the database. The file-access is assigned the next available sequence number.
+	 * 
+	 * @param actionId The action that performs the access.
+	 * @param fileId The file that is accessed.
+	 * @param operation The operation type of the access.
+	 */
+	private void addPendingFileAccess(int actionId, int fileId, OperationType operation) {
+		
+		boolean queueFull;
+		synchronized (bulkLock) {
+			PendingFileAccess pending = new PendingFileAccess();
+			pending.seqno = nextSeqno++;
+			pending.actionId = actionId;
+			pending.fileId = fileId;
+			pending.operation = operation;
+			pendingAccesses.put(getAccessKey(actionId, fileId), pending);
+			db.markBulkWritesPending();
+			recordOpenAccess(actionId, fileId, (byte)operation.ordinal());
+			queueFull = (pendingAccesses.size() >= MAX_PENDING_ACCESSES);
+		}
+		notifyListeners(actionId, IActionMgrListener.NEW_FILE_ACCESS, fileId);
+		
+		/* don't let the queue grow without bound */
+		if (queueFull) {
+			db.flushBulkWrites();
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Merge a new operation into a file-access that's queued in memory (if there is one).
+	 * This follows the same state transitions as for file-accesses that are already in the
+	 * database (see mergeFileAccess()), including the special handling of temporary files.
+	 * 
+	 * @param actionId The action that performs the access.
+	 * @param fileId The file that is accessed.
+	 * @param newOperation The new operation to merge into the file-access.
+	 * @return True if the file-access was queued (and has now been merged), or false if
+	 * there's no such file-access in the queue.
+	 */
+	private boolean mergePendingFileAccess(int actionId, int fileId, OperationType newOperation) {
+		
+		boolean isTemporary = false;
+		boolean isChanged = false;
+		synchronized (bulkLock) {
+			Long key = getAccessKey(actionId, fileId);
+			PendingFileAccess pending = pendingAccesses.get(key);
+			if (pending == null) {
+				return false;
+			}
+			OperationType existingOp = pending.operation;
+			OperationType combinedOp = operationTypeMapping[existingOp.ordinal()][newOperation.ordinal()];
+		
+			/* a temporary file - the access is discarded */
 			if ((existingOp == OperationType.OP_WRITE) && (combinedOp == OperationType.OP_DELETE)) {
-				
-				/* remove all file accesses that we previously added */
-				removeFileAccess(actionId, fileId);
-
-				/*
-				 * Attempt to remove the file from the FileMgr. This will fail if the
-				 * same path is already used by some other action, but that's acceptable. We
-				 * only want to remove paths that were used exclusively by this action.
-				 */
-				fileMgr.movePathToTrash(fileId);
+				pendingAccesses.remove(key);
+				recordOpenAccess(actionId, fileId, NO_ACCESS);
+				isTemporary = true;
+			}
+		
+			/* else, the normal case is to replace the old state with the new state */
+			else if (combinedOp != existingOp) {
+				pending.operation = combinedOp;
+				recordOpenAccess(actionId, fileId, (byte)combinedOp.ordinal());
+				isChanged = true;
 			}
+		}
+		
+		/* the temporary file is trashed (if possible), as in mergeFileAccess() */
+		if (isTemporary) {
+			notifyListeners(actionId, IActionMgrListener.REMOVED_FILE_ACCESS, fileId);
+			fileMgr.movePathToTrash(fileId);
+		} else if (isChanged) {
+			notifyListeners(actionId, IActionMgrListener.CHANGED_FILE_ACCESS, fileId);
+		}
+		return true;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * If the action is open, record the current state of one of its file-accesses (which
+	 * may be in the actionFiles table, or still queued in memory).
+	 * 
+	 * @param actionId The action that performs the access.
+	 * @param fileId The file that is accessed.
+	 * @param operation The ordinal value of the access's operation, or NO_ACCESS if the
+	 *        access no longer exists.
+	 */
+	private void recordOpenAccess(int actionId, int fileId, byte operation) {
+		
+		synchronized (bulkLock) {
+			OpenAction openAction = openActions.get(Integer.valueOf(actionId));
+			if ((openAction != null) && openAction.put(fileId, operation)) {
 			
-			/*
-			 * else, the normal case is to replace the old state with the new state.
-			 */
-			else {
-				try {
-					updateActionFilesPrepStmt.setInt(1, combinedOp.ordinal());
-					updateActionFilesPrepStmt.setInt(2, actionId);
-					updateActionFilesPrepStmt.setInt(3, fileId);
-					db.executePrepUpdate(updateActionFilesPrepStmt);
-				} catch (SQLException e) {
-					throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+				/* don't let the open actions grow without bound */
+				if (++openAccessCount >= MAX_OPEN_ACCESSES) {
+					discardOpenActions();
 				}
 			}
 		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Write all queued file-accesses to the actionFiles table, using a batched insert
+	 * statement.
+	 */
+	private void flushPendingAccesses() {
 		
-		/* else, there's an error - can't have multiple entries */
-		else {
-			throw new FatalBuildStoreError("Multiple results find in actionFiles table for actionId = " 
-					+ actionId + " and fileId = " + fileId);
+		/* this may be called by any thread that's about to query the database */
+		synchronized (bulkLock) {
+			if (pendingAccesses.isEmpty()) {
+				return;
+			}
+			try {
+				for (PendingFileAccess pending : pendingAccesses.values()) {
+					batchInsertActionFilesPrepStmt.setInt(1, pending.seqno);
+					batchInsertActionFilesPrepStmt.setInt(2, pending.actionId);
+					batchInsertActionFilesPrepStmt.setInt(3, pending.fileId);
+					batchInsertActionFilesPrepStmt.setInt(4, pending.operation.ordinal());
+					batchInsertActionFilesPrepStmt.addBatch();
+				}
+			} catch (SQLException e) {
+				throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+			}
+			db.executePrepBatch(batchInsertActionFilesPrepStmt);
+			pendingAccesses.clear();
 		}
 	}
+	
+	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Compute the key used to index the pendingAccesses map.
+	 * 
+	 * @param actionId The action that performs the access.
+	 * @param fileId The file that is accessed.
+	 * @return The (actionId, fileId) key.
+	 */
+	private Long getAccessKey(int actionId, int fileId) {
+		return Long.valueOf(((long)actionId << 32) | fileId);
+	}
+	
 	/*-------------------------------------------------------------------------------------*/
 
 	/**
@@ -121,8 +121,6 @@ public class BuildStore implements IBuildStore {
 		int buildStoreVersion = getBuildStoreVersion();
 		if (buildStoreVersion == -1){
 			if (createIfNeeded) {
-				/* changes must be committed promptly */
-				db.setFastAccessMode(false); 
 				db.initDatabase();
 				freshDatabase = true;
 			} else {
@@ -370,11 +368,45 @@ public class BuildStore implements IBuildStore {
 	/*-------------------------------------------------------------------------------------*/
 
 	/* (non-Javadoc)
-	 * @see com.buildml.model.IBuildStore#setFastAccessMode(boolean)
+	 * @see com.buildml.model.IBuildStore#beginBatch()
 	 */
 	@Override
-	public boolean setFastAccessMode(boolean fast) {
-		return db.setFastAccessMode(fast);
+	public void beginBatch() {
+		db.beginBatch();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IBuildStore#commitBatch()
+	 */
+	@Override
+	public void commitBatch() {
+		if (db.commitBatch()) {
+			batchRolledBack();
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IBuildStore#rollbackBatch()
+	 */
+	@Override
+	public void rollbackBatch() {
+		if (db.rollbackBatch()) {
+			batchRolledBack();
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IBuildStore#setBulkWriteMode(boolean)
+	 */
+	@Override
+	public boolean setBulkWriteMode(boolean bulk) {
+		return db.setBulkWriteMode(bulk);
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -430,6 +462,7 @@ public class BuildStore implements IBuildStore {
 	 */
 	public void emptyTrash() {
 		db.emptyTrash();
+		((FileMgr)fileMgr).discardCachedPaths();
 	}	
 	
 	/*=====================================================================================*
@@ -447,4 +480,20 @@ public class BuildStore implements IBuildStore {
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
+
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * The database changes made by a batch have been rolled back, so any in-memory copies
+	 * of those changes must be discarded.
+	 */
+	private void batchRolledBack() {
+		((FileMgr)fileMgr).discardCachedPaths();
+		((ActionMgr)actionMgr).discardOpenActions();
+		((ReportMgr)reportMgr).discardCachedReports();
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
 }
@@ -22,11 +22,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-
-import org.apache.commons.io.FileUtils;
+import java.util.List;
 
 import com.buildml.model.FatalBuildStoreError;
 import com.buildml.model.IPackageMemberMgr;
+import com.buildml.utils.types.IIntConsumer;
 
 /**
  * A helper class to manage and simplify all the database access performed
@@ -52,28 +52,115 @@ import com.buildml.model.IPackageMemberMgr;
 	 * If the database we're reading has a newer schema, we can't handle it. If
 	 * it has an older schema, we need to upgrade it.
 	 */
-	public static final int SCHEMA_VERSION = 409;
+	public static final int SCHEMA_VERSION = 410;
 
 	/** Prepared Statements to make database access faster. */
 	private PreparedStatement lastRowIDPrepStmt = null;
 	
+	/**
+	 * The thread that created this database. This thread always uses dbConn, for reading
+	 * as well as for writing.
+	 */
+	private Thread ownerThread;
+	
+	/**
+	 * The additional (read-only) connection used by each of the other threads, allowing
+	 * those threads to query the database in parallel. These are only used when the
+	 * database is held in a disk file (see getReadConnection()).
+	 */
+	private ThreadLocal<Connection> readConnection = new ThreadLocal<Connection>();
+	
+	/** All the read-only connections that have been opened, so they can later be closed. */
+	private List<Connection> readConnectionPool = new ArrayList<Connection>();
+	
+	/** All the read-only statements that have been prepared, so they can later be closed. */
+	private List<ReadStatement> readStatements = new ArrayList<ReadStatement>();
+	
 	/** The original name of this database file (user-facing) */
 	private String databaseFileName;
 	
-	/** The temporary name of this database file (for unsaved changes) */
-	private String tempDatabaseFileName;
-	
 	/** 
-	 * true if we've created a temporary working copy of the database.
-	 * That is, databaseFileName != tempDatabaseFileName.
+	 * true if the database is held in memory, and must be explicitly saved to
+	 * databaseFileName. If false, changes are made directly to databaseFileName.
 	 */
 	private boolean saveRequired;
 	
+	/** The name under which other database files are attached to our connection. */
+	private static final String ATTACHED_DB_NAME = "attachedDb";
+	
+	/**
+	 * The rows that are deleted when the trash is emptied, as (table name, condition)
+	 * pairs, in the order they must be deleted. Within each condition, "DB." is replaced
+	 * by the name of the database being purged.
+	 */
+	private static final String TRASH_ROWS[][] = {
+		
+		/* entries from packageMembers where the files, actions or sub-packages have been trashed */
+		{ "packageMembers", "memberType = " + IPackageMemberMgr.TYPE_FILE + 
+							" and memberId in (select id from DB.files where trashed=1)" },
+		{ "packageMembers", "memberType = " + IPackageMemberMgr.TYPE_ACTION + 
+							" and memberId in (select actionId from DB.buildActions where trashed=1)" },
+		{ "packageMembers", "memberType = " + IPackageMemberMgr.TYPE_SUB_PACKAGE + 
+							" and memberId in (select subPkgId from DB.subPackages where trashed=1)" },
+		
+		/* empty file groups (and their package membership) */
+		{ "fileGroups", "id not in (select groupId from DB.fileGroupPaths group by groupId)" },
+		{ "packageMembers", "memberType = " + IPackageMemberMgr.TYPE_FILE_GROUP + 
+							" and memberId not in (select groupId from DB.fileGroupPaths group by groupId)" },
+		
+		/* the files and actions themselves */
+		{ "fileAttrs", "pathId in (select id from DB.files where trashed=1)" },
+		{ "files", "trashed=1" },
+		{ "buildActions", "trashed=1" },
+		{ "subPackages", "trashed=1" },
+		{ "slotTypes", "trashed=1" }
+	};
+	
+	/**
+	 * The database file that our in-memory database was most recently loaded from, or
+	 * saved to (or null if there's no such file). Rows that have changed since then are
+	 * recorded in the changedRows table.
+	 */
+	private String syncedFileName = null;
+	
+	/** True if changes to the in-memory database are being recorded in changedRows. */
+	private boolean trackingChanges = false;
+	
 	/**
 	 * True if the database is in "fast mode" (i.e. auto-commit is disabled). By default,
 	 * this is turned off (auto-commit is one). 
 	 */
-	private boolean fastAccessMode = false;
+	private volatile boolean fastAccessMode = false;
+	
+	/**
+	 * True if changes have been made to the database (while in fast mode) that are not
+	 * yet committed, and are therefore only visible via dbConn.
+	 */
+	private volatile boolean uncommittedChanges = false;
+	
+	/**
+	 * True if the database is in "bulk write" mode, in which case the managers may queue
+	 * new rows in memory, rather than inserting them immediately.
+	 */
+	private boolean bulkWriteMode = false;
+	
+	/**
+	 * True if at least one of the bulk writers has queued rows that are not yet written
+	 * to the database.
+	 */
+	private volatile boolean bulkWritesPending = false;
+	
+	/** The number of batches that are currently open (batches may be nested). */
+	private int batchDepth = 0;
+	
+	/**
+	 * True if a batch (possibly a nested batch) has been rolled back, in which case all
+	 * changes must be discarded when the outermost batch finishes.
+	 */
+	private boolean batchRollbackRequired = false;
+	
+	/** The managers that are capable of queuing rows while in bulk write mode. */
+	private List<IBulkWriter> bulkWriters = new ArrayList<IBulkWriter>();
 	
 	/*=====================================================================================*
 	 * CONSTRUCTORS
@@ -87,7 +174,7 @@ import com.buildml.model.IPackageMemberMgr;
 	 * @param saveRequired True if this database must be explicitly "saved" before it's
 	 *        closed (otherwise the changes will be discarded).
 	 * @throws FileNotFoundException The database file can't be found, or isn't writable.
-	 * @throws IOException Problem when opening the database, or making a temporary working database.
+	 * @throws IOException Problem when opening the database, or loading it into memory.
 	 */
 	/* package private */ 
 	BuildStoreDB(String databaseName, boolean saveRequired) throws FileNotFoundException, IOException {
@@ -113,34 +200,20 @@ import com.buildml.model.IPackageMemberMgr;
 		databaseFileName = new File(fileToOpen).getAbsolutePath();
 		
 		/*
-		 * If we want save/saveAs functionality, create a temporary database file
-		 * where the live changes will be made. We start by making a copy of the
-		 * user-facing database file into this temporary file.
+		 * If we want save/saveAs functionality, all changes are made to an in-memory
+		 * database, which is loaded from the user-facing database file (if it exists).
+		 * Nothing is written to disk until the database is saved.
 		 */
 		this.saveRequired = saveRequired;
-		if (saveRequired) {
-			try {
-				tempDatabaseFileName = File.createTempFile("temp", ".tmpbml").toString();
-			} catch (IOException e) {
-				throw new IOException("Unable to open " + fileToOpen + ". " + e.getMessage());
-			}
-			
-			/*
-			 * If there's an existing database file that we're editing, make a copy of it. If
-			 * not, we simply open a new database with the temporary name.
-			 */
-			if (new File(fileToOpen).exists()) {
-				FileUtils.copyFile(new File(fileToOpen), new File(tempDatabaseFileName));
-			}
-			fileToOpen = tempDatabaseFileName;
-		}
+		ownerThread = Thread.currentThread();
+		String connectionName = saveRequired ? ":memory:" : fileToOpen;
 			
 		/* 
-		 * Open/create the database. The sqlite database will be created as
-		 * a local disk file with a .bml extension.
+		 * Open/create the database. Unless we're working in memory, the sqlite database
+		 * will be created as a local disk file with a .bml extension.
 		 */
 	    try {
-			dbConn = DriverManager.getConnection("jdbc:sqlite:" + fileToOpen);
+			dbConn = DriverManager.getConnection("jdbc:sqlite:" + connectionName);
 			
 		} catch (SQLException e) {
 			/* provide a meaningful error message if the file simply can't be opened */
@@ -153,6 +226,17 @@ import com.buildml.model.IPackageMemberMgr;
 					fileToOpen + "\n" + e.getMessage());
 		}
 		
+		/* load the existing database content into memory */
+		if (saveRequired && new File(fileToOpen).exists()) {
+			try {
+				loadDatabase(fileToOpen);
+				syncedFileName = databaseFileName;
+				startChangeTracking();
+			} catch (SQLException e) {
+				throw new IOException("Unable to open " + fileToOpen + ". " + e.getMessage());
+			}
+		}
+		
 		/* prepare some statements */
 		lastRowIDPrepStmt = prepareStatement("select last_insert_rowid()");
 		
@@ -255,7 +339,7 @@ import com.buildml.model.IPackageMemberMgr;
 		/* make sure the database connection is still open */
 		checkDatabase();
 
-		setFastAccessMode(true);
+		beginBatch();
 		dropDatabase();
 		try {
 			Statement stat = dbConn.createStatement();
@@ -267,11 +351,16 @@ import com.buildml.model.IPackageMemberMgr;
 			stat.executeUpdate("create table schemaVersion ( version integer )");
 			stat.executeUpdate("insert into schemaVersion values ( " + SCHEMA_VERSION + ")");
 
+			/* Create the "fileNames" table, the dictionary of path names used by "files". */
+			stat.executeUpdate("create table fileNames ( id integer primary key, name text not null)");
+			stat.executeUpdate("insert into fileNames values (0, \"/\")");
+			stat.executeUpdate("create unique index fileNamesIdx on fileNames (name)");
+			
 			/* Create the "files" table. */
 			stat.executeUpdate("create table files ( id integer primary key, parentId integer, trashed integer, " +
-							   "pathType integer, name text not null)");
-			stat.executeUpdate("insert into files values (0, 0, 0, 1, \"/\")");
-			stat.executeUpdate("create unique index filesIdx on files (parentId, name)");
+							   "pathType integer, nameId integer not null)");
+			stat.executeUpdate("insert into files values (0, 0, 0, 1, 0)");
+			stat.executeUpdate("create unique index filesIdx on files (parentId, nameId)");
 			
 			/* Create the "fileIncludes" table */
 			stat.executeUpdate("create table fileIncludes ( fileId1 integer, fileId2 integer, usage integer)");
@@ -347,7 +436,7 @@ import com.buildml.model.IPackageMemberMgr;
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to initialize database schema", e);
 		}
-		setFastAccessMode(false);
+		commitBatch();
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -366,6 +455,7 @@ import com.buildml.model.IPackageMemberMgr;
 			Statement stat = dbConn.createStatement();
 			stat.executeUpdate("drop table if exists schemaVersion");
 			stat.executeUpdate("drop table if exists files");
+			stat.executeUpdate("drop table if exists fileNames");
 			stat.executeUpdate("drop table if exists fileIncludes");
 			stat.executeUpdate("drop table if exists buildActions");
 			stat.executeUpdate("drop table if exists actionFiles");
@@ -385,13 +475,13 @@ import com.buildml.model.IPackageMemberMgr;
 	/**
 	 * Specify whether database access should be fast (true) or safe (false). Fast
 	 * access is considerably faster than safe access, but won't ensure that
-	 * changes are written to the disk. Only use fast access for "large write" operations.
+	 * changes are written to the disk. Callers outside this class should use batches
+	 * (see beginBatch()), which are implemented on top of fast access mode.
 	 * 
 	 * @param fast Set to true to enable fast access, or false for safe access.
 	 * @return The previous "fast access" state (before this call was made).
 	 */
-	/* package private */	
-	boolean setFastAccessMode(boolean fast){
+	private boolean setFastAccessMode(boolean fast){
 				
 		/* if there's no state change, do nothing */
 		if (fast == fastAccessMode) {
@@ -401,6 +491,11 @@ import com.buildml.model.IPackageMemberMgr;
 		/* make sure the database connection is still open */
 		checkDatabase();
 
+		/* any queued rows must be committed along with everything else */
+		if (!fast) {
+			flushBulkWrites();
+		}
+		
 		try {
 			dbConn.setAutoCommit(!fast);
 		} catch (SQLException e) {
@@ -408,6 +503,7 @@ import com.buildml.model.IPackageMemberMgr;
 		}
 		
 		fastAccessMode = fast;
+		uncommittedChanges = false;
 		
 		/* the state has now flipped - return the previous state */
 		return !fast;
@@ -415,6 +511,167 @@ import com.buildml.model.IPackageMemberMgr;
 
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Start a batch of database changes. None of the changes are committed until the
+	 * matching call to commitBatch(). Batches may be nested, in which case only the
+	 * outermost batch commits.
+	 */
+	/* package private */
+	void beginBatch() {
+		
+		/* make sure the database connection is still open */
+		checkDatabase();
+		
+		if (batchDepth == 0) {
+			setFastAccessMode(true);
+			batchRollbackRequired = false;
+		}
+		batchDepth++;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Finish the current batch of database changes. If this is the outermost batch, all
+	 * changes made since beginBatch() are committed (unless a nested batch was rolled back).
+	 * 
+	 * @return True if the database changes were rolled back, rather than committed.
+	 */
+	/* package private */
+	boolean commitBatch() {
+		return endBatch(false);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Finish the current batch of database changes, discarding the changes. SQLite doesn't
+	 * support partial rollback (savepoints), so if this is a nested batch, all changes 
+	 * made since the outermost beginBatch() are discarded once the outermost batch finishes.
+	 * 
+	 * @return True if the database changes were rolled back (that is, if this is the
+	 * outermost batch).
+	 */
+	/* package private */
+	boolean rollbackBatch() {
+		return endBatch(true);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Register a manager that's capable of queuing new rows while the database is
+	 * in bulk write mode.
+	 * 
+	 * @param writer The manager to be registered.
+	 */
+	/* package private */
+	void addBulkWriter(IBulkWriter writer) {
+		bulkWriters.add(writer);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Specify whether new rows should be queued in memory (true), and written to the
+	 * database in large batches, or whether they should be inserted immediately (false).
+	 * Queued rows are automatically flushed before any other database access takes place, 
+	 * so this is only beneficial for long sequences of insert operations (such as when
+	 * importing a build trace). Disabling bulk write mode flushes all queued rows.
+	 * 
+	 * @param bulk Set to true to enable bulk write mode, or false to disable it.
+	 * @return The previous "bulk write" state (before this call was made).
+	 */
+	/* package private */
+	boolean setBulkWriteMode(boolean bulk) {
+		
+		/* if there's no state change, do nothing */
+		if (bulk == bulkWriteMode) {
+			return bulk;
+		}
+		
+		/* make sure the database connection is still open */
+		checkDatabase();
+
+		if (bulk) {
+			bulkWriteMode = true;
+			for (IBulkWriter writer : bulkWriters) {
+				writer.beginBulkWrite();
+			}
+		} else {
+			flushBulkWrites();
+			bulkWriteMode = false;
+		}
+
+		/* the state has now flipped - return the previous state */
+		return !bulk;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return True if the database is in bulk write mode, else false.
+	 */
+	/* package private */
+	boolean isBulkWriteMode() {
+		return bulkWriteMode;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Record the fact that a bulk writer has queued new rows, which must be flushed
+	 * before the database is next accessed.
+	 */
+	/* package private */
+	void markBulkWritesPending() {
+		bulkWritesPending = true;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Ask all bulk writers to write their queued rows to the database. If there are no 
+	 * queued rows, this method returns immediately.
+	 */
+	/* package private */
+	void flushBulkWrites() {
+		if (!bulkWritesPending) {
+			return;
+		}
+		
+		/* clear the flag first, since the writers will themselves access the database */
+		bulkWritesPending = false;
+		for (IBulkWriter writer : bulkWriters) {
+			writer.flushBulkWrites();
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Execute all the commands that have been added to a prepared statement's batch (via
+	 * the addBatch() method). Note that this method does not flush any queued bulk writes,
+	 * since it's used for performing that flush.
+	 * 
+	 * @param stmt The prepared statement containing the batch of commands.
+	 */
+	/* package private */
+	void executePrepBatch(PreparedStatement stmt) {
+		
+		/* make sure the database connection is still open */
+		checkDatabase();
+
+		try {
+			stmt.executeBatch();
+			uncommittedChanges = fastAccessMode;
+		} catch (SQLException e) {
+			throw new FatalBuildStoreError("Error executing SQL batch: ", e);
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * Execute a (non-prepared) SQL statement of any update-style command. That is,
 	 * there can't be any results returned from this command.
@@ -428,11 +685,14 @@ import com.buildml.model.IPackageMemberMgr;
 		/* make sure the database connection is still open */
 		checkDatabase();
 
+		flushBulkWrites();
+		
 		Statement stmt;
 		int rowCount = 0;
 		try {
 			stmt = dbConn.createStatement();
 			rowCount = stmt.executeUpdate(sql);
+			uncommittedChanges = fastAccessMode;
 			stmt.close();
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error executing SQL: " + sql, e);
@@ -452,6 +712,22 @@ import com.buildml.model.IPackageMemberMgr;
 	 */
 	/* package private */
 	int executePrepUpdate(PreparedStatement stmt) {
+		flushBulkWrites();
+		return executePrepUpdateNoFlush(stmt);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * The same as executePrepUpdate(), but without first flushing any queued bulk writes.
+	 * This should only be used by a bulk writer that has already determined that the
+	 * update can't be affected by the rows it has queued.
+	 * 
+	 * @param stmt The prepared SQL statement to execute
+	 * @return The number of rows updated after executing the statement
+	 */
+	/* package private */
+	int executePrepUpdateNoFlush(PreparedStatement stmt) {
 				
 		/* make sure the database connection is still open */
 		checkDatabase();
@@ -459,6 +735,7 @@ import com.buildml.model.IPackageMemberMgr;
 		int rowCount = 0;
 		try {
 			rowCount = stmt.executeUpdate();
+			uncommittedChanges = fastAccessMode;
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error executing SQL: ", e);
 		}
@@ -480,6 +757,8 @@ import com.buildml.model.IPackageMemberMgr;
 		/* make sure the database connection is still open */
 		checkDatabase();
 
+		flushBulkWrites();
+
 		Statement stmt;
 		ArrayList<String> result;
 		try {
@@ -512,6 +791,7 @@ import com.buildml.model.IPackageMemberMgr;
 		
 		/* make sure the database connection is still open */
 		checkDatabase();
+		flushBulkWrites();
 		
 		ArrayList<String> result;
 		try {
@@ -540,23 +820,85 @@ import com.buildml.model.IPackageMemberMgr;
 	 */
 	/* package private */
 	Integer[] executePrepSelectIntegerColumn(PreparedStatement stmt) {
+		flushBulkWrites();
+		return executePrepSelectIntegerColumnNoFlush(stmt);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * The same as executePrepSelectIntegerColumn(), but without first flushing any queued
+	 * bulk writes. This should only be used by a bulk writer that has already determined
+	 * that the query's results can't be affected by the rows it has queued.
+	 * 
+	 * @param stmt The prepared statement to be executed.
+	 * @return Returns a (possibly empty) array of results. 
+	 */
+	/* package private */
+	Integer[] executePrepSelectIntegerColumnNoFlush(PreparedStatement stmt) {
+		final ArrayList<Integer> result = new ArrayList<Integer>();
+		executePrepSelectIntegerColumnNoFlush(stmt, new IIntConsumer() {
+			@Override
+			public void accept(int value) {
+				result.add(value);
+			}
+		});
+		return result.toArray(new Integer[0]);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Execute a prepared database statement that returns Integer values, passing each
+	 * value to the consumer as soon as its row is read from the database. This avoids
+	 * gathering the complete result into an array, which is helpful for queries that
+	 * return a large number of rows. As with executePrepSelectIntegerColumn(), only the
+	 * first column of the result is used.
+	 * 
+	 * @param stmt The prepared statement to be executed.
+	 * @param consumer The object that receives each of the values, in the order they're
+	 * returned by the query.
+	 */
+	/* package private */
+	void executePrepSelectIntegerColumn(PreparedStatement stmt, IIntConsumer consumer) {
+		flushBulkWrites();
+		executePrepSelectIntegerColumnNoFlush(stmt, consumer);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * The same as executePrepSelectIntegerColumn(PreparedStatement, IIntConsumer), but
+	 * without first flushing any queued bulk writes.
+	 * 
+	 * @param stmt The prepared statement to be executed.
+	 * @param consumer The object that receives each of the values.
+	 */
+	/* package private */
+	void executePrepSelectIntegerColumnNoFlush(PreparedStatement stmt, IIntConsumer consumer) {
 				
 		/* make sure the database connection is still open */
 		checkDatabase();
 
-		ArrayList<Integer> result;
+		ResultSet rs = null;
 		try {
-			ResultSet rs = stmt.executeQuery();
-			result = new ArrayList<Integer>();
+			rs = stmt.executeQuery();
 			while (rs.next()){
-				result.add(rs.getInt(1));
+				consumer.accept(rs.getInt(1));
 			}
-			rs.close();
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error executing SQL:", e);
+		} finally {
+			
+			/* the consumer may have thrown an exception, but we still need to close */
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (SQLException e) {
+					/* nothing we can do */
+				}
+			}
 		}
-		
-		return result.toArray(new Integer[0]);
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -571,6 +913,22 @@ import com.buildml.model.IPackageMemberMgr;
 	 */
 	/* package private */
 	ResultSet executePrepSelectResultSet(PreparedStatement stmt) {
+		flushBulkWrites();
+		return executePrepSelectResultSetNoFlush(stmt);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * The same as executePrepSelectResultSet(), but without first flushing any queued
+	 * bulk writes. This should only be used by a bulk writer that has already determined
+	 * that the query's results can't be affected by the rows it has queued.
+	 * 
+	 * @param stmt The prepared SQL statement to be executed.
+	 * @return The ResultSet from the database query.
+	 */
+	/* package private */
+	ResultSet executePrepSelectResultSetNoFlush(PreparedStatement stmt) {
 				
 		/* make sure the database connection is still open */
 		checkDatabase();
@@ -601,9 +959,11 @@ import com.buildml.model.IPackageMemberMgr;
 		/* make sure the database connection is still open */
 		checkDatabase();
 
+		flushBulkWrites();
+
 		ResultSet rs;
 		try {
-			Statement stmt = dbConn.createStatement();
+			Statement stmt = getReadConnection().createStatement();
 			rs = stmt.executeQuery(sql);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error executing SQL:", e);
@@ -627,7 +987,7 @@ import com.buildml.model.IPackageMemberMgr;
 		/* make sure the database connection is still open */
 		checkDatabase();
 		
-		Integer lastRowID[] = executePrepSelectIntegerColumn(lastRowIDPrepStmt);
+		Integer lastRowID[] = executePrepSelectIntegerColumnNoFlush(lastRowIDPrepStmt);
 		return lastRowID[0];
 	}
 
@@ -654,6 +1014,69 @@ import com.buildml.model.IPackageMemberMgr;
 
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Create a read-only (select) statement that may be executed by multiple threads at the
+	 * same time. Each thread executes its own copy of the statement, on the connection
+	 * returned by getReadConnection().
+	 * 
+	 * @param sql The SQL query to be prepared.
+	 * @return The statement, from which each thread obtains its own PreparedStatement.
+	 */
+	/* package private */
+	ReadStatement prepareReadStatement(String sql) {
+		ReadStatement stmt = new ReadStatement(this, sql);
+		synchronized (readStatements) {
+			readStatements.add(stmt);
+		}
+		return stmt;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Return the connection that the calling thread should use for executing queries. The
+	 * thread that created this database always uses the main connection, as does every
+	 * thread if the database is held in memory, or if there are uncommitted changes (since
+	 * they aren't visible to other connections). Otherwise, each thread is
+	 * given its own connection, so that queries from different threads can run in parallel.
+	 * Updates are always performed on the main connection.
+	 * <p>
+	 * The driver serializes each individual call on the shared main connection, but not
+	 * a complete query. A query that falls back to the main connection could therefore
+	 * see a partially-complete batch, or cause the batch's commit or rollback to fail.
+	 * The IFileMgr and IReportMgr interfaces document that queries must not run at the
+	 * same time as changes in this case.
+	 * 
+	 * @return The connection on which the calling thread's queries should be executed.
+	 */
+	/* package private */
+	Connection getReadConnection() {
+		
+		/* make sure the database connection is still open */
+		checkDatabase();
+		
+		if (saveRequired || uncommittedChanges || (Thread.currentThread() == ownerThread)) {
+			return dbConn;
+		}
+		
+		Connection conn = readConnection.get();
+		if (conn == null) {
+			try {
+				conn = DriverManager.getConnection("jdbc:sqlite:" + databaseFileName);
+			} catch (SQLException e) {
+				throw new FatalBuildStoreError("Unable to open read connection to " + 
+												databaseFileName, e);
+			}
+			synchronized (readConnectionPool) {
+				readConnectionPool.add(conn);
+			}
+			readConnection.set(conn);
+		}
+		return conn;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * Close a database connection, releasing all resources. From this point on,
 	 * none of the methods in the class may be used (they'll simply throw an
@@ -674,21 +1097,23 @@ import com.buildml.model.IPackageMemberMgr;
 		
 		/* make sure all changes are committed */
 		setFastAccessMode(false);
+		synchronized (readStatements) {
+			for (ReadStatement stmt : readStatements) {
+				stmt.close();
+			}
+		}
 		try {
+			synchronized (readConnectionPool) {
+				for (Connection conn : readConnectionPool) {
+					conn.close();
+				}
+				readConnectionPool.clear();
+			}
 			dbConn.close();
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to close database connection: " + e);
 		}
 		
-		/*
-		 * If this BuildStore was opened with the "saveRequired" flag set, we can now
-		 * delete the temporary file. The caller *should have* saved the database
-		 * if they actually want to keep the content.
-		 */
-		if (saveRequired) {
-			new File(tempDatabaseFileName).delete();
-		}
-		
 		/* 
 		 * Make the connection variable unusable - this will result in exceptions being
 		 * thrown if somebody try to use it.
@@ -700,25 +1125,33 @@ import com.buildml.model.IPackageMemberMgr;
 
 	/**
 	 * Save the content of this database to disk. This method only has an effect if
-	 * the database was created with savedRequired == true, in which case a temporary
-	 * copy of the original database was used. This method saves the temporary database
-	 * on top of the original (user-facing) file.
+	 * the database was created with savedRequired == true, in which case the database
+	 * is held in memory. This method writes the in-memory database on top of the original
+	 * (user-facing) file.
+	 * <p>
+	 * If the file is the same one that the database was last loaded from (or saved to),
+	 * only the rows that have changed since then are written, in a single transaction.
+	 * Otherwise, the whole database is written to a new file, which then replaces the
+	 * original file. Either way, a failed save never leaves a partially written database.
 	 * @throws IOException Unable to save the database.
 	 */
 	public void save() throws IOException {
 		if (saveRequired) {
-			setFastAccessMode(false);
-			FileUtils.copyFile(new File(tempDatabaseFileName), new File(databaseFileName));
 			
-			/*
-			 * We must now empty the trash on the file that was saved, so that it no longer
-			 * includes all objects (actions, file groups, etc) that were deleted. However,
-			 * we must NOT empty the trash on the temporary database, since the user can
-			 * still do "undo" the delete.
-			 */
-			BuildStoreDB emptyTrashDB = new BuildStoreDB(databaseFileName, false);
-			emptyTrashDB.emptyTrash();
-			emptyTrashDB.close();
+			/* make sure the database connection is still open */
+			checkDatabase();
+
+			/* all changes must be committed before the database can be copied */
+			boolean prevState = setFastAccessMode(false);
+			try {
+				if (databaseFileName.equals(syncedFileName) && new File(databaseFileName).exists()) {
+					saveChanges();
+				} else {
+					saveAll();
+				}
+			} finally {
+				setFastAccessMode(prevState);
+			}
 		}
 	}
 	
@@ -727,8 +1160,8 @@ import com.buildml.model.IPackageMemberMgr;
 	/**
 	 * Save the content of this database to disk, using the caller-specified file name.
 	 * This method only has an effect if the database was created with savedRequired == true, 
-	 * in which case a temporary copy of the original database was used. This method saves
-	 * the temporary database on top of the caller-specified file.
+	 * in which case the database is held in memory. This method saves the in-memory
+	 * database on top of the caller-specified file.
 	 * @param fileToSave New name of the database file. This new name becomes the default
 	 * name for all future "save" operations.
 	 * @throws IOException Unable to save the database.
@@ -748,35 +1181,12 @@ import com.buildml.model.IPackageMemberMgr;
 	 * @throws FatalBuildStoreError Something went wrong.
 	 */
 	public void emptyTrash() throws FatalBuildStoreError {
+		
+		/* queued rows must be in the database before we can decide what to delete */
+		flushBulkWrites();
+		
 		try {
-			Statement stat = dbConn.createStatement();
-			
-			/* delete entries from packageMembers where the files, actions or sub-packages have been trashed */
-			stat.executeUpdate("delete from packageMembers where memberType = " + 
-									IPackageMemberMgr.TYPE_FILE + " and memberId in " + 
-									"(select id from files where trashed=1)");
-			stat.executeUpdate("delete from packageMembers where memberType = " + 
-									IPackageMemberMgr.TYPE_ACTION + " and memberId in " + 
-									"(select actionId from buildActions where trashed=1)");
-			stat.executeUpdate("delete from packageMembers where memberType = " + 
-									IPackageMemberMgr.TYPE_SUB_PACKAGE + " and memberId in " + 
-									"(select subPkgId from subPackages where trashed=1)");
-			
-			/* delete empty file groups (and their package membership) */
-			stat.executeUpdate("delete from fileGroups where id not in " +
-								"(select groupId from fileGroupPaths group by groupId)");
-			stat.executeUpdate("delete from packageMembers where memberType = " +
-								IPackageMemberMgr.TYPE_FILE_GROUP + 
-								" and memberId not in " +
-									"(select groupId from fileGroupPaths group by groupId)");
-			
-			/* now delete the files and actions themselves */
-			stat.executeUpdate("delete from fileAttrs where pathId in (select id from files where trashed=1);");
-			stat.executeUpdate("delete from files where trashed=1");
-			stat.executeUpdate("delete from buildActions where trashed=1;");
-			stat.executeUpdate("delete from subPackages where trashed=1;");
-			stat.executeUpdate("delete from slotTypes where trashed=1;");
-						
+			emptyTrash(dbConn, "main");
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to remove trashed files and actions", e);
 		}
@@ -807,4 +1217,435 @@ import com.buildml.model.IPackageMemberMgr;
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Purge a database of any trashed files or actions.
+	 * 
+	 * @param conn The connection to the database to be purged.
+	 * @param dbName The name of the database (e.g. "main") to be purged.
+	 * @throws SQLException Something went wrong.
+	 */
+	private static void emptyTrash(Connection conn, String dbName) throws SQLException {
+		
+		Statement stat = conn.createStatement();
+		for (String rule[] : TRASH_ROWS) {
+			stat.executeUpdate("delete from " + dbName + "." + rule[0] + " where " + 
+								rule[1].replace("DB.", dbName + "."));
+		}
+		stat.close();
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Record all the rows of the in-memory database that emptyTrash() would delete as
+	 * changed rows. The trash is purged from the saved file, so this makes sure that
+	 * the next save writes those rows again (for example, if a trashed path has since
+	 * been revived, its package membership and attributes are restored). The next save
+	 * then purges any rows that are still trashed.
+	 * 
+	 * @throws SQLException Something went wrong.
+	 */
+	private void recordTrashAsChanged() throws SQLException {
+		
+		Statement stat = dbConn.createStatement();
+		for (String rule[] : TRASH_ROWS) {
+			stat.executeUpdate("insert or ignore into temp.changedRows select '" + rule[0] + 
+								"', rowid from main." + rule[0] + " where " + 
+								rule[1].replace("DB.", "main."));
+		}
+		stat.close();
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Write the whole in-memory database to a new file, then replace the user-facing
+	 * database file with the new file. From this point on, changes are recorded so that
+	 * future saves to the same file can be incremental.
+	 * 
+	 * @throws IOException Unable to save the database.
+	 */
+	private void saveAll() throws IOException {
+		
+		File databaseFile = new File(databaseFileName);
+		File saveFile = new File(databaseFileName + ".save");
+		saveFile.delete();
+		Connection saveConn = null;
+		try {
+			saveConn = DriverManager.getConnection("jdbc:sqlite:" + saveFile);
+			
+			/* create the tables, copy their content, then create the indices */
+			executeAll(saveConn, getSchema(dbConn, "main", "table"));
+			attachDatabase(saveFile.toString());
+			copyTables("main", ATTACHED_DB_NAME);
+			detachDatabase();
+			executeAll(saveConn, getSchema(dbConn, "main", "index"));
+			
+			/*
+			 * We must now empty the trash on the file that was saved, so that it no longer
+			 * includes all objects (actions, file groups, etc) that were deleted. However,
+			 * we must NOT empty the trash on the in-memory database, since the user can
+			 * still do "undo" the delete.
+			 */
+			emptyTrash(saveConn, "main");
+			saveConn.close();
+			saveConn = null;
+			
+		} catch (SQLException e) {
+			saveFile.delete();
+			throw new IOException("Unable to save " + databaseFileName + ". " + e.getMessage());
+		
+		} finally {
+			if (saveConn != null) {
+				try {
+					saveConn.close();
+				} catch (SQLException e) {
+					/* nothing we can do - we're already reporting an error */
+				}
+			}
+		}
+		
+		/* replace the original database file with the newly saved file */
+		if (!saveFile.renameTo(databaseFile)) {
+			databaseFile.delete();
+			if (!saveFile.renameTo(databaseFile)) {
+				saveFile.delete();
+				throw new IOException("Unable to save " + databaseFileName);
+			}
+		}
+		
+		/* 
+		 * The database file is now identical to our in-memory database (except for trash,
+		 * which is recorded as changed, so that it's written again if it's revived).
+		 */
+		try {
+			startChangeTracking();
+			recordTrashAsChanged();
+		} catch (SQLException e) {
+			throw new FatalBuildStoreError("Unable to record database changes", e);
+		}
+		syncedFileName = databaseFileName;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Update the user-facing database file with only the rows that have changed since
+	 * the file was last loaded or saved. The changed rows are written, and the trash is
+	 * emptied, in a single transaction. As with saveAll(), the rows of trashed objects
+	 * are then recorded as changed, in case they're revived before the next save.
+	 * 
+	 * @throws IOException Unable to save the database.
+	 */
+	private void saveChanges() throws IOException {
+		try {
+			attachDatabase(databaseFileName);
+			Statement stat = dbConn.createStatement();
+			dbConn.setAutoCommit(false);
+			try {
+				/* for each table with changed rows, replace the old rows with the new rows */
+				List<String> tableNames = new ArrayList<String>();
+				ResultSet rs = stat.executeQuery("select distinct tableName from temp.changedRows");
+				while (rs.next()) {
+					tableNames.add(rs.getString(1));
+				}
+				rs.close();
+				
+				for (String tableName : tableNames) {
+					String columns = getColumnList("main", tableName);
+					String changedRowIds = "(select rowId from temp.changedRows where tableName = '" +
+												tableName + "')";
+					stat.executeUpdate("delete from " + ATTACHED_DB_NAME + "." + tableName + 
+										" where rowid in " + changedRowIds);
+					stat.executeUpdate("insert into " + ATTACHED_DB_NAME + "." + tableName + 
+										" (" + columns + ") select " + columns + " from main." + tableName + 
+										" where rowid in " + changedRowIds);
+				}
+				
+				stat.executeUpdate("delete from temp.changedRows");
+				
+				/* the saved file must not include trashed objects (see saveAll()) */
+				emptyTrash(dbConn, ATTACHED_DB_NAME);
+				recordTrashAsChanged();
+				dbConn.commit();
+				
+			} catch (SQLException e) {
+				dbConn.rollback();
+				throw e;
+			
+			} finally {
+				dbConn.setAutoCommit(true);
+				stat.close();
+				detachDatabase();
+			}
+			
+		} catch (SQLException e) {
+			throw new IOException("Unable to save " + databaseFileName + ". " + e.getMessage());
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Start recording the rows of the in-memory database that are inserted, updated or
+	 * deleted. This is done with (temporary) triggers that add the table name and row ID
+	 * of each changed row to the changedRows table. If changes are already being recorded,
+	 * the record of changes is simply discarded.
+	 * 
+	 * @throws SQLException Unable to create the triggers.
+	 */
+	private void startChangeTracking() throws SQLException {
+		Statement stat = dbConn.createStatement();
+		if (trackingChanges) {
+			stat.executeUpdate("delete from temp.changedRows");
+			stat.close();
+			return;
+		}
+		
+		stat.executeUpdate("create temp table changedRows (tableName text, rowId integer, " +
+							"primary key (tableName, rowId))");
+		for (String tableName : getTableNames("main")) {
+			/* note: SQLite doesn't allow qualified table names within a trigger */
+			String record = "insert or ignore into changedRows values ('" + tableName + "', ";
+			stat.executeUpdate("create temp trigger " + tableName + "Inserted after insert on main." + 
+								tableName + " begin " + record + "new.rowid); end");
+			stat.executeUpdate("create temp trigger " + tableName + "Updated after update on main." + 
+								tableName + " begin " + record + "old.rowid); " + record + "new.rowid); end");
+			stat.executeUpdate("create temp trigger " + tableName + "Deleted after delete on main." + 
+								tableName + " begin " + record + "old.rowid); end");
+		}
+		stat.close();
+		trackingChanges = true;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Load the content of an existing database file into our (in-memory) database.
+	 * 
+	 * @param fileName The database file to load.
+	 * @throws SQLException The database file couldn't be read.
+	 */
+	private void loadDatabase(String fileName) throws SQLException {
+		attachDatabase(fileName);
+		try {
+			/* the indices are created after the content is loaded, which is much faster */
+			executeAll(dbConn, getSchema(dbConn, ATTACHED_DB_NAME, "table"));
+			copyTables(ATTACHED_DB_NAME, "main");
+			executeAll(dbConn, getSchema(dbConn, ATTACHED_DB_NAME, "index"));
+		} finally {
+			detachDatabase();
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Attach a database file to our connection, with the name ATTACHED_DB_NAME. The
+	 * file is created if it doesn't already exist.
+	 * 
+	 * @param fileName The database file to attach.
+	 * @throws SQLException The database file couldn't be attached.
+	 */
+	private void attachDatabase(String fileName) throws SQLException {
+		Statement stat = dbConn.createStatement();
+		stat.executeUpdate("attach database '" + fileName.replace("'", "''") + "' as " + 
+							ATTACHED_DB_NAME);
+		stat.close();
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Detach the database that was attached by attachDatabase().
+	 * 
+	 * @throws SQLException The database couldn't be detached.
+	 */
+	private void detachDatabase() throws SQLException {
+		Statement stat = dbConn.createStatement();
+		stat.executeUpdate("detach database " + ATTACHED_DB_NAME);
+		stat.close();
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Fetch the SQL commands that create a database's tables or indices. SQLite's
+	 * internal tables, and automatically created indices, are not included.
+	 * 
+	 * @param conn The connection to query.
+	 * @param dbName The name of the database (e.g. "main") to fetch the schema of.
+	 * @param type Either "table" or "index".
+	 * @return The SQL "create" commands.
+	 * @throws SQLException The schema couldn't be read.
+	 */
+	private static List<String> getSchema(Connection conn, String dbName, String type) 
+		throws SQLException {
+		
+		List<String> result = new ArrayList<String>();
+		Statement stat = conn.createStatement();
+		ResultSet rs = stat.executeQuery("select sql from " + dbName + ".sqlite_master where type = '" + 
+										type + "' and sql not null and name not like 'sqlite_%'");
+		while (rs.next()) {
+			result.add(rs.getString(1));
+		}
+		rs.close();
+		stat.close();
+		return result;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Execute a list of SQL commands.
+	 * 
+	 * @param conn The connection to execute the commands on.
+	 * @param sqlCommands The SQL commands to execute.
+	 * @throws SQLException One of the commands failed.
+	 */
+	private static void executeAll(Connection conn, List<String> sqlCommands) throws SQLException {
+		Statement stat = conn.createStatement();
+		for (String sql : sqlCommands) {
+			stat.executeUpdate(sql);
+		}
+		stat.close();
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Copy the content of all tables from one database to another. The tables must already
+	 * exist (and be empty) in the destination database. Row IDs are preserved, so that
+	 * rows can later be matched between the two databases. The copy is performed in a single
+	 * transaction.
+	 * 
+	 * @param fromDbName The name of the database to copy from (e.g. "main").
+	 * @param toDbName The name of the database to copy to.
+	 * @throws SQLException The copy failed.
+	 */
+	private void copyTables(String fromDbName, String toDbName) throws SQLException {
+		List<String> tableNames = getTableNames(fromDbName);
+		List<String> columnLists = new ArrayList<String>();
+		for (String tableName : tableNames) {
+			columnLists.add(getColumnList(fromDbName, tableName));
+		}
+
+		Statement stat = dbConn.createStatement();
+		boolean autoCommit = dbConn.getAutoCommit();
+		dbConn.setAutoCommit(false);
+		try {
+			for (int i = 0; i != tableNames.size(); i++) {
+				String tableName = tableNames.get(i);
+				String columns = columnLists.get(i);
+				stat.executeUpdate("insert into " + toDbName + "." + tableName + " (" + columns + 
+									") select " + columns + " from " + fromDbName + "." + tableName);
+			}
+			dbConn.commit();
+		} catch (SQLException e) {
+			dbConn.rollback();
+			throw e;
+		} finally {
+			dbConn.setAutoCommit(autoCommit);
+			stat.close();
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Helper method for commitBatch() and rollbackBatch().
+	 * 
+	 * @param rollback True if the current batch's changes should be discarded.
+	 * @return True if the database changes were rolled back.
+	 */
+	private boolean endBatch(boolean rollback) {
+		
+		/* make sure the database connection is still open */
+		checkDatabase();
+		
+		if (batchDepth == 0) {
+			throw new FatalBuildStoreError("No database batch is in progress");
+		}
+		if (rollback) {
+			batchRollbackRequired = true;
+		}
+		if (--batchDepth != 0) {
+			return false;
+		}
+		
+		/* queued rows belong to this batch, so they must be written before being discarded */
+		if (batchRollbackRequired) {
+			flushBulkWrites();
+			try {
+				dbConn.rollback();
+			} catch (SQLException e) {
+				throw new FatalBuildStoreError("Unable to roll back database changes", e);
+			}
+			uncommittedChanges = false;
+		}
+		setFastAccessMode(false);
+		return batchRollbackRequired;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Fetch the names of all tables in a database, excluding SQLite's internal tables.
+	 * 
+	 * @param dbName The name of the database (e.g. "main").
+	 * @return The table names.
+	 * @throws SQLException The schema couldn't be read.
+	 */
+	private List<String> getTableNames(String dbName) throws SQLException {
+		List<String> tableNames = new ArrayList<String>();
+		Statement stat = dbConn.createStatement();
+		ResultSet rs = stat.executeQuery("select name from " + dbName + ".sqlite_master " +
+										 "where type = 'table' and name not like 'sqlite_%'");
+		while (rs.next()) {
+			tableNames.add(rs.getString(1));
+		}
+		rs.close();
+		stat.close();
+		return tableNames;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Compute the list of columns that must be copied in order to exactly reproduce a
+	 * table's rows, including their row IDs. If the table has an "integer primary key"
+	 * column, that column is the row ID, otherwise the row ID is added to the list.
+	 * 
+	 * @param dbName The name of the database (e.g. "main").
+	 * @param tableName The name of the table.
+	 * @return A comma-separated list of column names.
+	 * @throws SQLException The schema couldn't be read.
+	 */
+	private String getColumnList(String dbName, String tableName) throws SQLException {
+		StringBuilder columns = new StringBuilder();
+		int primaryKeyColumns = 0;
+		boolean integerPrimaryKey = false;
+		Statement stat = dbConn.createStatement();
+		ResultSet rs = stat.executeQuery("pragma " + dbName + ".table_info(" + tableName + ")");
+		while (rs.next()) {
+			if (columns.length() != 0) {
+				columns.append(", ");
+			}
+			columns.append(rs.getString("name"));
+			if (rs.getInt("pk") != 0) {
+				primaryKeyColumns++;
+				integerPrimaryKey = "integer".equalsIgnoreCase(rs.getString("type"));
+			}
+		}
+		rs.close();
+		stat.close();
+		
+		if ((primaryKeyColumns != 1) || !integerPrimaryKey) {
+			columns.insert(0, "rowid, ");
+		}
+		return columns.toString();
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
 }
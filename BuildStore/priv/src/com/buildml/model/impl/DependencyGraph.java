@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.model.impl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.buildml.model.FatalBuildStoreError;
+import com.buildml.model.types.FileSet;
+import com.buildml.utils.types.IIntConsumer;
+
+/**
+ * An in-memory copy of the "read" and "write" file-accesses in the actionFiles table,
+ * used by the ReportMgr to compute derived and input files, without querying the database
+ * once per file. Each direction of the file to action to file graph is stored as a pair
+ * of primitive arrays (in compressed sparse row form): for each file, the actions that
+ * read (or write) it and, for each action, the files that it writes (or reads).
+ * <p>
+ * A DependencyGraph is immutable once constructed, so may be traversed by multiple
+ * threads at the same time.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package private */ class DependencyGraph {
+
+	/*=====================================================================================*
+	 * TYPES/FIELDS
+	 *=====================================================================================*/
+
+	/**
+	 * A mapping from each source node (file or action) to its neighbours. The neighbours
+	 * of node N are targets[offsets[N]] to targets[offsets[N + 1] - 1].
+	 */
+	private static class Adjacency {
+
+		/** Index into targets[] of each node's first neighbour (with one extra entry). */
+		int offsets[];
+
+		/** The neighbours of all nodes, stored consecutively. */
+		int targets[];
+	}
+
+	/**
+	 * A single task within one round of a traversal. This expands a range of the round's
+	 * frontier, collecting the newly visited actions and newly found files in its own
+	 * BitSets.
+	 */
+	private static class RoundTask implements Runnable {
+
+		/** The mappings to traverse from files to actions, and from actions to files. */
+		private Adjacency fileToAction, actionToFile;
+
+		/** The round's frontier, and the range of it that this task expands. */
+		private int frontier[], start, end;
+
+		/** The actions visited, and files found, in earlier rounds (read only). */
+		private BitSet visitedActions, foundFiles;
+
+		/** The actions visited, and files found, by this task. */
+		BitSet newActions = new BitSet(), newFiles = new BitSet();
+
+		/**
+		 * Create a new RoundTask.
+		 *
+		 * @param fileToAction The mapping from files to actions.
+		 * @param actionToFile The mapping from actions to files.
+		 * @param frontier The round's frontier.
+		 * @param start The index of the first frontier file to expand.
+		 * @param end The index after the last frontier file to expand.
+		 * @param visitedActions The actions visited in earlier rounds.
+		 * @param foundFiles The files found in earlier rounds.
+		 */
+		RoundTask(Adjacency fileToAction, Adjacency actionToFile, int frontier[], 
+				int start, int end, BitSet visitedActions, BitSet foundFiles) {
+			this.fileToAction = fileToAction;
+			this.actionToFile = actionToFile;
+			this.frontier = frontier;
+			this.start = start;
+			this.end = end;
+			this.visitedActions = visitedActions;
+			this.foundFiles = foundFiles;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			for (int f = start; f != end; f++) {
+				int fileId = frontier[f];
+				if (fileId >= fileToAction.offsets.length - 1) {
+					continue;
+				}
+				for (int i = fileToAction.offsets[fileId]; i != fileToAction.offsets[fileId + 1]; i++) {
+					int actionId = fileToAction.targets[i];
+					if (visitedActions.get(actionId) || newActions.get(actionId)) {
+						continue;
+					}
+					newActions.set(actionId);
+					for (int j = actionToFile.offsets[actionId]; j != actionToFile.offsets[actionId + 1]; j++) {
+						int foundFileId = actionToFile.targets[j];
+						if (!foundFiles.get(foundFileId)) {
+							newFiles.set(foundFileId);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The minimum number of frontier files given to each task, when a round of a
+	 * traversal is split across multiple threads.
+	 */
+	private static final int MIN_FILES_PER_TASK = 1000;
+
+	/** For each file, the actions that read the file. */
+	private Adjacency fileReaders;
+
+	/** For each file, the actions that write the file. */
+	private Adjacency fileWriters;
+
+	/** For each action, the files that the action reads. */
+	private Adjacency actionReads;
+
+	/** For each action, the files that the action writes. */
+	private Adjacency actionWrites;
+
+	/*=====================================================================================*
+	 * CONSTRUCTORS
+	 *=====================================================================================*/
+
+	/**
+	 * Create a new DependencyGraph from a list of file-accesses. The input arrays are
+	 * indexed in parallel, with the first "count" entries being valid.
+	 *
+	 * @param actionIds The action performing each access.
+	 * @param fileIds The file being accessed.
+	 * @param isWrite True if the access is a write, or false if it's a read.
+	 * @param count The number of file-accesses.
+	 */
+	/* package private */
+	DependencyGraph(int actionIds[], int fileIds[], boolean isWrite[], int count) {
+
+		/* determine the largest file and action IDs, so we know how many nodes there are */
+		int maxActionId = -1, maxFileId = -1;
+		for (int i = 0; i != count; i++) {
+			maxActionId = Math.max(maxActionId, actionIds[i]);
+			maxFileId = Math.max(maxFileId, fileIds[i]);
+		}
+
+		fileReaders = buildAdjacency(fileIds, actionIds, isWrite, false, count, maxFileId);
+		fileWriters = buildAdjacency(fileIds, actionIds, isWrite, true, count, maxFileId);
+		actionReads = buildAdjacency(actionIds, fileIds, isWrite, false, count, maxActionId);
+		actionWrites = buildAdjacency(actionIds, fileIds, isWrite, true, count, maxActionId);
+	}
+
+	/*=====================================================================================*
+	 * PUBLIC METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Perform a breadth-first traversal of the graph, to find the files that are derived
+	 * from a set of start files (that is, written by an action that reads a start file),
+	 * or the files that are input to the start files (read by an action that writes a
+	 * start file).
+	 * <p>
+	 * The traversal proceeds in rounds, with each round expanding the files found by the
+	 * previous round. A large round is split across multiple threads, each of which collects
+	 * its own results, and the results are merged once all threads have finished.
+	 *
+	 * @param startFileSet The files to start the traversal from.
+	 * @param derived True to find the derived files, or false to find the input files.
+	 * @param reportIndirect True to repeat the traversal from each newly-found file,
+	 *        until no more files are found, or false to report only the direct results.
+	 * @param executor The executor for running each round in parallel, or null to
+	 *        run everything in the calling thread.
+	 * @param parallelism The maximum number of tasks to split each round into.
+	 * @param consumer Invoked (in the calling thread) once for each file that's found.
+	 *        The start files are only reported if they're derived from (or input to)
+	 *        another start file.
+	 */
+	public void traverse(FileSet startFileSet, boolean derived, boolean reportIndirect,
+			ExecutorService executor, int parallelism, IIntConsumer consumer) {
+
+		Adjacency fileToAction = derived ? fileReaders : fileWriters;
+		Adjacency actionToFile = derived ? actionWrites : actionReads;
+
+		/* the first round's frontier is the start files */
+		int frontier[] = new int[startFileSet.size()];
+		int frontierSize = 0;
+		for (int fileId : startFileSet) {
+			frontier[frontierSize++] = fileId;
+		}
+
+		/*
+		 * Each action's files only need to be visited once, no matter how many of the
+		 * action's files are in the frontier. Likewise, each file is only reported once.
+		 * These are only modified between rounds, so may be read by all tasks.
+		 */
+		BitSet visitedActions = new BitSet();
+		BitSet foundFiles = new BitSet();
+
+		while (frontierSize != 0) {
+
+			/* split the frontier into tasks, unless it's too small to be worthwhile */
+			int numTasks = 1;
+			if (executor != null) {
+				numTasks = Math.max(1, Math.min(parallelism, frontierSize / MIN_FILES_PER_TASK));
+			}
+			RoundTask tasks[] = new RoundTask[numTasks];
+			for (int i = 0; i != numTasks; i++) {
+				tasks[i] = new RoundTask(fileToAction, actionToFile, frontier, 
+						(int)((long)frontierSize * i / numTasks), 
+						(int)((long)frontierSize * (i + 1) / numTasks),
+						visitedActions, foundFiles);
+			}
+			if (numTasks == 1) {
+				tasks[0].run();
+			} else {
+				runInParallel(executor, tasks);
+			}
+
+			/* merge each task's results */
+			BitSet newFiles = new BitSet();
+			for (RoundTask task : tasks) {
+				visitedActions.or(task.newActions);
+				newFiles.or(task.newFiles);
+			}
+			foundFiles.or(newFiles);
+
+			/* report the new files, which are also the next round's frontier */
+			frontierSize = 0;
+			if (reportIndirect && (frontier.length < newFiles.cardinality())) {
+				frontier = new int[newFiles.cardinality()];
+			}
+			for (int fileId = newFiles.nextSetBit(0); fileId >= 0; fileId = newFiles.nextSetBit(fileId + 1)) {
+				consumer.accept(fileId);
+				if (reportIndirect) {
+					frontier[frontierSize++] = fileId;
+				}
+			}
+		}
+	}
+
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Run a round's tasks using the executor, and wait for them all to finish.
+	 *
+	 * @param executor The executor to run the tasks.
+	 * @param tasks The tasks to run.
+	 */
+	private static void runInParallel(ExecutorService executor, RoundTask tasks[]) {
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (RoundTask task : tasks) {
+			futures.add(executor.submit(task));
+		}
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			throw new FatalBuildStoreError("Interrupted while traversing file dependencies", e);
+		} catch (ExecutionException e) {
+			throw new FatalBuildStoreError("Failed to traverse file dependencies", e.getCause());
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Build the adjacency arrays for one direction of the graph, using a counting sort.
+	 *
+	 * @param sources The source node of each file-access.
+	 * @param targets The target node of each file-access.
+	 * @param isWrite True if each file-access is a write.
+	 * @param writes True to include only the write accesses, or false for only the reads.
+	 * @param count The number of file-accesses.
+	 * @param maxSource The largest source node ID.
+	 * @return The adjacency arrays.
+	 */
+	private static Adjacency buildAdjacency(int sources[], int targets[], boolean isWrite[],
+			boolean writes, int count, int maxSource) {
+
+		Adjacency result = new Adjacency();
+		result.offsets = new int[maxSource + 2];
+
+		/* count the number of neighbours of each source node */
+		int total = 0;
+		for (int i = 0; i != count; i++) {
+			if (isWrite[i] == writes) {
+				result.offsets[sources[i] + 1]++;
+				total++;
+			}
+		}
+
+		/* convert the counts into offsets */
+		for (int i = 1; i != result.offsets.length; i++) {
+			result.offsets[i] += result.offsets[i - 1];
+		}
+
+		/* place each target into its source node's range */
+		int nextIndex[] = new int[maxSource + 1];
+		System.arraycopy(result.offsets, 0, nextIndex, 0, maxSource + 1);
+		result.targets = new int[total];
+		for (int i = 0; i != count; i++) {
+			if (isWrite[i] == writes) {
+				result.targets[nextIndex[sources[i]]++] = targets[i];
+			}
+		}
+		return result;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
@@ -50,19 +50,22 @@ import com.buildml.utils.errors.ErrorCode;
 	 * Various prepared statements for database access.
 	 */
 	private PreparedStatement 
-		selectIdFromNamePrepStmt = null,
-		selectNameFromIdPrepStmt = null,
 		insertFileAttrsNamePrepStmt = null,
-		selectOrderedNamePrepStmt = null,
 		deleteFileAttrsNamePrepStmt = null,
-		countFileAttrUsagePrepStmt = null,
 		insertFileAttrsPrepStmt = null,
-		selectValueFromFileAttrsPrepStmt = null,
 		updateFileAttrsPrepStmt = null,
 		deleteFileAttrsPrepStmt = null,
-		deleteAllFileAttrsPrepStmt = null,
+		deleteAllFileAttrsPrepStmt = null;
+	
+	/** Statements for queries that may be performed by multiple threads at the same time. */
+	private ReadStatement
+		selectIdFromNamePrepStmt = null,
+		selectNameFromIdPrepStmt = null,
+		selectOrderedNamePrepStmt = null,
+		countFileAttrUsagePrepStmt = null,
+		selectValueFromFileAttrsPrepStmt = null,
 		findAttrsOnPathPrepStmt = null,
-		findPathsWithAttrPrepStmt = null, 
+		findPathsWithAttrPrepStmt = null,
 		findPathsWithAttrValuePrepStmt = null;
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -78,14 +81,14 @@ import com.buildml.utils.errors.ErrorCode;
 		this.fileMgr = fileMgr;
 		
 		/* Prepare our database statements */
-		selectIdFromNamePrepStmt = db.prepareStatement("select id from fileAttrsName where name = ?");
-		selectNameFromIdPrepStmt = db.prepareStatement("select name from fileAttrsName where id = ?");
-		selectOrderedNamePrepStmt = db.prepareStatement("select name from fileAttrsName order by name");
+		selectIdFromNamePrepStmt = db.prepareReadStatement("select id from fileAttrsName where name = ?");
+		selectNameFromIdPrepStmt = db.prepareReadStatement("select name from fileAttrsName where id = ?");
+		selectOrderedNamePrepStmt = db.prepareReadStatement("select name from fileAttrsName order by name");
 		insertFileAttrsNamePrepStmt = db.prepareStatement("insert into fileAttrsName values (null, ?)");
 		deleteFileAttrsNamePrepStmt = db.prepareStatement("delete from fileAttrsName where name = ?");
-		countFileAttrUsagePrepStmt = db.prepareStatement("select count(*) from fileAttrs where attrId = ?");
+		countFileAttrUsagePrepStmt = db.prepareReadStatement("select count(*) from fileAttrs where attrId = ?");
 		insertFileAttrsPrepStmt = db.prepareStatement("insert into fileAttrs values (?, ?, ?)");
-		selectValueFromFileAttrsPrepStmt = db.prepareStatement(
+		selectValueFromFileAttrsPrepStmt = db.prepareReadStatement(
 				"select fileAttrs.value from files, fileAttrs " +
 		        "where (files.id = fileAttrs.pathId) and pathId = ? and attrId = ? and files.trashed = 0");
 		updateFileAttrsPrepStmt = db.prepareStatement("update fileAttrs set value = ? "
@@ -93,13 +96,13 @@ import com.buildml.utils.errors.ErrorCode;
 		deleteFileAttrsPrepStmt = db.prepareStatement("delete from fileAttrs where " +
 				"pathId = ? and attrId = ?");
 		deleteAllFileAttrsPrepStmt = db.prepareStatement("delete from fileAttrs where pathId = ?");
-		findAttrsOnPathPrepStmt = db.prepareStatement(
+		findAttrsOnPathPrepStmt = db.prepareReadStatement(
 				"select fileAttrs.attrId from files, fileAttrs " +
 		        "where (files.id = fileAttrs.pathId) and fileAttrs.pathId = ? and files.trashed = 0");
-		findPathsWithAttrPrepStmt = db.prepareStatement(
+		findPathsWithAttrPrepStmt = db.prepareReadStatement(
 				"select fileAttrs.pathId from files, fileAttrs " +
 		        "where (files.id = fileAttrs.pathId) and fileAttrs.attrId = ? and files.trashed = 0");
-		findPathsWithAttrValuePrepStmt = db.prepareStatement(
+		findPathsWithAttrValuePrepStmt = db.prepareReadStatement(
 				"select fileAttrs.pathId from files, fileAttrs " +
 		        "where (files.id = fileAttrs.pathId) and fileAttrs.attrId = ? and fileAttrs.value = ? " +
 				"and files.trashed = 0");
@@ -140,8 +143,9 @@ import com.buildml.utils.errors.ErrorCode;
 		
 		Integer results[];
 		try {
-			selectIdFromNamePrepStmt.setString(1, attrName);
-			results = db.executePrepSelectIntegerColumn(selectIdFromNamePrepStmt);
+			PreparedStatement stmt = selectIdFromNamePrepStmt.get();
+			stmt.setString(1, attrName);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -170,8 +174,9 @@ import com.buildml.utils.errors.ErrorCode;
 		
 		String results[];
 		try {
-			selectNameFromIdPrepStmt.setInt(1, attrId);
-			results = db.executePrepSelectStringColumn(selectNameFromIdPrepStmt);
+			PreparedStatement stmt = selectNameFromIdPrepStmt.get();
+			stmt.setInt(1, attrId);
+			results = db.executePrepSelectStringColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -198,7 +203,7 @@ import com.buildml.utils.errors.ErrorCode;
 	@Override
 	public String[] getAttrNames() {
 		
-		return db.executePrepSelectStringColumn(selectOrderedNamePrepStmt);
+		return db.executePrepSelectStringColumn(selectOrderedNamePrepStmt.get());
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -212,13 +217,14 @@ import com.buildml.utils.errors.ErrorCode;
 		/* attribute names can't be deleted if they're in use - check this first */
 		int attrId = getAttrIdFromName(attrName);
 		try {
-			countFileAttrUsagePrepStmt.setInt(1, attrId);
+			PreparedStatement stmt = countFileAttrUsagePrepStmt.get();
+			stmt.setInt(1, attrId);
 
 			/* 
 			 * A select count(*) should always return 1 result. This count will be non-0
 			 * if the attribute name is "in use" in the fileAttrs table.
 			 */
-			Integer results[] = db.executePrepSelectIntegerColumn(countFileAttrUsagePrepStmt);
+			Integer results[] = db.executePrepSelectIntegerColumn(countFileAttrUsagePrepStmt.get());
 			if (results[0] != 0) {
 				return ErrorCode.CANT_REMOVE;
 			}
@@ -303,9 +309,10 @@ import com.buildml.utils.errors.ErrorCode;
 	public String getAttrAsString(int pathId, int attrId) {
 		String results[];
 		try {
-			selectValueFromFileAttrsPrepStmt.setInt(1, pathId);
-			selectValueFromFileAttrsPrepStmt.setInt(2, attrId);
-			results = db.executePrepSelectStringColumn(selectValueFromFileAttrsPrepStmt);
+			PreparedStatement stmt = selectValueFromFileAttrsPrepStmt.get();
+			stmt.setInt(1, pathId);
+			stmt.setInt(2, attrId);
+			results = db.executePrepSelectStringColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -405,8 +412,9 @@ import com.buildml.utils.errors.ErrorCode;
 
 		Integer results[];
 		try {
-			findAttrsOnPathPrepStmt.setInt(1, pathId);
-			results = db.executePrepSelectIntegerColumn(findAttrsOnPathPrepStmt);
+			PreparedStatement stmt = findAttrsOnPathPrepStmt.get();
+			stmt.setInt(1, pathId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -424,8 +432,9 @@ import com.buildml.utils.errors.ErrorCode;
 
 		Integer results[] = null;
 		try {
-			findPathsWithAttrPrepStmt.setInt(1, attrId);
-			results = db.executePrepSelectIntegerColumn(findPathsWithAttrPrepStmt);
+			PreparedStatement stmt = findPathsWithAttrPrepStmt.get();
+			stmt.setInt(1, attrId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -443,9 +452,10 @@ import com.buildml.utils.errors.ErrorCode;
 
 		Integer results[] = null;
 		try {
-			findPathsWithAttrValuePrepStmt.setInt(1, attrId);
-			findPathsWithAttrValuePrepStmt.setString(2, value);
-			results = db.executePrepSelectIntegerColumn(findPathsWithAttrValuePrepStmt);
+			PreparedStatement stmt = findPathsWithAttrValuePrepStmt.get();
+			stmt.setInt(1, attrId);
+			stmt.setString(2, value);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -81,22 +81,25 @@ public class FileGroupMgr implements IFileGroupMgr {
 	 * Various prepared statement for database access.
 	 */
 	private PreparedStatement 
-		insertNewGroupPrepStmt = null, 
-		findGroupTypePrepStmt = null,
-		findGroupPredPrepStmt = null,
+		insertNewGroupPrepStmt = null,
 		removeGroupPrepStmt = null,
 		shiftUpPathsPrepStmt = null,
 		insertPathAtPrepStmt = null,
+		removePathPrepStmt = null,
+		removePathsPrepStmt = null,
+		shiftDownPathsPrepStmt = null,
+		insertPackageMemberPrepStmt = null,
+		removePackageMemberPrepStmt = null;
+	
+	/** Statements for queries that may be performed by multiple threads at the same time. */
+	private ReadStatement
+		findGroupTypePrepStmt = null,
+		findGroupPredPrepStmt = null,
 		findGroupSizePrepStmt = null,
 		findPathsAtPrepStmt = null,
 		findIntegerMembersPrepStmt = null,
 		findStringMembersPrepStmt = null,
 		findGroupMembersPrepStmt = null,
-		removePathPrepStmt = null,
-		removePathsPrepStmt = null,
-		shiftDownPathsPrepStmt = null,
-		insertPackageMemberPrepStmt = null,
-		removePackageMemberPrepStmt = null,
 		findSourceGroupsContainingPathPrepStmt = null;
 
 	/**
@@ -124,9 +127,9 @@ public class FileGroupMgr implements IFileGroupMgr {
 		/* initialize prepared database statements */
 		insertNewGroupPrepStmt = db.prepareStatement(
 				"insert into fileGroups values (null, ?, ?)");
-		findGroupTypePrepStmt = db.prepareStatement(
+		findGroupTypePrepStmt = db.prepareReadStatement(
 				"select type from fileGroups where id = ?");
-		findGroupPredPrepStmt = db.prepareStatement(
+		findGroupPredPrepStmt = db.prepareReadStatement(
 				"select predId from fileGroups where id = ?");
 		removeGroupPrepStmt = db.prepareStatement(
 				"delete from fileGroups where id = ?");
@@ -134,15 +137,15 @@ public class FileGroupMgr implements IFileGroupMgr {
 				"update fileGroupPaths set pos = pos + 1 where groupId = ? and pos >= ?");
 		insertPathAtPrepStmt = db.prepareStatement(
 				"insert into fileGroupPaths values (?, ?, ?, ?)");
-		findGroupSizePrepStmt = db.prepareStatement(
+		findGroupSizePrepStmt = db.prepareReadStatement(
 				"select count(*) from fileGroupPaths where groupId = ?");
-		findPathsAtPrepStmt = db.prepareStatement(
+		findPathsAtPrepStmt = db.prepareReadStatement(
 				"select pathId, pathString from fileGroupPaths where groupId = ? and pos = ?");
-		findIntegerMembersPrepStmt = db.prepareStatement(
+		findIntegerMembersPrepStmt = db.prepareReadStatement(
 				"select pathId from fileGroupPaths where groupId = ? order by pos");
-		findStringMembersPrepStmt = db.prepareStatement(
+		findStringMembersPrepStmt = db.prepareReadStatement(
 				"select pathString from fileGroupPaths where groupId = ? order by pos");
-		findGroupMembersPrepStmt = db.prepareStatement(
+		findGroupMembersPrepStmt = db.prepareReadStatement(
 				"select pathId, pathString from fileGroupPaths where groupId = ? order by pos");
 		removePathPrepStmt = db.prepareStatement(
 				"delete from fileGroupPaths where groupId = ? and pos = ?");
@@ -155,7 +158,7 @@ public class FileGroupMgr implements IFileGroupMgr {
 		removePackageMemberPrepStmt =
 				db.prepareStatement("delete from packageMembers where memberId = ? and memberType = " +
 						IPackageMemberMgr.TYPE_FILE_GROUP);
-		findSourceGroupsContainingPathPrepStmt = db.prepareStatement(
+		findSourceGroupsContainingPathPrepStmt = db.prepareReadStatement(
 				"select distinct groupId from fileGroups, fileGroupPaths" +
 						" where (fileGroups.id = fileGroupPaths.groupId)" +
 						" and (fileGroups.type = " + IFileGroupMgr.SOURCE_GROUP + ")" +
@@ -178,8 +181,9 @@ public class FileGroupMgr implements IFileGroupMgr {
 		/* fetch the type of this group */
 		Integer results[] = null;
 		try {
-			findGroupTypePrepStmt.setInt(1, groupId);
-			results = db.executePrepSelectIntegerColumn(findGroupTypePrepStmt);
+			PreparedStatement stmt = findGroupTypePrepStmt.get();
+			stmt.setInt(1, groupId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error in SQL: " + e);
 		}
@@ -206,8 +210,9 @@ public class FileGroupMgr implements IFileGroupMgr {
 
 		Integer results[] = null;
 		try {
-			findGroupSizePrepStmt.setInt(1, groupId);
-			results = db.executePrepSelectIntegerColumn(findGroupSizePrepStmt);
+			PreparedStatement stmt = findGroupSizePrepStmt.get();
+			stmt.setInt(1, groupId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error in SQL: " + e);
 		}
@@ -465,8 +470,9 @@ public class FileGroupMgr implements IFileGroupMgr {
 
 		Integer results[] = null;
 		try {
-			findSourceGroupsContainingPathPrepStmt.setInt(1, pathId);
-			results = db.executePrepSelectIntegerColumn(findSourceGroupsContainingPathPrepStmt);
+			PreparedStatement stmt = findSourceGroupsContainingPathPrepStmt.get();
+			stmt.setInt(1, pathId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error in SQL: " + e);
 		}
@@ -662,8 +668,9 @@ public class FileGroupMgr implements IFileGroupMgr {
 		
 		Integer results[] = null;
 		try {
-			findGroupPredPrepStmt.setInt(1, groupId);
-			results = db.executePrepSelectIntegerColumn(findGroupPredPrepStmt);
+			PreparedStatement stmt = findGroupPredPrepStmt.get();
+			stmt.setInt(1, groupId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error in SQL: " + e);
 		}
@@ -991,9 +998,10 @@ public class FileGroupMgr implements IFileGroupMgr {
 		
 		ResultSet rs = null;
 		try {
-			findPathsAtPrepStmt.setInt(1, groupId);
-			findPathsAtPrepStmt.setInt(2, index);
-			rs = db.executePrepSelectResultSet(findPathsAtPrepStmt);
+			PreparedStatement stmt = findPathsAtPrepStmt.get();
+			stmt.setInt(1, groupId);
+			stmt.setInt(2, index);
+			rs = db.executePrepSelectResultSet(stmt);
 			
 			/* this shouldn't happen (groups should be complete), but just in case... */
 			if (!rs.next()) {
@@ -1131,8 +1139,9 @@ public class FileGroupMgr implements IFileGroupMgr {
 			/* fetch the individual members from the database */
 			ResultSet rs = null;
 			try {
-				findGroupMembersPrepStmt.setInt(1, groupId);
-				rs = db.executePrepSelectResultSet(findGroupMembersPrepStmt);
+				PreparedStatement stmt = findGroupMembersPrepStmt.get();
+				stmt.setInt(1, groupId);
+				rs = db.executePrepSelectResultSet(stmt);
 				while (rs.next()) {
 					if (type == SOURCE_GROUP) {
 						int pathId = rs.getInt(1);
@@ -1177,8 +1186,9 @@ public class FileGroupMgr implements IFileGroupMgr {
 			ResultSet rs = null;
 			ArrayList<String> regexs = new ArrayList<String>();
 			try {
-				findGroupMembersPrepStmt.setInt(1, groupId);
-				rs = db.executePrepSelectResultSet(findGroupMembersPrepStmt);
+				PreparedStatement stmt = findGroupMembersPrepStmt.get();
+				stmt.setInt(1, groupId);
+				rs = db.executePrepSelectResultSet(stmt);
 				while (rs.next()) {
 					regexs.add(rs.getString(2));
 				}
@@ -1332,8 +1342,9 @@ public class FileGroupMgr implements IFileGroupMgr {
 	private Integer[] getIntegerMembersHelper(int groupId) {
 
 		try {
-			findIntegerMembersPrepStmt.setInt(1, groupId);
-			return db.executePrepSelectIntegerColumn(findIntegerMembersPrepStmt);
+			PreparedStatement stmt = findIntegerMembersPrepStmt.get();
+			stmt.setInt(1, groupId);
+			return db.executePrepSelectIntegerColumn(stmt);
 			
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error in SQL: " + e);
@@ -1351,8 +1362,9 @@ public class FileGroupMgr implements IFileGroupMgr {
 	private String[] getStringMembersHelper(int groupId) {
 
 		try {
-			findStringMembersPrepStmt.setInt(1, groupId);
-			return db.executePrepSelectStringColumn(findStringMembersPrepStmt);
+			PreparedStatement stmt = findStringMembersPrepStmt.get();
+			stmt.setInt(1, groupId);
+			return db.executePrepSelectStringColumn(stmt);
 			
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error in SQL: " + e);
@@ -1370,39 +1382,52 @@ public class FileGroupMgr implements IFileGroupMgr {
 	 */
 	private void setMembersHelper(int groupId, Object[] members) {
 
-		/* lots of individual changes here - do them without committing */
-		boolean prevState = db.setFastAccessMode(true);
-		
-		/* start by removing all existing members of this group */
+		/* 
+		 * Lots of individual changes here - do them in a single batch. If any of them
+		 * fail, none of the changes are kept.
+		 */
+		buildStore.beginBatch();
+		boolean completed = false;
 		try {
-			removePathsPrepStmt.setInt(1, groupId);
-			db.executePrepUpdate(removePathsPrepStmt);
 			
-		} catch (SQLException e) {
-			throw new FatalBuildStoreError("Error in SQL: " + e);
-		}
-		
-		/* add all the new members */
-		for (int i = 0; i < members.length; i++) {
+			/* start by removing all existing members of this group */
 			try {
-				insertPathAtPrepStmt.setInt(1, groupId);
-				if (members[i] instanceof Integer) {
-					insertPathAtPrepStmt.setInt(2, (Integer)members[i]);
-					insertPathAtPrepStmt.setString(3, null);
-				} else {
-					insertPathAtPrepStmt.setInt(2, 0);
-					insertPathAtPrepStmt.setString(3, (String)members[i]);					
-				}
-				insertPathAtPrepStmt.setInt(4, i);
-				db.executePrepUpdate(insertPathAtPrepStmt);
+				removePathsPrepStmt.setInt(1, groupId);
+				db.executePrepUpdate(removePathsPrepStmt);
+			
 			} catch (SQLException e) {
 				throw new FatalBuildStoreError("Error in SQL: " + e);
 			}
+		
+			/* add all the new members */
+			for (int i = 0; i < members.length; i++) {
+				try {
+					insertPathAtPrepStmt.setInt(1, groupId);
+					if (members[i] instanceof Integer) {
+						insertPathAtPrepStmt.setInt(2, (Integer)members[i]);
+						insertPathAtPrepStmt.setString(3, null);
+					} else {
+						insertPathAtPrepStmt.setInt(2, 0);
+						insertPathAtPrepStmt.setString(3, (String)members[i]);					
+					}
+					insertPathAtPrepStmt.setInt(4, i);
+					db.executePrepUpdate(insertPathAtPrepStmt);
+				} catch (SQLException e) {
+					throw new FatalBuildStoreError("Error in SQL: " + e);
+				}
+			}
+			completed = true;
+			
+		} finally {
+			
+			/* commit */
+			if (completed) {
+				buildStore.commitBatch();
+			} else {
+				buildStore.rollbackBatch();
+			}
 		}
 
-		/* commit */
-		db.setFastAccessMode(prevState);
-
 		/* notify about the change */
 		notifyListeners(groupId, IFileGroupMgrListener.CHANGED_MEMBERSHIP);
 	}
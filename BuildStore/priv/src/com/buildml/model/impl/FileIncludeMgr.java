@@ -48,7 +48,10 @@ import com.buildml.model.IFileIncludeMgr;
 		insertFileIncludesPrepStmt = null,
 		updateFileIncludesPrepStmt = null,
 		deleteFileIncludesPrepStmt = null,
-		deleteFilesIncludedByPrepStmt = null,
+		deleteFilesIncludedByPrepStmt = null;
+	
+	/** Statements for queries that may be performed by multiple threads at the same time. */
+	private ReadStatement
 		selectUsageFromFileIncludesPrepStmt = null,
 		selectTotalUsageFromFileIncludesPrepStmt = null,
 		selectFile1FromFileIncludesPrepStmt = null,
@@ -73,13 +76,13 @@ import com.buildml.model.IFileIncludeMgr;
 		deleteFileIncludesPrepStmt = db.prepareStatement(
 				"delete from fileIncludes where fileId1 = ? and fileId2 = ?");
 		deleteFilesIncludedByPrepStmt = db.prepareStatement("delete from fileIncludes where fileId1 = ?");
-		selectUsageFromFileIncludesPrepStmt = db.prepareStatement(
+		selectUsageFromFileIncludesPrepStmt = db.prepareReadStatement(
 				"select usage from fileIncludes where fileId1 = ? and fileId2 = ?");
-		selectTotalUsageFromFileIncludesPrepStmt = db.prepareStatement(
+		selectTotalUsageFromFileIncludesPrepStmt = db.prepareReadStatement(
 				"select sum(usage) from fileIncludes where fileId2 = ?");
-		selectFile1FromFileIncludesPrepStmt = db.prepareStatement(
+		selectFile1FromFileIncludesPrepStmt = db.prepareReadStatement(
 				"select fileId1 from fileIncludes where fileId2 = ?");
-		selectFile2FromFileIncludesPrepStmt = db.prepareStatement(
+		selectFile2FromFileIncludesPrepStmt = db.prepareReadStatement(
 				"select fileId2 from fileIncludes where fileId1 = ?");
 	}
 
@@ -118,9 +121,10 @@ import com.buildml.model.IFileIncludeMgr;
 	
 		Integer results[];
 		try {
-			selectUsageFromFileIncludesPrepStmt.setInt(1, file1);
-			selectUsageFromFileIncludesPrepStmt.setInt(2, file2);
-			results = db.executePrepSelectIntegerColumn(selectUsageFromFileIncludesPrepStmt);
+			PreparedStatement stmt = selectUsageFromFileIncludesPrepStmt.get();
+			stmt.setInt(1, file1);
+			stmt.setInt(2, file2);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -149,8 +153,9 @@ import com.buildml.model.IFileIncludeMgr;
 		ResultSet rs;
 		int usageCount = 0;
 		try {
-			selectTotalUsageFromFileIncludesPrepStmt.setInt(1, file);
-			rs = db.executePrepSelectResultSet(selectTotalUsageFromFileIncludesPrepStmt);
+			PreparedStatement stmt = selectTotalUsageFromFileIncludesPrepStmt.get();
+			stmt.setInt(1, file);
+			rs = db.executePrepSelectResultSet(stmt);
 			
 			/* if there's no entry at all, return a 0 usage count */			
 			if (rs.next()) {
@@ -174,8 +179,9 @@ import com.buildml.model.IFileIncludeMgr;
 		
 		Integer results[];
 		try {
-			selectFile1FromFileIncludesPrepStmt.setInt(1, fileId);
-			results = db.executePrepSelectIntegerColumn(selectFile1FromFileIncludesPrepStmt);
+			PreparedStatement stmt = selectFile1FromFileIncludesPrepStmt.get();
+			stmt.setInt(1, fileId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 			
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
@@ -194,8 +200,9 @@ import com.buildml.model.IFileIncludeMgr;
 		
 		Integer results[];
 		try {
-			selectFile2FromFileIncludesPrepStmt.setInt(1, fileId);
-			results = db.executePrepSelectIntegerColumn(selectFile2FromFileIncludesPrepStmt);
+			PreparedStatement stmt = selectFile2FromFileIncludesPrepStmt.get();
+			stmt.setInt(1, fileId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 			
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
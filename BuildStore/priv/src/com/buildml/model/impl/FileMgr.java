@@ -16,6 +16,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 
 import com.buildml.model.FatalBuildStoreError;
@@ -35,8 +38,11 @@ import com.buildml.model.IPackageRootMgr;
 import com.buildml.model.ISlotTypes.SlotDetails;
 import com.buildml.model.types.PathNameCache;
 import com.buildml.model.types.PathNameCache.PathNameCacheValue;
+import com.buildml.model.types.PathStringCache;
+import com.buildml.model.types.PathStringCache.PathStringCacheEntry;
 import com.buildml.utils.errors.ErrorCode;
 import com.buildml.utils.string.PathUtils;
+import com.buildml.utils.types.IIntConsumer;
 
 /**
  * A manager class (that supports the BuildStore class) that manages all BuildStore
@@ -68,6 +74,33 @@ public class FileMgr implements IFileMgr {
 	 */
 	PathNameCache fileNameCache;
 	
+	/**
+	 * A cache of recently displayed directory names, so that the full names of paths
+	 * can be constructed without visiting each of their ancestors.
+	 */
+	private PathStringCache pathStringCache;
+	
+	/** True if the path tree should be held in memory (see setPathTreeResident()). */
+	private volatile boolean pathTreeResident = false;
+	
+	/**
+	 * If the path tree is resident, an in-memory copy of all paths in the "files" table,
+	 * allowing path lookups to be done without accessing the database. The tree is only
+	 * loaded when a lookup first needs it (see getPathTree()), so this may be null even
+	 * if the tree is resident. This is only modified while holding the writeLock.
+	 */
+	private volatile PathTrie pathTree = null;
+	
+	/** The dictionary of path base names, which the "files" table refers to by ID. */
+	private FileNameDictionary fileNames;
+	
+	/**
+	 * The interval labelling of the path tree, used for ancestor and sub-tree queries.
+	 * This is built when it's first needed (and rebuilt when it becomes stale), so it
+	 * may be null.
+	 */
+	private volatile PathIntervals pathIntervals = null;
+	
 	/**
 	 * Other BuildStore managers we need to communicate with
 	 */
@@ -83,17 +116,96 @@ public class FileMgr implements IFileMgr {
 	 * Various prepared statement for database access.
 	 */
 	private PreparedStatement 
-		findChildPrepStmt = null,
 		insertChildPrepStmt = null,
+		trashPathPrepStmt = null,
+		insertPackageMemberPrepStmt = null,
+		maxPathIdPrepStmt = null,
+		loadPathTreePrepStmt = null;
+	
+	/**
+	 * Statements for queries that may be performed by multiple threads at the same time
+	 * (each thread executes its own copy).
+	 */
+	private ReadStatement
+		findChildPrepStmt = null,
 		findPathDetailsPrepStmt = null,
 		findPathIdFromParentPrepStmt = null,
-		trashPathPrepStmt = null,
 		pathIsTrashPrepStmt = null,
-		insertPackageMemberPrepStmt = null;
+		loadPathIntervalsPrepStmt = null;
+	
+	/**
+	 * Prepared statements for batched inserts (in bulk write mode). These must not be
+	 * shared with single-row inserts, since the SQLite driver doesn't permit it.
+	 */
+	private PreparedStatement
+		batchInsertChildPrepStmt = null,
+		batchInsertPackageMemberPrepStmt = null;
 	
 	/** The event listeners who are registered to learn about path changes */
 	List<IFileMgrListener> listeners = new ArrayList<IFileMgrListener>();
 	
+	/**
+	 * The maximum number of new paths we'll queue in memory (when in bulk write mode) before
+	 * writing them to the database.
+	 */
+	private static final int MAX_PENDING_PATHS = 20000;
+	
+	/**
+	 * A new path that has been queued in memory (while in bulk write mode), but has not
+	 * yet been written to the database.
+	 */
+	private class PendingPath {
+		
+		/** The path's ID (pre-assigned, since the database hasn't yet seen this path). */
+		int pathId;
+		
+		/** The ID of the path's parent. */
+		int parentId;
+		
+		/** The path's type. */
+		PathType pathType;
+		
+		/** The path's name, within its parent directory. */
+		String name;
+		
+		/** The ID of the path's name, in the name dictionary. */
+		int nameId;
+	}
+	
+	/** 
+	 * The paths that are queued for insertion into the database, in pathId order. The first
+	 * element of the list has ID firstPendingPathId.
+	 */
+	private List<PendingPath> pendingPaths = new ArrayList<PendingPath>();
+	
+	/** The queued paths, indexed by "parentId/name" */
+	private HashMap<String, PendingPath> pendingPathsByName = new HashMap<String, PendingPath>();
+	
+	/** The ID of the first path in pendingPaths. */
+	private int firstPendingPathId = 0;
+	
+	/** When in bulk write mode, the ID to assign to the next new path. */
+	private int nextPathId = 0;
+	
+	/** The number of locks used to serialize the addition of paths (must be a power of 2). */
+	private static final int NUM_PARENT_LOCKS = 64;
+	
+	/**
+	 * Locks for adding new paths, allowing multiple threads to add paths at the same time.
+	 * A child is looked up (and added if absent) while holding the lock for its parent's
+	 * ID, so two threads can never add the same child twice. Children of different
+	 * parents are usually protected by different locks.
+	 */
+	private final Object parentLocks[] = new Object[NUM_PARENT_LOCKS];
+	
+	/**
+	 * Lock protecting the queue of pending paths (and nextPathId), as well as the prepared
+	 * statements used for inserting new paths. Path IDs are therefore allocated, and
+	 * written to the database, by one thread at a time. This lock may be acquired while
+	 * holding one of the parentLocks, but not vice versa.
+	 */
+	private final Object writeLock = new Object();
+	
 	/*=====================================================================================*
 	 * CONSTRUCTORS
 	 *=====================================================================================*/
@@ -108,22 +220,55 @@ public class FileMgr implements IFileMgr {
 		this.db = buildStore.getBuildStoreDB();
 		
 		/* initialize prepared database statements */
-		findChildPrepStmt = db.prepareStatement("select id, pathType from files where parentId = ? and name = ? " +
-												"and trashed = 0");
+		fileNames = new FileNameDictionary(db);
+		findChildPrepStmt = db.prepareReadStatement("select id, pathType, trashed from files where parentId = ? " +
+												"and nameId = ?");
 		insertChildPrepStmt = db.prepareStatement("insert into files values (null, ?, 0, ?, ?)");
-		findPathDetailsPrepStmt = db.prepareStatement(
-				"select parentId, pathType, files.name from files where files.id = ?");
-		findPathIdFromParentPrepStmt = db.prepareStatement(
-				"select id from files where parentId = ? and trashed = 0 and name != \"/\" order by name");
+		findPathDetailsPrepStmt = db.prepareReadStatement(
+				"select parentId, pathType, nameId from files where files.id = ?");
+		findPathIdFromParentPrepStmt = db.prepareReadStatement(
+				"select files.id from files, fileNames where parentId = ? and trashed = 0 and " +
+				"files.nameId = fileNames.id and fileNames.name != \"/\" order by fileNames.name");
 		trashPathPrepStmt = db.prepareStatement("update files set trashed = ? where id = ?");
-		pathIsTrashPrepStmt = db.prepareStatement("select trashed from files where id = ?");
+		pathIsTrashPrepStmt = db.prepareReadStatement("select trashed from files where id = ?");
+		loadPathIntervalsPrepStmt = db.prepareReadStatement("select id, parentId, trashed from files");
 		insertPackageMemberPrepStmt = db.prepareStatement("insert into packageMembers values (?, ?, ?, ?, -1, -1)");
+		maxPathIdPrepStmt = db.prepareStatement("select max(id) from files");
+		loadPathTreePrepStmt = db.prepareStatement(
+				"select id, parentId, pathType, trashed, nameId from files order by id");
+		batchInsertChildPrepStmt = db.prepareStatement("insert into files values (?, ?, 0, ?, ?)");
+		batchInsertPackageMemberPrepStmt = 
+				db.prepareStatement("insert into packageMembers values (?, ?, ?, ?, -1, -1)");
 		
 		/* 
 		 * Create an empty cache to record the most-recently accessed file name mapping, to save us from
-		 * querying the database all the time.
+		 * querying the database all the time. The size may be configured with a system property.
 		 */
-		fileNameCache = new PathNameCache(40960);
+		fileNameCache = new PathNameCache(
+				Integer.getInteger(PathNameCache.SIZE_PROPERTY, PathNameCache.DEFAULT_SIZE));
+		
+		for (int i = 0; i != NUM_PARENT_LOCKS; i++) {
+			parentLocks[i] = new Object();
+		}
+		
+		/* similarly, cache the names of directories, discarding them when paths are removed */
+		pathStringCache = new PathStringCache(40960);
+		addListener(pathStringCache);
+		
+		/* when in bulk write mode, we queue new paths in memory */
+		db.addBulkWriter(new IBulkWriter() {
+			@Override
+			public void beginBulkWrite() {
+				synchronized (writeLock) {
+					nextPathId = getMaxPathId() + 1;
+					firstPendingPathId = nextPathId;
+				}
+			}
+			@Override
+			public void flushBulkWrites() {
+				flushPendingPaths();
+			}
+		});
 	}
 	
 	/*=====================================================================================*
@@ -215,6 +360,75 @@ public class FileMgr implements IFileMgr {
 	
 	/*-------------------------------------------------------------------------------------*/
 	
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IFileMgr#getPaths(java.lang.String[])
+	 */
+	@Override
+	public int[] getPaths(final String fullPathNames[]) {
+		
+		/* 
+		 * Visit the path names in sorted order, so that paths in the same directory are
+		 * adjacent to each other. We can then reuse the previous path's lookups for all
+		 * the path components that it has in common with the current path.
+		 */
+		Integer order[] = new Integer[fullPathNames.length];
+		for (int i = 0; i != order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer index1, Integer index2) {
+				return fullPathNames[index1].compareTo(fullPathNames[index2]);
+			}
+		});
+		
+		IPackageRootMgr pkgRootMgr = buildStore.getPackageRootMgr();
+		int results[] = new int[fullPathNames.length];
+		String prevRootName = null;
+		int rootId = ErrorCode.NOT_FOUND;
+		String prevComponents[] = new String[0];
+		int prevIds[] = new int[0];
+		
+		for (int index : order) {
+			
+			/* parse the path name and separate it into root and path components */
+			String rootAndPath[] = getRootAndPath(fullPathNames[index]);
+			String components[] = PathUtils.tokenizePath(rootAndPath[1]);
+			int ids[] = new int[components.length];
+			
+			/* how many of the leading components have already been looked up? */
+			int common = 0;
+			if (rootAndPath[0].equals(prevRootName)) {
+				while ((common < components.length) && (common < prevComponents.length) &&
+						components[common].equals(prevComponents[common])) {
+					ids[common] = prevIds[common];
+					common++;
+				}
+			} else {
+				prevRootName = rootAndPath[0];
+				rootId = pkgRootMgr.getRootPath(prevRootName);
+			}
+			
+			/* look up the remaining components, in the same way as getPath() */
+			int parentId = (common == 0) ? rootId : ids[common - 1];
+			for (int i = common; i < components.length; i++) {
+				if (parentId != ErrorCode.BAD_PATH) {
+					parentId = getChildOfPath(parentId, components[i]);
+					if (parentId == ErrorCode.NOT_FOUND) {
+						parentId = ErrorCode.BAD_PATH;
+					}
+				}
+				ids[i] = parentId;
+			}
+			results[index] = parentId;
+			prevComponents = components;
+			prevIds = ids;
+		}
+		return results;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+	
 	/* (non-Javadoc)
 	 * @see com.buildml.model.IFileMgr#getPathName(int, int)
 	 */
@@ -233,6 +447,11 @@ public class FileMgr implements IFileMgr {
 	@Override
 	public String getPathName(int pathId, boolean showRoots) {
 		
+		/* without roots, the path's package makes no difference */
+		if (!showRoots) {
+			return getPathNameCommon(pathId, false, 0);
+		}
+		
 		/* determine the path's current package */
 		IPackageMgr pkgMgr = buildStore.getPackageMgr();
 		IPackageMemberMgr pkgMemberMgr = buildStore.getPackageMemberMgr();
@@ -260,6 +479,92 @@ public class FileMgr implements IFileMgr {
 
 	/*-------------------------------------------------------------------------------------*/
 
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IFileMgr#getPathNames(int[], boolean)
+	 */
+	@Override
+	public String[] getPathNames(int pathIds[], boolean showRoots) {
+		
+		IPackageMgr pkgMgr = buildStore.getPackageMgr();
+		IPackageMemberMgr pkgMemberMgr = buildStore.getPackageMemberMgr();
+		IPackageRootMgr pkgRootMgr = buildStore.getPackageRootMgr();
+		
+		/* 
+		 * Roots are displayed relative to each path's package, so fetch all the packages
+		 * at once (if roots aren't shown, the package makes no difference).
+		 */
+		int workspaceRootPathId = pkgRootMgr.getWorkspaceRoot();
+		if (workspaceRootPathId == ErrorCode.NOT_FOUND) {
+			showRoots = false;
+		}
+		PackageDesc pathPackages[] = null;
+		if (showRoots) {
+			pathPackages = pkgMemberMgr.getPackagesOfMembers(IPackageMemberMgr.TYPE_FILE, pathIds);
+		}
+		int importPkgId = pkgMgr.getImportPackage();
+		
+		/* 
+		 * Names of directories we've already computed (relative to roots), indexed by
+		 * the package root (upper 32 bits) and the directory ID (lower 32 bits). Also,
+		 * the root path ID and root name for each package we've seen.
+		 */
+		HashMap<Long, String> dirNames = new HashMap<Long, String>();
+		HashMap<Integer, Integer> pkgRootPathIds = new HashMap<Integer, Integer>();
+		HashMap<Integer, String> pkgRootNames = new HashMap<Integer, String>();
+		
+		String results[] = new String[pathIds.length];
+		for (int i = 0; i != pathIds.length; i++) {
+			int pathId = pathIds[i];
+			
+			/* is pathId a valid path? */
+			if (getPathType(pathId) == PathType.TYPE_INVALID) {
+				continue;
+			}
+			
+			/* the root is a special case */
+			if (pathId == 0) {
+				results[i] = showRoots ? "@root" : "/";
+				continue;
+			}
+			
+			/* without roots, the names of parent directories are held in the cache */
+			if (!showRoots) {
+				results[i] = getCachedPathName(pathId);
+				continue;
+			}
+			
+			/* determine the package root that this path should be displayed relative to */
+			int pkgId = (pathPackages[i] != null) ? pathPackages[i].pkgId : importPkgId;
+			Integer rootPathId = pkgRootPathIds.get(pkgId);
+			if (rootPathId == null) {
+				rootPathId = pkgRootMgr.getPackageRoot(pkgId, IPackageRootMgr.SOURCE_ROOT);
+				pkgRootPathIds.put(pkgId, rootPathId);
+				pkgRootNames.put(pkgId,
+						pkgRootMgr.getPackageRootName(pkgId, IPackageRootMgr.SOURCE_ROOT));
+			}
+			int pkgRootPathId = rootPathId;
+			String pkgRootName = pkgRootNames.get(pkgId);
+			
+			StringBuilder sb = new StringBuilder();
+			getPathNamesHelper(sb, pathId, showRoots, workspaceRootPathId, pkgRootPathId, 
+							   pkgRootName, dirNames);
+			results[i] = sb.toString();
+		}
+		return results;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IFileMgr#getPathNames(int[])
+	 */
+	@Override
+	public String[] getPathNames(int pathIds[]) {
+		return getPathNames(pathIds, false);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
 	/* (non-Javadoc)
 	 * @see com.buildml.model.IFileMgr#getNativePath(int)
 	 */
@@ -364,8 +669,9 @@ public class FileMgr implements IFileMgr {
 		 */
 		Integer results[] = null;
 		try {
-			findPathIdFromParentPrepStmt.setInt(1, pathId);
-			results = db.executePrepSelectIntegerColumn(findPathIdFromParentPrepStmt);
+			PreparedStatement stmt = findPathIdFromParentPrepStmt.get();
+			stmt.setInt(1, pathId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 			
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error in SQL: " + e);
@@ -375,6 +681,23 @@ public class FileMgr implements IFileMgr {
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IFileMgr#getChildPaths(int, com.buildml.utils.types.IIntConsumer)
+	 */
+	@Override
+	public void getChildPaths(int pathId, IIntConsumer consumer) {
+		try {
+			PreparedStatement stmt = findPathIdFromParentPrepStmt.get();
+			stmt.setInt(1, pathId);
+			db.executePrepSelectIntegerColumn(stmt, consumer);
+			
+		} catch (SQLException e) {
+			throw new FatalBuildStoreError("Error in SQL: " + e);
+		}	
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/* (non-Javadoc)
 	 * @see com.buildml.model.IFileMgr#removePath(int)
 	 */
@@ -420,14 +743,27 @@ public class FileMgr implements IFileMgr {
 		 */
 		fileNameCache.remove(getParentPath(pathId), getBaseName(pathId));
 		
-		/* now remove the entry from the "files" table (marking it as trashed) */
-		try {
-			trashPathPrepStmt.setInt(1, 1);
-			trashPathPrepStmt.setInt(2, pathId);
-			db.executePrepUpdate(trashPathPrepStmt);
+		/* 
+		 * Now remove the entry from the "files" table (marking it as trashed). The path
+		 * tree mustn't be loaded in the meantime, or it could miss this change.
+		 */
+		synchronized (writeLock) {
+			try {
+				trashPathPrepStmt.setInt(1, 1);
+				trashPathPrepStmt.setInt(2, pathId);
+				db.executePrepUpdate(trashPathPrepStmt);
 			
-		} catch (SQLException e) {
-			throw new FatalBuildStoreError("Error in SQL: " + e);
+			} catch (SQLException e) {
+				throw new FatalBuildStoreError("Error in SQL: " + e);
+			}
+			PathTrie tree = pathTree;
+			if (tree != null) {
+				tree.setTrashed(pathId, true);
+			}
+		}
+		PathIntervals intervals = pathIntervals;
+		if (intervals != null) {
+			intervals.setTrashed(pathId, true);
 		}
 		
 		/* notify listeners */
@@ -445,14 +781,24 @@ public class FileMgr implements IFileMgr {
 	@Override
 	public int revivePathFromTrash(int pathId) {
 				
-		/* untrash the file record */
-		try {
-			trashPathPrepStmt.setInt(1, 0);
-			trashPathPrepStmt.setInt(2, pathId);
-			db.executePrepUpdate(trashPathPrepStmt);
+		/* untrash the file record (as for movePathToTrash(), keeping the path tree in step) */
+		synchronized (writeLock) {
+			try {
+				trashPathPrepStmt.setInt(1, 0);
+				trashPathPrepStmt.setInt(2, pathId);
+				db.executePrepUpdate(trashPathPrepStmt);
 			
-		} catch (SQLException e) {
-			throw new FatalBuildStoreError("Error in SQL: " + e);
+			} catch (SQLException e) {
+				throw new FatalBuildStoreError("Error in SQL: " + e);
+			}
+			PathTrie tree = pathTree;
+			if ((tree != null) && tree.contains(pathId)) {
+				tree.setTrashed(pathId, false);
+			}
+		}
+		PathIntervals intervals = pathIntervals;
+		if (intervals != null) {
+			intervals.setTrashed(pathId, false);
 		}
 		
 		/* notify listeners */
@@ -470,9 +816,21 @@ public class FileMgr implements IFileMgr {
 	public boolean isPathTrashed(int pathId) {
 		Integer results[] = null;
 		
+		/* if the path tree is resident, there's no need to ask the database */
+		PathTrie tree = getPathTree();
+		if (tree != null) {
+			return !tree.contains(pathId) || tree.isTrashed(pathId);
+		}
+		
+		/* paths that are queued in memory can't yet have been trashed */
+		if (getPendingPath(pathId) != null) {
+			return false;
+		}
+		
 		try {
-			pathIsTrashPrepStmt.setInt(1, pathId);
-			results = db.executePrepSelectIntegerColumn(pathIsTrashPrepStmt);
+			PreparedStatement stmt = pathIsTrashPrepStmt.get();
+			stmt.setInt(1, pathId);
+			results = db.executePrepSelectIntegerColumnNoFlush(stmt);
 			
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Error in SQL: " + e);
@@ -495,7 +853,13 @@ public class FileMgr implements IFileMgr {
 	@Override
 	public boolean isAncestorOf(int directoryId, int pathId) {
 
-		/* iterate upwards from pathId to @root, looking for directoryId */
+		/* if the path has been labelled, two integer comparisons are enough */
+		PathIntervals intervals = getPathIntervals();
+		if (intervals.contains(pathId)) {
+			return intervals.isAncestorOf(directoryId, pathId);
+		}
+		
+		/* else iterate upwards from pathId to @root, looking for directoryId */
 		while (true) {
 			int parentId = getParentPath(pathId);
 			if (parentId == directoryId) {
@@ -513,6 +877,49 @@ public class FileMgr implements IFileMgr {
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IFileMgr#getSubTreePaths(int)
+	 */
+	@Override
+	public int[] getSubTreePaths(int pathId) {
+		
+		/* the labelled paths within the sub-tree are found with a single range scan */
+		PathIntervals intervals = getPathIntervals();
+		if (intervals.contains(pathId)) {
+			return intervals.getSubTree(pathId);
+		}
+		
+		/* else, the path isn't known (it's probably invalid), so search the database */
+		List<Integer> results = new ArrayList<Integer>();
+		getSubTreePathsHelper(results, pathId);
+		int resultArray[] = new int[results.size()];
+		for (int i = 0; i != resultArray.length; i++) {
+			resultArray[i] = results.get(i);
+		}
+		return resultArray;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IFileMgr#setPathTreeResident(boolean)
+	 */
+	@Override
+	public boolean setPathTreeResident(boolean resident) {
+		boolean prevState = pathTreeResident;
+		pathTreeResident = resident;
+		
+		/* the tree is loaded when it's first needed, not now */
+		if (!resident) {
+			synchronized (writeLock) {
+				pathTree = null;
+			}
+		}
+		return prevState;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/* (non-Javadoc)
 	 * @see com.buildml.model.IFileMgr#getBuildStore()
 	 */
@@ -564,6 +971,24 @@ public class FileMgr implements IFileMgr {
 		dirSlotId = slotDetails.slotId;
 	}
 	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Discard all in-memory copies of path information, since the "files" table has been
+	 * modified behind our back (for example, trashed paths were deleted, or a batch of
+	 * changes was rolled back). If the path tree is resident, it's reloaded when it's
+	 * next needed.
+	 */
+	/* package */ void discardCachedPaths() {
+		fileNameCache.clear();
+		pathStringCache.clear();
+		pathIntervals = null;
+		fileNames.discard();
+		synchronized (writeLock) {
+			pathTree = null;
+		}
+	}
+	
 	/*=====================================================================================*
 	 * PRIVATE METHODS
 	 *=====================================================================================*/
@@ -660,13 +1085,36 @@ public class FileMgr implements IFileMgr {
 	private Object[] getPathDetails(int pathId) {
 		Object result[] = new Object[3];
 		
+		/* if the path tree is resident, it has the complete answer */
+		PathTrie tree = getPathTree();
+		if (tree != null) {
+			if (!tree.contains(pathId)) {
+				return null;
+			}
+			result[0] = tree.getParent(pathId);
+			result[1] = tree.getType(pathId);
+			result[2] = tree.getName(pathId);
+			return result;
+		}
+		
+		/* next, check whether the path is queued in memory */
+		PendingPath pending = getPendingPath(pathId);
+		if (pending != null) {
+			result[0] = pending.parentId;
+			result[1] = pending.pathType;
+			result[2] = pending.name;
+			return result;
+		}
+		
+		/* no, it's in the database (the queued rows can't change the result) */
 		try {
-			findPathDetailsPrepStmt.setInt(1, pathId);
-			ResultSet rs = db.executePrepSelectResultSet(findPathDetailsPrepStmt);
+			PreparedStatement stmt = findPathDetailsPrepStmt.get();
+			stmt.setInt(1, pathId);
+			ResultSet rs = db.executePrepSelectResultSetNoFlush(stmt);
 			if (rs.next()){
 				result[0] = rs.getInt(1);
 				result[1] = intToPathType(rs.getInt(2));
-				result[2] = rs.getString(3);
+				result[2] = fileNames.getName(rs.getInt(3));
 				rs.close();
 			} else {
 				
@@ -744,11 +1192,15 @@ public class FileMgr implements IFileMgr {
 			}
 			
 			/* else, determine path of package root */
-			else {
+			else if (showRoots) {
 				pkgRootPathId = pkgRootMgr.getPackageRoot(pkgId, IPackageRootMgr.SOURCE_ROOT);
 				pkgRootName = pkgRootMgr.getPackageRootName(pkgId, IPackageRootMgr.SOURCE_ROOT);
 			}
 			
+			/* without roots, the path's name is the same for all packages, so it's cached */
+			if (!showRoots) {
+				return getCachedPathName(pathId);
+			}
 			getPathNameHelper(sb, pathId, showRoots, 
 								workspaceRootPathId, pkgRootPathId, pkgRootName);
 		}
@@ -820,6 +1272,101 @@ public class FileMgr implements IFileMgr {
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Return a path's full name (without roots), using the cached names of its ancestor
+	 * directories where possible.
+	 * 
+	 * @param pathId The ID of the path, which must be valid, and not the root.
+	 * @return The path's full name, in the form /a/b/c.
+	 */
+	private String getCachedPathName(int pathId) {
+		Object pathDetails[] = getPathDetails(pathId);
+		return PathStringCache.getPathName(
+				getCachedDirectory((Integer)pathDetails[0]), (String)pathDetails[2]);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Return the PathStringCache entry for a directory, adding it (and any of its
+	 * ancestors) to the cache if it's not already there.
+	 * 
+	 * @param dirId The ID of the directory, which must be valid.
+	 * @return The directory's cache entry.
+	 */
+	private PathStringCacheEntry getCachedDirectory(int dirId) {
+		PathStringCacheEntry entry = pathStringCache.get(dirId);
+		if (entry == null) {
+			Object pathDetails[] = getPathDetails(dirId);
+			String name = (String)pathDetails[2];
+			if (name.equals("/")) {
+				entry = pathStringCache.put(dirId, null, null);
+			} else {
+				entry = pathStringCache.put(dirId, getCachedDirectory((Integer)pathDetails[0]), name);
+			}
+		}
+		return entry;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * A helper method for getPathNames(). This is similar to getPathNameHelper(), except
+	 * that the names of parent directories are remembered in dirNames, so they can be
+	 * reused for other paths in the same directory.
+	 * 
+	 * @param sb The StringBuilder we'll append the path name onto.
+	 * @param pathId The ID of the path whose name we'll append to sb.
+	 * @param showRoots True if we should return a file system root (e.g. "@root") in the path name.
+	 * @param workspaceRootPathId Path ID of the "@workspace" root.
+	 * @param pkgRootPathId PathID of the root for this file's package.
+	 * @param pkgRootName Name of this file's package.
+	 * @param dirNames The directory names we've already computed, indexed by package root
+	 *        path ID (upper 32 bits) and directory ID (lower 32 bits).
+	 */
+	private void getPathNamesHelper(StringBuilder sb, int pathId, boolean showRoots, 
+									int workspaceRootPathId, int pkgRootPathId, 
+									String pkgRootName, HashMap<Long, String> dirNames) {
+		
+		Object pathDetails[] = getPathDetails(pathId);
+		int parentId = (Integer)pathDetails[0];
+		String name = (String)pathDetails[2];
+		
+		/* stop at a root (if we're showing roots), or at / (if we're not) */
+		if (showRoots) {
+			if (pathId == 0) {
+				sb.append("@root");
+				return;
+			} else if (pathId == workspaceRootPathId) {
+				sb.append("@workspace");
+				return;
+			} else if (pathId == pkgRootPathId) {
+				sb.append('@');
+				sb.append(pkgRootName);
+				return;
+			}
+		}
+		else if (name.equals("/")) {
+			return;
+		}
+		
+		/* append the parent's name (computing it, if we haven't seen the parent before) */
+		Long key = ((long)pkgRootPathId << 32) | (parentId & 0xffffffffL);
+		String parentName = dirNames.get(key);
+		if (parentName == null) {
+			StringBuilder parentSb = new StringBuilder();
+			getPathNamesHelper(parentSb, parentId, showRoots, workspaceRootPathId, 
+							   pkgRootPathId, pkgRootName, dirNames);
+			parentName = parentSb.toString();
+			dirNames.put(key, parentName);
+		}
+		sb.append(parentName);
+		sb.append('/');
+		sb.append(name);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * A helper function for fetching the named child of a specified path, along with the
 	 * path type of that child.
@@ -830,31 +1377,90 @@ public class FileMgr implements IFileMgr {
 	 *			Object[1] is a PathType object for the child.
 	 */
 	private Object[] getChildOfPathWithType(int parentId, String childName) {
+		Object result[] = getChildOfPathWithTrash(parentId, childName);
+		
+		/* trashed paths are not considered to be children */
+		if ((result == null) || ((Boolean)result[2])) {
+			return null;
+		}
+		return result;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * A helper function for fetching the named child of a specified path, along with the
+	 * path type of that child, and whether that child has been trashed.
+	 * 
+	 * @param parentId The parent path's ID.
+	 * @param childName The name of the child path to search for within this parent.
+	 * @return A Object[3] array, where Object[0] is a Integer containing the path ID,
+	 *			Object[1] is a PathType object for the child, and Object[2] is a Boolean
+	 *			that is true if the child has been trashed. Return null if there's no
+	 *			such child.
+	 */
+	private Object[] getChildOfPathWithTrash(int parentId, String childName) {
 		Object result[];
 		
 		/*
-		 * Start by looking in the in-memory cache to see if it's there.
+		 * If the path tree is resident, it has the complete answer.
+		 */
+		PathTrie tree = getPathTree();
+		if (tree != null) {
+			int childId = tree.getChild(parentId, childName);
+			if (childId == -1) {
+				return null;
+			}
+			return new Object[] { Integer.valueOf(childId), tree.getType(childId), 
+								  Boolean.valueOf(tree.isTrashed(childId)) };
+		}
+		
+		/*
+		 * Otherwise, look in the in-memory cache to see if it's there.
 		 */
 		PathNameCacheValue cacheValue = fileNameCache.get(parentId, childName);
 		if (cacheValue != null) {
-			return new Object[] { cacheValue.getChildPathId(), intToPathType(cacheValue.getChildType())};
+			return new Object[] { cacheValue.getChildPathId(), intToPathType(cacheValue.getChildType()),
+								  Boolean.FALSE };
 		}
 		// TODO: what happens if the mapping changes?
 		
 		/*
-		 * Not in cache, try the database
+		 * Next, check whether it's queued in memory, waiting to be written.
+		 */
+		synchronized (writeLock) {
+			if (!pendingPaths.isEmpty()) {
+				PendingPath pending = pendingPathsByName.get(parentId + "/" + childName);
+				if (pending != null) {
+					return new Object[] { Integer.valueOf(pending.pathId), pending.pathType, Boolean.FALSE };
+				}
+			}
+		}
+		
+		/*
+		 * Not in cache, try the database. Any queued paths can't change the result. If the
+		 * name has never been used, there's no such child anywhere.
 		 */
+		int nameId = fileNames.getNameId(childName);
+		if (nameId == -1) {
+			return null;
+		}
 		try {
-			findChildPrepStmt.setInt(1, parentId);
-			findChildPrepStmt.setString(2, childName);
-			ResultSet rs = db.executePrepSelectResultSet(findChildPrepStmt);
+			PreparedStatement stmt = findChildPrepStmt.get();
+			stmt.setInt(1, parentId);
+			stmt.setInt(2, nameId);
+			ResultSet rs = db.executePrepSelectResultSetNoFlush(stmt);
 
 			/* if there's a result, return it and add it to the cache for faster access next time */
 			if (rs.next()){
 				int childId = rs.getInt(1);
 				int childType = rs.getInt(2);
-				result = new Object[] { Integer.valueOf(childId), intToPathType(childType)};
-				fileNameCache.put(parentId, childName, childId, childType);
+				boolean trashed = (rs.getInt(3) == 1);
+				result = new Object[] { Integer.valueOf(childId), intToPathType(childType), 
+										Boolean.valueOf(trashed) };
+				if (!trashed) {
+					fileNameCache.put(parentId, childName, childId, childType);
+				}
 			} 
 			
 			/* else, no result = no child */
@@ -928,50 +1534,97 @@ public class FileMgr implements IFileMgr {
 	 */
 	private int addChildOfPathHelper(int parentId, PathType pathType, String childName) {
 		
+		/* 
+		 * Looking up the child, and adding it if it's absent, must appear atomic to other
+		 * threads that are adding the same child.
+		 */
+		synchronized (parentLocks[parentId & (NUM_PARENT_LOCKS - 1)]) {
+			return addChildIfAbsent(parentId, pathType, childName);
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+	
+	/**
+	 * Helper method for addChildOfPathHelper(), which must be called while holding the
+	 * lock for parentId. If the child path doesn't already exist, add it.
+	 * 
+	 * @param parentId The ID of the parent path.
+	 * @param pathType The type of the path to be added (directory, file, etc).
+	 * @param childName The name of the child path to add.
+	 * @return The ID of the child path, or ErrorCode.ONLY_ONE_ALLOWED if the path already 
+	 * exists, but was of the wrong type.
+	 */
+	private int addChildIfAbsent(int parentId, PathType pathType, String childName) {
+		
 		IPackageMgr pkgMgr = buildStore.getPackageMgr();
 		int lastRowId;
 		
 		/*
 		 * Search for the path ID and path type for a child of "parentId" that has
 		 * the name "childName". This is similar to the getChildOfPath() operation,
-		 * but we also fetch the path's type.
+		 * but we also fetch the path's type, and whether it's trashed.
 		 */
-		Object childPathAndType[] = getChildOfPathWithType(parentId, childName);
+		Object childPathAndType[] = getChildOfPathWithTrash(parentId, childName);
 
+		/*
+		 * If there's already a trashed path with the same name, we can't add a new path
+		 * until the trash has been emptied.
+		 */
+		if ((childPathAndType != null) && ((Boolean)childPathAndType[2])) {
+			return ErrorCode.BAD_PATH;
+		}
+		
 		/* If child isn't yet present, we need to add it */
 		if (childPathAndType == null) {
-			/*
-			 *  TODO: fix the race condition here - there's a small chance that somebody
-			 *  else has already added it. Not thread safe.
-			 */
-			try {
-				insertChildPrepStmt.setInt(1, parentId);
-				insertChildPrepStmt.setInt(2, pathType.ordinal());
-				insertChildPrepStmt.setString(3, childName);
-				db.executePrepUpdate(insertChildPrepStmt);
+			
+			/* in bulk write mode, simply queue the new path in memory */
+			if (db.isBulkWriteMode()) {
+				return addPendingPath(parentId, pathType, childName);
+			}
+			
+			/* the insert statements (and the new row's ID) are shared by all threads */
+			synchronized (writeLock) {
+				int nameId = fileNames.addName(childName);
+				try {
+					insertChildPrepStmt.setInt(1, parentId);
+					insertChildPrepStmt.setInt(2, pathType.ordinal());
+					insertChildPrepStmt.setInt(3, nameId);
+					db.executePrepUpdate(insertChildPrepStmt);
 				
-				lastRowId = db.getLastRowID();
-				if (lastRowId >= MAX_FILES) {
-					throw new FatalBuildStoreError("Exceeded maximum file number: " + MAX_FILES);
-				}
+					lastRowId = db.getLastRowID();
+					if (lastRowId >= MAX_FILES) {
+						throw new FatalBuildStoreError("Exceeded maximum file number: " + MAX_FILES);
+					}
 				
-				/* insert the default package membership values */
-				insertPackageMemberPrepStmt.setInt(1, IPackageMemberMgr.TYPE_FILE);
-				insertPackageMemberPrepStmt.setInt(2, lastRowId);
-				insertPackageMemberPrepStmt.setInt(3, pkgMgr.getImportPackage());
-				insertPackageMemberPrepStmt.setInt(4, IPackageMemberMgr.SCOPE_NONE);
-				if (db.executePrepUpdate(insertPackageMemberPrepStmt) != 1) {
-					throw new FatalBuildStoreError("Unable to insert new record into packageMembers table");
-				}
+					/* insert the default package membership values */
+					insertPackageMemberPrepStmt.setInt(1, IPackageMemberMgr.TYPE_FILE);
+					insertPackageMemberPrepStmt.setInt(2, lastRowId);
+					insertPackageMemberPrepStmt.setInt(3, pkgMgr.getImportPackage());
+					insertPackageMemberPrepStmt.setInt(4, IPackageMemberMgr.SCOPE_NONE);
+					if (db.executePrepUpdate(insertPackageMemberPrepStmt) != 1) {
+						throw new FatalBuildStoreError("Unable to insert new record into packageMembers table");
+					}
 				
-			} catch (SQLException e) {
-				throw new FatalBuildStoreError("Unable to execute SQL statement", e);
-			} catch (FatalBuildStoreError e) {
-				/* 
-				 * This is likely to happen if there's already a database row with the same name
-				 * (which means there's a path with the same name that was trashed).
-				 */
-				return ErrorCode.BAD_PATH;
+					/* keep the resident path tree up to date */
+					PathTrie tree = pathTree;
+					if (tree != null) {
+						tree.add(lastRowId, parentId, pathType, childName, false);
+					}
+					PathIntervals intervals = pathIntervals;
+					if (intervals != null) {
+						intervals.add(lastRowId, parentId);
+					}
+				
+				} catch (SQLException e) {
+					throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+				} catch (FatalBuildStoreError e) {
+					/* 
+					 * This is likely to happen if there's already a database row with the same name
+					 * (which means there's a path with the same name that was trashed).
+					 */
+					return ErrorCode.BAD_PATH;
+				}
 			}
 			
 			return lastRowId;
@@ -989,4 +1642,232 @@ public class FileMgr implements IFileMgr {
 	}
 
 	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * When in bulk write mode, queue a new path in memory, rather than writing it to
+	 * the database. The path is assigned the next available path ID.
+	 * 
+	 * @param parentId The ID of the parent path.
+	 * @param pathType The type of the path to be added (directory, file, etc).
+	 * @param childName The name of the child path to add.
+	 * @return The ID of the new child path.
+	 */
+	private int addPendingPath(int parentId, PathType pathType, String childName) {
+		
+		/* path IDs are allocated by one thread at a time */
+		synchronized (writeLock) {
+			if (nextPathId >= MAX_FILES) {
+				throw new FatalBuildStoreError("Exceeded maximum file number: " + MAX_FILES);
+			}
+		
+			PendingPath pending = new PendingPath();
+			pending.pathId = nextPathId++;
+			pending.parentId = parentId;
+			pending.pathType = pathType;
+			pending.name = childName;
+			pending.nameId = fileNames.addName(childName);
+		
+			if (pendingPaths.isEmpty()) {
+				firstPendingPathId = pending.pathId;
+			}
+			pendingPaths.add(pending);
+			pendingPathsByName.put(parentId + "/" + childName, pending);
+			db.markBulkWritesPending();
+		
+			/* keep the resident path tree up to date */
+			PathTrie tree = pathTree;
+			if (tree != null) {
+				tree.add(pending.pathId, parentId, pathType, childName, false);
+			}
+			PathIntervals intervals = pathIntervals;
+			if (intervals != null) {
+				intervals.add(pending.pathId, parentId);
+			}
+		
+			/* don't let the queue grow without bound */
+			if (pendingPaths.size() >= MAX_PENDING_PATHS) {
+				db.flushBulkWrites();
+			}
+			return pending.pathId;
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Return the queued (not yet written) path with the specified ID.
+	 * 
+	 * @param pathId The ID of the path to search for.
+	 * @return The queued path, or null if the path isn't queued.
+	 */
+	private PendingPath getPendingPath(int pathId) {
+		synchronized (writeLock) {
+			if ((pathId < firstPendingPathId) || (pathId >= firstPendingPathId + pendingPaths.size())) {
+				return null;
+			}
+			return pendingPaths.get(pathId - firstPendingPathId);
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Write all queued paths (and their default package membership) to the database, using
+	 * batched insert statements.
+	 */
+	private void flushPendingPaths() {
+		
+		/* other threads must not queue (or look up) paths while we're writing them */
+		synchronized (writeLock) {
+			if (pendingPaths.isEmpty()) {
+				return;
+			}
+		
+			IPackageMgr pkgMgr = buildStore.getPackageMgr();
+			int importPkgId = pkgMgr.getImportPackage();
+			try {
+				for (PendingPath pending : pendingPaths) {
+					batchInsertChildPrepStmt.setInt(1, pending.pathId);
+					batchInsertChildPrepStmt.setInt(2, pending.parentId);
+					batchInsertChildPrepStmt.setInt(3, pending.pathType.ordinal());
+					batchInsertChildPrepStmt.setInt(4, pending.nameId);
+					batchInsertChildPrepStmt.addBatch();
+				
+					batchInsertPackageMemberPrepStmt.setInt(1, IPackageMemberMgr.TYPE_FILE);
+					batchInsertPackageMemberPrepStmt.setInt(2, pending.pathId);
+					batchInsertPackageMemberPrepStmt.setInt(3, importPkgId);
+					batchInsertPackageMemberPrepStmt.setInt(4, IPackageMemberMgr.SCOPE_NONE);
+					batchInsertPackageMemberPrepStmt.addBatch();
+				}
+			} catch (SQLException e) {
+				throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+			}
+			db.executePrepBatch(batchInsertChildPrepStmt);
+			db.executePrepBatch(batchInsertPackageMemberPrepStmt);
+		
+			/* the paths are now in the database, so we can forget them */
+			firstPendingPathId = nextPathId;
+			pendingPaths.clear();
+			pendingPathsByName.clear();
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Return the resident path tree, first loading it if this is the first time it's
+	 * been needed.
+	 * 
+	 * @return The path tree, or null if the path tree isn't resident.
+	 */
+	private PathTrie getPathTree() {
+		PathTrie tree = pathTree;
+		if ((tree == null) && pathTreeResident) {
+			
+			/* new paths can't be added (or trashed) while the tree is loaded */
+			synchronized (writeLock) {
+				if ((pathTree == null) && pathTreeResident) {
+					loadPathTree();
+				}
+				tree = pathTree;
+			}
+		}
+		return tree;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Read the complete "files" table into a new in-memory path tree. Any queued paths
+	 * are written to the database first, so they're included. The caller must hold
+	 * the writeLock.
+	 */
+	private void loadPathTree() {
+		PathTrie tree = new PathTrie();
+		try {
+			ResultSet rs = db.executePrepSelectResultSet(loadPathTreePrepStmt);
+			while (rs.next()) {
+				tree.add(rs.getInt(1), rs.getInt(2), intToPathType(rs.getInt(3)), 
+						 fileNames.getName(rs.getInt(5)), rs.getInt(4) == 1);
+			}
+			rs.close();
+		} catch (SQLException e) {
+			throw new FatalBuildStoreError("Unable to load path tree", e);
+		}
+		pathTree = tree;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Return the interval labelling of the path tree, first building it (from the complete
+	 * "files" table) if it doesn't yet exist, or if too many paths have been added since
+	 * it was built.
+	 * 
+	 * @return The current interval labelling.
+	 */
+	private PathIntervals getPathIntervals() {
+		PathIntervals intervals = pathIntervals;
+		if ((intervals != null) && !intervals.isStale()) {
+			return intervals;
+		}
+		
+		int numPaths = 0;
+		int pathIds[] = new int[1024];
+		int parentIds[] = new int[1024];
+		boolean trashed[] = new boolean[1024];
+		try {
+			ResultSet rs = db.executePrepSelectResultSet(loadPathIntervalsPrepStmt.get());
+			while (rs.next()) {
+				if (numPaths == pathIds.length) {
+					pathIds = Arrays.copyOf(pathIds, numPaths * 2);
+					parentIds = Arrays.copyOf(parentIds, numPaths * 2);
+					trashed = Arrays.copyOf(trashed, numPaths * 2);
+				}
+				pathIds[numPaths] = rs.getInt(1);
+				parentIds[numPaths] = rs.getInt(2);
+				trashed[numPaths] = (rs.getInt(3) == 1);
+				numPaths++;
+			}
+			rs.close();
+		} catch (SQLException e) {
+			throw new FatalBuildStoreError("Unable to load path intervals", e);
+		}
+		
+		intervals = new PathIntervals(numPaths, pathIds, parentIds, trashed);
+		pathIntervals = intervals;
+		return intervals;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Helper method for getSubTreePaths(), used when the path isn't in the interval
+	 * labelling. Recursively add a path and its (non-trashed) children to the results.
+	 * 
+	 * @param results The list of path IDs to add to.
+	 * @param pathId The path to be added.
+	 */
+	private void getSubTreePathsHelper(List<Integer> results, int pathId) {
+		results.add(pathId);
+		Integer children[] = getChildPaths(pathId);
+		for (int i = 0; i < children.length; i++) {
+			getSubTreePathsHelper(results, children[i]);
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return The highest path ID that's currently stored in the database.
+	 */
+	private int getMaxPathId() {
+		Integer results[] = db.executePrepSelectIntegerColumn(maxPathIdPrepStmt);
+		if (results.length != 1) {
+			return 0;
+		}
+		return results[0];
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
 }
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.model.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+import com.buildml.model.FatalBuildStoreError;
+
+/**
+ * The dictionary of path base names (such as "Makefile" or "include"), as stored in the
+ * "fileNames" database table. Each distinct name is stored once, and the "files" table
+ * refers to it by its name ID. The complete dictionary is cached in memory, so mapping
+ * between names and name IDs never requires a database query (except when the
+ * dictionary is first loaded).
+ * <p>
+ * Names are never removed from the dictionary, even if there are no longer any paths
+ * that use them.
+ * <p>
+ * Note: the methods in this class are synchronized, since queries may be performed
+ * by multiple threads at the same time. However, the caller must ensure that only one
+ * thread at a time calls addName().
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package private */ class FileNameDictionary {
+
+	/*=====================================================================================*
+	 * FIELDS/TYPES
+	 *=====================================================================================*/
+
+	/** Our database manager object, used to access the database content. */
+	private BuildStoreDB db;
+
+	/** Statement for adding a new name to the fileNames table. */
+	private PreparedStatement insertNamePrepStmt;
+
+	/** Statement for reading the whole fileNames table. */
+	private ReadStatement loadNamesPrepStmt;
+
+	/** Mapping from a name to its name ID (or null if the dictionary isn't yet loaded). */
+	private HashMap<String, Integer> nameIds = null;
+
+	/** The names, indexed by their name ID (unused IDs have a null name). */
+	private String names[];
+
+	/** The ID to assign to the next new name. */
+	private int nextNameId;
+
+	/*=====================================================================================*
+	 * CONSTRUCTORS
+	 *=====================================================================================*/
+
+	/**
+	 * Create a new FileNameDictionary. The content of the fileNames table is read when
+	 * the dictionary is first used.
+	 *
+	 * @param db The database containing the fileNames table.
+	 */
+	/* package private */
+	FileNameDictionary(BuildStoreDB db) {
+		this.db = db;
+		insertNamePrepStmt = db.prepareStatement("insert into fileNames values (?, ?)");
+		loadNamesPrepStmt = db.prepareReadStatement("select id, name from fileNames");
+	}
+
+	/*=====================================================================================*
+	 * PACKAGE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Return the ID of an existing name.
+	 *
+	 * @param name The name to look up.
+	 * @return The name's ID, or -1 if the name isn't in the dictionary.
+	 */
+	/* package private */
+	synchronized int getNameId(String name) {
+		loadIfNecessary();
+		Integer nameId = nameIds.get(name);
+		return (nameId == null) ? -1 : nameId;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Return the name with the specified ID.
+	 *
+	 * @param nameId The ID of the name.
+	 * @return The name, or null if the ID is invalid.
+	 */
+	/* package private */
+	synchronized String getName(int nameId) {
+		loadIfNecessary();
+		if ((nameId < 0) || (nameId >= names.length)) {
+			return null;
+		}
+		return names[nameId];
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Return the ID of a name, adding the name to the dictionary (and the database) if
+	 * it's not already present. The new row is written immediately, without waiting for
+	 * any queued bulk writes (which can't depend on it).
+	 *
+	 * @param name The name to look up (or add).
+	 * @return The name's ID.
+	 */
+	/* package private */
+	synchronized int addName(String name) {
+		int nameId = getNameId(name);
+		if (nameId != -1) {
+			return nameId;
+		}
+
+		nameId = nextNameId;
+		try {
+			insertNamePrepStmt.setInt(1, nameId);
+			insertNamePrepStmt.setString(2, name);
+			db.executePrepUpdateNoFlush(insertNamePrepStmt);
+		} catch (SQLException e) {
+			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+		}
+		record(nameId, name);
+		return nameId;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Discard the in-memory copy of the dictionary, since the fileNames table may have
+	 * changed behind our back (for example, a batch of changes was rolled back). The
+	 * dictionary is read again when it's next used.
+	 */
+	/* package private */
+	synchronized void discard() {
+		nameIds = null;
+		names = null;
+	}
+
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Read the complete fileNames table, unless it has already been read.
+	 */
+	private void loadIfNecessary() {
+		if (nameIds != null) {
+			return;
+		}
+		nameIds = new HashMap<String, Integer>();
+		names = new String[1024];
+		nextNameId = 0;
+		try {
+			ResultSet rs = db.executePrepSelectResultSetNoFlush(loadNamesPrepStmt.get());
+			while (rs.next()) {
+				record(rs.getInt(1), rs.getString(2));
+			}
+			rs.close();
+		} catch (SQLException e) {
+			throw new FatalBuildStoreError("Unable to load file names", e);
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Add a name to the in-memory copy of the dictionary.
+	 *
+	 * @param nameId The name's ID.
+	 * @param name The name.
+	 */
+	private void record(int nameId, String name) {
+		if (nameId >= names.length) {
+			int newLength = names.length;
+			while (newLength <= nameId) {
+				newLength *= 2;
+			}
+			String newNames[] = new String[newLength];
+			System.arraycopy(names, 0, newNames, 0, names.length);
+			names = newNames;
+		}
+		names[nameId] = name;
+		nameIds.put(name, nameId);
+		nextNameId = Math.max(nextNameId, nameId + 1);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
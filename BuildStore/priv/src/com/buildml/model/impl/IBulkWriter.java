@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and 
+ *        implementation and/or initial documentation
+ *******************************************************************************/ 
+
+package com.buildml.model.impl;
+
+/**
+ * Implemented by any BuildStore manager that's capable of queuing up new database
+ * rows in memory while the BuildStoreDB is in "bulk write" mode. The queued rows are
+ * later written to the database, in large batches, when the BuildStoreDB asks for
+ * them to be flushed.
+ * <p>
+ * Managers register themselves via BuildStoreDB.addBulkWriter().
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package private */ interface IBulkWriter {
+
+	/**
+	 * Bulk write mode has just been enabled. The manager should prepare to queue
+	 * new rows, for example by determining the next available ID numbers.
+	 */
+	public void beginBulkWrite();
+
+	/**
+	 * Write all queued rows to the database, then discard them from memory. This method
+	 * is called whenever some other database access requires a consistent view of the
+	 * database, as well as when bulk write mode is disabled.
+	 */
+	public void flushBulkWrites();
+}
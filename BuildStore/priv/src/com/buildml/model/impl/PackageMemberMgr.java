@@ -17,6 +17,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
@@ -60,6 +61,9 @@ import com.buildml.utils.errors.ErrorCode;
 	 */
 	private BuildStoreDB db = null;
 	
+	/** The maximum number of members whose packages are fetched by a single query. */
+	private static final int MEMBERS_PER_QUERY = 500;
+	
 	/** The FileMgr object that manages the files in our packages. */
 	private IFileMgr fileMgr = null;
 	
@@ -79,17 +83,20 @@ import com.buildml.utils.errors.ErrorCode;
 	 * Various prepared statements for database access.
 	 */
 	private PreparedStatement 
-		findMemberPackagePrepStmt = null,
 		updatePackagePrepStmt = null,
+		updateLocationPrepStmt = null;
+	
+	/** Statements for queries that may be performed by multiple threads at the same time. */
+	private ReadStatement
+		findMemberPackagePrepStmt = null,
 		findFilesInPackage1PrepStmt = null,
 		findFilesInPackage2PrepStmt = null,
 		findFilesOutsidePackage1PrepStmt = null,
-		findFilesOutsidePackage2PrepStmt = null,		
+		findFilesOutsidePackage2PrepStmt = null,
 		findActionPackagePrepStmt = null,
 		findActionsInPackagePrepStmt = null,
 		findActionsOutsidePackagePrepStmt = null,
 		findLocationPrepStmt = null,
-		updateLocationPrepStmt = null,
 		findActionNeighbourPrepStmt = null,
 		findFileGroupNeighbourPrepStmt = null,
 		findMergeFileGroupMembersPrepStmt = null,
@@ -118,32 +125,32 @@ import com.buildml.utils.errors.ErrorCode;
 		this.fileGroupMgr = buildStore.getFileGroupMgr();
 		this.subPkgMgr = buildStore.getSubPackageMgr();
 		
-		findMemberPackagePrepStmt = db.prepareStatement(
+		findMemberPackagePrepStmt = db.prepareReadStatement(
 				"select pkgId, scopeId from packageMembers where memberType = ? and memberId = ?");
 		updatePackagePrepStmt = 
 				db.prepareStatement("update packageMembers set pkgId = ?, scopeId = ? " +
 									"where memberType = ? and memberId = ?");				
-		findFilesInPackage1PrepStmt = db.prepareStatement(
+		findFilesInPackage1PrepStmt = db.prepareReadStatement(
 				"select memberId from packageMembers where pkgId = ? and memberType = " + TYPE_FILE);
-		findFilesInPackage2PrepStmt = db.prepareStatement(
+		findFilesInPackage2PrepStmt = db.prepareReadStatement(
 				"select memberId from packageMembers where pkgId = ? and memberType = " + 
 						TYPE_FILE + " and scopeId = ?");
-		findFilesOutsidePackage1PrepStmt = db.prepareStatement(
+		findFilesOutsidePackage1PrepStmt = db.prepareReadStatement(
 				"select memberId from packageMembers where pkgId != ? and memberType = " + TYPE_FILE);
-		findFilesOutsidePackage2PrepStmt = db.prepareStatement(
+		findFilesOutsidePackage2PrepStmt = db.prepareReadStatement(
 				"select memberId from packageMembers where memberType = " + TYPE_FILE +
 				" and not (pkgId = ? and scopeId = ?)");
-		findActionPackagePrepStmt = db.prepareStatement("select pkgId from packageMembers where memberId = ?" +
+		findActionPackagePrepStmt = db.prepareReadStatement("select pkgId from packageMembers where memberId = ?" +
 				" and memberType = " + TYPE_ACTION);
-		findActionsInPackagePrepStmt = db.prepareStatement(
+		findActionsInPackagePrepStmt = db.prepareReadStatement(
 				"select memberId from packageMembers where pkgId = ? and memberType = " + TYPE_ACTION);
-		findActionsOutsidePackagePrepStmt = db.prepareStatement("select memberId from packageMembers " +
+		findActionsOutsidePackagePrepStmt = db.prepareReadStatement("select memberId from packageMembers " +
 				"where pkgId != ? and memberId != 0 and memberType = " + TYPE_ACTION);
-		findLocationPrepStmt = db.prepareStatement(
+		findLocationPrepStmt = db.prepareReadStatement(
 				"select x, y from packageMembers where memberType = ? and memberId = ?");
 		updateLocationPrepStmt = db.prepareStatement(
 				"update packageMembers set x = ?, y = ? where memberType = ? and memberId = ?");
-		findActionNeighbourPrepStmt = db.prepareStatement(
+		findActionNeighbourPrepStmt = db.prepareReadStatement(
 				"select value, x, y from slotValues, slotTypes, packageMembers where " +
 						"slotValues.ownerType = " + ISlotTypes.SLOT_OWNER_ACTION + " " + 
 						"and slotValues.ownerId = ? " +
@@ -151,7 +158,7 @@ import com.buildml.utils.errors.ErrorCode;
 						"and slotTypes.slotPos = ? " +
 						"and packageMembers.memberType = " + IPackageMemberMgr.TYPE_FILE_GROUP + " " +
 						"and packageMembers.memberId = value");
-		findFileGroupNeighbourPrepStmt = db.prepareStatement(
+		findFileGroupNeighbourPrepStmt = db.prepareReadStatement(
 				"select slotValues.ownerId, x, y from slotValues, slotTypes, packageMembers where " +
 						"slotValues.ownerType = " + ISlotTypes.SLOT_OWNER_ACTION + " " +
 						"and slotValues.value = ? " +
@@ -159,18 +166,18 @@ import com.buildml.utils.errors.ErrorCode;
 						"and (slotTypes.slotPos = ? or slotTypes.slotPos = ?) " +
 						"and packageMembers.memberType = " + IPackageMemberMgr.TYPE_ACTION + " " +
 						"and packageMembers.memberId = slotValues.ownerId");
-		findMergeFileGroupMembersPrepStmt = db.prepareStatement(
+		findMergeFileGroupMembersPrepStmt = db.prepareReadStatement(
 				"select distinct pathId, x, y from fileGroupPaths, packageMembers where groupId = ? " +
 						"and packageMembers.memberType = " + IPackageMemberMgr.TYPE_FILE_GROUP + " " +
 						"and packageMembers.memberId = fileGroupPaths.pathId");
-		findMergeFileGroupsContainingFileGroup = db.prepareStatement(
+		findMergeFileGroupsContainingFileGroup = db.prepareReadStatement(
 				"select distinct groupId, x, y from fileGroups, fileGroupPaths, packageMembers " +
 						"where packageMembers.memberType = " + IPackageMemberMgr.TYPE_FILE_GROUP + " " +
 						"and packageMembers.memberId = fileGroupPaths.groupId " +
 						"and fileGroups.id = fileGroupPaths.groupId " +
 						"and fileGroups.type = " + IFileGroupMgr.MERGE_GROUP + " " +
 						"and fileGroupPaths.pathId = ?");
-		findFiltersContainingFileGroup = db.prepareStatement(
+		findFiltersContainingFileGroup = db.prepareReadStatement(
 				"select id from fileGroups where predId = ?");
 	}
 
@@ -350,9 +357,10 @@ import com.buildml.utils.errors.ErrorCode;
 	public PackageDesc getPackageOfMember(int memberType, int memberId) {
 		
 		try {
-			findMemberPackagePrepStmt.setInt(1, memberType);
-			findMemberPackagePrepStmt.setInt(2, memberId);
-			ResultSet rs = db.executePrepSelectResultSet(findMemberPackagePrepStmt);
+			PreparedStatement stmt = findMemberPackagePrepStmt.get();
+			stmt.setInt(1, memberType);
+			stmt.setInt(2, memberId);
+			ResultSet rs = db.executePrepSelectResultSet(stmt);
 			if (!rs.next()){
 				return null;
 			}
@@ -369,6 +377,60 @@ import com.buildml.utils.errors.ErrorCode;
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IPackageMemberMgr#getPackagesOfMembers(int, int[])
+	 */
+	@Override
+	public PackageDesc[] getPackagesOfMembers(int memberType, int memberIds[]) {
+		
+		/*
+		 * Rather than querying each member individually, fetch the packages of many
+		 * members in each query. The members are queried in chunks, to keep each SQL
+		 * statement to a reasonable size.
+		 */
+		HashMap<Integer, PackageDesc> pkgOfMember = new HashMap<Integer, PackageDesc>();
+		StringBuilder query = new StringBuilder();
+		int i = 0;
+		while (i != memberIds.length) {
+			query.setLength(0);
+			query.append("select memberId, pkgId, scopeId from packageMembers where memberType = ");
+			query.append(memberType);
+			query.append(" and memberId in (");
+			int chunkEnd = Math.min(i + MEMBERS_PER_QUERY, memberIds.length);
+			for (int j = i; j != chunkEnd; j++) {
+				if (j != i) {
+					query.append(',');
+				}
+				query.append(memberIds[j]);
+			}
+			query.append(')');
+			i = chunkEnd;
+			
+			try {
+				ResultSet rs = db.executeSelectResultSet(query.toString());
+				while (rs.next()) {
+					PackageDesc result = new PackageDesc();
+					result.pkgId = rs.getInt(2);
+					result.pkgScopeId = rs.getInt(3);
+					pkgOfMember.put(rs.getInt(1), result);
+				}
+				rs.close();
+				
+			} catch (SQLException e) {
+				throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+			}
+		}
+		
+		/* return the results in the same order as the member IDs */
+		PackageDesc results[] = new PackageDesc[memberIds.length];
+		for (int j = 0; j != memberIds.length; j++) {
+			results[j] = pkgOfMember.get(memberIds[j]);
+		}
+		return results;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/* (non-Javadoc)
 	 * @see com.buildml.model.IPackageMemberMgr#getMembersInPackage(int, int, int)
 	 */
@@ -476,9 +538,10 @@ import com.buildml.utils.errors.ErrorCode;
 		MemberLocation result = null;
 			
 		try {
-			findLocationPrepStmt.setInt(1, memberType);
-			findLocationPrepStmt.setInt(2, memberId);
-			rs = db.executePrepSelectResultSet(findLocationPrepStmt);			
+			PreparedStatement stmt = findLocationPrepStmt.get();
+			stmt.setInt(1, memberType);
+			stmt.setInt(2, memberId);
+			rs = db.executePrepSelectResultSet(stmt);			
 			
 			/* if memberType/memberID is valid, fetch the x and y fields */
 			if (rs.next()) {
@@ -587,8 +650,9 @@ import com.buildml.utils.errors.ErrorCode;
 	public FileSet getFilesInPackage(int pkgId) {
 		Integer results[] = null;
 		try {
-			findFilesInPackage1PrepStmt.setInt(1, pkgId);
-			results = db.executePrepSelectIntegerColumn(findFilesInPackage1PrepStmt);
+			PreparedStatement stmt = findFilesInPackage1PrepStmt.get();
+			stmt.setInt(1, pkgId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -607,9 +671,10 @@ import com.buildml.utils.errors.ErrorCode;
 		
 		Integer results[] = null;
 		try {
-			findFilesInPackage2PrepStmt.setInt(1, pkgId);
-			findFilesInPackage2PrepStmt.setInt(2, pkgScopeId);
-			results = db.executePrepSelectIntegerColumn(findFilesInPackage2PrepStmt);
+			PreparedStatement stmt = findFilesInPackage2PrepStmt.get();
+			stmt.setInt(1, pkgId);
+			stmt.setInt(2, pkgScopeId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -654,8 +719,9 @@ import com.buildml.utils.errors.ErrorCode;
 	public FileSet getFilesOutsidePackage(int pkgId) {
 		Integer results[] = null;
 		try {
-			findFilesOutsidePackage1PrepStmt.setInt(1, pkgId);
-			results = db.executePrepSelectIntegerColumn(findFilesOutsidePackage1PrepStmt);
+			PreparedStatement stmt = findFilesOutsidePackage1PrepStmt.get();
+			stmt.setInt(1, pkgId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -673,9 +739,10 @@ import com.buildml.utils.errors.ErrorCode;
 	public FileSet getFilesOutsidePackage(int pkgId, int pkgScopeId) {
 		Integer results[] = null;
 		try {
-			findFilesOutsidePackage2PrepStmt.setInt(1, pkgId);
-			findFilesOutsidePackage2PrepStmt.setInt(2, pkgScopeId);
-			results = db.executePrepSelectIntegerColumn(findFilesOutsidePackage2PrepStmt);
+			PreparedStatement stmt = findFilesOutsidePackage2PrepStmt.get();
+			stmt.setInt(1, pkgId);
+			stmt.setInt(2, pkgScopeId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -720,8 +787,9 @@ import com.buildml.utils.errors.ErrorCode;
 	public ActionSet getActionsInPackage(int pkgId) {
 		Integer results[] = null;
 		try {
-			findActionsInPackagePrepStmt.setInt(1, pkgId);
-			results = db.executePrepSelectIntegerColumn(findActionsInPackagePrepStmt);
+			PreparedStatement stmt = findActionsInPackagePrepStmt.get();
+			stmt.setInt(1, pkgId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -754,8 +822,9 @@ import com.buildml.utils.errors.ErrorCode;
 	public ActionSet getActionsOutsidePackage(int pkgId) {
 		Integer results[] = null;
 		try {
-			findActionsOutsidePackagePrepStmt.setInt(1, pkgId);
-			results = db.executePrepSelectIntegerColumn(findActionsOutsidePackagePrepStmt);
+			PreparedStatement stmt = findActionsOutsidePackagePrepStmt.get();
+			stmt.setInt(1, pkgId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -839,9 +908,10 @@ import com.buildml.utils.errors.ErrorCode;
 			/* 
 			 * Query the database for all file groups that are mentioned in our INPUT slots.
 			 */
-			findActionNeighbourPrepStmt.setInt(1, actionId);
-			findActionNeighbourPrepStmt.setInt(2, ISlotTypes.SLOT_POS_INPUT);
-			ResultSet rs = db.executePrepSelectResultSet(findActionNeighbourPrepStmt);
+			PreparedStatement stmt = findActionNeighbourPrepStmt.get();
+			stmt.setInt(1, actionId);
+			stmt.setInt(2, ISlotTypes.SLOT_POS_INPUT);
+			ResultSet rs = db.executePrepSelectResultSet(stmt);
 			while (rs.next()) {
 				MemberDesc member = new MemberDesc(IPackageMemberMgr.TYPE_FILE_GROUP,
 						Integer.valueOf(rs.getString(1)), rs.getInt(2), rs.getInt(3));
@@ -879,9 +949,10 @@ import com.buildml.utils.errors.ErrorCode;
 			/* 
 			 * Query the database for all file groups mentioned in our OUTPUT slots.
 			 */
-			findActionNeighbourPrepStmt.setInt(1, actionId);
-			findActionNeighbourPrepStmt.setInt(2, ISlotTypes.SLOT_POS_OUTPUT);
-			ResultSet rs = db.executePrepSelectResultSet(findActionNeighbourPrepStmt);
+			PreparedStatement stmt = findActionNeighbourPrepStmt.get();
+			stmt.setInt(1, actionId);
+			stmt.setInt(2, ISlotTypes.SLOT_POS_OUTPUT);
+			ResultSet rs = db.executePrepSelectResultSet(stmt);
 			while (rs.next()) {
 				MemberDesc member = new MemberDesc(IPackageMemberMgr.TYPE_FILE_GROUP,
 						Integer.valueOf(rs.getString(1)), rs.getInt(2), rs.getInt(3));
@@ -914,9 +985,10 @@ import com.buildml.utils.errors.ErrorCode;
 			 * To find left neighbours that are actions... search for output slots in this 
 			 * package's actions that refer to our file group.
 =			 */
-			findFileGroupNeighbourPrepStmt.setInt(1, fileGroupId);
-			findFileGroupNeighbourPrepStmt.setInt(2, ISlotTypes.SLOT_POS_OUTPUT);
-			ResultSet rs = db.executePrepSelectResultSet(findFileGroupNeighbourPrepStmt);
+			PreparedStatement stmt = findFileGroupNeighbourPrepStmt.get();
+			stmt.setInt(1, fileGroupId);
+			stmt.setInt(2, ISlotTypes.SLOT_POS_OUTPUT);
+			ResultSet rs = db.executePrepSelectResultSet(stmt);
 			while (rs.next()) {
 				MemberDesc member = new MemberDesc(IPackageMemberMgr.TYPE_ACTION,
 						Integer.valueOf(rs.getString(1)), rs.getInt(2), rs.getInt(3));
@@ -930,8 +1002,9 @@ import com.buildml.utils.errors.ErrorCode;
 			 */
 			if (fileGroupType == IFileGroupMgr.MERGE_GROUP) {
 
-				findMergeFileGroupMembersPrepStmt.setInt(1, fileGroupId);
-				rs = db.executePrepSelectResultSet(findMergeFileGroupMembersPrepStmt);
+				stmt = findMergeFileGroupMembersPrepStmt.get();
+				stmt.setInt(1, fileGroupId);
+				rs = db.executePrepSelectResultSet(stmt);
 				while (rs.next()) {
 					MemberDesc member = new MemberDesc(IPackageMemberMgr.TYPE_FILE_GROUP,
 							rs.getInt(1), rs.getInt(2), rs.getInt(3));
@@ -983,9 +1056,10 @@ import com.buildml.utils.errors.ErrorCode;
 			 * To find right neighbours that are actions... search for input slots in this 
 			 * package's actions that refer to our file group.
 =			 */
-			findFileGroupNeighbourPrepStmt.setInt(1, fileGroupId);
-			findFileGroupNeighbourPrepStmt.setInt(2, ISlotTypes.SLOT_POS_INPUT);
-			ResultSet rs = db.executePrepSelectResultSet(findFileGroupNeighbourPrepStmt);
+			PreparedStatement stmt = findFileGroupNeighbourPrepStmt.get();
+			stmt.setInt(1, fileGroupId);
+			stmt.setInt(2, ISlotTypes.SLOT_POS_INPUT);
+			ResultSet rs = db.executePrepSelectResultSet(stmt);
 			while (rs.next()) {
 				MemberDesc member = new MemberDesc(IPackageMemberMgr.TYPE_ACTION,
 						Integer.valueOf(rs.getString(1)), rs.getInt(2), rs.getInt(3));
@@ -997,8 +1071,9 @@ import com.buildml.utils.errors.ErrorCode;
 			 * To find a right neighbour that's a merge group... look for
 			 * all occurrences of our file group ID in all merge groups.
 			 */
-			findMergeFileGroupsContainingFileGroup.setInt(1, fileGroupId);
-			rs = db.executePrepSelectResultSet(findMergeFileGroupsContainingFileGroup);
+			stmt = findMergeFileGroupsContainingFileGroup.get();
+			stmt.setInt(1, fileGroupId);
+			rs = db.executePrepSelectResultSet(stmt);
 			while (rs.next()) {
 				MemberDesc member = new MemberDesc(IPackageMemberMgr.TYPE_FILE_GROUP,
 						rs.getInt(1), rs.getInt(2), rs.getInt(3));
@@ -1016,8 +1091,9 @@ import com.buildml.utils.errors.ErrorCode;
 			
 				/* get a list of all the filters */
 				List<MemberDesc> filters = new ArrayList<MemberDesc>();
-				findFiltersContainingFileGroup.setInt(1, fileGroupId);
-				rs = db.executePrepSelectResultSet(findFiltersContainingFileGroup);
+				stmt = findFiltersContainingFileGroup.get();
+				stmt.setInt(1, fileGroupId);
+				rs = db.executePrepSelectResultSet(stmt);
 				while (rs.next()) {
 					MemberDesc member = new MemberDesc(IPackageMemberMgr.TYPE_FILE_GROUP,
 							rs.getInt(1), -1, -1);	/* filter groups are never positioned */
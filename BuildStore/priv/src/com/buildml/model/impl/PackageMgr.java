@@ -80,18 +80,21 @@ import com.buildml.utils.errors.FatalError;
 	 */
 	private PreparedStatement 
 		addPackagePrepStmt = null,
+		updatePackageParentPrepStmt = null,
+		updatePackageNamePrepStmt = null,
+		removePackageByIdPrepStmt = null,
+		insertExportPrepStmt = null,
+		removeExportPrepStmt = null;
+	
+	/** Statements for queries that may be performed by multiple threads at the same time. */
+	private ReadStatement
 		findPackageByNamePrepStmt = null,
 		findPackageByIdPrepStmt = null,
 		findPackageTypePrepStmt = null,
 		findPackageParentPrepStmt = null,
-		updatePackageParentPrepStmt = null,
-		updatePackageNamePrepStmt = null,
 		findAllPackagesPrepStmt = null,
 		findChildPackagesPrepStmt = null,
-		removePackageByIdPrepStmt = null,
-		insertExportPrepStmt = null,
-		findExportPrepStmt = null,
-		removeExportPrepStmt = null;
+		findExportPrepStmt = null;
 	
 	/** The event listeners who are registered to learn about package changes */
 	List<IPackageMgrListener> listeners = new ArrayList<IPackageMgrListener>();
@@ -122,20 +125,20 @@ import com.buildml.utils.errors.FatalError;
 		/* initialize prepared database statements */
 		addPackagePrepStmt = db.prepareStatement("insert into packages values (null, ?, " + 
 												 ROOT_FOLDER_ID + ", ?)");
-		findPackageByNamePrepStmt = db.prepareStatement("select id from packages where name = ?");
-		findPackageByIdPrepStmt = db.prepareStatement("select name from packages where id = ?");
-		findPackageTypePrepStmt = db.prepareStatement("select isFolder from packages where id = ?");
-		findPackageParentPrepStmt = db.prepareStatement("select parent from packages where id = ?");
+		findPackageByNamePrepStmt = db.prepareReadStatement("select id from packages where name = ?");
+		findPackageByIdPrepStmt = db.prepareReadStatement("select name from packages where id = ?");
+		findPackageTypePrepStmt = db.prepareReadStatement("select isFolder from packages where id = ?");
+		findPackageParentPrepStmt = db.prepareReadStatement("select parent from packages where id = ?");
 		updatePackageParentPrepStmt = db.prepareStatement("update packages set parent = ? where id = ?");
 		updatePackageNamePrepStmt = db.prepareStatement("update packages set name = ? where id = ?");
-		findAllPackagesPrepStmt = db.prepareStatement(
+		findAllPackagesPrepStmt = db.prepareReadStatement(
 				"select name from packages where isFolder = 0 order by name collate nocase");
-		findChildPackagesPrepStmt = db.prepareStatement(
+		findChildPackagesPrepStmt = db.prepareReadStatement(
 				"select id from packages where parent = ? and id != " + ROOT_FOLDER_ID + 
 				" order by isFolder desc, name collate nocase");
 		removePackageByIdPrepStmt = db.prepareStatement("delete from packages where id = ?");
 		insertExportPrepStmt = db.prepareStatement("insert into pkgExports values (?, ?)");
-		findExportPrepStmt = db.prepareStatement("select fileGroupId from pkgExports where slotId = ?");
+		findExportPrepStmt = db.prepareReadStatement("select fileGroupId from pkgExports where slotId = ?");
 		removeExportPrepStmt = db.prepareStatement("delete from pkgExports where slotId = ?");
 	}
 	
@@ -239,8 +242,9 @@ import com.buildml.utils.errors.FatalError;
 		/* find the package in our table */
 		String results[] = null;
 		try {
-			findPackageByIdPrepStmt.setInt(1, folderOrPackageId);
-			results = db.executePrepSelectStringColumn(findPackageByIdPrepStmt);
+			PreparedStatement stmt = findPackageByIdPrepStmt.get();
+			stmt.setInt(1, folderOrPackageId);
+			results = db.executePrepSelectStringColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -334,8 +338,9 @@ import com.buildml.utils.errors.FatalError;
 		/* find the package into our table */
 		Integer results[] = null;
 		try {
-			findPackageByNamePrepStmt.setString(1, folderOrPackageName);
-			results = db.executePrepSelectIntegerColumn(findPackageByNamePrepStmt);
+			PreparedStatement stmt = findPackageByNamePrepStmt.get();
+			stmt.setString(1, folderOrPackageName);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -429,7 +434,7 @@ import com.buildml.utils.errors.FatalError;
 	public String[] getPackages() {
 		
 		/* find all the package into our table */
-		return db.executePrepSelectStringColumn(findAllPackagesPrepStmt);
+		return db.executePrepSelectStringColumn(findAllPackagesPrepStmt.get());
 	};	
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -441,11 +446,12 @@ import com.buildml.utils.errors.FatalError;
 	public Integer[] getFolderChildren(int folderId) {
 
 		try {
-			findChildPackagesPrepStmt.setInt(1, folderId);
+			PreparedStatement stmt = findChildPackagesPrepStmt.get();
+			stmt.setInt(1, folderId);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
-		return db.executePrepSelectIntegerColumn(findChildPackagesPrepStmt);
+		return db.executePrepSelectIntegerColumn(findChildPackagesPrepStmt.get());
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -458,8 +464,9 @@ import com.buildml.utils.errors.FatalError;
 
 		Integer results[] = null;
 		try {
-			findPackageParentPrepStmt.setInt(1, folderOrPackageId);
-			results = db.executePrepSelectIntegerColumn(findPackageParentPrepStmt);
+			PreparedStatement stmt = findPackageParentPrepStmt.get();
+			stmt.setInt(1, folderOrPackageId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -553,8 +560,9 @@ import com.buildml.utils.errors.FatalError;
 
 		Integer results[] = null;
 		try {
-			findPackageTypePrepStmt.setInt(1, folderOrPackageId);
-			results = db.executePrepSelectIntegerColumn(findPackageTypePrepStmt);
+			PreparedStatement stmt = findPackageTypePrepStmt.get();
+			stmt.setInt(1, folderOrPackageId);
+			results = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -775,8 +783,9 @@ import com.buildml.utils.errors.FatalError;
 		/* look up the file group, given the slotID */
 		Integer result[] = null;
 		try {
-			findExportPrepStmt.setInt(1, slotId);
-			result = db.executePrepSelectIntegerColumn(findExportPrepStmt);
+			PreparedStatement stmt = findExportPrepStmt.get();
+			stmt.setInt(1, slotId);
+			result = db.executePrepSelectIntegerColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
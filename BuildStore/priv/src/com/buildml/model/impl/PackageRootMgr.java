@@ -79,15 +79,18 @@ public class PackageRootMgr implements IPackageRootMgr {
 	 * Various prepared statements for database access.
 	 */
 	private PreparedStatement 
-		getWorkspaceDistancePrepStmt = null,
 		setWorkspaceDistancePrepStmt = null,
-		findRootPathIdPrepStmt = null,
 		insertRootPrepStmt = null,
 		updateRootPathPrepStmt = null,
-		findRootNamesPrepStmt = null,
-		findRootNamesAtPathPrepStmt = null,
 		deleteFileRootPrepStmt = null;
 	
+	/** Statements for queries that may be performed by multiple threads at the same time. */
+	private ReadStatement
+		getWorkspaceDistancePrepStmt = null,
+		findRootPathIdPrepStmt = null,
+		findRootNamesPrepStmt = null,
+		findRootNamesAtPathPrepStmt = null;
+	
 	/** The event listeners who are registered to learn about package changes */
 	List<IPackageMgrListener> listeners = new ArrayList<IPackageMgrListener>();
 
@@ -112,19 +115,19 @@ public class PackageRootMgr implements IPackageRootMgr {
 		
 		/* initialize prepared database statements */
 		getWorkspaceDistancePrepStmt = 
-				db.prepareStatement("select distance from workspace");
+				db.prepareReadStatement("select distance from workspace");
 		setWorkspaceDistancePrepStmt = 
 				db.prepareStatement("update workspace set distance = ?");
 		findRootPathIdPrepStmt = 
-				db.prepareStatement("select fileId from fileRoots where name = ?");
+				db.prepareReadStatement("select fileId from fileRoots where name = ?");
 		insertRootPrepStmt = 
 				db.prepareStatement("insert into fileRoots values (?, ?)");
 		updateRootPathPrepStmt = 
 				db.prepareStatement("update fileRoots set fileId = ? where name = ?");
 		findRootNamesPrepStmt = 
-				db.prepareStatement("select name from fileRoots order by name");
+				db.prepareReadStatement("select name from fileRoots order by name");
 		findRootNamesAtPathPrepStmt = 
-				db.prepareStatement("select name from fileRoots where fileId = ? order by name");
+				db.prepareReadStatement("select name from fileRoots where fileId = ? order by name");
 		deleteFileRootPrepStmt = 
 				db.prepareStatement("delete from fileRoots where name = ?");
 	}
@@ -185,8 +188,9 @@ public class PackageRootMgr implements IPackageRootMgr {
 		if (cachedWorkspaceRootId == -1) {
 			Integer results[] = null;
 			try {
-				findRootPathIdPrepStmt.setString(1, "workspace");
-				results = db.executePrepSelectIntegerColumn(findRootPathIdPrepStmt);
+				PreparedStatement stmt = findRootPathIdPrepStmt.get();
+				stmt.setString(1, "workspace");
+				results = db.executePrepSelectIntegerColumn(stmt);
 
 				/* is there exactly one root registered? */
 				if (results.length == 1) {
@@ -238,7 +242,7 @@ public class PackageRootMgr implements IPackageRootMgr {
 		 * or a setBuildMLDepth()), compute it from the persisted "depth"
 		 */
 		if (cachedWorkspaceRootNative == null) {
-			Integer results[] = db.executePrepSelectIntegerColumn(getWorkspaceDistancePrepStmt);
+			Integer results[] = db.executePrepSelectIntegerColumn(getWorkspaceDistancePrepStmt.get());
 			if (results.length == 1) {
 				setBuildMLFileDepth(results[0]);
 			} else {
@@ -433,8 +437,9 @@ public class PackageRootMgr implements IPackageRootMgr {
 	public int getRootPath(String rootName) {
 
 		try {
-			findRootPathIdPrepStmt.setString(1, rootName);
-			Integer results[] = db.executePrepSelectIntegerColumn(findRootPathIdPrepStmt);
+			PreparedStatement stmt = findRootPathIdPrepStmt.get();
+			stmt.setString(1, rootName);
+			Integer results[] = db.executePrepSelectIntegerColumn(stmt);
 
 			/* is there exactly one root registered? */
 			if (results.length == 1) {
@@ -580,7 +585,7 @@ public class PackageRootMgr implements IPackageRootMgr {
 	 */
 	@Override
 	public String[] getRoots() {
-		return db.executePrepSelectStringColumn(findRootNamesPrepStmt);
+		return db.executePrepSelectStringColumn(findRootNamesPrepStmt.get());
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -593,8 +598,9 @@ public class PackageRootMgr implements IPackageRootMgr {
 
 		/* fetch all records at this path */
 		try {
-			findRootNamesAtPathPrepStmt.setInt(1, pathId);
-			return db.executePrepSelectStringColumn(findRootNamesAtPathPrepStmt);
+			PreparedStatement stmt = findRootNamesAtPathPrepStmt.get();
+			stmt.setInt(1, pathId);
+			return db.executePrepSelectStringColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.model.impl;
+
+/**
+ * An interval labelling of the path tree, allowing FileMgr to answer "is this directory
+ * an ancestor of that path?" and "which paths are below this directory?" without
+ * walking the tree one database query at a time.
+ * <p>
+ * When the labelling is built, the tree is traversed in depth-first order, and each path
+ * is given a "pre" number (its position in the traversal), and a "last" number (the
+ * highest pre number within its sub-tree). A directory is an ancestor of a path if the
+ * path's pre number falls within the directory's [pre, last] interval, and a directory's
+ * complete sub-tree is a contiguous range of the traversal order.
+ * <p>
+ * Paths added after the labelling was built are not given numbers, but are recorded
+ * (along with their parent) in an overflow list. Queries on these paths walk upwards
+ * until they reach a labelled path. Once the overflow list grows too large, the owner
+ * should discard this object and build a new one. Trashed paths remain in the labelling,
+ * but aren't reported as members of a sub-tree.
+ * <p>
+ * Note: the methods in this class are synchronized, since queries may be performed
+ * by multiple threads at the same time.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package private */ class PathIntervals {
+
+	/*=====================================================================================*
+	 * FIELDS/TYPES
+	 *=====================================================================================*/
+
+	/** The minimum number of overflow paths we'll accept before asking to be rebuilt. */
+	private static final int MIN_OVERFLOW = 1024;
+
+	/** For each path ID, the ID of the parent path (or -1 if the path isn't known). */
+	private int parentIds[];
+
+	/** For each path ID, the path's pre number (or -1 if the path is in the overflow list). */
+	private int preNumbers[];
+
+	/** For each path ID, the highest pre number within the path's sub-tree. */
+	private int lastNumbers[];
+
+	/** For each path ID, true if the path has been trashed. */
+	private boolean trashed[];
+
+	/** The labelled paths, indexed by their pre number. */
+	private int order[];
+
+	/** The number of labelled paths. */
+	private int numLabelled;
+
+	/** The IDs of the paths that were added since the labelling was built. */
+	private int overflowIds[] = new int[64];
+
+	/** The number of entries in overflowIds. */
+	private int numOverflow = 0;
+
+	/*=====================================================================================*
+	 * CONSTRUCTORS
+	 *=====================================================================================*/
+
+	/**
+	 * Build the interval labelling for a complete tree of paths. The paths are provided
+	 * as parallel arrays, in no particular order. The root path (ID 0) must be present,
+	 * and is its own parent. Any path that can't be reached from the root is ignored.
+	 *
+	 * @param numPaths The number of paths (the used portion of the arrays).
+	 * @param pathIds The ID of each path.
+	 * @param pathParents The ID of each path's parent.
+	 * @param pathTrashed True for each path that has been trashed.
+	 */
+	/* package private */
+	PathIntervals(int numPaths, int pathIds[], int pathParents[], boolean pathTrashed[]) {
+
+		int capacity = 1;
+		for (int i = 0; i != numPaths; i++) {
+			capacity = Math.max(capacity, Math.max(pathIds[i], pathParents[i]) + 1);
+		}
+		parentIds = new int[capacity];
+		preNumbers = new int[capacity];
+		lastNumbers = new int[capacity];
+		trashed = new boolean[capacity];
+		for (int i = 0; i != capacity; i++) {
+			parentIds[i] = -1;
+			preNumbers[i] = -1;
+		}
+
+		/* group the children of each path together (the root isn't its own child) */
+		int firstChild[] = new int[capacity + 1];
+		for (int i = 0; i != numPaths; i++) {
+			if (pathIds[i] != 0) {
+				firstChild[pathParents[i] + 1]++;
+			}
+		}
+		for (int i = 0; i != capacity; i++) {
+			firstChild[i + 1] += firstChild[i];
+		}
+		int children[] = new int[firstChild[capacity]];
+		int nextChild[] = new int[capacity];
+		System.arraycopy(firstChild, 0, nextChild, 0, capacity);
+		for (int i = 0; i != numPaths; i++) {
+			if (pathIds[i] != 0) {
+				children[nextChild[pathParents[i]]++] = pathIds[i];
+			}
+			trashed[pathIds[i]] = pathTrashed[i];
+		}
+
+		/* assign pre numbers by traversing the tree in depth-first order, starting at the root */
+		order = new int[numPaths];
+		int stack[] = new int[numPaths + 1];
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+		parentIds[0] = 0;
+		while (stackSize != 0) {
+			int pathId = stack[--stackSize];
+			preNumbers[pathId] = numLabelled;
+			order[numLabelled++] = pathId;
+			for (int i = firstChild[pathId]; i != firstChild[pathId + 1]; i++) {
+				parentIds[children[i]] = pathId;
+				stack[stackSize++] = children[i];
+			}
+		}
+
+		/* a path's sub-tree size is known once all its descendants have been visited */
+		for (int i = numLabelled - 1; i >= 0; i--) {
+			int pathId = order[i];
+			lastNumbers[pathId] += i;
+			if (pathId != 0) {
+				lastNumbers[parentIds[pathId]] += lastNumbers[pathId] - i + 1;
+			}
+		}
+	}
+
+	/*=====================================================================================*
+	 * PACKAGE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Record a newly-added path. If the path's parent isn't known, the new path is ignored.
+	 *
+	 * @param pathId The new path's ID.
+	 * @param parentId The ID of the new path's parent.
+	 */
+	/* package private */
+	synchronized void add(int pathId, int parentId) {
+		if (!contains(parentId)) {
+			return;
+		}
+		ensureCapacity(pathId);
+		parentIds[pathId] = parentId;
+		preNumbers[pathId] = -1;
+		trashed[pathId] = false;
+
+		if (numOverflow == overflowIds.length) {
+			int newOverflowIds[] = new int[numOverflow * 2];
+			System.arraycopy(overflowIds, 0, newOverflowIds, 0, numOverflow);
+			overflowIds = newOverflowIds;
+		}
+		overflowIds[numOverflow++] = pathId;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @param pathId The path to query.
+	 * @return True if the path is known (either labelled, or in the overflow list).
+	 */
+	/* package private */
+	synchronized boolean contains(int pathId) {
+		return (pathId >= 0) && (pathId < parentIds.length) && (parentIds[pathId] != -1);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return True if so many paths have been added since the labelling was built that
+	 * it's worth building a new one.
+	 */
+	/* package private */
+	synchronized boolean isStale() {
+		return numOverflow > MIN_OVERFLOW + (numLabelled / 8);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Change a path's trashed state.
+	 *
+	 * @param pathId The path to modify.
+	 * @param isTrashed True if the path is now trashed, else false.
+	 */
+	/* package private */
+	synchronized void setTrashed(int pathId, boolean isTrashed) {
+		if (contains(pathId)) {
+			trashed[pathId] = isTrashed;
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Determine whether a directory is an ancestor of a path. As a special case, the
+	 * root is considered to be its own ancestor.
+	 *
+	 * @param directoryId The ancestor directory (that may contain the path).
+	 * @param pathId The path, which must be known (see contains()).
+	 * @return True if the directory is an ancestor of the path.
+	 */
+	/* package private */
+	synchronized boolean isAncestorOf(int directoryId, int pathId) {
+		if (directoryId == pathId) {
+			return pathId == 0;
+		}
+
+		/* walk upwards from overflow paths, until we reach a labelled path */
+		int labelledId = pathId;
+		while (preNumbers[labelledId] == -1) {
+			labelledId = parentIds[labelledId];
+			if (labelledId == directoryId) {
+				return true;
+			}
+		}
+
+		/* an overflow (or unknown) directory can't contain a labelled path */
+		if (!contains(directoryId) || (preNumbers[directoryId] == -1)) {
+			return false;
+		}
+		int pre = preNumbers[labelledId];
+		return (pre > preNumbers[directoryId]) && (pre <= lastNumbers[directoryId]);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Return the IDs of a directory, and of all the paths within the directory's sub-tree.
+	 * Trashed paths (and anything below them) are excluded, although the directory itself
+	 * is always included.
+	 *
+	 * @param directoryId The directory, which must be known (see contains()).
+	 * @return The IDs of the paths in the sub-tree, in no particular order.
+	 */
+	/* package private */
+	synchronized int[] getSubTree(int directoryId) {
+		int results[] = new int[16];
+		int numResults = 0;
+		results[numResults++] = directoryId;
+
+		/* the labelled paths are a contiguous range */
+		int pre = preNumbers[directoryId];
+		if (pre != -1) {
+			int last = lastNumbers[directoryId];
+			results = grow(results, last - pre + 1);
+			for (int i = pre + 1; i <= last; i++) {
+				int pathId = order[i];
+				if (trashed[pathId]) {
+					i = lastNumbers[pathId];
+				} else {
+					results[numResults++] = pathId;
+				}
+			}
+		}
+
+		/* overflow paths are included if the walk up to the directory doesn't cross any trash */
+		for (int i = 0; i != numOverflow; i++) {
+			int pathId = overflowIds[i];
+			if (pathId == directoryId) {
+				continue;
+			}
+			while ((pathId != directoryId) && (pathId != 0) && !trashed[pathId]) {
+				pathId = parentIds[pathId];
+			}
+			if (pathId == directoryId) {
+				results = grow(results, numResults + 1);
+				results[numResults++] = overflowIds[i];
+			}
+		}
+
+		int trimmed[] = new int[numResults];
+		System.arraycopy(results, 0, trimmed, 0, numResults);
+		return trimmed;
+	}
+
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Grow the per-path arrays (if necessary) so that they can hold the specified path ID.
+	 *
+	 * @param pathId The largest path ID that must be stored.
+	 */
+	private void ensureCapacity(int pathId) {
+		int capacity = parentIds.length;
+		if (pathId < capacity) {
+			return;
+		}
+		while (capacity <= pathId) {
+			capacity *= 2;
+		}
+
+		int newParentIds[] = new int[capacity];
+		System.arraycopy(parentIds, 0, newParentIds, 0, parentIds.length);
+		for (int i = parentIds.length; i != capacity; i++) {
+			newParentIds[i] = -1;
+		}
+		parentIds = newParentIds;
+
+		int newPreNumbers[] = new int[capacity];
+		System.arraycopy(preNumbers, 0, newPreNumbers, 0, preNumbers.length);
+		preNumbers = newPreNumbers;
+
+		int newLastNumbers[] = new int[capacity];
+		System.arraycopy(lastNumbers, 0, newLastNumbers, 0, lastNumbers.length);
+		lastNumbers = newLastNumbers;
+
+		boolean newTrashed[] = new boolean[capacity];
+		System.arraycopy(trashed, 0, newTrashed, 0, trashed.length);
+		trashed = newTrashed;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Return an array that has at least the specified length, copying the existing content
+	 * into a new array if necessary.
+	 *
+	 * @param array The existing array.
+	 * @param length The required length.
+	 * @return The existing array, or a larger copy of it.
+	 */
+	private static int[] grow(int array[], int length) {
+		if (length <= array.length) {
+			return array;
+		}
+		int newArray[] = new int[Math.max(length, array.length * 2)];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
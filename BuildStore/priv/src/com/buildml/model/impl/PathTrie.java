@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.model.impl;
+
+import java.util.HashMap;
+
+import com.buildml.model.IFileMgr.PathType;
+
+/**
+ * An in-memory copy of the complete "files" table, allowing FileMgr to map between
+ * path names and path IDs without accessing the database. Each path's parent ID, type,
+ * name and trashed state are held in primitive arrays (indexed by path ID), and each
+ * directory has its own open-addressed hash table of children (keyed by the child's
+ * name). Path names are stored once, in a dictionary, so each path only records the
+ * index of its name.
+ * <p>
+ * Paths may be added, or have their trashed state changed, but they're never removed.
+ * The owner must discard the whole PathTrie if paths are removed from the database.
+ * <p>
+ * Note: the methods in this class are synchronized, since queries may be performed
+ * by multiple threads at the same time.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package private */ class PathTrie {
+
+	/*=====================================================================================*
+	 * FIELDS/TYPES
+	 *=====================================================================================*/
+
+	/** The number of path IDs we initially have space for. */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** The number of slots in a directory's child table, when first allocated. */
+	private static final int INITIAL_CHILD_TABLE_SIZE = 4;
+
+	/** All the PathType values, indexed by their ordinal value. */
+	private static final PathType PATH_TYPES[] = PathType.values();
+
+	/** For each path ID, the ID of the parent path. */
+	private int parentIds[] = new int[INITIAL_CAPACITY];
+
+	/** For each path ID, the index (in names) of the path's own name. */
+	private int nameIds[] = new int[INITIAL_CAPACITY];
+
+	/** For each path ID, the ordinal of the path's type (0 = TYPE_INVALID, if path is unknown). */
+	private byte pathTypes[] = new byte[INITIAL_CAPACITY];
+
+	/** For each path ID, true if the path has been trashed. */
+	private boolean trashed[] = new boolean[INITIAL_CAPACITY];
+
+	/**
+	 * For each path ID, the table of child paths (or null if there are no children).
+	 * Each table is a power of two in size, and uses linear probing. Slots hold the
+	 * child's path ID plus one, so that zero indicates an empty slot.
+	 */
+	private int childTables[][] = new int[INITIAL_CAPACITY][];
+
+	/** For each path ID, the number of children in that path's child table. */
+	private int childCounts[] = new int[INITIAL_CAPACITY];
+
+	/** The dictionary of path names, indexed by name ID. */
+	private String names[] = new String[INITIAL_CAPACITY];
+
+	/** The number of entries in the names dictionary. */
+	private int numNames = 0;
+
+	/** Mapping from a path name to its index within the names dictionary. */
+	private HashMap<String, Integer> nameIndex = new HashMap<String, Integer>();
+
+	/*=====================================================================================*
+	 * PACKAGE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Add a path to the trie.
+	 *
+	 * @param pathId The path's ID.
+	 * @param parentId The ID of the path's parent.
+	 * @param pathType The path's type.
+	 * @param name The path's name, within its parent directory.
+	 * @param isTrashed True if the path has been trashed.
+	 */
+	/* package private */
+	synchronized void add(int pathId, int parentId, PathType pathType, String name, boolean isTrashed) {
+
+		ensureCapacity(Math.max(pathId, parentId));
+
+		/* find (or allocate) this name's index in the dictionary */
+		Integer nameId = nameIndex.get(name);
+		if (nameId == null) {
+			if (numNames == names.length) {
+				String newNames[] = new String[numNames * 2];
+				System.arraycopy(names, 0, newNames, 0, numNames);
+				names = newNames;
+			}
+			names[numNames] = name;
+			nameId = numNames++;
+			nameIndex.put(name, nameId);
+		}
+
+		parentIds[pathId] = parentId;
+		nameIds[pathId] = nameId;
+		pathTypes[pathId] = (byte)pathType.ordinal();
+		trashed[pathId] = isTrashed;
+
+		/* grow the parent's child table if it's more than 3/4 full */
+		int table[] = childTables[parentId];
+		if (table == null) {
+			table = new int[INITIAL_CHILD_TABLE_SIZE];
+			childTables[parentId] = table;
+		} else if ((childCounts[parentId] + 1) * 4 > table.length * 3) {
+			int newTable[] = new int[table.length * 2];
+			for (int i = 0; i < table.length; i++) {
+				if (table[i] != 0) {
+					insertChild(newTable, table[i] - 1);
+				}
+			}
+			table = newTable;
+			childTables[parentId] = table;
+		}
+		insertChild(table, pathId);
+		childCounts[parentId]++;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Return the ID of the named child of a path (which may be trashed).
+	 *
+	 * @param parentId The parent path's ID.
+	 * @param name The name of the child to search for.
+	 * @return The child's path ID, or -1 if there's no such child.
+	 */
+	/* package private */
+	synchronized int getChild(int parentId, String name) {
+		if ((parentId < 0) || (parentId >= childTables.length)) {
+			return -1;
+		}
+		int table[] = childTables[parentId];
+		Integer nameId = nameIndex.get(name);
+		if ((table == null) || (nameId == null)) {
+			return -1;
+		}
+
+		int mask = table.length - 1;
+		int slot = hash(nameId) & mask;
+		while (table[slot] != 0) {
+			int childId = table[slot] - 1;
+			if (nameIds[childId] == nameId) {
+				return childId;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @param pathId The path to query.
+	 * @return True if the path is in the trie.
+	 */
+	/* package private */
+	synchronized boolean contains(int pathId) {
+		return (pathId >= 0) && (pathId < pathTypes.length) && (pathTypes[pathId] != 0);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @param pathId The path to query (which must be in the trie).
+	 * @return The ID of the path's parent.
+	 */
+	/* package private */
+	synchronized int getParent(int pathId) {
+		return parentIds[pathId];
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @param pathId The path to query (which must be in the trie).
+	 * @return The path's type.
+	 */
+	/* package private */
+	synchronized PathType getType(int pathId) {
+		return PATH_TYPES[pathTypes[pathId]];
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @param pathId The path to query (which must be in the trie).
+	 * @return The path's name, within its parent directory.
+	 */
+	/* package private */
+	synchronized String getName(int pathId) {
+		return names[nameIds[pathId]];
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @param pathId The path to query (which must be in the trie).
+	 * @return True if the path has been trashed.
+	 */
+	/* package private */
+	synchronized boolean isTrashed(int pathId) {
+		return trashed[pathId];
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Change a path's trashed state.
+	 *
+	 * @param pathId The path to modify (which must be in the trie).
+	 * @param isTrashed True if the path is now trashed, else false.
+	 */
+	/* package private */
+	synchronized void setTrashed(int pathId, boolean isTrashed) {
+		trashed[pathId] = isTrashed;
+	}
+
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Grow the per-path arrays (if necessary) so that they can hold the specified path ID.
+	 *
+	 * @param pathId The largest path ID that must be stored.
+	 */
+	private void ensureCapacity(int pathId) {
+		int capacity = parentIds.length;
+		if (pathId < capacity) {
+			return;
+		}
+		while (capacity <= pathId) {
+			capacity *= 2;
+		}
+
+		int newParentIds[] = new int[capacity];
+		System.arraycopy(parentIds, 0, newParentIds, 0, parentIds.length);
+		parentIds = newParentIds;
+
+		int newNameIds[] = new int[capacity];
+		System.arraycopy(nameIds, 0, newNameIds, 0, nameIds.length);
+		nameIds = newNameIds;
+
+		byte newPathTypes[] = new byte[capacity];
+		System.arraycopy(pathTypes, 0, newPathTypes, 0, pathTypes.length);
+		pathTypes = newPathTypes;
+
+		boolean newTrashed[] = new boolean[capacity];
+		System.arraycopy(trashed, 0, newTrashed, 0, trashed.length);
+		trashed = newTrashed;
+
+		int newChildTables[][] = new int[capacity][];
+		System.arraycopy(childTables, 0, newChildTables, 0, childTables.length);
+		childTables = newChildTables;
+
+		int newChildCounts[] = new int[capacity];
+		System.arraycopy(childCounts, 0, newChildCounts, 0, childCounts.length);
+		childCounts = newChildCounts;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Insert a child path into a child table, which must have at least one empty slot.
+	 *
+	 * @param table The child table.
+	 * @param childId The ID of the child path (whose name must already be recorded).
+	 */
+	private void insertChild(int table[], int childId) {
+		int mask = table.length - 1;
+		int slot = hash(nameIds[childId]) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = childId + 1;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Scramble a name ID, so that consecutive IDs are spread across a child table.
+	 *
+	 * @param nameId The name ID to be hashed.
+	 * @return The hash value.
+	 */
+	private static int hash(int nameId) {
+		int h = nameId * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.model.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.buildml.model.FatalBuildStoreError;
+
+/**
+ * A read-only (select) SQL statement that may be executed by multiple threads at
+ * the same time. Each thread is given its own PreparedStatement, so that one thread's
+ * parameters and result sets can't interfere with another thread's. The statement is
+ * prepared (on first use) on whichever connection BuildStoreDB.getReadConnection()
+ * returns for the calling thread.
+ * <p>
+ * ReadStatement objects are created via BuildStoreDB.prepareReadStatement(), and all of
+ * the threads' PreparedStatements are closed when the database is closed.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package private */ class ReadStatement {
+
+	/*=====================================================================================*
+	 * FIELDS/TYPES
+	 *=====================================================================================*/
+
+	/** The database that this statement is executed against. */
+	private BuildStoreDB db;
+
+	/** The SQL command to be prepared. */
+	private String sql;
+
+	/**
+	 * The calling thread's prepared statements, indexed by the connection they were
+	 * prepared on. A thread normally uses a single connection, but may fall back to
+	 * the main connection while there are uncommitted changes.
+	 */
+	private ThreadLocal<HashMap<Connection, PreparedStatement>> threadStatements =
+			new ThreadLocal<HashMap<Connection, PreparedStatement>>() {
+		@Override
+		protected HashMap<Connection, PreparedStatement> initialValue() {
+			return new HashMap<Connection, PreparedStatement>();
+		}
+	};
+	
+	/**
+	 * Every PreparedStatement that has been prepared (by any thread), so they can all
+	 * be closed, even if the thread that prepared them no longer exists.
+	 */
+	private List<PreparedStatement> allStatements = new ArrayList<PreparedStatement>();
+
+	/*=====================================================================================*
+	 * CONSTRUCTORS
+	 *=====================================================================================*/
+
+	/**
+	 * Create a new ReadStatement object.
+	 *
+	 * @param db The database that this statement is executed against.
+	 * @param sql The SQL command to be prepared.
+	 */
+	/* package private */
+	ReadStatement(BuildStoreDB db, String sql) {
+		this.db = db;
+		this.sql = sql;
+	}
+
+	/*=====================================================================================*
+	 * PACKAGE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Return the calling thread's copy of this statement, preparing it if necessary. The
+	 * caller may set the statement's parameters and execute it, but must not share it
+	 * with other threads.
+	 *
+	 * @return The calling thread's PreparedStatement.
+	 */
+	/* package private */
+	PreparedStatement get() {
+		Connection conn = db.getReadConnection();
+		HashMap<Connection, PreparedStatement> statements = threadStatements.get();
+		PreparedStatement stmt = statements.get(conn);
+		if (stmt == null) {
+			try {
+				stmt = conn.prepareStatement(sql);
+			} catch (SQLException e) {
+				throw new FatalBuildStoreError("Unable to prepare sql statement: " + sql, e);
+			}
+			statements.put(conn, stmt);
+			synchronized (allStatements) {
+				allStatements.add(stmt);
+			}
+		}
+		return stmt;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Close all the PreparedStatements that have been prepared for this statement, by all
+	 * threads. This is done when the database is closed, after which the statement must
+	 * no longer be used.
+	 */
+	/* package private */
+	void close() {
+		synchronized (allStatements) {
+			for (PreparedStatement stmt : allStatements) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					/* nothing we can do - the connection is about to be closed anyway */
+				}
+			}
+			allStatements.clear();
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.model.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.buildml.model.IActionMgrListener;
+import com.buildml.model.IFileMgr;
+import com.buildml.model.IFileMgrListener;
+import com.buildml.model.types.FileRecord;
+import com.buildml.model.types.FileSet;
+
+/**
+ * A cache of the ReportMgr's whole-database reports (those without parameters), which
+ * would otherwise require a full scan of the files and actionFiles tables each time
+ * they're requested. The cache listens for changes to paths and file-accesses, and
+ * either updates the cached results to reflect the change, or discards them so they'll
+ * be recomputed next time.
+ * <p>
+ * Each report is computed outside of the cache's lock, so a change might occur while
+ * the report is being computed. To avoid caching an out-of-date result, the ReportMgr
+ * obtains the cache's generation number before computing the report, and the result is
+ * only cached if no changes have been made since then.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package private */ class ReportCache implements IFileMgrListener, IActionMgrListener {
+
+	/*=====================================================================================*
+	 * TYPES/FIELDS
+	 *=====================================================================================*/
+
+	/** The FileMgr that owns the paths in the cached reports. */
+	private IFileMgr fileMgr;
+
+	/** Incremented each time a path or file-access changes. */
+	private int generation = 0;
+
+	/** The cached result of reportFilesNeverAccessed(), or null if not cached. */
+	private FileSet filesNeverAccessed = null;
+
+	/** The cached result of reportWriteOnlyFiles(), or null if not cached. */
+	private FileSet writeOnlyFiles = null;
+
+	/**
+	 * The number of actions that access each file, as reported by
+	 * reportMostCommonlyAccessedFiles(), or null if not cached.
+	 */
+	private Map<Integer, Integer> accessCounts = null;
+
+	/** The accessCounts, sorted into report order, or null if they need sorting. */
+	private FileRecord sortedAccessCounts[] = null;
+
+	/*=====================================================================================*
+	 * CONSTRUCTORS
+	 *=====================================================================================*/
+
+	/**
+	 * Create a new (empty) ReportCache, which listens for changes to the BuildStore.
+	 *
+	 * @param buildStore The BuildStore whose reports are cached.
+	 */
+	/* package private */
+	ReportCache(BuildStore buildStore) {
+		fileMgr = buildStore.getFileMgr();
+		fileMgr.addListener(this);
+		buildStore.getActionMgr().addListener(this);
+	}
+
+	/*=====================================================================================*
+	 * PACKAGE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * @return The current generation number, to be passed to one of the put methods
+	 * once the corresponding report has been computed.
+	 */
+	/* package private */
+	synchronized int getGeneration() {
+		return generation;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return A copy of the cached result of reportFilesNeverAccessed(), or null if it's
+	 * not cached.
+	 */
+	/* package private */
+	synchronized FileSet getFilesNeverAccessed() {
+		return copyFileSet(filesNeverAccessed);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Cache the result of reportFilesNeverAccessed().
+	 *
+	 * @param files The report's result (a copy is cached).
+	 * @param reportGeneration The generation number from before the report was computed.
+	 */
+	/* package private */
+	synchronized void putFilesNeverAccessed(FileSet files, int reportGeneration) {
+		if (reportGeneration == generation) {
+			filesNeverAccessed = copyFileSet(files);
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return A copy of the cached result of reportWriteOnlyFiles(), or null if it's
+	 * not cached.
+	 */
+	/* package private */
+	synchronized FileSet getWriteOnlyFiles() {
+		return copyFileSet(writeOnlyFiles);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Cache the result of reportWriteOnlyFiles().
+	 *
+	 * @param files The report's result (a copy is cached).
+	 * @param reportGeneration The generation number from before the report was computed.
+	 */
+	/* package private */
+	synchronized void putWriteOnlyFiles(FileSet files, int reportGeneration) {
+		if (reportGeneration == generation) {
+			writeOnlyFiles = copyFileSet(files);
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return A copy of the cached result of reportMostCommonlyAccessedFiles(), or null
+	 * if it's not cached.
+	 */
+	/* package private */
+	synchronized FileRecord[] getMostCommonlyAccessedFiles() {
+
+		if (accessCounts == null) {
+			return null;
+		}
+
+		/* the counts have changed since they were last sorted */
+		if (sortedAccessCounts == null) {
+			ArrayList<FileRecord> records = new ArrayList<FileRecord>(accessCounts.size());
+			for (Map.Entry<Integer, Integer> entry : accessCounts.entrySet()) {
+				FileRecord record = new FileRecord(entry.getKey());
+				record.setCount(entry.getValue());
+				records.add(record);
+			}
+
+			/* the most commonly accessed files first, then in order of path ID */
+			Collections.sort(records, new Comparator<FileRecord>() {
+				@Override
+				public int compare(FileRecord record1, FileRecord record2) {
+					if (record1.getCount() != record2.getCount()) {
+						return (record1.getCount() > record2.getCount()) ? -1 : 1;
+					}
+					return (record1.getId() < record2.getId()) ? -1 :
+						((record1.getId() == record2.getId()) ? 0 : 1);
+				}
+			});
+			sortedAccessCounts = records.toArray(new FileRecord[records.size()]);
+		}
+
+		/* the caller may modify the records, so return copies */
+		FileRecord results[] = new FileRecord[sortedAccessCounts.length];
+		for (int i = 0; i != results.length; i++) {
+			results[i] = new FileRecord(sortedAccessCounts[i].getId());
+			results[i].setCount(sortedAccessCounts[i].getCount());
+		}
+		return results;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Cache the result of reportMostCommonlyAccessedFiles().
+	 *
+	 * @param records The report's result.
+	 * @param reportGeneration The generation number from before the report was computed.
+	 */
+	/* package private */
+	synchronized void putMostCommonlyAccessedFiles(FileRecord records[], int reportGeneration) {
+		if (reportGeneration == generation) {
+			accessCounts = new HashMap<Integer, Integer>();
+			for (FileRecord record : records) {
+				accessCounts.put(record.getId(), record.getCount());
+			}
+			sortedAccessCounts = null;
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Discard all cached reports, since the database has been modified behind our back
+	 * (for example, a batch of changes was rolled back).
+	 */
+	/* package private */
+	synchronized void discard() {
+		generation++;
+		filesNeverAccessed = null;
+		writeOnlyFiles = null;
+		accessCounts = null;
+		sortedAccessCounts = null;
+	}
+
+	/*=====================================================================================*
+	 * PUBLIC METHODS
+	 *=====================================================================================*/
+
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IFileMgrListener#pathChangeNotification(int, int)
+	 */
+	@Override
+	public synchronized void pathChangeNotification(int pathId, int how) {
+
+		/*
+		 * A new (or revived) path may or may not have been accessed, so the affected
+		 * reports must be recomputed.
+		 */
+		if (how == IFileMgrListener.NEW_PATH) {
+			generation++;
+			filesNeverAccessed = null;
+			accessCounts = null;
+			sortedAccessCounts = null;
+		}
+
+		/* trashed paths are never reported */
+		else if (how == IFileMgrListener.PATH_REMOVED) {
+			generation++;
+			if (filesNeverAccessed != null) {
+				filesNeverAccessed.remove(pathId);
+			}
+			if ((accessCounts != null) && (accessCounts.remove(pathId) != null)) {
+				sortedAccessCounts = null;
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IActionMgrListener#actionChangeNotification(int, int, int)
+	 */
+	@Override
+	public synchronized void actionChangeNotification(int actionId, int how, int changeId) {
+
+		/* a new file-access means the file has been accessed (once more) */
+		if (how == IActionMgrListener.NEW_FILE_ACCESS) {
+			generation++;
+			writeOnlyFiles = null;
+			if (filesNeverAccessed != null) {
+				filesNeverAccessed.remove(changeId);
+			}
+			if (accessCounts != null) {
+				Integer count = accessCounts.get(changeId);
+				if (count != null) {
+					accessCounts.put(changeId, count + 1);
+				}
+				
+				/*
+				 * Deciding whether a newly-accessed path belongs in the report would require
+				 * database queries, which is far too slow while a build trace is being
+				 * imported. Instead, the counts are discarded and recomputed next time the
+				 * report is requested, so until then, further accesses cost nothing.
+				 */
+				else {
+					accessCounts = null;
+				}
+				sortedAccessCounts = null;
+			}
+		}
+
+		/* a change of operation could make a file write-only, or not */
+		else if (how == IActionMgrListener.CHANGED_FILE_ACCESS) {
+			generation++;
+			writeOnlyFiles = null;
+		}
+
+		/* a removed file-access could leave the file without any accesses */
+		else if (how == IActionMgrListener.REMOVED_FILE_ACCESS) {
+			generation++;
+			writeOnlyFiles = null;
+			filesNeverAccessed = null;
+			if (accessCounts != null) {
+				Integer count = accessCounts.get(changeId);
+				if (count != null) {
+					if (count == 1) {
+						accessCounts.remove(changeId);
+					} else {
+						accessCounts.put(changeId, count - 1);
+					}
+					sortedAccessCounts = null;
+				}
+			}
+		}
+	}
+
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * @param files The FileSet to copy (possibly null).
+	 * @return A copy of the FileSet, or null if files is null.
+	 */
+	private FileSet copyFileSet(FileSet files) {
+		if (files == null) {
+			return null;
+		}
+		FileSet copy = new FileSet(fileMgr);
+		copy.mergeSet(files);
+		return copy;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
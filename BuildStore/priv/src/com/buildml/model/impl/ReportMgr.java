@@ -16,11 +16,18 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.buildml.model.FatalBuildStoreError;
 import com.buildml.model.IActionMgr;
 import com.buildml.model.IActionMgr.OperationType;
+import com.buildml.model.IActionMgrListener;
 import com.buildml.model.IActionTypeMgr;
 import com.buildml.model.IFileMgr;
 import com.buildml.model.IFileMgr.PathType;
@@ -33,6 +40,7 @@ import com.buildml.model.types.FileSet;
 import com.buildml.model.types.PackageSet;
 import com.buildml.model.types.ActionSet;
 import com.buildml.utils.errors.ErrorCode;
+import com.buildml.utils.types.IIntConsumer;
 
 /**
  * A manager class (that supports the BuildStore class) that handles reporting of
@@ -64,15 +72,15 @@ import com.buildml.utils.errors.ErrorCode;
 	private IActionTypeMgr actionTypeMgr = null;
 
 	/**
-	 * Various prepared statement for database access.
+	 * Various prepared statement for database access. These are all queries, so each
+	 * thread executes its own copy of them.
 	 */
-	private PreparedStatement 
+	private ReadStatement 
 		selectFileAccessCountPrepStmt = null,
 		selectFileIncludesCountPrepStmt = null,
 		selectFilesNotUsedPrepStmt = null,
 		selectFilesWithMatchingNamePrepStmt = null,
-		selectDerivedFilesPrepStmt = null,
-		selectInputFilesPrepStmt = null,
+		selectReadWriteAccessesPrepStmt = null,
 		selectActionsAccessingFilesPrepStmt = null,
 		selectActionsAccessingFilesAnyPrepStmt = null,
 		selectFilesAccessedByActionPrepStmt = null,
@@ -81,6 +89,31 @@ import com.buildml.utils.errors.ErrorCode;
 		selectAllFilesPrepStmt = null,
 		selectAllActionsPrepStmt = null;
 	
+	/**
+	 * The in-memory graph of file-accesses, used for reporting derived and input files.
+	 * This is constructed when first needed, and discarded whenever file-accesses change.
+	 */
+	private DependencyGraph dependencyGraph = null;
+	
+	/** The cached results of reports that scan the whole database. */
+	private ReportCache reportCache = null;
+	
+	/**
+	 * The number of IDs passed to each execution of a query that selects on a set of
+	 * files or actions, using an "in (...)" list. This must be less than SQLite's
+	 * limit on the number of parameters per statement.
+	 */
+	private static final int IN_LIST_SIZE = 500;
+	
+	/** The number of threads used to traverse the dependency graph. */
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * The thread pool used to traverse the dependency graph, created when first needed.
+	 * Idle threads are terminated, so the pool doesn't need to be shut down.
+	 */
+	private ThreadPoolExecutor traversalExecutor = null;
+	
 	/*=====================================================================================*
 	 * CONSTRUCTORS
 	 *=====================================================================================*/
@@ -96,57 +129,64 @@ import com.buildml.utils.errors.ErrorCode;
 		this.fileMgr = buildStore.getFileMgr();
 		this.actionMgr = buildStore.getActionMgr();
 		this.actionTypeMgr = buildStore.getActionTypeMgr();
+		this.reportCache = new ReportCache(buildStore);
 		
-		selectFileAccessCountPrepStmt = db.prepareStatement(
+		selectFileAccessCountPrepStmt = db.prepareReadStatement(
 				"select fileId, count(*) as usage from actionFiles, files " +
 					"where pathType=? and (actionFiles.fileId = files.id) and (files.trashed = 0)" +
-					"group by fileId order by usage desc");
+					"group by fileId order by usage desc, fileId");
 		
-		selectFileIncludesCountPrepStmt = db.prepareStatement(
+		selectFileIncludesCountPrepStmt = db.prepareReadStatement(
 				"select fileId1, usage from fileIncludes where fileId2 = ? order by usage desc");
 		
-		selectFilesNotUsedPrepStmt = db.prepareStatement("" +
+		selectFilesNotUsedPrepStmt = db.prepareReadStatement("" +
 				"select files.id from files left join actionFiles on (files.id = actionFiles.fileId)" +
 					" where (files.pathType = " + PathType.TYPE_FILE.ordinal() + 
 					") and (actionFiles.actionId is null) and (files.trashed = 0)");
 		
-		selectFilesWithMatchingNamePrepStmt = db.prepareStatement(
-				"select files.id from files where (name like ?) and (files.trashed = 0) and " +
+		selectFilesWithMatchingNamePrepStmt = db.prepareReadStatement(
+				"select files.id from files, fileNames where (fileNames.name like ?) and " +
+				"(files.nameId = fileNames.id) and (files.trashed = 0) and " +
 		        "(pathType = " + PathType.TYPE_FILE.ordinal() + ")");
 
-		selectDerivedFilesPrepStmt = db.prepareStatement(
-				"select distinct fileId from actionFiles where actionId in " +
-				"(select actionId from actionFiles where fileId = ? and " +
-				"operation = " + OperationType.OP_READ.ordinal() + ") " + 
-				"and operation = " + OperationType.OP_WRITE.ordinal());
+		selectReadWriteAccessesPrepStmt = db.prepareReadStatement(
+				"select actionId, fileId, operation from actionFiles where operation in (" +
+				OperationType.OP_READ.ordinal() + ", " + OperationType.OP_WRITE.ordinal() + ")");
 		
-		selectInputFilesPrepStmt = db.prepareStatement(
-				"select distinct fileId from actionFiles where actionId in " +
-				"(select actionId from actionFiles where fileId = ? and " +
-				"operation = " + OperationType.OP_WRITE.ordinal() + ") " + 
-				"and operation = " + OperationType.OP_READ.ordinal());
+		String inList = getInListPlaceholders(IN_LIST_SIZE);
+		selectActionsAccessingFilesPrepStmt = db.prepareReadStatement(
+				"select distinct actionId from actionFiles where operation = ? and fileId in " + inList);
 		
-		selectActionsAccessingFilesPrepStmt = db.prepareStatement(
-				"select actionId from actionFiles where fileId = ? and operation = ?");
+		selectActionsAccessingFilesAnyPrepStmt = db.prepareReadStatement(
+				"select distinct actionId from actionFiles where fileId in " + inList);
 		
-		selectActionsAccessingFilesAnyPrepStmt = db.prepareStatement(
-				"select actionId from actionFiles where fileId = ?");
+		selectFilesAccessedByActionPrepStmt = db.prepareReadStatement(
+				"select distinct fileId from actionFiles where operation = ? and actionId in " + inList);
 		
-		selectFilesAccessedByActionPrepStmt = db.prepareStatement(
-				"select fileId from actionFiles where actionId = ? and operation = ?");
+		selectFilesAccessedByActionAnyPrepStmt = db.prepareReadStatement(
+				"select distinct fileId from actionFiles where actionId in " + inList);
 		
-		selectFilesAccessedByActionAnyPrepStmt = db.prepareStatement(
-				"select fileId from actionFiles where actionId = ?");
-		
-		selectWriteOnlyFilesPrepStmt = db.prepareStatement(
+		selectWriteOnlyFilesPrepStmt = db.prepareReadStatement(
 				    "select writeFileId from (select distinct fileId as writeFileId from " +
 				    "actionFiles where operation = " + OperationType.OP_WRITE.ordinal() + ") " +
 				    "left join (select distinct fileId as readFileId from actionFiles " +
 				    "where operation = " + OperationType.OP_READ.ordinal() + ") on writeFileId = readFileId " +
 				      "where readFileId is null");
 		
-		selectAllFilesPrepStmt = db.prepareStatement("select id from files where trashed = 0");
-		selectAllActionsPrepStmt = db.prepareStatement("select actionId from buildActions");
+		selectAllFilesPrepStmt = db.prepareReadStatement("select id from files where trashed = 0");
+		selectAllActionsPrepStmt = db.prepareReadStatement("select actionId from buildActions");
+		
+		/* any change to an action's file-accesses invalidates the dependency graph */
+		actionMgr.addListener(new IActionMgrListener() {
+			@Override
+			public void actionChangeNotification(int actionId, int how, int changeId) {
+				if ((how == IActionMgrListener.CHANGED_FILE_ACCESS) ||
+						(how == IActionMgrListener.NEW_FILE_ACCESS) ||
+						(how == IActionMgrListener.REMOVED_FILE_ACCESS)) {
+					discardDependencyGraph();
+				}
+			}
+		});
 	}
 
 	/*=====================================================================================*
@@ -159,10 +199,17 @@ import com.buildml.utils.errors.ErrorCode;
 	@Override
 	public FileRecord[] reportMostCommonlyAccessedFiles() {
 		
+		FileRecord cachedResults[] = reportCache.getMostCommonlyAccessedFiles();
+		if (cachedResults != null) {
+			return cachedResults;
+		}
+		
+		int generation = reportCache.getGeneration();
 		ArrayList<FileRecord> results = new ArrayList<FileRecord>();
 		try {
-			selectFileAccessCountPrepStmt.setInt(1, PathType.TYPE_FILE.ordinal());
-			ResultSet rs = db.executePrepSelectResultSet(selectFileAccessCountPrepStmt);
+			PreparedStatement stmt = selectFileAccessCountPrepStmt.get();
+			stmt.setInt(1, PathType.TYPE_FILE.ordinal());
+			ResultSet rs = db.executePrepSelectResultSet(stmt);
 
 			while (rs.next()) {
 				FileRecord record = new FileRecord(rs.getInt(1));
@@ -175,7 +222,10 @@ import com.buildml.utils.errors.ErrorCode;
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
 		
-		return results.toArray(new FileRecord[0]);
+		/* the cache keeps its own copy of the counts, so our records can be returned */
+		FileRecord resultArray[] = results.toArray(new FileRecord[results.size()]);
+		reportCache.putMostCommonlyAccessedFiles(resultArray, generation);
+		return resultArray;
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -188,8 +238,9 @@ import com.buildml.utils.errors.ErrorCode;
 		
 		ArrayList<FileRecord> results = new ArrayList<FileRecord>();
 		try {
-			selectFileIncludesCountPrepStmt.setInt(1, includedFile);
-			ResultSet rs = db.executePrepSelectResultSet(selectFileIncludesCountPrepStmt);
+			PreparedStatement stmt = selectFileIncludesCountPrepStmt.get();
+			stmt.setInt(1, includedFile);
+			ResultSet rs = db.executePrepSelectResultSet(stmt);
 
 			while (rs.next()) {
 				FileRecord record = new FileRecord(rs.getInt(1));
@@ -213,9 +264,15 @@ import com.buildml.utils.errors.ErrorCode;
 	@Override
 	public FileSet reportFilesNeverAccessed() {
 		
-		FileSet results = new FileSet(fileMgr);
+		FileSet results = reportCache.getFilesNeverAccessed();
+		if (results != null) {
+			return results;
+		}
+		
+		int generation = reportCache.getGeneration();
+		results = new FileSet(fileMgr);
 		try {
-			ResultSet rs = db.executePrepSelectResultSet(selectFilesNotUsedPrepStmt);
+			ResultSet rs = db.executePrepSelectResultSet(selectFilesNotUsedPrepStmt.get());
 
 			while (rs.next()) {
 				results.add(rs.getInt(1));
@@ -226,6 +283,7 @@ import com.buildml.utils.errors.ErrorCode;
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
 		
+		reportCache.putFilesNeverAccessed(results, generation);
 		return results;
 	}
 
@@ -244,8 +302,9 @@ import com.buildml.utils.errors.ErrorCode;
 		
 		FileSet results = new FileSet(fileMgr);
 		try {
-			selectFilesWithMatchingNamePrepStmt.setString(1, fileArg);
-			ResultSet rs = db.executePrepSelectResultSet(selectFilesWithMatchingNamePrepStmt);
+			PreparedStatement stmt = selectFilesWithMatchingNamePrepStmt.get();
+			stmt.setString(1, fileArg);
+			ResultSet rs = db.executePrepSelectResultSet(stmt);
 
 			while (rs.next()) {
 				results.add(rs.getInt(1));
@@ -278,7 +337,7 @@ import com.buildml.utils.errors.ErrorCode;
 	 */
 	@Override
 	public FileSet reportDerivedFiles(FileSet sourceFileSet, boolean reportIndirect) {
-		return reportDerivedFilesHelper(sourceFileSet, reportIndirect, selectDerivedFilesPrepStmt);
+		return reportDerivedFilesHelper(sourceFileSet, reportIndirect, true);
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -288,7 +347,7 @@ import com.buildml.utils.errors.ErrorCode;
 	 */
 	@Override
 	public FileSet reportInputFiles(FileSet targetFileSet, boolean reportIndirect) {
-		return reportDerivedFilesHelper(targetFileSet, reportIndirect, selectInputFilesPrepStmt);
+		return reportDerivedFilesHelper(targetFileSet, reportIndirect, false);
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -300,46 +359,24 @@ import com.buildml.utils.errors.ErrorCode;
 	public ActionSet reportActionsThatAccessFiles(FileSet fileSet,
 			OperationType opType) {
 		
-		/* create an empty result ActionSet */
-		ActionSet results = new ActionSet(actionMgr);
-		
-		/* for each file in the FileSet */
-		for (Iterator<Integer> iterator = fileSet.iterator(); iterator.hasNext();) {		
-			int fileId = (Integer) iterator.next();
-			
-			/* find the actions that access this file */
-			try {
-				ResultSet rs;
-				
-				/* the case where we care about the operation type */
-				if (opType != OperationType.OP_UNSPECIFIED) {
-					selectActionsAccessingFilesPrepStmt.setInt(1, fileId);
-					selectActionsAccessingFilesPrepStmt.setInt(2, opType.ordinal());
-					rs = db.executePrepSelectResultSet(selectActionsAccessingFilesPrepStmt);
-				} 
-				
-				/* the case where we don't care */
-				else {
-					selectActionsAccessingFilesAnyPrepStmt.setInt(1, fileId);
-					rs = db.executePrepSelectResultSet(selectActionsAccessingFilesAnyPrepStmt);	
-				}
-				
-				/* add the results into our ActionSet */
-				while (rs.next()) {
-					int actionId = rs.getInt(1);
-				
-					/* only add the result if it's not in the set */
-					if (!results.isMember(actionId)){
-						results.add(rs.getInt(1));
-					}
-				}
-				rs.close();
-			
-			} catch (SQLException e) {
-				throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+		/* the actions that access the files are added straight into our ActionSet */
+		final ActionSet results = new ActionSet(actionMgr);
+		IIntConsumer consumer = new IIntConsumer() {
+			@Override
+			public void accept(int actionId) {
+				results.add(actionId);
 			}
+		};
+		
+		/* the case where we care about the operation type */
+		if (opType != OperationType.OP_UNSPECIFIED) {
+			executeInListQuery(selectActionsAccessingFilesPrepStmt, opType.ordinal(), fileSet, consumer);
 		}
 		
+		/* the case where we don't care */
+		else {
+			executeInListQuery(selectActionsAccessingFilesAnyPrepStmt, -1, fileSet, consumer);
+		}
 		return results;
 	}
 	
@@ -370,46 +407,24 @@ import com.buildml.utils.errors.ErrorCode;
 	@Override
 	public FileSet reportFilesAccessedByActions(ActionSet actionSet, OperationType opType) {
 		
-		/* create an empty result FileSet */
-		FileSet results = new FileSet(fileMgr);
-		
-		/* for each action in the ActionSet */
-		for (Iterator<Integer> iterator = actionSet.iterator(); iterator.hasNext();) {		
-			int actionId = (Integer) iterator.next();
-			
-			/* find the actions that access this file */
-			try {
-				ResultSet rs;
-				
-				/* the case where we care about the operation type */
-				if (opType != OperationType.OP_UNSPECIFIED) {
-					selectFilesAccessedByActionPrepStmt.setInt(1, actionId);
-					selectFilesAccessedByActionPrepStmt.setInt(2, opType.ordinal());
-					rs = db.executePrepSelectResultSet(selectFilesAccessedByActionPrepStmt);
-				} 
-				
-				/* the case where we don't care */
-				else {
-					selectFilesAccessedByActionAnyPrepStmt.setInt(1, actionId);
-					rs = db.executePrepSelectResultSet(selectFilesAccessedByActionAnyPrepStmt);	
-				}
-				
-				/* add the results into our FileSet */
-				while (rs.next()) {
-					int fileId = rs.getInt(1);
-				
-					/* only add the result if it's not in the set */
-					if (!results.isMember(fileId)){
-						results.add(rs.getInt(1));
-					}
-				}
-				rs.close();
-			
-			} catch (SQLException e) {
-				throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+		/* the files accessed by the actions are added straight into our FileSet */
+		final FileSet results = new FileSet(fileMgr);
+		IIntConsumer consumer = new IIntConsumer() {
+			@Override
+			public void accept(int fileId) {
+				results.add(fileId);
 			}
+		};
+		
+		/* the case where we care about the operation type */
+		if (opType != OperationType.OP_UNSPECIFIED) {
+			executeInListQuery(selectFilesAccessedByActionPrepStmt, opType.ordinal(), actionSet, consumer);
 		}
 		
+		/* the case where we don't care */
+		else {
+			executeInListQuery(selectFilesAccessedByActionAnyPrepStmt, -1, actionSet, consumer);
+		}
 		return results;
 	}
 	
@@ -421,9 +436,15 @@ import com.buildml.utils.errors.ErrorCode;
 	@Override
 	public FileSet reportWriteOnlyFiles() {
 		
-		FileSet results = new FileSet(fileMgr);
+		FileSet results = reportCache.getWriteOnlyFiles();
+		if (results != null) {
+			return results;
+		}
+		
+		int generation = reportCache.getGeneration();
+		results = new FileSet(fileMgr);
 		try {
-			ResultSet rs = db.executePrepSelectResultSet(selectWriteOnlyFilesPrepStmt);
+			ResultSet rs = db.executePrepSelectResultSet(selectWriteOnlyFilesPrepStmt.get());
 
 			while (rs.next()) {
 				results.add(rs.getInt(1));
@@ -434,6 +455,7 @@ import com.buildml.utils.errors.ErrorCode;
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
 		
+		reportCache.putWriteOnlyFiles(results, generation);
 		return results;
 	}
 	
@@ -444,47 +466,61 @@ import com.buildml.utils.errors.ErrorCode;
 	 */
 	@Override
 	public FileSet reportAllFiles() {
-		FileSet results = new FileSet(fileMgr);
-		try {
-			ResultSet rs = db.executePrepSelectResultSet(selectAllFilesPrepStmt);
-
-			while (rs.next()) {
-				results.add(rs.getInt(1));
+		final FileSet results = new FileSet(fileMgr);
+		reportAllFiles(new IIntConsumer() {
+			@Override
+			public void accept(int value) {
+				results.add(value);
 			}
-			rs.close();
-			
-		} catch (SQLException e) {
-			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
-		}
-		
+		});
+
+		/* IDs are allocated sequentially, so the complete set is mostly long runs */
+		results.compact();
 		return results;
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IReportMgr#reportAllFiles(com.buildml.utils.types.IIntConsumer)
+	 */
+	@Override
+	public void reportAllFiles(IIntConsumer consumer) {
+		db.executePrepSelectIntegerColumn(selectAllFilesPrepStmt.get(), consumer);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/* (non-Javadoc)
 	 * @see com.buildml.model.impl.IReportMgr#reportAllActions()
 	 */
 	@Override
 	public ActionSet reportAllActions() {
-		ActionSet results = new ActionSet(actionMgr);
-		try {
-			ResultSet rs = db.executePrepSelectResultSet(selectAllActionsPrepStmt);
-
-			while (rs.next()) {
-				results.add(rs.getInt(1));
+		final ActionSet results = new ActionSet(actionMgr);
+		reportAllActions(new IIntConsumer() {
+			@Override
+			public void accept(int value) {
+				results.add(value);
 			}
-			rs.close();
-			
-		} catch (SQLException e) {
-			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
-		}
-		
+		});
+
+		/* IDs are allocated sequentially, so the complete set is mostly long runs */
+		results.compact();
 		return results;
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IReportMgr#reportAllActions(com.buildml.utils.types.IIntConsumer)
+	 */
+	@Override
+	public void reportAllActions(IIntConsumer consumer) {
+		db.executePrepSelectIntegerColumn(selectAllActionsPrepStmt.get(), consumer);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/* (non-Javadoc)
 	 * @see com.buildml.model.impl.IReportMgr#reportFilesFromPackageSet(com.buildml.model.types.PackageSet)
 	 */
@@ -607,87 +643,212 @@ import com.buildml.utils.errors.ErrorCode;
 		return results;
 	}
 	
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IReportMgr#setParallelism(int)
+	 */
+	@Override
+	public synchronized int setParallelism(int threads) {
+		if (threads < 1) {
+			return ErrorCode.BAD_VALUE;
+		}
+		parallelism = threads;
+		if (traversalExecutor != null) {
+			traversalExecutor.shutdown();
+			traversalExecutor = null;
+		}
+		return ErrorCode.OK;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IReportMgr#getParallelism()
+	 */
+	@Override
+	public synchronized int getParallelism() {
+		return parallelism;
+	}
+	
+	/*=====================================================================================*
+	 * PACKAGE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Discard the in-memory dependency graph, since the "actionFiles" table has changed.
+	 * The graph will be reconstructed the next time it's needed.
+	 */
+	/* package */ synchronized void discardDependencyGraph() {
+		dependencyGraph = null;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Discard all in-memory report data (the dependency graph and cached reports), since
+	 * the database has been modified behind our back (for example, a batch of changes
+	 * was rolled back).
+	 */
+	/* package */ void discardCachedReports() {
+		discardDependencyGraph();
+		reportCache.discard();
+	}
+	
 	/*=====================================================================================*
 	 * PRIVATE METHODS
 	 *=====================================================================================*/
 	
 	/**
 	 * A helper method for reportDerivedFiles and reportInputFiles that both use the same
-	 * algorithm, but a slightly different SQL query.
+	 * algorithm, but traverse the dependency graph in opposite directions.
 	 * 
 	 * @param startFileSet The set of files that we're deriving from, or that are used as
 	 * the target of the derivation.
 	 * @param reportIndirect True if we should do multiple iterations of derivation.
-	 * @param sqlStatement The prepared SQL statement to find derived/input files.
+	 * @param derived True to find derived files, or false to find input files.
 	 * @return The result FileSet.
 	 */
 	private FileSet reportDerivedFilesHelper(FileSet startFileSet, boolean reportIndirect,
-			PreparedStatement sqlStatement) {
-		
-		/* 
-		 * Create a new empty FileSet for tracking all the results. Each time we
-		 * iterate through the loop, we merge the results into this FileSet
-		 */
-		FileSet results = new FileSet(fileMgr);
+			boolean derived) {
+		
+		final FileSet results = new FileSet(fileMgr);
+		getDependencyGraph().traverse(startFileSet, derived, reportIndirect, 
+				getTraversalExecutor(), getParallelism(), new IIntConsumer() {
+			@Override
+			public void accept(int fileId) {
+				results.add(fileId);
+			}
+		});
+		return results;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Execute a query that selects on a set of files or actions (using an "in (...)" list
+	 * of IN_LIST_SIZE parameters), with one query per IN_LIST_SIZE members of the set,
+	 * rather than one query per member.
+	 * 
+	 * @param sqlStatement The query to execute. The "in (...)" list parameters follow
+	 *        the (optional) operation parameter.
+	 * @param operation The operation parameter, or -1 if the query doesn't have one.
+	 * @param ids The set of file or action IDs to pass in the "in (...)" list.
+	 * @param consumer Invoked once for each integer returned by the query.
+	 */
+	private void executeInListQuery(ReadStatement sqlStatement, int operation, 
+			Iterable<Integer> ids, IIntConsumer consumer) {
 		
-		/* the first set of files to analyze */
-		FileSet nextFileSet = startFileSet;
+		Iterator<Integer> iterator = ids.iterator();
+		if (!iterator.hasNext()) {
+			return;
+		}
 		
-		/* 
-		 * This variable is used to track the progress of finding new results.
-		 * If it doesn't change from one iteration to the next, we stop the iterations.
-		 */
-		int lastNumberOfResults = 0;
-
-		/* 
-		 * Start the iterations. If "reportIndirect" is false, we'll only execute
-		 * the loop once. Each time we go around the loop, we take the files
-		 * from the previous round and treat them as the new set of start files.
-		 */
-		boolean done = false;
-		do {
+		try {
+			PreparedStatement stmt = sqlStatement.get();
+			int firstIndex = 1;
+			if (operation != -1) {
+				stmt.setInt(firstIndex++, operation);
+			}
 			
-			/* empty FileSet to collect this round's set of results */
-			FileSet thisRoundOfResults = new FileSet(fileMgr);
+			while (iterator.hasNext()) {
+				
+				/* 
+				 * Fill the "in (...)" list with the next batch of IDs. The final batch is
+				 * padded by repeating its last ID, which doesn't change the results.
+				 */
+				int id = 0;
+				for (int i = 0; i != IN_LIST_SIZE; i++) {
+					if (iterator.hasNext()) {
+						id = iterator.next();
+					}
+					stmt.setInt(firstIndex + i, id);
+				}
+				db.executePrepSelectIntegerColumn(stmt, consumer);
+			}
+		} catch (SQLException e) {
+			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+		}
+	}
 
-			/* iterate through each of the files in this round's FileSet */
-			for (int fileId : nextFileSet) {
+	/*-------------------------------------------------------------------------------------*/
 
-				/* determine the direct input/output files for this file, and add them to the result set */
-				try {
-					sqlStatement.setInt(1, fileId);
-					ResultSet rs = db.executePrepSelectResultSet(sqlStatement);
+	/**
+	 * @param count The number of placeholders.
+	 * @return An "in (...)" list of the specified number of "?" placeholders.
+	 */
+	private static String getInListPlaceholders(int count) {
+		StringBuilder sb = new StringBuilder("(?");
+		for (int i = 1; i != count; i++) {
+			sb.append(", ?");
+		}
+		sb.append(')');
+		return sb.toString();
+	}
 
-					while (rs.next()) {
-						thisRoundOfResults.add(rs.getInt(1));
-					}
-					rs.close();
+	/*-------------------------------------------------------------------------------------*/
 
-				} catch (SQLException e) {
-					throw new FatalBuildStoreError("Unable to execute SQL statement", e);
-				}
-			}
+	/**
+	 * @return The thread pool for traversing the dependency graph, or null if the
+	 * traversal should be performed in the calling thread.
+	 */
+	private synchronized ExecutorService getTraversalExecutor() {
+		
+		if (parallelism == 1) {
+			return null;
+		}
+		if (traversalExecutor == null) {
+			traversalExecutor = new ThreadPoolExecutor(parallelism, parallelism, 
+					60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "BuildML report traversal");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			traversalExecutor.allowCoreThreadTimeOut(true);
+		}
+		return traversalExecutor;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
 
-			/* 
-			 * Prepare to repeat the process by using the results from this iteration as
-			 * the input to the next iteration.
-			 */
-			nextFileSet = thisRoundOfResults;
+	/**
+	 * Return the in-memory dependency graph, first loading it from the actionFiles
+	 * table if necessary.
+	 * 
+	 * @return The dependency graph.
+	 */
+	private synchronized DependencyGraph getDependencyGraph() {
 		
-			/*
-			 * Merge this cycle's results into our final result set
-			 */
-			results.mergeSet(thisRoundOfResults);
-			
-			/* are we done? Did we find any new results in this iteration? */
-			int thisNumberOfResults = results.size();
-			done = (thisNumberOfResults == lastNumberOfResults);
-			lastNumberOfResults = thisNumberOfResults;
+		if (dependencyGraph != null) {
+			return dependencyGraph;
+		}
+		
+		int actionIds[] = new int[1024];
+		int fileIds[] = new int[1024];
+		boolean isWrite[] = new boolean[1024];
+		int count = 0;
+		try {
+			ResultSet rs = db.executePrepSelectResultSet(selectReadWriteAccessesPrepStmt.get());
+			while (rs.next()) {
+				if (count == actionIds.length) {
+					actionIds = Arrays.copyOf(actionIds, count * 2);
+					fileIds = Arrays.copyOf(fileIds, count * 2);
+					isWrite = Arrays.copyOf(isWrite, count * 2);
+				}
+				actionIds[count] = rs.getInt(1);
+				fileIds[count] = rs.getInt(2);
+				isWrite[count] = (rs.getInt(3) == OperationType.OP_WRITE.ordinal());
+				count++;
+			}
+			rs.close();
 			
-		} while (reportIndirect && !done);
+		} catch (SQLException e) {
+			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
+		}
 		
-		/* return the combined set of results */
-		return results;
+		dependencyGraph = new DependencyGraph(actionIds, fileIds, isWrite, count);
+		return dependencyGraph;
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -65,15 +65,18 @@ class SlotMgr {
 	private PreparedStatement
 				insertTypePrepStmt = null,
 				updateTypePrepStmt = null,
+				trashTypePrepStmt = null,
+				insertValuePrepStmt = null,
+				updateValuePrepStmt = null,
+				deleteValuePrepStmt = null;
+	
+	/** Statements for queries that may be performed by multiple threads at the same time. */
+	private ReadStatement
 				findTypeByNamePrepStmt = null,
 				findTypeByIdPrepStmt = null,
 				findTypeByPosPrepStmt = null,
 				findTypeByAnyPosPrepStmt = null,
-				trashTypePrepStmt = null,
-				insertValuePrepStmt = null,
-				updateValuePrepStmt = null,
 				findValuePrepStmt = null,
-				deleteValuePrepStmt = null,
 				countSlotUsage = null,
 				selectActionsWithMatchingSlotPrepStmt = null,
 				selectActionsWithEqualSlotPrepStmt = null,
@@ -97,33 +100,33 @@ class SlotMgr {
 		updateTypePrepStmt = db.prepareStatement(
 				"update slotTypes set slotName = ?, slotDescr = ?, slotCard = ?, defaultValue = ? " +
 						"where slotId = ?");
-		findTypeByNamePrepStmt = db.prepareStatement(
+		findTypeByNamePrepStmt = db.prepareReadStatement(
 				"select slotId, slotType, slotDescr, slotPos, slotCard, defaultValue from slotTypes " +
 						"where ownerType = ? and ownerId = ? and slotName = ? and trashed = 0");
-		doesSlotTypeExistPrepStmt = db.prepareStatement(
+		doesSlotTypeExistPrepStmt = db.prepareReadStatement(
 				"select slotId from slotTypes where slotId = ?");
-		findTypeByIdPrepStmt = db.prepareStatement(
+		findTypeByIdPrepStmt = db.prepareReadStatement(
 				"select slotName, slotDescr, slotType, slotPos, slotCard, defaultValue, ownerType, ownerId from slotTypes " +
 						"where slotId = ? and trashed = 0");
-		findTypeByPosPrepStmt = db.prepareStatement(
+		findTypeByPosPrepStmt = db.prepareReadStatement(
 				"select slotId, slotName, slotDescr, slotType, slotPos, slotCard, defaultValue from slotTypes " +
 				"where ownerType = ? and ownerId = ? and slotPos = ? and trashed = 0 order by slotId");
-		findTypeByAnyPosPrepStmt = db.prepareStatement(
+		findTypeByAnyPosPrepStmt = db.prepareReadStatement(
 				"select slotId, slotName, slotDescr, slotType, slotPos, slotCard, defaultValue from slotTypes " +
 				"where ownerType = ? and ownerId = ? and trashed = 0 order by slotId");
 		trashTypePrepStmt = db.prepareStatement("update slotTypes set trashed = ? where slotId = ? and trashed = ?");
 		insertValuePrepStmt = db.prepareStatement("insert into slotValues values (?, ?, ?, ?)");
 		updateValuePrepStmt = db.prepareStatement("update slotValues set value = ? where ownerType = ? " +
 													" and ownerId = ? and slotId = ?");
-		findValuePrepStmt = db.prepareStatement("select value from slotValues where ownerType = ? " +
+		findValuePrepStmt = db.prepareReadStatement("select value from slotValues where ownerType = ? " +
 													" and ownerId = ? and slotId = ?");
 		deleteValuePrepStmt = db.prepareStatement("delete from slotValues where ownerType = ? and ownerId = ? " +
 													"and slotId = ?");
-		countSlotUsage = db.prepareStatement("select count(*) from slotValues where slotId = ?");
-		selectActionsWithMatchingSlotPrepStmt = db.prepareStatement(
+		countSlotUsage = db.prepareReadStatement("select count(*) from slotValues where slotId = ?");
+		selectActionsWithMatchingSlotPrepStmt = db.prepareReadStatement(
 				"select actionId from buildActions, slotValues where (ownerType = " + ISlotTypes.SLOT_OWNER_ACTION + 
 					") and (actionId = ownerId) and (slotId = ?) and (trashed == 0) and (value like ?)");
-		selectActionsWithEqualSlotPrepStmt = db.prepareStatement(
+		selectActionsWithEqualSlotPrepStmt = db.prepareReadStatement(
 				"select actionId from buildActions, slotValues where (ownerType = " + ISlotTypes.SLOT_OWNER_ACTION + 
 				") and (actionId = ownerId) and (slotId = ?) and (trashed == 0) and (value = ?)");
 				
@@ -350,8 +353,9 @@ class SlotMgr {
 		ResultSet rs = null;
 		SlotDetails details = null;
 		try {
-			findTypeByIdPrepStmt.setInt(1, slotId);
-			rs = db.executePrepSelectResultSet(findTypeByIdPrepStmt);
+			PreparedStatement stmt = findTypeByIdPrepStmt.get();
+			stmt.setInt(1, slotId);
+			rs = db.executePrepSelectResultSet(stmt);
 			
 			if (rs.next()) {
 				String slotName = rs.getString(1);
@@ -391,9 +395,9 @@ class SlotMgr {
 		try {
 			/* A slotPos of SLOT_POS_ANY requires a different database query */
 			if (slotPos == ISlotTypes.SLOT_POS_ANY) {
-				stmt = findTypeByAnyPosPrepStmt;
+				stmt = findTypeByAnyPosPrepStmt.get();
 			} else {
-				stmt = findTypeByPosPrepStmt;
+				stmt = findTypeByPosPrepStmt.get();
 				stmt.setInt(3, slotPos);
 			}
 			stmt.setInt(1, ownerType);
@@ -441,10 +445,11 @@ class SlotMgr {
 		ResultSet rs = null;
 		SlotDetails details = null;
 		try {
-			findTypeByNamePrepStmt.setInt(1, ownerType);
-			findTypeByNamePrepStmt.setInt(2, ownerId);
-			findTypeByNamePrepStmt.setString(3, slotName);
-			rs = db.executePrepSelectResultSet(findTypeByNamePrepStmt);
+			PreparedStatement stmt = findTypeByNamePrepStmt.get();
+			stmt.setInt(1, ownerType);
+			stmt.setInt(2, ownerId);
+			stmt.setString(3, slotName);
+			rs = db.executePrepSelectResultSet(stmt);
 			
 			/* there should be only one result... */
 			if (rs.next()) {
@@ -480,8 +485,9 @@ class SlotMgr {
 		
 		try {
 			/* ensure that there are no action or package instances using this slot */
-			countSlotUsage.setInt(1, slotId);
-			ResultSet rs = db.executePrepSelectResultSet(countSlotUsage);
+			PreparedStatement stmt = countSlotUsage.get();
+			stmt.setInt(1, slotId);
+			ResultSet rs = db.executePrepSelectResultSet(stmt);
 			int usageCount = rs.getInt(1);
 			rs.close();
 			if (usageCount != 0) {
@@ -516,8 +522,9 @@ class SlotMgr {
 
 		try {
 			/* first, check if the slot exists */
-			doesSlotTypeExistPrepStmt.setInt(1, slotId);
-			Integer result[] = db.executePrepSelectIntegerColumn(doesSlotTypeExistPrepStmt);
+			PreparedStatement stmt = doesSlotTypeExistPrepStmt.get();
+			stmt.setInt(1, slotId);
+			Integer result[] = db.executePrepSelectIntegerColumn(stmt);
 			if (result.length != 1) {
 				return ErrorCode.NOT_FOUND;
 			}
@@ -625,10 +632,11 @@ class SlotMgr {
 		 */
 		String results[] = null;
 		try {
-			findValuePrepStmt.setInt(1, ownerType);
-			findValuePrepStmt.setInt(2, ownerId);
-			findValuePrepStmt.setInt(3, slotId);
-			results = db.executePrepSelectStringColumn(findValuePrepStmt);
+			PreparedStatement stmt = findValuePrepStmt.get();
+			stmt.setInt(1, ownerType);
+			stmt.setInt(2, ownerId);
+			stmt.setInt(3, slotId);
+			results = db.executePrepSelectStringColumn(stmt);
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
 		}
@@ -663,10 +671,11 @@ class SlotMgr {
 		
 		boolean result;
 		try {
-			findValuePrepStmt.setInt(1, ownerType);
-			findValuePrepStmt.setInt(2, ownerId);
-			findValuePrepStmt.setInt(3, slotId);
-			ResultSet rs = db.executePrepSelectResultSet(findValuePrepStmt);
+			PreparedStatement stmt = findValuePrepStmt.get();
+			stmt.setInt(1, ownerType);
+			stmt.setInt(2, ownerId);
+			stmt.setInt(3, slotId);
+			ResultSet rs = db.executePrepSelectResultSet(stmt);
 			result = rs.next();
 			rs.close();
 			
@@ -728,9 +737,10 @@ class SlotMgr {
 		Integer results[];
 		try {
 			if (ownerType == ISlotTypes.SLOT_OWNER_ACTION) {
-				selectActionsWithMatchingSlotPrepStmt.setInt(1, slotId);
-				selectActionsWithMatchingSlotPrepStmt.setString(2, match);
-				results = db.executePrepSelectIntegerColumn(selectActionsWithMatchingSlotPrepStmt);
+				PreparedStatement stmt = selectActionsWithMatchingSlotPrepStmt.get();
+				stmt.setInt(1, slotId);
+				stmt.setString(2, match);
+				results = db.executePrepSelectIntegerColumn(stmt);
 			}
 			
 			else {
@@ -779,9 +789,10 @@ class SlotMgr {
 		Integer results[] = null;
 		try {
 			if (ownerType == ISlotTypes.SLOT_OWNER_ACTION) {
-				selectActionsWithEqualSlotPrepStmt.setInt(1, slotId);
-				selectActionsWithEqualSlotPrepStmt.setString(2, matchString);
-				results = db.executePrepSelectIntegerColumn(selectActionsWithEqualSlotPrepStmt);
+				PreparedStatement stmt = selectActionsWithEqualSlotPrepStmt.get();
+				stmt.setInt(1, slotId);
+				stmt.setString(2, matchString);
+				results = db.executePrepSelectIntegerColumn(stmt);
 			}
 			else {
 				return null;
@@ -66,8 +66,11 @@ import com.buildml.utils.errors.ErrorCode;
 	private PreparedStatement 
 		addSubPackagePrepStmt = null,
 		insertPackageMemberPrepStmt = null,
+		trashOrReviveSubPackagePrepStmt = null;
+	
+	/** Statements for queries that may be performed by multiple threads at the same time. */
+	private ReadStatement
 		findSubPackageTypePrepStmt = null,
-		trashOrReviveSubPackagePrepStmt = null,
 		findSubPackagesOfTypePrepStmt = null,
 		isValidOrTrashedPrepStmt = null;
 	
@@ -97,15 +100,15 @@ import com.buildml.utils.errors.ErrorCode;
 				"insert into packageMembers values (?, ?, ?, ?, -1, -1)");
 		trashOrReviveSubPackagePrepStmt = db.prepareStatement(
 				"update subPackages set trashed = ? where subPkgId = ? and trashed = ?");
-		findSubPackageTypePrepStmt = db.prepareStatement(
+		findSubPackageTypePrepStmt = db.prepareReadStatement(
 				"select pkgTypeId from subPackages where subPkgId = ? and trashed = 0");
-		findSubPackagesOfTypePrepStmt = db.prepareStatement(
+		findSubPackagesOfTypePrepStmt = db.prepareReadStatement(
 				"select distinct packageMembers.pkgId from packageMembers, subPackages" +
 				" where packageMembers.memberType = " + IPackageMemberMgr.TYPE_SUB_PACKAGE + 
 				" and packageMembers.memberId = subPackages.subPkgId" +
 				" and subPackages.pkgTypeId = ?" +
 				" and subPackages.trashed = 0");
-		isValidOrTrashedPrepStmt = db.prepareStatement(
+		isValidOrTrashedPrepStmt = db.prepareReadStatement(
 				"select trashed from subPackages where subPkgId = ?");
 	}
 
@@ -184,8 +187,9 @@ import com.buildml.utils.errors.ErrorCode;
 		int pkgTypeId = ErrorCode.NOT_FOUND;
 		
 		try {
-			findSubPackageTypePrepStmt.setInt(1, subPkgId);
-			Integer results[] = db.executePrepSelectIntegerColumn(findSubPackageTypePrepStmt);
+			PreparedStatement stmt = findSubPackageTypePrepStmt.get();
+			stmt.setInt(1, subPkgId);
+			Integer results[] = db.executePrepSelectIntegerColumn(stmt);
 			if (results.length == 1){
 				pkgTypeId = results[0];
 			}
@@ -210,8 +214,9 @@ import com.buildml.utils.errors.ErrorCode;
 		 * care if it's trashed or not - it's still valid.
 		 */
 		try {
-			isValidOrTrashedPrepStmt.setInt(1, subPkgId);
-			Integer rows[] = db.executePrepSelectIntegerColumn(isValidOrTrashedPrepStmt);
+			PreparedStatement stmt = isValidOrTrashedPrepStmt.get();
+			stmt.setInt(1, subPkgId);
+			Integer rows[] = db.executePrepSelectIntegerColumn(stmt);
 			return (rows.length == 1);
 			
 		} catch (SQLException e) {
@@ -252,8 +257,9 @@ import com.buildml.utils.errors.ErrorCode;
 		 * there's no record for it).
 		 */
 		try {
-			isValidOrTrashedPrepStmt.setInt(1, subPkgId);
-			Integer rows[] = db.executePrepSelectIntegerColumn(isValidOrTrashedPrepStmt);
+			PreparedStatement stmt = isValidOrTrashedPrepStmt.get();
+			stmt.setInt(1, subPkgId);
+			Integer rows[] = db.executePrepSelectIntegerColumn(stmt);
 			return (rows.length != 1) || (rows[0] == 1);
 			
 		} catch (SQLException e) {
@@ -447,8 +453,9 @@ import com.buildml.utils.errors.ErrorCode;
 		 */
 		Integer containingPackages[];
 		try {
-			findSubPackagesOfTypePrepStmt.setInt(1, pkgBId);
-			containingPackages = db.executePrepSelectIntegerColumn(findSubPackagesOfTypePrepStmt);
+			PreparedStatement stmt = findSubPackagesOfTypePrepStmt.get();
+			stmt.setInt(1, pkgBId);
+			containingPackages = db.executePrepSelectIntegerColumn(stmt);
 	
 		} catch (SQLException e) {
 			throw new FatalBuildStoreError("Unable to execute SQL statement", e);
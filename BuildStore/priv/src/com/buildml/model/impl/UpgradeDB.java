@@ -239,6 +239,24 @@ public class UpgradeDB {
 				stat.executeUpdate("create table pkgExports (fileGroupId integer, slotId integer)");
 			}
 			
+			/*
+			 * Update to 410 - Move path names into the fileNames dictionary, with the files
+			 * table referring to each name by its ID.
+			 */
+			if (dbVersion < 410) {
+				stat.executeUpdate("create table fileNames ( id integer primary key, name text not null)");
+				stat.executeUpdate("insert into fileNames (name) select distinct name from files");
+				stat.executeUpdate("create unique index fileNamesIdx on fileNames (name)");
+				
+				stat.executeUpdate("alter table files rename to filestmp");
+				stat.executeUpdate("create table files ( id integer primary key, parentId integer, trashed integer, " +
+						   "pathType integer, nameId integer not null)");
+				stat.executeUpdate("insert into files select filestmp.id, parentId, trashed, pathType, " +
+						   "fileNames.id from filestmp, fileNames where filestmp.name = fileNames.name");
+				stat.executeUpdate("drop table filestmp");
+				stat.executeUpdate("create unique index filesIdx on files (parentId, nameId)");
+			}
+			
 			/* finish by setting the new version number */
 			stat.executeUpdate("update schemaVersion set version=" + BuildStoreDB.SCHEMA_VERSION);
 		
@@ -136,6 +136,52 @@ public class ActionSet extends IntegerTreeSet {
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Remove any actions from this ActionSet that don't also appear in a second ActionSet
+	 * (that is, compute the intersection of the two sets).
+	 * 
+	 * @param mask The second ActionSet.
+	 */
+	public void maskSet(ActionSet mask) {
+		if (actionMgr != mask.actionMgr) {
+			return;
+		}
+		super.maskSet(mask);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Remove any actions from this ActionSet that appear in a second ActionSet (that is,
+	 * compute the difference of the two sets).
+	 * 
+	 * @param second The second ActionSet.
+	 */
+	public void extractSet(ActionSet second) {
+		if (actionMgr != second.actionMgr) {
+			return;
+		}
+		super.extractSet(second);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Replace the content of this ActionSet with all the actions in a universe ActionSet
+	 * (such as the result of IReportMgr.reportAllActions()) that are not currently in
+	 * this ActionSet.
+	 * 
+	 * @param universe The ActionSet containing all the candidate actions.
+	 */
+	public void complementSet(ActionSet universe) {
+		if (actionMgr != universe.actionMgr) {
+			return;
+		}
+		super.complementSet(universe);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * Given the String-formatted specification of a set of actions, populate this ActionSet
 	 * with those action values. A action specification has the format: {[-]actionNum[/[depth]]}
@@ -271,7 +317,16 @@ public class ActionSet extends IntegerTreeSet {
 				}
 
 				/* populate this ActionSet, based on the actionNum and depth the user provided */
-				populateWithActionsHelper(actionNum, depth, isAdditiveSpec);
+				if (isAdditiveSpec) {
+					populateWithActionsHelper(this, actionNum, depth);
+				}
+				
+				/* else, gather the actions to be removed, then remove them all at once */
+				else {
+					ActionSet removedActions = new ActionSet(actionMgr);
+					populateWithActionsHelper(removedActions, actionNum, depth);
+					extractSet(removedActions);
+				}
 			}
 		}
 
@@ -298,30 +353,25 @@ public class ActionSet extends IntegerTreeSet {
 	/**
 	 * This is a helper method, to be used only by populateWithActions().
 	 * 
+	 * @param target The ActionSet that the actions should be added to.
 	 * @param actionNum The action number to be added to the ActionSet.
 	 * @param depth The number of tree levels to add. Use 1 to indicate that only this
 	 * action should be added, 2 to indicate that this action and it's immediate children be
 	 * added etc. The value -1 is used to indicate that all levels should be added.
-	 * @param toBeAdded True if we should add the actions to the ActionSet, else false to
-	 * remove them.
 	 */
-	private void populateWithActionsHelper(int actionNum, int depth, boolean toBeAdded) {
+	private void populateWithActionsHelper(ActionSet target, int actionNum, int depth) {
 		
-		/* we always add/remove the action itself */
-		if (toBeAdded) {
-			add(Integer.valueOf(actionNum));
-		} else {
-			remove(actionNum);
-		}
+		/* we always add the action itself */
+		target.add(actionNum);
 		
 		/* 
-		 * And perhaps add/remove the children, if they're within the depth range, 
+		 * And perhaps add the children, if they're within the depth range, 
 		 * or if there's no depth range specified (defaults to -1) 
 		 */
 		if ((depth > 1) || (depth == -1)) {
 			Integer children [] = actionMgr.getChildren(actionNum);
 			for (int i = 0; i < children.length; i++) {
-				populateWithActionsHelper(children[i], (depth == -1) ? -1 : depth - 1, toBeAdded);
+				populateWithActionsHelper(target, children[i], (depth == -1) ? -1 : depth - 1);
 			}
 		}
 		
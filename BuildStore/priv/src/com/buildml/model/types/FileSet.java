@@ -191,6 +191,51 @@ public class FileSet extends IntegerTreeSet  {
 
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Remove any paths from this FileSet that don't also appear in a second FileSet (that is,
+	 * compute the intersection of the two sets).
+	 * 
+	 * @param mask The second FileSet.
+	 */
+	public void maskSet(FileSet mask) {
+		if (fileMgr != mask.fileMgr) {
+			return;
+		}
+		super.maskSet(mask);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Remove any paths from this FileSet that appear in a second FileSet (that is, compute
+	 * the difference of the two sets).
+	 * 
+	 * @param second The second FileSet.
+	 */
+	public void extractSet(FileSet second) {
+		if (fileMgr != second.fileMgr) {
+			return;
+		}
+		super.extractSet(second);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Replace the content of this FileSet with all the paths in a universe FileSet (such as
+	 * the result of IReportMgr.reportAllFiles()) that are not currently in this FileSet.
+	 * 
+	 * @param universe The FileSet containing all the candidate paths.
+	 */
+	public void complementSet(FileSet universe) {
+		if (fileMgr != universe.fileMgr) {
+			return;
+		}
+		super.complementSet(universe);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * Given a path ID, return the ID of that path's parent.
 	 * 
@@ -228,19 +273,17 @@ public class FileSet extends IntegerTreeSet  {
 	 *=====================================================================================*/
 
 	/**
-	 * Helper function for populateWithPaths. Recursively add a path and its children to 
+	 * Helper function for populateWithPaths. Add a path and all of its descendants to 
 	 * this FileSet.
 	 * 
 	 * @param pathId The ID of the path to be added.
 	 */
 	private void populateWithPathsHelper(int pathId) {
 		
-		add(pathId);
-		
-		/* now add all the children of this path */
-		Integer children [] = fileMgr.getChildPaths(pathId);
-		for (int i = 0; i < children.length; i++) {
-			populateWithPathsHelper(children[i]);
+		/* the FileMgr can find the whole sub-tree in one operation */
+		int subTree[] = fileMgr.getSubTreePaths(pathId);
+		for (int i = 0; i < subTree.length; i++) {
+			add(subTree[i]);
 		}
 	}
 
@@ -12,8 +12,6 @@
 
 package com.buildml.model.types;
 
-import com.buildml.utils.types.LRULinkedHashMap;
-
 /**
  * A PathNameCache is used as means of caching the most commonly used content
  * in the "files" database table, rather than accessing the database every time
@@ -23,10 +21,19 @@ import com.buildml.utils.types.LRULinkedHashMap;
  *   &lt;parentPathId, childPathName&gt; maps to &lt;childPathId, childPathType&gt;
  * <p>
  * It's an extremely common operation to look up a child's path ID, given the
- * parent's ID and the child's name, so this has to be optimized.
+ * parent's ID and the child's name, so this has to be optimized. Each mapping is
+ * keyed by a primitive long (the parent's ID in the upper 32 bits, and the hash code of
+ * the child's name in the lower 32 bits), and the child's name is then compared to
+ * rule out hash collisions. No objects are allocated when looking up a mapping.
+ * <p>
+ * The cache is divided into a number of independent segments, each of which is an
+ * open-addressed hash table with its own lock, so that threads accessing different
+ * segments don't contend with each other. Once a segment is full, the CLOCK algorithm
+ * (an approximation of LRU) selects the mapping to be discarded, so a lookup only needs
+ * to set a "referenced" flag, rather than reordering a list.
  * <p>
- * An LRU algorithm is used so that only the most recent N mappings are kept (to
- * avoid endless growth of the cache).
+ * The number of hits, misses and evictions is recorded, to help with tuning the size
+ * of the cache.
  *
  * @author "Peter Smith <psmith@arapiki.com>"
  */
@@ -36,79 +43,25 @@ public class PathNameCache {
 	 * FIELDS
 	 *=====================================================================================*/
 	
-	/** 
-	 * The customized HashMap that will automatically remove the least recently accessed
-	 * item once the cache fills up.
-	 */
-	private LRULinkedHashMap<PathNameCacheKey, PathNameCacheValue> map;
+	/** The name of the system property that may be used to configure the cache's size. */
+	public static final String SIZE_PROPERTY = "buildml.pathNameCacheSize";
+	
+	/** The cache's size, if the SIZE_PROPERTY system property isn't set. */
+	public static final int DEFAULT_SIZE = 40960;
+	
+	/** The maximum number of segments in a cache. */
+	private static final int MAX_SEGMENTS = 16;
+	
+	/** The minimum number of mappings in each segment (for caches that are large enough). */
+	private static final int MIN_SEGMENT_SIZE = 256;
+	
+	/** The segments of this cache. The number of segments is a power of two. */
+	private Segment segments[];
 	
 	/*=====================================================================================*
 	 * NESTED CLASSES
 	 *=====================================================================================*/
 
-	/**
-	 * This nested class is used as the "key" in the PathNameCache. It simply contains
-	 * the parent's path ID (int) and the child's path name (String). Given that it's used
-	 * as the key in a hash table, we need custom-written equals() and hashCode() methods.
-	 */
-	public class PathNameCacheKey {
-		
-		/** The parent's path ID. */
-		private int parentPathId;
-		
-		/** The child's path name. */
-		private String childPathName;
-		
-		/**
-		 * Create a new PathNameCacheKey object.
-		 * 
-		 * @param parentPathId The parent's path ID.
-		 * @param childPathName The child's path name.
-		 */
-		public PathNameCacheKey(int parentPathId, String childPathName) {
-			this.parentPathId = parentPathId;
-			this.childPathName = childPathName;
-		}
-
-		/**
-		 * Return the parent's path ID.
-		 * @return The parent's path ID.
-		 */
-		public int getParentPathId() {
-			return parentPathId;
-		}
-
-		/**
-		 * Return the child's path name.
-		 * @return The child's path name.
-		 */
-		public String getChildPathName() {
-			return childPathName;
-		}
-
-		/* (non-Javadoc)
-		 * @see java.lang.Object#equals(java.lang.Object)
-		 */
-		@Override
-		public boolean equals(Object obj) {
-			if (!(obj instanceof PathNameCacheKey)) {
-				return false;
-			}
-			PathNameCacheKey keyObj = (PathNameCacheKey)obj;
-			return (parentPathId == keyObj.parentPathId) && (childPathName.equals(keyObj.childPathName));
-		}
-
-		/* (non-Javadoc)
-		 * @see java.lang.Object#hashCode()
-		 */
-		@Override
-		public int hashCode() {
-			return parentPathId + childPathName.hashCode();
-		}
-	}
-	
-	/*-------------------------------------------------------------------------------------*/
-
 	/**
 	 * This nested class is used as the "value" of the cache. The value
 	 * is a pair consisting of <childPathId, childType>, where childType is
@@ -150,6 +103,162 @@ public class PathNameCache {
 		}
 	}
 
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * One segment of the cache. This is an open-addressed hash table (using linear
+	 * probing), holding at most maxEntries mappings. All access to a segment must be
+	 * performed while holding the segment's lock (that is, synchronized on the segment).
+	 */
+	private class Segment {
+		
+		/** The maximum number of mappings in this segment. */
+		private int maxEntries;
+		
+		/** The number of mappings currently in this segment. */
+		private int numEntries = 0;
+		
+		/** For each slot, the mapping's key (see makeKey()). */
+		private long keys[];
+		
+		/** For each slot, the child's name (or null if the slot is empty). */
+		private String names[];
+		
+		/** For each slot, the mapping's value. */
+		private PathNameCacheValue values[];
+		
+		/** For each slot, true if the mapping has been accessed since the clock hand last passed. */
+		private boolean referenced[];
+		
+		/** The slot that the clock hand currently points to. */
+		private int clockHand = 0;
+		
+		/** The number of lookups that found a mapping. */
+		private long hits = 0;
+		
+		/** The number of lookups that didn't find a mapping. */
+		private long misses = 0;
+		
+		/** The number of mappings discarded to make room for new mappings. */
+		private long evictions = 0;
+		
+		/**
+		 * Create a new (empty) Segment.
+		 * 
+		 * @param maxEntries The maximum number of mappings in this segment.
+		 */
+		private Segment(int maxEntries) {
+			this.maxEntries = maxEntries;
+			
+			/* the table is never more than 3/4 full */
+			int tableSize = 4;
+			while (tableSize * 3 < maxEntries * 4) {
+				tableSize *= 2;
+			}
+			keys = new long[tableSize];
+			names = new String[tableSize];
+			values = new PathNameCacheValue[tableSize];
+			referenced = new boolean[tableSize];
+		}
+		
+		/**
+		 * Find the slot that holds a mapping.
+		 * 
+		 * @param key The mapping's key.
+		 * @param hash The hashed value of the key.
+		 * @param childPathName The child's name.
+		 * @return The slot holding the mapping, or -1 if there's no such mapping.
+		 */
+		private int find(long key, long hash, String childPathName) {
+			int mask = keys.length - 1;
+			int slot = (int)hash & mask;
+			while (names[slot] != null) {
+				if ((keys[slot] == key) && names[slot].equals(childPathName)) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+		
+		/**
+		 * Add a new mapping, which must not already be present. If the segment is full,
+		 * the clock hand advances until it finds a mapping that hasn't been referenced
+		 * recently, and that mapping is discarded.
+		 * 
+		 * @param key The mapping's key.
+		 * @param hash The hashed value of the key.
+		 * @param childPathName The child's name.
+		 * @param value The mapping's value.
+		 */
+		private void insert(long key, long hash, String childPathName, PathNameCacheValue value) {
+			int mask = keys.length - 1;
+			if (numEntries == maxEntries) {
+				while ((names[clockHand] == null) || referenced[clockHand]) {
+					referenced[clockHand] = false;
+					clockHand = (clockHand + 1) & mask;
+				}
+				delete(clockHand);
+				evictions++;
+			}
+			
+			int slot = (int)hash & mask;
+			while (names[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = key;
+			names[slot] = childPathName;
+			values[slot] = value;
+			referenced[slot] = false;
+			numEntries++;
+		}
+		
+		/**
+		 * Delete the mapping in the specified slot. Any following mappings in the same
+		 * cluster are moved backwards (if necessary), so that they can still be found.
+		 * 
+		 * @param slot The slot containing the mapping to be deleted.
+		 */
+		private void delete(int slot) {
+			int mask = keys.length - 1;
+			int next = slot;
+			while (true) {
+				next = (next + 1) & mask;
+				if (names[next] == null) {
+					break;
+				}
+				
+				/* a mapping can only move if its home slot isn't within (slot, next] */
+				int home = (int)hash(keys[next]) & mask;
+				boolean canMove = (slot <= next) ? ((home <= slot) || (home > next)) : 
+												   ((home <= slot) && (home > next));
+				if (canMove) {
+					keys[slot] = keys[next];
+					names[slot] = names[next];
+					values[slot] = values[next];
+					referenced[slot] = referenced[next];
+					slot = next;
+				}
+			}
+			names[slot] = null;
+			values[slot] = null;
+			referenced[slot] = false;
+			numEntries--;
+		}
+		
+		/**
+		 * Remove all mappings from the segment.
+		 */
+		private void clear() {
+			for (int i = 0; i != names.length; i++) {
+				names[i] = null;
+				values[i] = null;
+				referenced[i] = false;
+			}
+			numEntries = 0;
+			clockHand = 0;
+		}
+	}
 	
 	/*=====================================================================================*
 	 * CONSTRUCTORS
@@ -161,7 +270,18 @@ public class PathNameCache {
 	 * @param maxSize the maximum number of items to hold in the cache.
 	 */
 	public PathNameCache(int maxSize) {
-		map = new LRULinkedHashMap<PathNameCacheKey, PathNameCacheValue>(maxSize);
+		
+		/* large caches are split into segments, but not so many that the segments are tiny */
+		int numSegments = 1;
+		while ((numSegments < MAX_SEGMENTS) && (maxSize / (numSegments * 2) >= MIN_SEGMENT_SIZE)) {
+			numSegments *= 2;
+		}
+		
+		segments = new Segment[numSegments];
+		for (int i = 0; i != numSegments; i++) {
+			int segmentSize = (maxSize / numSegments) + ((i < maxSize % numSegments) ? 1 : 0);
+			segments[i] = new Segment(Math.max(segmentSize, 1));
+		}
 	}
 	
 	/*=====================================================================================*
@@ -172,7 +292,11 @@ public class PathNameCache {
 	 * Clear the cache, removing all stored items and reseting the size to 0.
 	 */
 	public void clear() {
-		map.clear();
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -187,8 +311,19 @@ public class PathNameCache {
 	 * the mapping isn't in the cache.
 	 */
 	public PathNameCacheValue get(int parentPathId, String childPathName) {
-		PathNameCacheKey key = new PathNameCacheKey(parentPathId, childPathName);
-		return map.get(key);		
+		long key = makeKey(parentPathId, childPathName);
+		long hash = hash(key);
+		Segment segment = getSegment(hash);
+		synchronized (segment) {
+			int slot = segment.find(key, hash, childPathName);
+			if (slot == -1) {
+				segment.misses++;
+				return null;
+			}
+			segment.hits++;
+			segment.referenced[slot] = true;
+			return segment.values[slot];
+		}
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -203,9 +338,18 @@ public class PathNameCache {
 	 * the target of the mapping.
 	 */
 	public void put(int parentPathId, String childPathName, int childPathId, int childType) {
-		PathNameCacheKey key = new PathNameCacheKey(parentPathId, childPathName);
+		long key = makeKey(parentPathId, childPathName);
+		long hash = hash(key);
 		PathNameCacheValue value = new PathNameCacheValue(childPathId, childType);
-		map.put(key, value);
+		Segment segment = getSegment(hash);
+		synchronized (segment) {
+			int slot = segment.find(key, hash, childPathName);
+			if (slot != -1) {
+				segment.values[slot] = value;
+			} else {
+				segment.insert(key, hash, childPathName, value);
+			}
+		}
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -217,8 +361,99 @@ public class PathNameCache {
 	 * @param childPathName The name of the path within the parent's directory
 	 */
 	public void remove(int parentPathId, String childPathName) {
-		PathNameCacheKey key = new PathNameCacheKey(parentPathId, childPathName);
-		map.remove(key);		
+		long key = makeKey(parentPathId, childPathName);
+		long hash = hash(key);
+		Segment segment = getSegment(hash);
+		synchronized (segment) {
+			int slot = segment.find(key, hash, childPathName);
+			if (slot != -1) {
+				segment.delete(slot);
+			}
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return The number of calls to get() that found a mapping in the cache.
+	 */
+	public long getHitCount() {
+		long total = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				total += segment.hits;
+			}
+		}
+		return total;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return The number of calls to get() that didn't find a mapping in the cache.
+	 */
+	public long getMissCount() {
+		long total = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				total += segment.misses;
+			}
+		}
+		return total;
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return The number of mappings that were discarded to make room for new mappings.
+	 */
+	public long getEvictionCount() {
+		long total = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				total += segment.evictions;
+			}
+		}
+		return total;
+	}
+	
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Combine the parent's ID and the hash code of the child's name into a single key.
+	 * 
+	 * @param parentPathId The parent's path ID.
+	 * @param childPathName The child's path name.
+	 * @return The mapping's key.
+	 */
+	private static long makeKey(int parentPathId, String childPathName) {
+		return ((long)parentPathId << 32) | (childPathName.hashCode() & 0xffffffffL);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Scramble a key, so that similar keys are spread across the segments and slots.
+	 * 
+	 * @param key The key to be hashed.
+	 * @return The hash value. The lower bits select a slot, and the upper bits select
+	 * a segment.
+	 */
+	private static long hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @param hash The hashed value of a key.
+	 * @return The segment that holds the key's mapping.
+	 */
+	private Segment getSegment(long hash) {
+		return segments[(int)(hash >>> 48) & (segments.length - 1)];
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.model.types;
+
+import com.buildml.model.IFileMgrListener;
+import com.buildml.utils.types.LRULinkedHashMap;
+
+/**
+ * A PathStringCache records the full path names of the most recently displayed
+ * directories, so that the names of files within those directories can be constructed
+ * without walking all the way up to the root directory each time.
+ * <p>
+ * Rather than storing each directory's full name as a separate String, each cached
+ * entry holds a reference to its parent directory's entry, along with its own base
+ * name. The common prefixes of a large number of paths are therefore only stored once,
+ * and a path's full name is only constructed (in a single pass) when it's needed.
+ * <p>
+ * The cache listens for path changes, so that the entry of a removed path is
+ * discarded. An LRU algorithm is used so that only the most recent N directories are
+ * kept. All methods are synchronized, allowing the cache to be shared by multiple threads.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+public class PathStringCache implements IFileMgrListener {
+
+	/*=====================================================================================*
+	 * FIELDS
+	 *=====================================================================================*/
+
+	/**
+	 * The customized HashMap that will automatically remove the least recently accessed
+	 * item once the cache fills up.
+	 */
+	private LRULinkedHashMap<Integer, PathStringCacheEntry> map;
+
+	/*=====================================================================================*
+	 * NESTED CLASSES
+	 *=====================================================================================*/
+
+	/**
+	 * This nested class is used as the "value" of the cache. It represents a directory's
+	 * full path name, as the parent directory's entry, plus the directory's own base name.
+	 * The entry for the root directory (/) has no parent, and no name.
+	 */
+	public class PathStringCacheEntry {
+
+		/** The parent directory's entry (or null, if this is the root). */
+		private PathStringCacheEntry parent;
+
+		/** The directory's base name (or null, if this is the root). */
+		private String name;
+
+		/** The length of the directory's full path name (0 for the root). */
+		private int length;
+
+		/**
+		 * Create a new PathStringCacheEntry object.
+		 *
+		 * @param parent The parent directory's entry (or null, if this is the root).
+		 * @param name The directory's base name (or null, if this is the root).
+		 */
+		private PathStringCacheEntry(PathStringCacheEntry parent, String name) {
+			this.parent = parent;
+			this.name = name;
+			if (parent != null) {
+				this.length = parent.length + 1 + name.length();
+			}
+		}
+	}
+
+	/*=====================================================================================*
+	 * CONSTRUCTORS
+	 *=====================================================================================*/
+
+	/**
+	 * Constructor for the PathStringCache class.
+	 *
+	 * @param maxSize the maximum number of directories to hold in the cache.
+	 */
+	public PathStringCache(int maxSize) {
+		map = new LRULinkedHashMap<Integer, PathStringCacheEntry>(maxSize);
+	}
+
+	/*=====================================================================================*
+	 * PUBLIC METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Clear the cache, removing all stored items and reseting the size to 0.
+	 */
+	public synchronized void clear() {
+		map.clear();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Look up a directory's entry in the cache.
+	 *
+	 * @param dirId The directory's path ID.
+	 * @return The directory's cache entry, or null if it's not in the cache.
+	 */
+	public synchronized PathStringCacheEntry get(int dirId) {
+		return map.get(dirId);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Add a new directory to the cache.
+	 *
+	 * @param dirId The directory's path ID.
+	 * @param parent The parent directory's cache entry (or null, if this is the root).
+	 * @param name The directory's base name (or null, if this is the root).
+	 * @return The directory's new cache entry.
+	 */
+	public synchronized PathStringCacheEntry put(int dirId, PathStringCacheEntry parent, String name) {
+		PathStringCacheEntry entry = new PathStringCacheEntry(parent, name);
+		map.put(dirId, entry);
+		return entry;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Remove a directory from the cache.
+	 *
+	 * @param dirId The directory's path ID.
+	 */
+	public synchronized void remove(int dirId) {
+		map.remove(dirId);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Construct the full path name of a path, given its parent directory's cache entry
+	 * and its own base name.
+	 *
+	 * @param parent The cache entry for the path's parent directory.
+	 * @param name The path's base name.
+	 * @return The path's full name, in the form /a/b/c.
+	 */
+	public static String getPathName(PathStringCacheEntry parent, String name) {
+
+		/* fill in the name from right to left, as we move up towards the root */
+		char chars[] = new char[parent.length + 1 + name.length()];
+		int pos = chars.length - name.length();
+		name.getChars(0, name.length(), chars, pos);
+		chars[--pos] = '/';
+		for (PathStringCacheEntry entry = parent; entry.parent != null; entry = entry.parent) {
+			pos -= entry.name.length();
+			entry.name.getChars(0, entry.name.length(), chars, pos);
+			chars[--pos] = '/';
+		}
+		return new String(chars);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see com.buildml.model.IFileMgrListener#pathChangeNotification(int, int)
+	 */
+	@Override
+	public void pathChangeNotification(int pathId, int how) {
+
+		/* a removed directory's ID may later be reused, so forget about it */
+		if (how == IFileMgrListener.PATH_REMOVED) {
+			remove(pathId);
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
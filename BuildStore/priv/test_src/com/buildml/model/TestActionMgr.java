@@ -15,6 +15,7 @@ package com.buildml.model;
 import static org.junit.Assert.*;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Random;
 
 import org.junit.Before;
@@ -25,6 +26,7 @@ import com.buildml.model.IActionMgr.FileAccess;
 import com.buildml.model.IActionMgr.OperationType;
 import com.buildml.model.ISlotTypes.SlotDetails;
 import com.buildml.utils.errors.ErrorCode;
+import com.buildml.utils.types.IIntConsumer;
 
 /**
  * @author "Peter Smith <psmith@arapiki.com>"
@@ -720,7 +722,7 @@ public class TestActionMgr {
 	@Test
 	public void testScalability() {
 
-		boolean prevState = bs.setFastAccessMode(true);
+		bs.beginBatch();
 
 		/* create a large number of randomly-generated file names */
 		Random r = new Random();
@@ -752,7 +754,131 @@ public class TestActionMgr {
 			/* now read the files that were added */
 			actionMgr.getFilesAccessed(actionId, OperationType.OP_UNSPECIFIED);
 		}
-		bs.setFastAccessMode(prevState);
+		bs.commitBatch();
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that file accesses added in "bulk write" mode are merged in the same way as
+	 * regular file accesses.
+	 */
+	@Test
+	public void testBulkWriteFileAccesses() {
+		
+		int action1 = actionMgr.addShellCommandAction(rootActionId, 0, "gcc -c foo.c");
+		int file1 = fileMgr.addFile("/file1");
+		actionMgr.addFileAccess(action1, file1, OperationType.OP_READ);
+		
+		bs.setBulkWriteMode(true);
+		int file2 = fileMgr.addFile("/file2");
+		int file3 = fileMgr.addFile("/file3");
+		int tmpFile = fileMgr.addFile("/tmpfile");
+		
+		/* a read followed by a write (of an existing access) is a modify */
+		actionMgr.addFileAccess(action1, file1, OperationType.OP_WRITE);
+		
+		/* merge queued accesses */
+		actionMgr.addFileAccess(action1, file2, OperationType.OP_READ);
+		actionMgr.addFileAccess(action1, file2, OperationType.OP_WRITE);
+		actionMgr.addFileAccess(action1, file3, OperationType.OP_WRITE);
+		actionMgr.addFileAccess(action1, file3, OperationType.OP_READ);
+		
+		/* a temporary file is written, then deleted - it's trashed */
+		actionMgr.addFileAccess(action1, tmpFile, OperationType.OP_WRITE);
+		actionMgr.addFileAccess(action1, tmpFile, OperationType.OP_DELETE);
+		assertTrue(fileMgr.isPathTrashed(tmpFile));
+		
+		/* queries see all the queued accesses */
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { file1, file2 }, 
+				actionMgr.getFilesAccessed(action1, OperationType.OP_MODIFIED)));
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { file3 }, 
+				actionMgr.getFilesAccessed(action1, OperationType.OP_WRITE)));
+		
+		/* new accesses after a flush are ordered after the earlier ones */
+		int action2 = actionMgr.addShellCommandAction(rootActionId, 0, "gcc -o foo foo.o");
+		actionMgr.addFileAccess(action2, file3, OperationType.OP_READ);
+		bs.setBulkWriteMode(false);
+		
+		FileAccess accesses[] = actionMgr.getSequencedFileAccesses(new Integer[] { action1, action2 });
+		assertEquals(4, accesses.length);
+		assertEquals(file1, accesses[0].pathId);
+		assertEquals(action2, accesses[3].actionId);
+		assertEquals(OperationType.OP_READ, accesses[3].opType);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that file accesses for actions created in "bulk write" mode (whose accesses are
+	 * merged in memory) are still merged correctly once the queued accesses have been
+	 * written to the database.
+	 */
+	@Test
+	public void testBulkWriteOpenActions() {
+		
+		bs.setBulkWriteMode(true);
+		int action1 = actionMgr.addShellCommandAction(rootActionId, 0, "gcc -c foo.c");
+		int file1 = fileMgr.addFile("/file1");
+		int file2 = fileMgr.addFile("/file2");
+		int file3 = fileMgr.addFile("/file3");
+		int tmpFile = fileMgr.addFile("/tmpfile");
+		actionMgr.addFileAccess(action1, file1, OperationType.OP_READ);
+		actionMgr.addFileAccess(action1, file2, OperationType.OP_WRITE);
+		actionMgr.addFileAccess(action1, file3, OperationType.OP_READ);
+		actionMgr.addFileAccess(action1, tmpFile, OperationType.OP_WRITE);
+		
+		/* creating a new action flushes action1's queued accesses */
+		int action2 = actionMgr.addShellCommandAction(rootActionId, 0, "gcc -c bar.c");
+		actionMgr.addFileAccess(action2, file1, OperationType.OP_READ);
+		
+		/* merge with action1's accesses that are now in the database */
+		actionMgr.addFileAccess(action1, file1, OperationType.OP_WRITE);
+		actionMgr.addFileAccess(action1, file2, OperationType.OP_READ);
+		actionMgr.addFileAccess(action1, file3, OperationType.OP_READ);
+		actionMgr.addFileAccess(action1, tmpFile, OperationType.OP_DELETE);
+		assertTrue(fileMgr.isPathTrashed(tmpFile));
+		
+		/* a temporary file can be recreated */
+		actionMgr.addFileAccess(action1, tmpFile, OperationType.OP_READ);
+		
+		/* an access that's explicitly removed can be added again */
+		actionMgr.removeFileAccess(action2, file1);
+		actionMgr.addFileAccess(action2, file1, OperationType.OP_DELETE);
+		
+		/* accesses added outside of bulk write mode are merged with the open actions */
+		bs.setBulkWriteMode(false);
+		actionMgr.addFileAccess(action1, file3, OperationType.OP_WRITE);
+		bs.setBulkWriteMode(true);
+		actionMgr.addFileAccess(action1, file3, OperationType.OP_DELETE);
+		bs.setBulkWriteMode(false);
+		
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { file1 }, 
+				actionMgr.getFilesAccessed(action1, OperationType.OP_MODIFIED)));
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { file2 }, 
+				actionMgr.getFilesAccessed(action1, OperationType.OP_WRITE)));
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { tmpFile }, 
+				actionMgr.getFilesAccessed(action1, OperationType.OP_READ)));
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { file3 }, 
+				actionMgr.getFilesAccessed(action1, OperationType.OP_DELETE)));
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { file1 }, 
+				actionMgr.getFilesAccessed(action2, OperationType.OP_UNSPECIFIED)));
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { file1 }, 
+				actionMgr.getFilesAccessed(action2, OperationType.OP_DELETE)));
+		
+		/* a rolled-back batch doesn't leave stale accesses in memory */
+		bs.setBulkWriteMode(true);
+		bs.beginBatch();
+		int action3 = actionMgr.addShellCommandAction(rootActionId, 0, "gcc -c baz.c");
+		actionMgr.addFileAccess(action3, file2, OperationType.OP_WRITE);
+		fileMgr.addFile("/file4");
+		bs.rollbackBatch();
+		int action4 = actionMgr.addShellCommandAction(rootActionId, 0, "gcc -c baz.c");
+		assertEquals(action3, action4);
+		actionMgr.addFileAccess(action4, file2, OperationType.OP_READ);
+		bs.setBulkWriteMode(false);
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { file2 }, 
+				actionMgr.getFilesAccessed(action4, OperationType.OP_READ)));
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -1074,6 +1200,92 @@ public class TestActionMgr {
 		assertEquals(ErrorCode.OK, actionMgr.reviveActionFromTrash(action1));
 		assertEquals(notifyActionValue, action1);
 		assertEquals(notifyHowValue, IActionMgrListener.TRASHED_ACTION);		
+		
+		/* add a new file-access - notification */
+		int fileId = fileMgr.addFile("/a/b/c.o");
+		notifyActionValue = notifyHowValue = notifySlotValue = 0;
+		actionMgr.addFileAccess(action2, fileId, OperationType.OP_READ);
+		assertEquals(action2, notifyActionValue);
+		assertEquals(IActionMgrListener.NEW_FILE_ACCESS, notifyHowValue);
+		assertEquals(fileId, notifySlotValue);
+		
+		/* repeat the same file-access - no notification */
+		notifyActionValue = notifyHowValue = notifySlotValue = 0;
+		actionMgr.addFileAccess(action2, fileId, OperationType.OP_READ);
+		assertEquals(0, notifyHowValue);
+		
+		/* change the file-access's operation - notification */
+		actionMgr.addFileAccess(action2, fileId, OperationType.OP_WRITE);
+		assertEquals(action2, notifyActionValue);
+		assertEquals(IActionMgrListener.CHANGED_FILE_ACCESS, notifyHowValue);
+		assertEquals(fileId, notifySlotValue);
+		
+		/* remove the file-access - notification, but only the first time */
+		notifyActionValue = notifyHowValue = notifySlotValue = 0;
+		actionMgr.removeFileAccess(action2, fileId);
+		assertEquals(action2, notifyActionValue);
+		assertEquals(IActionMgrListener.REMOVED_FILE_ACCESS, notifyHowValue);
+		assertEquals(fileId, notifySlotValue);
+		notifyActionValue = notifyHowValue = notifySlotValue = 0;
+		actionMgr.removeFileAccess(action2, fileId);
+		assertEquals(0, notifyHowValue);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test the streaming (IIntConsumer-based) variants of getChildren(), getFilesAccessed()
+	 * and getActionsThatAccess(), by comparing them with the array-based variants.
+	 */
+	@Test
+	public void testStreamingQueries() {
+		
+		int action1 = actionMgr.addShellCommandAction(rootActionId, 0, "/bin/sh");
+		int action2 = actionMgr.addShellCommandAction(action1, 0, "gcc -c main.c");
+		int action3 = actionMgr.addShellCommandAction(action1, 0, "gcc -c tree.c");
+		int fileMainC = fileMgr.addFile("/src/main.c");
+		int fileTreeC = fileMgr.addFile("/src/tree.c");
+		int fileStdioH = fileMgr.addFile("/usr/include/stdio.h");
+		int fileMainO = fileMgr.addFile("/src/main.o");
+		actionMgr.addFileAccess(action2, fileMainC, OperationType.OP_READ);
+		actionMgr.addFileAccess(action2, fileStdioH, OperationType.OP_READ);
+		actionMgr.addFileAccess(action2, fileMainO, OperationType.OP_WRITE);
+		actionMgr.addFileAccess(action3, fileTreeC, OperationType.OP_READ);
+		actionMgr.addFileAccess(action3, fileStdioH, OperationType.OP_READ);
+		
+		/* each value is passed to the consumer */
+		final ArrayList<Integer> results = new ArrayList<Integer>();
+		IIntConsumer collector = new IIntConsumer() {
+			@Override
+			public void accept(int value) {
+				results.add(value);
+			}
+		};
+		actionMgr.getChildren(action1, collector);
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { action2, action3 },
+				results.toArray(new Integer[0])));
+		
+		results.clear();
+		actionMgr.getFilesAccessed(action2, OperationType.OP_UNSPECIFIED, collector);
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { fileMainC, fileStdioH, fileMainO },
+				results.toArray(new Integer[0])));
+		
+		results.clear();
+		actionMgr.getFilesAccessed(action2, OperationType.OP_WRITE, collector);
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { fileMainO },
+				results.toArray(new Integer[0])));
+		
+		results.clear();
+		actionMgr.getActionsThatAccess(fileStdioH, OperationType.OP_READ, collector);
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { action2, action3 },
+				results.toArray(new Integer[0])));
+		
+		/* nothing is reported for non-existent actions or files */
+		results.clear();
+		actionMgr.getChildren(1000, collector);
+		actionMgr.getFilesAccessed(1000, OperationType.OP_UNSPECIFIED, collector);
+		actionMgr.getActionsThatAccess(1000, OperationType.OP_UNSPECIFIED, collector);
+		assertEquals(0, results.size());
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
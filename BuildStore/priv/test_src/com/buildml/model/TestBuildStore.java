@@ -16,10 +16,17 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.buildml.model.IActionMgr.OperationType;
+import com.buildml.model.types.ActionSet;
+import com.buildml.model.types.FileSet;
 import com.buildml.utils.errors.ErrorCode;
 
 
@@ -214,6 +221,403 @@ public class TestBuildStore {
 	}
 	
 
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that an existing database file can be edited (in memory) with savedRequired
+	 * turned on. The file must only change when the BuildStore is saved.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testEditExistingBuildStoreWithSavedRequired() throws Exception {
+		File bsFile = new File("/tmp/testBuildStore.bml");
+		File bsSaveFile = new File("/tmp/testBuildStore.bml.save");
+		bsFile.delete();
+		
+		/* create an on-disk BuildStore with some content */
+		bs = BuildStoreFactory.createBuildStore(bsFile.toString(), false);
+		IFileMgr fileMgr = bs.getFileMgr();
+		int file1 = fileMgr.addFile("/a/b/file1");
+		bs.close();
+		
+		/* open it with savedRequired turned on, make some changes, but don't save */
+		bs = BuildStoreFactory.openBuildStore(bsFile.toString(), true);
+		fileMgr = bs.getFileMgr();
+		assertEquals(file1, fileMgr.getPath("/a/b/file1"));
+		fileMgr.addFile("/a/b/file2");
+		bs.close();
+		bs = BuildStoreFactory.openBuildStore(bsFile.toString());
+		fileMgr = bs.getFileMgr();
+		assertEquals(file1, fileMgr.getPath("/a/b/file1"));
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.getPath("/a/b/file2"));
+		bs.close();
+		
+		/* make the changes again, and trash a path, this time saving */
+		bs = BuildStoreFactory.openBuildStore(bsFile.toString(), true);
+		fileMgr = bs.getFileMgr();
+		int file2 = fileMgr.addFile("/a/b/file2");
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(file1));
+		bs.save();
+		
+		/* the trashed path can still be revived, since saving doesn't empty the trash */
+		assertEquals(ErrorCode.OK, fileMgr.revivePathFromTrash(file1));
+		assertEquals(file1, fileMgr.getPath("/a/b/file1"));
+		bs.close();
+		assertFalse(bsSaveFile.exists());
+		
+		bs = BuildStoreFactory.openBuildStore(bsFile.toString());
+		fileMgr = bs.getFileMgr();
+		assertEquals(file2, fileMgr.getPath("/a/b/file2"));
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.getPath("/a/b/file1"));
+		bs.close();
+		bsFile.delete();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that repeated saves (which only write the changed rows) keep the database
+	 * file identical to the in-memory database.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testRepeatedSaves() throws Exception {
+		File bsFile = new File("/tmp/testBuildStore.bml");
+		bsFile.delete();
+		
+		/* the first save writes the whole database */
+		bs = BuildStoreFactory.createBuildStore(bsFile.toString(), true);
+		IFileMgr fileMgr = bs.getFileMgr();
+		IFileAttributeMgr attrMgr = bs.getFileAttributeMgr();
+		int file1 = fileMgr.addFile("/a/file1");
+		int file2 = fileMgr.addFile("/a/file2");
+		int attrId = attrMgr.newAttrName("colour");
+		attrMgr.setAttr(file1, attrId, "red");
+		attrMgr.setAttr(file2, attrId, "green");
+		bs.save();
+		
+		/* the next save only writes the changes, including updates and deletes */
+		int file3 = fileMgr.addFile("/a/file3");
+		attrMgr.setAttr(file1, attrId, "blue");
+		attrMgr.deleteAttr(file2, attrId);
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(file2));
+		bs.save();
+		
+		IBuildStore savedBs = BuildStoreFactory.openBuildStore(bsFile.toString());
+		IFileMgr savedFileMgr = savedBs.getFileMgr();
+		IFileAttributeMgr savedAttrMgr = savedBs.getFileAttributeMgr();
+		assertEquals(file1, savedFileMgr.getPath("/a/file1"));
+		assertEquals(ErrorCode.BAD_PATH, savedFileMgr.getPath("/a/file2"));
+		assertEquals(file3, savedFileMgr.getPath("/a/file3"));
+		assertEquals("blue", savedAttrMgr.getAttrAsString(file1, attrId));
+		assertNull(savedAttrMgr.getAttrAsString(file2, attrId));
+		savedBs.close();
+		
+		/* reviving the trashed path brings it back in the saved file */
+		assertEquals(ErrorCode.OK, fileMgr.revivePathFromTrash(file2));
+		attrMgr.setAttr(file2, attrId, "yellow");
+		bs.save();
+		bs.close();
+		
+		savedBs = BuildStoreFactory.openBuildStore(bsFile.toString());
+		savedFileMgr = savedBs.getFileMgr();
+		savedAttrMgr = savedBs.getFileAttributeMgr();
+		assertEquals(file2, savedFileMgr.getPath("/a/file2"));
+		assertEquals("yellow", savedAttrMgr.getAttrAsString(file2, attrId));
+		assertEquals("blue", savedAttrMgr.getAttrAsString(file1, attrId));
+		savedBs.close();
+		bsFile.delete();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that a path that's trashed when the BuildStore is saved is purged from the saved
+	 * file, but that if it's then revived and saved again, it keeps its package membership
+	 * and attributes in the saved file.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testSaveTrashedThenRevivedPath() throws Exception {
+		File bsFile = new File("/tmp/testBuildStore.bml");
+		bsFile.delete();
+		
+		bs = BuildStoreFactory.createBuildStore(bsFile.toString(), true);
+		IFileMgr fileMgr = bs.getFileMgr();
+		IFileAttributeMgr attrMgr = bs.getFileAttributeMgr();
+		IPackageMemberMgr pkgMemberMgr = bs.getPackageMemberMgr();
+		int pkgId = bs.getPackageMgr().getImportPackage();
+		int file1 = fileMgr.addFile("/a/file1");
+		int attrId = attrMgr.newAttrName("colour");
+		attrMgr.setAttr(file1, attrId, "red");
+		assertEquals(ErrorCode.OK, 
+				pkgMemberMgr.setPackageOfMember(IPackageMemberMgr.TYPE_FILE, file1, pkgId));
+		bs.save();
+		
+		/* trash the path and save (twice) - the saved file mustn't include its attributes */
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(file1));
+		for (int i = 0; i != 2; i++) {
+			bs.save();
+			IBuildStore savedBs = BuildStoreFactory.openBuildStore(bsFile.toString(), true);
+			assertNull(savedBs.getFileAttributeMgr().getAttrAsString(file1, attrId));
+			assertNull(savedBs.getPackageMemberMgr().getPackageOfMember(
+									IPackageMemberMgr.TYPE_FILE, file1));
+			savedBs.close();
+		}
+
+		/* then revive it and save again */
+		assertEquals(ErrorCode.OK, fileMgr.revivePathFromTrash(file1));
+		bs.save();
+		bs.close();
+
+		IBuildStore savedBs = BuildStoreFactory.openBuildStore(bsFile.toString());
+		assertEquals(file1, savedBs.getFileMgr().getPath("/a/file1"));
+		assertEquals("red", savedBs.getFileAttributeMgr().getAttrAsString(file1, attrId));
+		assertEquals(pkgId, savedBs.getPackageMemberMgr().getPackageOfMember(
+									IPackageMemberMgr.TYPE_FILE, file1).pkgId);
+		savedBs.close();
+		
+		/* the same applies if the path was already trashed when the whole file was written */
+		bsFile.delete();
+		bs = BuildStoreFactory.createBuildStore(bsFile.toString(), true);
+		fileMgr = bs.getFileMgr();
+		attrMgr = bs.getFileAttributeMgr();
+		pkgMemberMgr = bs.getPackageMemberMgr();
+		pkgId = bs.getPackageMgr().getImportPackage();
+		file1 = fileMgr.addFile("/a/file1");
+		attrId = attrMgr.newAttrName("colour");
+		attrMgr.setAttr(file1, attrId, "red");
+		assertEquals(ErrorCode.OK, 
+				pkgMemberMgr.setPackageOfMember(IPackageMemberMgr.TYPE_FILE, file1, pkgId));
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(file1));
+		bs.save();
+		assertEquals(ErrorCode.OK, fileMgr.revivePathFromTrash(file1));
+		bs.save();
+		bs.close();
+		
+		savedBs = BuildStoreFactory.openBuildStore(bsFile.toString());
+		assertEquals(file1, savedBs.getFileMgr().getPath("/a/file1"));
+		assertEquals("red", savedBs.getFileAttributeMgr().getAttrAsString(file1, attrId));
+		assertEquals(pkgId, savedBs.getPackageMemberMgr().getPackageOfMember(
+									IPackageMemberMgr.TYPE_FILE, file1).pkgId);
+		savedBs.close();
+		bsFile.delete();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that a database with the 409 schema (where each row of the files table holds
+	 * its own name) is upgraded to use the fileNames dictionary, without changing any
+	 * path names, or the order of any directory's children.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testUpgradeFrom409() throws Exception {
+		File bsFile = new File("/tmp/testBuildStore.bml");
+		bsFile.delete();
+		
+		/* names are added out of order, and some are used in more than one directory */
+		bs = BuildStoreFactory.createBuildStore(bsFile.toString(), false);
+		fileMgr = bs.getFileMgr();
+		String paths[] = { "/src/zebra.c", "/src/Makefile", "/src/apple.c", "/include/zebra.h",
+				"/include/Makefile", "/Makefile", "/src/lib/Makefile", "/src/lib/apple.c" };
+		int pathIds[] = new int[paths.length];
+		for (int i = 0; i != paths.length; i++) {
+			pathIds[i] = fileMgr.addFile(paths[i]);
+		}
+		
+		/* remember each directory's children */
+		String dirs[] = { "/", "/src", "/include", "/src/lib" };
+		Integer children[][] = new Integer[dirs.length][];
+		for (int i = 0; i != dirs.length; i++) {
+			children[i] = fileMgr.getChildPaths(fileMgr.getPath(dirs[i]));
+		}
+		bs.close();
+		
+		/* convert the database back to the 409 schema */
+		Class.forName("org.sqlite.JDBC");
+		Connection dbConn = DriverManager.getConnection("jdbc:sqlite:" + bsFile);
+		Statement stat = dbConn.createStatement();
+		stat.executeUpdate("create table files409 ( id integer primary key, parentId integer, " +
+				"trashed integer, pathType integer, name text not null)");
+		stat.executeUpdate("insert into files409 select files.id, parentId, trashed, pathType, " +
+				"fileNames.name from files, fileNames where files.nameId = fileNames.id");
+		stat.executeUpdate("drop table files");
+		stat.executeUpdate("drop table fileNames");
+		stat.executeUpdate("alter table files409 rename to files");
+		stat.executeUpdate("create unique index filesIdx on files (parentId, name)");
+		stat.executeUpdate("update schemaVersion set version = 409");
+		stat.close();
+		dbConn.close();
+		
+		/* the old schema can't be opened until it's been upgraded */
+		try {
+			BuildStoreFactory.openBuildStore(bsFile.toString());
+			fail("Opened a database with an old schema");
+		} catch (BuildStoreVersionException e) {
+			/* expected */
+		}
+		BuildStoreFactory.upgradeBuildStore(bsFile.toString());
+		
+		/* each name is now stored once */
+		dbConn = DriverManager.getConnection("jdbc:sqlite:" + bsFile);
+		stat = dbConn.createStatement();
+		ResultSet rs = stat.executeQuery("select count(*) from fileNames where name = 'Makefile'");
+		assertTrue(rs.next());
+		assertEquals(1, rs.getInt(1));
+		rs.close();
+		stat.close();
+		dbConn.close();
+		
+		/* all the paths have the same IDs and names as before */
+		bs = BuildStoreFactory.openBuildStore(bsFile.toString());
+		fileMgr = bs.getFileMgr();
+		for (int i = 0; i != paths.length; i++) {
+			assertEquals(paths[i], fileMgr.getPathName(pathIds[i]));
+			assertEquals(pathIds[i], fileMgr.getPath(paths[i]));
+		}
+		
+		/* each directory's children are in the same order as before (sorted by name) */
+		for (int i = 0; i != dirs.length; i++) {
+			assertArrayEquals(children[i], fileMgr.getChildPaths(fileMgr.getPath(dirs[i])));
+		}
+		assertArrayEquals(new Integer[] { fileMgr.getPath("/src/Makefile"), 
+				fileMgr.getPath("/src/apple.c"), fileMgr.getPath("/src/lib"), 
+				fileMgr.getPath("/src/zebra.c") }, fileMgr.getChildPaths(fileMgr.getPath("/src")));
+		
+		/* new paths can share the existing names */
+		int newId = fileMgr.addFile("/include/apple.c");
+		assertEquals("/include/apple.c", fileMgr.getPathName(newId));
+		assertEquals(newId, fileMgr.getPath("/include/apple.c"));
+		bs.close();
+		bsFile.delete();
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that queries can be performed by multiple threads at the same time, for
+	 * both disk-based and in-memory BuildStores.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testConcurrentReads() throws Exception {
+		File bsFile = new File("/tmp/testBuildStore.bml");
+		
+		for (final boolean saveRequired : new boolean[] { false, true }) {
+			bsFile.delete();
+			bs = BuildStoreFactory.createBuildStore(bsFile.toString(), saveRequired);
+			final IFileMgr fileMgr = bs.getFileMgr();
+			final IActionMgr actionMgr = bs.getActionMgr();
+			final IReportMgr reportMgr = bs.getReportMgr();
+			
+			/* each action reads one file and writes another */
+			final int numActions = 200;
+			final int actionIds[] = new int[numActions];
+			final int fileIds[] = new int[numActions];
+			for (int i = 0; i != numActions; i++) {
+				actionIds[i] = actionMgr.addShellCommandAction(actionMgr.getRootAction("root"), 
+															   0, "gcc -c file" + i + ".c");
+				fileIds[i] = fileMgr.addFile("/src/dir" + (i % 10) + "/file" + i + ".c");
+				int outFile = fileMgr.addFile("/obj/dir" + (i % 10) + "/file" + i + ".o");
+				actionMgr.addFileAccess(actionIds[i], fileIds[i], OperationType.OP_READ);
+				actionMgr.addFileAccess(actionIds[i], outFile, OperationType.OP_WRITE);
+			}
+			final int numFiles = reportMgr.reportAllFiles().size();
+			
+			/* now query from multiple threads, each checking the results it sees */
+			final int numThreads = 4;
+			final String errors[] = new String[numThreads];
+			Thread threads[] = new Thread[numThreads];
+			for (int t = 0; t != numThreads; t++) {
+				final int threadNum = t;
+				threads[t] = new Thread() {
+					public void run() {
+						try {
+							for (int i = threadNum; i < numActions; i += numThreads) {
+								String path = "/src/dir" + (i % 10) + "/file" + i + ".c";
+								assertEquals(fileIds[i], fileMgr.getPath(path));
+								assertEquals(path, fileMgr.getPathName(fileIds[i]));
+								assertEquals("gcc -c file" + i + ".c", 
+											 actionMgr.getSlotValue(actionIds[i], IActionMgr.COMMAND_SLOT_ID));
+								
+								ActionSet actions = new ActionSet(actionMgr, new Integer[] { actionIds[i] });
+								assertEquals(2, reportMgr.reportFilesAccessedByActions(
+														actions, OperationType.OP_UNSPECIFIED).size());
+								FileSet srcFiles = new FileSet(fileMgr, new Integer[] { fileIds[i] });
+								assertEquals(1, reportMgr.reportDerivedFiles(srcFiles, false).size());
+								assertEquals(numFiles, reportMgr.reportAllFiles().size());
+							}
+						} catch (Throwable e) {
+							errors[threadNum] = e.toString();
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for (int t = 0; t != numThreads; t++) {
+				threads[t].join();
+				assertNull(errors[t]);
+			}
+			bs.close();
+		}
+		bsFile.delete();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that changes made within a batch are either all committed, or all rolled back,
+	 * and that batches may be nested.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testBatches() throws Exception {
+		File bsFile = new File("/tmp/testBuildStore.bml");
+		bsFile.delete();
+		bs = BuildStoreFactory.createBuildStore(bsFile.toString());
+		IFileMgr fileMgr = bs.getFileMgr();
+		
+		/* a nested batch is only committed when the outermost batch is */
+		bs.beginBatch();
+		int file1 = fileMgr.addFile("/a/file1");
+		bs.beginBatch();
+		int file2 = fileMgr.addFile("/a/file2");
+		bs.commitBatch();
+		bs.commitBatch();
+		assertEquals(file1, fileMgr.getPath("/a/file1"));
+		assertEquals(file2, fileMgr.getPath("/a/file2"));
+		
+		/* a rolled back batch leaves no changes behind */
+		bs.beginBatch();
+		int file3 = fileMgr.addFile("/a/file3");
+		assertEquals(file3, fileMgr.getPath("/a/file3"));
+		bs.rollbackBatch();
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.getPath("/a/file3"));
+		assertEquals(file2, fileMgr.getPath("/a/file2"));
+		
+		/* rolling back a nested batch rolls back the outermost batch too */
+		bs.beginBatch();
+		fileMgr.addFile("/b/file4");
+		bs.beginBatch();
+		fileMgr.addFile("/b/file5");
+		bs.rollbackBatch();
+		bs.commitBatch();
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.getPath("/b/file4"));
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.getPath("/b/file5"));
+		
+		/* ending a batch that was never started is an error */
+		try {
+			bs.commitBatch();
+			fail("Committing a batch that was never started should fail.");
+		} catch (FatalBuildStoreError e) {
+			/* pass */
+		}
+		bs.close();
+		bsFile.delete();
+	}
+
 	/*-------------------------------------------------------------------------------------*/
 
 	/**
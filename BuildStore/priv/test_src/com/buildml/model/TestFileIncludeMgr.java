@@ -252,14 +252,14 @@ public class TestFileIncludeMgr {
 	@Test
 	public void testScalability() {
 		
-		boolean prevState = bs.setFastAccessMode(true);
+		bs.beginBatch();
 
 		/* create a large number of randomly-generated file relationships */
 		Random r = new Random();
 		for (int i = 0; i != 50000; i++) {
 			fileIncludeMgr.addFileIncludes(r.nextInt(100), r.nextInt(100));
 		}
-		bs.setFastAccessMode(prevState);
+		bs.commitBatch();
 		
 		/*
 		 * Now, fetch them in various ways.
@@ -13,6 +13,9 @@
 package com.buildml.model;
 
 import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 import org.hamcrest.core.IsAnything;
@@ -22,6 +25,7 @@ import org.junit.Test;
 import com.buildml.model.IActionMgr.OperationType;
 import com.buildml.model.IFileMgr.PathType;
 import com.buildml.utils.errors.ErrorCode;
+import com.buildml.utils.types.IIntConsumer;
 
 /**
  * @author "Peter Smith <psmith@arapiki.com>"
@@ -404,6 +408,86 @@ public class TestFileMgr {
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Test that cached path names are discarded when paths are removed, since the path
+	 * IDs can later be reused for different paths.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testGetPathNameAfterRemove() throws Exception {
+
+		int dirX = fileMgr.addDirectory("/x");
+		int fileY = fileMgr.addFile("/x/y");
+		assertEquals("/x/y", fileMgr.getPathName(fileY));
+		assertEquals("/x", fileMgr.getPathName(dirX));
+		
+		/* remove both paths, then add new paths that reuse the same IDs */
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(fileY));
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(dirX));
+		bs.emptyTrash();
+		int dirZ = fileMgr.addDirectory("/z");
+		int fileW = fileMgr.addFile("/z/w");
+		assertEquals("/z/w", fileMgr.getPathName(fileW));
+		assertEquals("/z", fileMgr.getPathName(dirZ));
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.getPath("/x/y"));
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test the getPaths() and getPathNames() methods, which should give the same results
+	 * as getPath() and getPathName(), for many paths at once.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testGetPathsAndNames() throws Exception {
+
+		String names[] = { "/apple/blueberry/carrot", "/pen", "/apple/blueberry/date", 
+						   "/apple/banana", "/", "/apple/blueberry/carrot", "/missing/file",
+						   "/apple/missing", "@root/pen", "@badroot/pen" };
+		for (int i = 0; i < 6; i++) {
+			fileMgr.addFile(names[i]);
+		}
+		
+		/* getPaths() must match getPath(), including for missing paths */
+		int pathIds[] = fileMgr.getPaths(names);
+		assertEquals(names.length, pathIds.length);
+		for (int i = 0; i < names.length; i++) {
+			assertEquals(fileMgr.getPath(names[i]), pathIds[i]);
+		}
+		assertEquals(ErrorCode.BAD_PATH, pathIds[6]);
+		assertEquals(ErrorCode.BAD_PATH, pathIds[7]);
+		assertEquals(pathIds[1], pathIds[8]);
+		assertEquals(0, fileMgr.getPaths(new String[0]).length);
+		
+		/* getPathNames() must match getPathName(), including for invalid IDs */
+		int validIds[] = { pathIds[0], pathIds[1], pathIds[2], pathIds[3], pathIds[4], 
+						   fileMgr.getPath("/apple/blueberry"), 1000, -1 };
+		String pathNames[] = fileMgr.getPathNames(validIds);
+		for (int i = 0; i < validIds.length; i++) {
+			assertEquals(fileMgr.getPathName(validIds[i]), pathNames[i]);
+		}
+		assertEquals("/apple/blueberry/carrot", pathNames[0]);
+		assertEquals("/", pathNames[4]);
+		assertNull(pathNames[6]);
+		
+		/* now with roots shown, relative to each path's own package */
+		int pkgA = pkgMgr.addPackage("pkgA");
+		assertEquals(ErrorCode.OK, pkgRootMgr.setWorkspaceRoot(pathIds[4]));
+		assertEquals(ErrorCode.OK, 
+				pkgRootMgr.setPackageRoot(pkgA, IPackageRootMgr.SOURCE_ROOT, fileMgr.getPath("/apple")));
+		assertEquals(ErrorCode.OK, 
+				pkgMemberMgr.setPackageOfMember(IPackageMemberMgr.TYPE_FILE, pathIds[0], pkgA));
+		pathNames = fileMgr.getPathNames(validIds, true);
+		for (int i = 0; i < validIds.length; i++) {
+			assertEquals(fileMgr.getPathName(validIds[i], true), pathNames[i]);
+		}
+		assertEquals("@pkgA_src/blueberry/carrot", pathNames[0]);
+		assertEquals("@root/apple/blueberry/date", pathNames[2]);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * Test the getChildPaths() method.
 	 * @throws Exception Something bad happened
@@ -438,6 +522,16 @@ public class TestFileMgr {
 		assertEquals(path7, children[0].intValue());
 		assertEquals(path5, children[1].intValue());
 		assertEquals(path6, children[2].intValue());
+		
+		/* the streaming variant reports the same children, in the same order */
+		final List<Integer> streamed = new ArrayList<Integer>();
+		fileMgr.getChildPaths(path4, new IIntConsumer() {
+			@Override
+			public void accept(int value) {
+				streamed.add(value);
+			}
+		});
+		assertArrayEquals(children, streamed.toArray(new Integer[0]));
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -624,7 +718,7 @@ public class TestFileMgr {
 	@Test
 	public void testAddManyFiles() {
 		
-		boolean prevState = bs.setFastAccessMode(true);
+		bs.beginBatch();
 
 		/* create a large number of randomly-generated file names */
 		Random r = new Random();
@@ -649,7 +743,7 @@ public class TestFileMgr {
 			/* add the file name to the FileSpace */
 			fileMgr.addFile(sb.toString());
 		}
-		bs.setFastAccessMode(prevState);
+		bs.commitBatch();
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -675,6 +769,202 @@ public class TestFileMgr {
 		assertTrue(fileMgr.isAncestorOf(dirA, dirB));
 		assertFalse(fileMgr.isAncestorOf(dirB, dirA));
 		assertFalse(fileMgr.isAncestorOf(dirA, dirA));		
+		assertTrue(fileMgr.isAncestorOf(dirRoot, dirRoot));
+		
+		/* paths that are added after the first query are also handled */
+		int dirD = fileMgr.addDirectory("/a/b/d");
+		int mouseFile = fileMgr.addFile("/a/b/d/mouse.h");
+		assertTrue(fileMgr.isAncestorOf(dirA, mouseFile));
+		assertTrue(fileMgr.isAncestorOf(dirD, mouseFile));
+		assertFalse(fileMgr.isAncestorOf(dirD, dogFile));
+		assertFalse(fileMgr.isAncestorOf(mouseFile, dirD));
+		assertFalse(fileMgr.isAncestorOf(dirA, 12345));
+		
+		/* add enough paths for the interval labels to be rebuilt */
+		int lastFile = 0;
+		for (int i = 0; i != 2000; i++) {
+			lastFile = fileMgr.addFile("/a/c/file" + i);
+		}
+		assertTrue(fileMgr.isAncestorOf(dirA, lastFile));
+		assertFalse(fileMgr.isAncestorOf(dirB, lastFile));
+		assertTrue(fileMgr.isAncestorOf(dirA, mouseFile));
+		
+		/* trashed paths still have ancestors */
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(mouseFile));
+		assertTrue(fileMgr.isAncestorOf(dirD, mouseFile));
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that paths with the same base name (which share an entry in the name
+	 * dictionary) are kept separate, and that names added within a rolled-back batch
+	 * can be used again.
+	 */
+	@Test
+	public void testSharedNames() {
+		
+		int make1 = fileMgr.addFile("/a/Makefile");
+		int make2 = fileMgr.addFile("/b/Makefile");
+		int dirMake = fileMgr.addDirectory("/c/Makefile");
+		assertTrue(make1 != make2);
+		assertEquals("/a/Makefile", fileMgr.getPathName(make1));
+		assertEquals("/b/Makefile", fileMgr.getPathName(make2));
+		assertEquals(PathType.TYPE_DIR, fileMgr.getPathType(dirMake));
+		assertEquals(make2, fileMgr.getChildOfPath(fileMgr.getPath("/b"), "Makefile"));
+		assertEquals(ErrorCode.NOT_FOUND, fileMgr.getChildOfPath(fileMgr.getPath("/b"), "Makefile.am"));
+		
+		/* a new name, added within a rolled-back batch, disappears with it */
+		bs.beginBatch();
+		int unique = fileMgr.addFile("/a/unique.h");
+		assertEquals("unique.h", fileMgr.getBaseName(unique));
+		bs.rollbackBatch();
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.getPath("/a/unique.h"));
+		int newUnique = fileMgr.addFile("/b/unique.h");
+		assertEquals("/b/unique.h", fileMgr.getPathName(newUnique));
+		assertEquals(newUnique, fileMgr.getPath("/b/unique.h"));
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that multiple threads can add the same paths at the same time, with each
+	 * path only being added once.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testConcurrentAdd() throws Exception {
+		
+		for (int pass = 0; pass != 2; pass++) {
+			
+			/* the second pass queues new paths in memory */
+			boolean bulk = (pass == 1);
+			if (bulk) {
+				bs.beginBatch();
+				bs.setBulkWriteMode(true);
+			}
+			
+			/* each thread adds the same paths, in a different order */
+			final String prefix = "/pass" + pass;
+			final int numPaths = 500;
+			final int numThreads = 4;
+			final int results[][] = new int[numThreads][numPaths];
+			final int strides[] = new int[] { 1, 1, 3, 3 };
+			Thread threads[] = new Thread[numThreads];
+			for (int t = 0; t != numThreads; t++) {
+				final int threadNum = t;
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						for (int i = 0; i != numPaths; i++) {
+							int fileNum = (i * strides[threadNum]) % numPaths;
+							results[threadNum][fileNum] = 
+								fileMgr.addFile(prefix + "/dir" + (fileNum % 10) + "/file" + fileNum);
+						}
+					}
+				};
+			}
+			for (int t = 0; t != numThreads; t++) {
+				threads[t].start();
+			}
+			for (int t = 0; t != numThreads; t++) {
+				threads[t].join();
+			}
+			
+			if (bulk) {
+				bs.setBulkWriteMode(false);
+				bs.commitBatch();
+			}
+			
+			/* all threads must agree on the IDs, and each path has been added exactly once */
+			for (int i = 0; i != numPaths; i++) {
+				assertTrue(results[0][i] >= 0);
+				for (int t = 1; t != numThreads; t++) {
+					assertEquals(results[0][i], results[t][i]);
+				}
+				String pathName = prefix + "/dir" + (i % 10) + "/file" + i;
+				assertEquals(results[0][i], fileMgr.getPath(pathName));
+				assertEquals(pathName, fileMgr.getPathName(results[0][i]));
+			}
+			int dirId = fileMgr.getPath(prefix);
+			assertEquals(10, fileMgr.getChildPaths(dirId).length);
+			assertEquals(10 + numPaths + 1, fileMgr.getSubTreePaths(dirId).length);
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Assert that two arrays of path IDs contain the same values, ignoring their order.
+	 * 
+	 * @param expected The expected path IDs.
+	 * @param actual The actual path IDs.
+	 */
+	private void assertSortedIntArraysEq(int expected[], int actual[]) {
+		int expectedSorted[] = expected.clone();
+		int actualSorted[] = actual.clone();
+		Arrays.sort(expectedSorted);
+		Arrays.sort(actualSorted);
+		assertArrayEquals(expectedSorted, actualSorted);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test the getSubTreePaths() method.
+	 */
+	@Test
+	public void testGetSubTreePaths() {
+		
+		int dirA = fileMgr.addDirectory("/a");
+		int dirB = fileMgr.addDirectory("/a/b");
+		int dogFile = fileMgr.addFile("/a/b/dog.h");
+		int catFile = fileMgr.addFile("/a/b/cat.h");
+		int dirC = fileMgr.addDirectory("/a/c");
+		int rabbitFile = fileMgr.addFile("/a/c/rabbit.h");
+		fileMgr.addFile("/x/fish.h");
+		
+		assertSortedIntArraysEq(new int[] { dirA, dirB, dogFile, catFile, dirC, rabbitFile },
+								fileMgr.getSubTreePaths(dirA));
+		assertSortedIntArraysEq(new int[] { dirC, rabbitFile }, fileMgr.getSubTreePaths(dirC));
+		assertSortedIntArraysEq(new int[] { dogFile }, fileMgr.getSubTreePaths(dogFile));
+		
+		/* new paths, added after the first query, are included */
+		int dirD = fileMgr.addDirectory("/a/b/d");
+		int mouseFile = fileMgr.addFile("/a/b/d/mouse.h");
+		assertSortedIntArraysEq(new int[] { dirB, dogFile, catFile, dirD, mouseFile },
+								fileMgr.getSubTreePaths(dirB));
+		assertSortedIntArraysEq(new int[] { dirD, mouseFile }, fileMgr.getSubTreePaths(dirD));
+
+		/* trashed paths are excluded, but reappear once revived */
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(mouseFile));
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(dogFile));
+		assertSortedIntArraysEq(new int[] { dirB, catFile, dirD }, fileMgr.getSubTreePaths(dirB));
+		assertEquals(ErrorCode.OK, fileMgr.revivePathFromTrash(dogFile));
+		assertSortedIntArraysEq(new int[] { dirB, dogFile, catFile, dirD }, 
+								fileMgr.getSubTreePaths(dirB));
+		
+		/* once the trash is emptied, everything is recomputed */
+		fileMgr.getBuildStore().emptyTrash();
+		assertSortedIntArraysEq(new int[] { dirD }, fileMgr.getSubTreePaths(dirD));
+		
+		/* the result is the same as recursively fetching the children */
+		for (int i = 0; i != 100; i++) {
+			fileMgr.addFile("/a/c/dir" + (i % 7) + "/file" + i);
+		}
+		int expected[] = new int[] { 0 };
+		int expectedSize = 0;
+		List<Integer> toVisit = new ArrayList<Integer>();
+		toVisit.add(dirA);
+		while (!toVisit.isEmpty()) {
+			int pathId = toVisit.remove(toVisit.size() - 1);
+			if (expectedSize == expected.length) {
+				expected = Arrays.copyOf(expected, expectedSize * 2);
+			}
+			expected[expectedSize++] = pathId;
+			toVisit.addAll(Arrays.asList(fileMgr.getChildPaths(pathId)));
+		}
+		assertSortedIntArraysEq(Arrays.copyOf(expected, expectedSize), fileMgr.getSubTreePaths(dirA));
 	}
 		
 	/*-------------------------------------------------------------------------------------*/
@@ -728,5 +1018,55 @@ public class TestFileMgr {
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that paths added in "bulk write" mode are visible to all FileMgr methods, both
+	 * before and after they're written to the database.
+	 */
+	@Test
+	public void testBulkWriteMode() {
+		
+		int existingFile = fileMgr.addFile("/a/b/existing.c");
+		assertFalse(bs.setBulkWriteMode(true));
+		
+		/* add some paths - they're queued in memory */
+		int dirC = fileMgr.addDirectory("/a/b/c");
+		int fileD = fileMgr.addFile("/a/b/c/d.c");
+		int fileE = fileMgr.addFile("/a/b/c/e.c");
+		assertTrue(dirC > existingFile);
+		assertTrue((fileD > dirC) && (fileE > fileD));
+		
+		/* queued paths can be found, without needing to flush them */
+		assertEquals(existingFile, fileMgr.addFile("/a/b/existing.c"));
+		assertEquals(fileD, fileMgr.addFile("/a/b/c/d.c"));
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.addDirectory("/a/b/c/d.c"));
+		assertEquals(fileE, fileMgr.getPath("/a/b/c/e.c"));
+		assertEquals(dirC, fileMgr.getParentPath(fileE));
+		assertEquals("e.c", fileMgr.getBaseName(fileE));
+		assertEquals(PathType.TYPE_DIR, fileMgr.getPathType(dirC));
+		assertFalse(fileMgr.isPathTrashed(fileD));
+		assertEquals("/a/b/c/d.c", fileMgr.getPathName(fileD));
+		
+		/* queries that use the database see the queued paths */
+		Integer children[] = fileMgr.getChildPaths(dirC);
+		assertTrue(CommonTestUtils.sortedArraysEqual(new Integer[] { fileD, fileE }, children));
+		assertEquals(pkgMgr.getImportPackage(), 
+				pkgMemberMgr.getPackageOfMember(IPackageMemberMgr.TYPE_FILE, fileE).pkgId);
+		
+		/* trash a path, then make sure it can't be re-added until the trash is emptied */
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(fileE));
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.addFile("/a/b/c/e.c"));
+		bs.emptyTrash();
+		int newFileE = fileMgr.addFile("/a/b/c/e.c");
+		assertTrue(newFileE > fileE);
+		
+		/* disabling bulk write mode writes everything to the database */
+		assertTrue(bs.setBulkWriteMode(false));
+		assertEquals(newFileE, fileMgr.getPath("/a/b/c/e.c"));
+		assertEquals("/a/b/c/e.c", fileMgr.getPathName(newFileE));
+		assertEquals(newFileE + 1, fileMgr.addFile("/a/b/c/f.c"));
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
 	
 }
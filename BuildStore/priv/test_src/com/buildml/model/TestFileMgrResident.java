@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.buildml.model.IFileMgr.PathType;
+import com.buildml.utils.errors.ErrorCode;
+
+/**
+ * Repeat all of the FileMgr tests, but with the path tree held in memory.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+public class TestFileMgrResident extends TestFileMgr {
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		assertFalse(fileMgr.setPathTreeResident(true));
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that the resident path tree is loaded with the paths that are already in
+	 * the database, and that it stays consistent as paths are added and trashed.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testResidentPathTree() throws Exception {
+
+		/* add some paths while the tree is not resident */
+		assertTrue(fileMgr.setPathTreeResident(false));
+		int file1 = fileMgr.addFile("/a/b/file1");
+		int dirB = fileMgr.getPath("/a/b");
+
+		/* now load the tree, and check that the existing paths are visible */
+		assertFalse(fileMgr.setPathTreeResident(true));
+		assertEquals(file1, fileMgr.getPath("/a/b/file1"));
+		assertEquals("/a/b/file1", fileMgr.getPathName(file1));
+		assertEquals(dirB, fileMgr.getParentPath(file1));
+		assertEquals(PathType.TYPE_DIR, fileMgr.getPathType(dirB));
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.getPath("/a/b/file2"));
+
+		/* add many children to the same directory, so its child table must grow */
+		int files[] = new int[1000];
+		for (int i = 0; i != files.length; i++) {
+			files[i] = fileMgr.addChildOfPath(dirB, PathType.TYPE_FILE, "child" + i);
+		}
+		for (int i = 0; i != files.length; i++) {
+			assertEquals(files[i], fileMgr.getPath("/a/b/child" + i));
+			assertEquals("child" + i, fileMgr.getBaseName(files[i]));
+		}
+
+		/* trash a path, then empty the trash, so the same name can be reused */
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(file1));
+		assertTrue(fileMgr.isPathTrashed(file1));
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.getPath("/a/b/file1"));
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.addFile("/a/b/file1"));
+		fileMgr.getBuildStore().emptyTrash();
+		int newFile1 = fileMgr.addFile("/a/b/file1");
+		assertTrue(newFile1 >= 0);
+		assertEquals(newFile1, fileMgr.getPath("/a/b/file1"));
+
+		/* paths added within a rolled-back batch disappear */
+		IBuildStore bs = fileMgr.getBuildStore();
+		bs.beginBatch();
+		int file3 = fileMgr.addFile("/a/file3");
+		assertEquals(file3, fileMgr.getPath("/a/file3"));
+		bs.rollbackBatch();
+		assertEquals(ErrorCode.BAD_PATH, fileMgr.getPath("/a/file3"));
+		assertEquals(PathType.TYPE_INVALID, fileMgr.getPathType(file3));
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
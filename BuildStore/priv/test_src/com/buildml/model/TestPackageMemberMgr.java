@@ -108,6 +108,48 @@ public class TestPackageMemberMgr {
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Test method for {@link com.buildml.model.IPackageMemberMgr#getPackagesOfMembers(int, int[])}.
+	 */
+	@Test
+	public void testGetPackagesOfMembers() {
+		
+		int pkgA = pkgMgr.addPackage("pkgA");
+		int importPkg = pkgMgr.getImportPackage();
+		
+		/* enough files that more than one query is required */
+		int fileIds[] = new int[1200];
+		for (int i = 0; i < fileIds.length; i++) {
+			fileIds[i] = fileMgr.addFile("/dir/file" + i);
+			if ((i % 3) == 0) {
+				assertEquals(ErrorCode.OK, 
+						pkgMemberMgr.setPackageOfMember(IPackageMemberMgr.TYPE_FILE, fileIds[i], pkgA));
+			}
+		}
+		
+		/* the results must match getPackageOfMember(), in the same order */
+		int queryIds[] = new int[fileIds.length + 2];
+		for (int i = 0; i < fileIds.length; i++) {
+			queryIds[i] = fileIds[fileIds.length - 1 - i];
+		}
+		queryIds[fileIds.length] = 12345678;
+		queryIds[fileIds.length + 1] = fileIds[0];
+		PackageDesc results[] = pkgMemberMgr.getPackagesOfMembers(IPackageMemberMgr.TYPE_FILE, queryIds);
+		assertEquals(queryIds.length, results.length);
+		for (int i = 0; i < fileIds.length; i++) {
+			PackageDesc expected = 
+					pkgMemberMgr.getPackageOfMember(IPackageMemberMgr.TYPE_FILE, queryIds[i]);
+			assertEquals(expected.pkgId, results[i].pkgId);
+			assertEquals(expected.pkgScopeId, results[i].pkgScopeId);
+		}
+		assertEquals(importPkg, results[fileIds.length - 2].pkgId);
+		assertNull(results[fileIds.length]);
+		assertEquals(pkgA, results[fileIds.length + 1].pkgId);
+		assertEquals(0, pkgMemberMgr.getPackagesOfMembers(IPackageMemberMgr.TYPE_FILE, new int[0]).length);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * Test method for {@link com.buildml.model.IPackageMemberMgr#parsePkgSpec(String)}.
 	 * @exception Exception Something bad happened
@@ -24,6 +24,8 @@ import com.buildml.model.IReportMgr;
 import com.buildml.model.types.FileRecord;
 import com.buildml.model.types.FileSet;
 import com.buildml.model.types.ActionSet;
+import com.buildml.utils.errors.ErrorCode;
+import com.buildml.utils.types.IIntConsumer;
 
 /**
  * @author "Peter Smith <psmith@arapiki.com>"
@@ -159,7 +161,7 @@ public class TestReportMgr {
 		int numActions = 100;
 		int filesPerAction = 2000;
 		
-		boolean prevState = bs.setFastAccessMode(true);
+		bs.beginBatch();
 		Random r = new Random();
 		
 		/* add a bunch of files */
@@ -175,7 +177,7 @@ public class TestReportMgr {
 				actionMgr.addFileAccess(actionId, r.nextInt(numFiles), OperationType.OP_READ);
 			}
 		}
-		bs.setFastAccessMode(prevState);
+		bs.commitBatch();
 
 		/* now, run a report - we don't care about the results, just the response time */
 		reports.reportMostCommonlyAccessedFiles();
@@ -242,7 +244,7 @@ public class TestReportMgr {
 		int numFiles = 20000;
 		int numIncludes = 200000;
 		
-		boolean prevState = bs.setFastAccessMode(true);
+		bs.beginBatch();
 		Random r = new Random();
 		
 		int file1 = fileMgr.addFile("/file1");
@@ -254,7 +256,7 @@ public class TestReportMgr {
 			fileIncludeMgr.addFileIncludes(r.nextInt(numFiles), file2);
 		}
 		
-		bs.setFastAccessMode(prevState);
+		bs.commitBatch();
 
 		/* now, run a report - we don't care about the results, just the response time */
 		reports.reportMostCommonIncludersOfFile(file1);
@@ -595,6 +597,180 @@ public class TestReportMgr {
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Test reportActionsThatAccessFiles() and reportFilesAccessedByActions() with
+	 * large input sets, which are queried in several batches.
+	 */
+	@Test
+	public void testAccessReportsWithLargeSets() {
+		
+		/* each action reads two files, and writes one file */
+		int root = actionMgr.getRootAction("");
+		FileSet readFiles = new FileSet(fileMgr);
+		FileSet allFiles = new FileSet(fileMgr);
+		ActionSet actions = new ActionSet(actionMgr);
+		bs.beginBatch();
+		for (int i = 0; i != 1200; i++) {
+			int action = actionMgr.addShellCommandAction(root, 0, "");
+			int readFile = fileMgr.addFile("/src/file" + (i / 2) + ".c");
+			int writtenFile = fileMgr.addFile("/obj/file" + i + ".o");
+			actionMgr.addFileAccess(action, readFile, OperationType.OP_READ);
+			actionMgr.addFileAccess(action, fileMgr.addFile("/include/common.h"), OperationType.OP_READ);
+			actionMgr.addFileAccess(action, writtenFile, OperationType.OP_WRITE);
+			readFiles.add(readFile);
+			allFiles.add(readFile);
+			allFiles.add(writtenFile);
+			actions.add(action);
+		}
+		bs.commitBatch();
+		
+		/* all the actions read (and some of them write) these files */
+		assertEquals(1200, reports.reportActionsThatAccessFiles(readFiles, OperationType.OP_READ).size());
+		assertEquals(0, reports.reportActionsThatAccessFiles(readFiles, OperationType.OP_WRITE).size());
+		assertEquals(1200, reports.reportActionsThatAccessFiles(allFiles, OperationType.OP_UNSPECIFIED).size());
+		
+		/* a subset of the files is accessed by a subset of the actions */
+		FileSet someFiles = new FileSet(fileMgr);
+		someFiles.add(fileMgr.getPath("/obj/file3.o"));
+		someFiles.add(fileMgr.getPath("/obj/file1000.o"));
+		ActionSet someActions = reports.reportActionsThatAccessFiles(someFiles, OperationType.OP_WRITE);
+		assertEquals(2, someActions.size());
+		FileSet someWrittenFiles = reports.reportFilesAccessedByActions(someActions, OperationType.OP_WRITE);
+		assertEquals(2, someWrittenFiles.size());
+		for (int fileId : someFiles) {
+			assertTrue(someWrittenFiles.isMember(fileId));
+		}
+		
+		/* the files accessed by all actions */
+		assertEquals(1200, reports.reportFilesAccessedByActions(actions, OperationType.OP_WRITE).size());
+		assertEquals(601, reports.reportFilesAccessedByActions(actions, OperationType.OP_READ).size());
+		assertEquals(1801, reports.reportFilesAccessedByActions(actions, OperationType.OP_UNSPECIFIED).size());
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that the reports that scan the whole database (and may be cached) reflect
+	 * the changes made since they were last computed.
+	 */
+	@Test
+	public void testCachedReports() {
+		
+		int file1 = fileMgr.addFile("/src/file1.c");
+		int file2 = fileMgr.addFile("/src/file2.c");
+		int file3 = fileMgr.addFile("/obj/file3.o");
+		int action1 = actionMgr.addShellCommandAction(rootActionId, 0, "gcc -c file1.c");
+		int action2 = actionMgr.addShellCommandAction(rootActionId, 0, "gcc -c file2.c");
+		actionMgr.addFileAccess(action1, file1, OperationType.OP_READ);
+		actionMgr.addFileAccess(action1, file3, OperationType.OP_WRITE);
+		
+		assertTrue(CommonTestUtils.treeSetEqual(reports.reportFilesNeverAccessed(), new Integer[] { file2 }));
+		assertTrue(CommonTestUtils.treeSetEqual(reports.reportWriteOnlyFiles(), new Integer[] { file3 }));
+		assertEquals(2, reports.reportMostCommonlyAccessedFiles().length);
+		
+		/* modifying a report's result doesn't change the cached result */
+		reports.reportFilesNeverAccessed().add(file1);
+		reports.reportMostCommonlyAccessedFiles()[0].setCount(100);
+		assertTrue(CommonTestUtils.treeSetEqual(reports.reportFilesNeverAccessed(), new Integer[] { file2 }));
+		assertEquals(1, reports.reportMostCommonlyAccessedFiles()[0].getCount());
+		
+		/* new file-accesses */
+		actionMgr.addFileAccess(action2, file2, OperationType.OP_READ);
+		actionMgr.addFileAccess(action2, file3, OperationType.OP_READ);
+		assertEquals(0, reports.reportFilesNeverAccessed().size());
+		assertEquals(0, reports.reportWriteOnlyFiles().size());
+		FileRecord results[] = reports.reportMostCommonlyAccessedFiles();
+		assertEquals(3, results.length);
+		assertEquals(file3, results[0].getId());
+		assertEquals(2, results[0].getCount());
+		assertEquals(file1, results[1].getId());
+		assertEquals(file2, results[2].getId());
+		
+		/* a changed file-access */
+		actionMgr.addFileAccess(action2, file2, OperationType.OP_WRITE);
+		assertTrue(CommonTestUtils.treeSetEqual(reports.reportWriteOnlyFiles(), new Integer[] { }));
+		actionMgr.addFileAccess(action1, file1, OperationType.OP_DELETE);
+		actionMgr.removeFileAccess(action2, file3);
+		assertTrue(CommonTestUtils.treeSetEqual(reports.reportWriteOnlyFiles(), new Integer[] { file3 }));
+		
+		/* removed file-accesses, and new or trashed paths */
+		actionMgr.removeFileAccess(action2, file2);
+		int file4 = fileMgr.addFile("/src/file4.c");
+		assertTrue(CommonTestUtils.treeSetEqual(reports.reportFilesNeverAccessed(), new Integer[] { file2, file4 }));
+		assertEquals(ErrorCode.OK, fileMgr.movePathToTrash(file4));
+		assertTrue(CommonTestUtils.treeSetEqual(reports.reportFilesNeverAccessed(), new Integer[] { file2 }));
+		results = reports.reportMostCommonlyAccessedFiles();
+		assertEquals(2, results.length);
+		assertEquals(file1, results[0].getId());
+		assertEquals(1, results[0].getCount());
+		assertEquals(file3, results[1].getId());
+		
+		/* rolled-back changes */
+		bs.beginBatch();
+		actionMgr.addFileAccess(action2, file2, OperationType.OP_READ);
+		assertEquals(3, reports.reportMostCommonlyAccessedFiles().length);
+		assertEquals(0, reports.reportFilesNeverAccessed().size());
+		bs.rollbackBatch();
+		assertEquals(2, reports.reportMostCommonlyAccessedFiles().length);
+		assertTrue(CommonTestUtils.treeSetEqual(reports.reportFilesNeverAccessed(), new Integer[] { file2 }));
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that the cached reports still return a result if the database changes while
+	 * the report is being computed (in which case the result isn't cached).
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testCachedReportsWithConcurrentChanges() throws Exception {
+		
+		/* an in-memory database, so the changes don't lock out the report queries */
+		bs.close();
+		bs = CommonTestUtils.getEmptyBuildStore(true);
+		fileMgr = bs.getFileMgr();
+		actionMgr = bs.getActionMgr();
+		reports = bs.getReportMgr();
+		rootActionId = actionMgr.getRootAction("root");
+		
+		/* enough file-accesses that each report takes a while to compute */
+		final int action = actionMgr.addShellCommandAction(rootActionId, 0, "gcc -c file.c");
+		final int numSrcFiles = 2000;
+		for (int i = 0; i != numSrcFiles; i++) {
+			actionMgr.addFileAccess(action, fileMgr.addFile("/src/file" + i + ".c"), OperationType.OP_READ);
+		}
+		
+		/* another thread computes the report, while this thread keeps changing the database */
+		final String errors[] = new String[1];
+		Thread reportThread = new Thread() {
+			public void run() {
+				try {
+					for (int i = 0; i != 20; i++) {
+						FileRecord results[] = reports.reportMostCommonlyAccessedFiles();
+						assertNotNull(results);
+						assertTrue(results.length >= numSrcFiles);
+					}
+				} catch (Throwable e) {
+					errors[0] = e.toString();
+				}
+			}
+		};
+		reportThread.start();
+		int fileNum = 0;
+		while (reportThread.isAlive()) {
+			int fileId = fileMgr.addFile("/obj/file" + fileNum++ + ".o");
+			actionMgr.addFileAccess(action, fileId, OperationType.OP_WRITE);
+		}
+		reportThread.join();
+		assertNull(errors[0]);
+		
+		/* once the changes stop, the (now cached) report reflects all of them */
+		assertEquals(numSrcFiles + fileNum, reports.reportMostCommonlyAccessedFiles().length);
+		assertEquals(numSrcFiles + fileNum, reports.reportMostCommonlyAccessedFiles().length);
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * Test method for {@link com.buildml.model.IReportMgr#reportActionsInDirectory(FileSet)}.
 	 */
@@ -760,6 +936,18 @@ public class TestReportMgr {
 		result = reports.reportAllFiles();
 		assertEquals(8, result.size());
 		assertFalse(result.isMember(dirC));
+		
+		/* the streaming variant reports the same paths */
+		final FileSet streamed = new FileSet(fileMgr);
+		reports.reportAllFiles(new IIntConsumer() {
+			@Override
+			public void accept(int value) {
+				streamed.add(value);
+			}
+		});
+		assertEquals(8, streamed.size());
+		streamed.extractSet(result);
+		assertEquals(0, streamed.size());
 	}
 	
 	/*-------------------------------------------------------------------------------------*/		
@@ -23,6 +23,7 @@ import com.buildml.model.IReportMgr;
 import com.buildml.model.types.PackageSet;
 import com.buildml.model.types.FileSet;
 import com.buildml.model.types.ActionSet;
+import com.buildml.utils.errors.ErrorCode;
 
 /**
  * The class contains test cases for some of the methods in the Report class
@@ -348,6 +349,93 @@ public class TestReportMgr2 {
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Test that derived and input file reports reflect changes made to file-accesses
+	 * since the previous report.
+	 */
+	@Test
+	public void testReportDerivedFilesAfterChanges() {
+		
+		FileSet source = new FileSet(fileMgr);
+		source.add(fileAnimalsExe);
+		assertEquals(0, reports.reportDerivedFiles(source, true).size());
+		
+		/* install animals.exe, and check the report sees the new file */
+		int fileInstalledExe = fileMgr.addFile("/usr/bin/animals.exe");
+		int actionInstall = actionMgr.addShellCommandAction(
+				actionMgr.getRootAction(""), fileMgr.getPath("/home"), "cp animals.exe /usr/bin");
+		actionMgr.addFileAccess(actionInstall, fileAnimalsExe, OperationType.OP_READ);
+		actionMgr.addFileAccess(actionInstall, fileInstalledExe, OperationType.OP_WRITE);
+		assertTrue(CommonTestUtils.treeSetEqual(reports.reportDerivedFiles(source, true), 
+				new Integer[] { fileInstalledExe }));
+		source = new FileSet(fileMgr);
+		source.add(fileInstalledExe);
+		assertEquals(15, reports.reportInputFiles(source, true).size());
+		
+		/* removing an access also changes the report */
+		actionMgr.removeFileAccess(actionInstall, fileAnimalsExe);
+		assertEquals(0, reports.reportInputFiles(source, true).size());
+		
+		/* changes that are rolled back are no longer reported */
+		bs.beginBatch();
+		actionMgr.addFileAccess(actionInstall, fileDogA, OperationType.OP_READ);
+		assertEquals(5, reports.reportInputFiles(source, true).size());
+		bs.rollbackBatch();
+		assertEquals(0, reports.reportInputFiles(source, true).size());
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that derived and input file reports give the same results when they're
+	 * computed by multiple threads.
+	 */
+	@Test
+	public void testReportDerivedFilesInParallel() {
+		
+		assertEquals(ErrorCode.BAD_VALUE, reports.setParallelism(0));
+		assertEquals(ErrorCode.OK, reports.setParallelism(4));
+		assertEquals(4, reports.getParallelism());
+
+		/* a wide build, where every source file is compiled, then linked into a program */
+		int rootAction = actionMgr.getRootAction("");
+		FileSet sources = new FileSet(fileMgr);
+		FileSet programs = new FileSet(fileMgr);
+		bs.beginBatch();
+		for (int i = 0; i != 5000; i++) {
+			int fileC = fileMgr.addFile("/wide/prog" + i + ".c");
+			int fileO = fileMgr.addFile("/wide/prog" + i + ".o");
+			int fileExe = fileMgr.addFile("/wide/prog" + i);
+			int actionCompile = actionMgr.addShellCommandAction(rootAction, 0, "gcc -c prog" + i + ".c");
+			actionMgr.addFileAccess(actionCompile, filePetH, OperationType.OP_READ);
+			actionMgr.addFileAccess(actionCompile, fileC, OperationType.OP_READ);
+			actionMgr.addFileAccess(actionCompile, fileO, OperationType.OP_WRITE);
+			int actionLink = actionMgr.addShellCommandAction(rootAction, 0, "gcc -o prog" + i);
+			actionMgr.addFileAccess(actionLink, fileO, OperationType.OP_READ);
+			actionMgr.addFileAccess(actionLink, fileExe, OperationType.OP_WRITE);
+			sources.add(fileC);
+			programs.add(fileExe);
+		}
+		bs.commitBatch();
+		
+		/* compute each report in parallel, then in the calling thread */
+		FileSet pets = new FileSet(fileMgr);
+		pets.add(filePetH);
+		int parallelism[] = { 4, 1 };
+		for (int threads : parallelism) {
+			assertEquals(ErrorCode.OK, reports.setParallelism(threads));
+			assertEquals(10009, reports.reportDerivedFiles(pets, true).size());
+			assertEquals(10000, reports.reportDerivedFiles(sources, true).size());
+			assertEquals(5000, reports.reportDerivedFiles(sources, false).size());
+			FileSet inputs = reports.reportInputFiles(programs, true);
+			assertEquals(10001, inputs.size());
+			assertTrue(inputs.isMember(filePetH));
+			assertEquals(5000, reports.reportInputFiles(programs, false).size());
+		}
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * Test method for {@link com.buildml.model.IReportMgr#reportFilesFromPackageSet}.
 	 */
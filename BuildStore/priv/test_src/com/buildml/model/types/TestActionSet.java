@@ -231,6 +231,50 @@ public class TestActionSet {
 
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Test the maskSet(), extractSet() and complementSet() methods of ActionSet.
+	 */
+	@Test
+	public void testSetAlgebra() {
+
+		/* the universe contains actions 1 to 10 */
+		ActionSet universe = new ActionSet(actionMgr);
+		for (int i = 1; i <= 10; i++) {
+			universe.add(i);
+		}
+		ts.add(2);
+		ts.add(4);
+		ts.add(6);
+		ts.add(8);
+		
+		/* intersection */
+		ActionSet second = new ActionSet(actionMgr);
+		second.add(4);
+		second.add(5);
+		second.add(6);
+		ts.maskSet(second);
+		assertTrue(CommonTestUtils.treeSetEqual(ts, new Integer[] {4, 6}));
+		
+		/* complement within the universe */
+		ts.complementSet(universe);
+		assertTrue(CommonTestUtils.treeSetEqual(ts, new Integer[] {1, 2, 3, 5, 7, 8, 9, 10}));
+		assertEquals(10, universe.size());
+		
+		/* difference */
+		ts.extractSet(second);
+		assertTrue(CommonTestUtils.treeSetEqual(ts, new Integer[] {1, 2, 3, 7, 8, 9, 10}));
+		
+		/* sets belonging to a different ActionMgr are ignored */
+		ActionSet foreign = new ActionSet(null);
+		foreign.add(1);
+		ts.maskSet(foreign);
+		ts.extractSet(foreign);
+		ts.complementSet(foreign);
+		assertEquals(7, ts.size());
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * Test method for {@link com.buildml.model.types.ActionSet#size()}.
 	 */
@@ -27,6 +27,7 @@ import com.buildml.model.IPackageMgr;
 import com.buildml.model.IPackageRootMgr;
 import com.buildml.model.types.FileSet;
 import com.buildml.utils.errors.ErrorCode;
+import com.buildml.utils.types.IIntConsumer;
 
 /**
  * Test methods for validating the FileSet class.
@@ -194,6 +195,37 @@ public class TestFileSet {
 
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Test method for {@link com.buildml.utils.types.IntegerTreeSet#forEachInt(IIntConsumer)}.
+	 */
+	@Test
+	public void testForEachInt() {
+		
+		/* add a bunch of elements, including some at the edges of a byte */
+		fs.add(134);
+		fs.add(256);
+		fs.add(23);
+		fs.add(7);
+		fs.add(8);
+		fs.add(9275);
+		fs.add(3643);
+		fs.add(16777215);
+		fs.remove(3643);
+
+		/* the members are reported in numeric order */
+		final ArrayList<Integer> returnedList = new ArrayList<Integer>();
+		fs.forEachInt(new IIntConsumer() {
+			@Override
+			public void accept(int value) {
+				returnedList.add(value);
+			}
+		});
+		assertArrayEquals(new Integer[] {7, 8, 23, 134, 256, 9275, 16777215}, 
+				returnedList.toArray(new Integer[0]));
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * Test method for {@link com.buildml.model.types.FileSet#populateWithParents()}.
 	 */
@@ -394,6 +426,76 @@ public class TestFileSet {
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Test method for {@link 
+	 * com.buildml.model.types.FileSet#maskSet(com.buildml.utils.types.IntegerTreeSet)}.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testMaskFileSet() throws Exception {
+		FileSet mainFileSet = new FileSet(fileMgr);
+		
+		int file1 = fileMgr.addFile("/apple/banana/carrot/donkey.h");
+		int file2 = fileMgr.addFile("/apple/banana/carrot/elephant.h");
+		int file3 = fileMgr.addFile("/apple/banana/chilly/fish.h");
+		int file4 = fileMgr.addFile("/apple/banana/dragonfruit/goat.h");
+		mainFileSet.add(file1);
+		mainFileSet.add(file2);
+		mainFileSet.add(file3);
+		
+		/* only members that are in both sets remain */
+		FileSet mask = new FileSet(fileMgr);
+		mask.add(file2);
+		mask.add(file3);
+		mask.add(file4);
+		mainFileSet.maskSet(mask);
+		assertEquals(2, mainFileSet.size());
+		assertFalse(mainFileSet.isMember(file1));
+		assertTrue(mainFileSet.isMember(file2));
+		assertTrue(mainFileSet.isMember(file3));
+		assertFalse(mainFileSet.isMember(file4));
+		assertEquals(3, mask.size());
+		
+		/* masking with an empty set leaves nothing */
+		mainFileSet.maskSet(new FileSet(fileMgr));
+		assertEquals(0, mainFileSet.size());
+		assertFalse(mainFileSet.iterator().hasNext());
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test method for {@link 
+	 * com.buildml.model.types.FileSet#complementSet(com.buildml.model.types.FileSet)}.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testComplementFileSet() throws Exception {
+		
+		int file1 = fileMgr.addFile("/apple/banana/carrot/donkey.h");
+		int file2 = fileMgr.addFile("/apple/banana/carrot/elephant.h");
+		int dirCarrot = fileMgr.getPath("/apple/banana/carrot");
+		FileSet universe = bs.getReportMgr().reportAllFiles();
+		
+		/* the complement of a directory's content is everything else */
+		FileSet mainFileSet = new FileSet(fileMgr);
+		mainFileSet.populateWithPaths(new String[] { "/apple/banana/carrot" });
+		assertEquals(3, mainFileSet.size());
+		mainFileSet.complementSet(universe);
+		assertEquals(universe.size() - 3, mainFileSet.size());
+		assertFalse(mainFileSet.isMember(file1));
+		assertFalse(mainFileSet.isMember(file2));
+		assertFalse(mainFileSet.isMember(dirCarrot));
+		assertTrue(mainFileSet.isMember(fileMgr.getPath("/apple")));
+		
+		/* the complement of the complement is the original set */
+		mainFileSet.complementSet(universe);
+		assertTrue(CommonTestUtils.treeSetEqual(mainFileSet, 
+				new Integer[] { file1, file2, dirCarrot }));
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * Test method for {@link com.buildml.model.types.FileSet#populateWithPaths(String[])}.
 	 * @throws Exception Something bad happened
@@ -14,11 +14,13 @@ package com.buildml.model.types;
 
 import static org.junit.Assert.*;
 
+import java.util.HashMap;
+import java.util.Random;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import com.buildml.model.types.PathNameCache;
-import com.buildml.model.types.PathNameCache.PathNameCacheKey;
 import com.buildml.model.types.PathNameCache.PathNameCacheValue;
 
 /**
@@ -47,37 +49,28 @@ public class TestPathNameCache {
 	/*-------------------------------------------------------------------------------------*/
 
 	/**
-	 * Test the basic manipulation of the FileNameCacheKey object type, which is a nested
-	 * class within the FileNameCache class.
+	 * Test that different names with the same hash code (and therefore the same key)
+	 * are treated as separate mappings.
 	 * @throws Exception Something bad happened
 	 */
 	@Test
-	public void testFileNameCacheKey() throws Exception {
+	public void testHashCollision() throws Exception {
 		
-		/* instantiate a bunch of objects */
-		PathNameCacheKey key1 = fnc.new PathNameCacheKey(1, "banana");
-		PathNameCacheKey key2 = fnc.new PathNameCacheKey(1, "peach");
-		PathNameCacheKey key3 = fnc.new PathNameCacheKey(1, "cucumber");
-		PathNameCacheKey key4 = fnc.new PathNameCacheKey(223456, "orange");
-		PathNameCacheKey key5 = fnc.new PathNameCacheKey(1, "cucumber");
+		/* "Aa" and "BB" have the same String hash code */
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		fnc.put(1, "Aa", 100, 1);
+		assertNull(fnc.get(1, "BB"));
+		fnc.put(1, "BB", 101, 2);
+		assertEquals(100, fnc.get(1, "Aa").getChildPathId());
+		assertEquals(101, fnc.get(1, "BB").getChildPathId());
 		
-		/* test the accessors */
-		assertEquals(1, key1.getParentPathId());
-		assertEquals("banana", key1.getChildPathName());
-		assertEquals(223456, key4.getParentPathId());
-		assertEquals("orange", key4.getChildPathName());
-		
-		/* compare various keys for equality - testing our custom-built equals method */
-		assertEquals(key1, key1);
-		assertEquals(key2, key2);
-		assertNotSame(key1, key2);
-		assertNotSame(key2, key3);
-		assertEquals(key3, key5);
-		
-		/* compare hashCode values - testing our custom-built hashCode method */
-		assertEquals(key3.hashCode(), key5.hashCode());
-		assertNotSame(key1.hashCode(), key2.hashCode());
-		assertNotSame(key3.hashCode(), key4.hashCode());
+		/* removing one leaves the other intact */
+		fnc.remove(1, "Aa");
+		assertNull(fnc.get(1, "Aa"));
+		assertEquals(101, fnc.get(1, "BB").getChildPathId());
+		
+		/* the parent ID is also part of the key */
+		assertNull(fnc.get(2, "BB"));
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -178,32 +171,108 @@ public class TestPathNameCache {
 	/*-------------------------------------------------------------------------------------*/
 
 	/**
-	 * Test the maximum size of the cache. Adding the 5th cache entry will cause the
-	 * least recently accessed item to disappear.
+	 * Test the maximum size of the cache. Adding the 6th cache entry will cause an
+	 * item that hasn't been accessed since it was added to disappear.
 	 * @throws Exception Something bad happened
 	 */
 	@Test
 	public void testOverflow() throws Exception {
 		
-		/* add four names, which will max-out the cache */
+		/* add five names, which will max-out the cache */
 		fnc.put(1, "womble", 200, 1);
 		fnc.put(2, "wamble", 202, 2);
 		fnc.put(3, "wimble", 204, 1);
 		fnc.put(4, "wemble", 206, 3);
+		fnc.put(6, "wamble", 210, 3);
 		
-		/* check that they're all there */
-		assertNotNull(fnc.get(3, "wimble"));
+		/* access all but one of them */
 		assertNotNull(fnc.get(1, "womble"));
 		assertNotNull(fnc.get(2, "wamble"));
 		assertNotNull(fnc.get(4, "wemble"));
+		assertNotNull(fnc.get(6, "wamble"));
 
-		/* now add a fifth name, the LRU should disappear, but the others remain */
+		/* now add a sixth name, the unaccessed name should disappear, but the others remain */
 		fnc.put(5, "wumble", 208, 2);
 		assertNotNull(fnc.get(1, "womble"));
 		assertNull(fnc.get(3, "wimble"));
 		assertNotNull(fnc.get(2, "wamble"));
 		assertNotNull(fnc.get(4, "wemble"));
 		assertNotNull(fnc.get(5, "wumble"));
+		assertNotNull(fnc.get(6, "wamble"));
+		assertEquals(1, fnc.getEvictionCount());
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that the hit and miss counters are maintained.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testCounters() throws Exception {
+		
+		assertNull(fnc.get(1, "womble"));
+		fnc.put(1, "womble", 200, 1);
+		assertNotNull(fnc.get(1, "womble"));
+		assertNotNull(fnc.get(1, "womble"));
+		assertNull(fnc.get(1, "wamble"));
+		
+		assertEquals(2, fnc.getHitCount());
+		assertEquals(2, fnc.getMissCount());
+		assertEquals(0, fnc.getEvictionCount());
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test a large (segmented) cache with a random sequence of operations, comparing
+	 * the results against a HashMap.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testRandomAccess() throws Exception {
+		
+		PathNameCache cache = new PathNameCache(10000);
+		HashMap<String, Integer> expected = new HashMap<String, Integer>();
+		Random random = new Random(1);
+		
+		for (int i = 0; i != 100000; i++) {
+			int parentId = random.nextInt(100);
+			String name = "name" + random.nextInt(50);
+			String key = parentId + "/" + name;
+			switch (random.nextInt(3)) {
+			case 0:
+				cache.put(parentId, name, i, 1);
+				expected.put(key, i);
+				break;
+			case 1:
+				cache.remove(parentId, name);
+				expected.remove(key);
+				break;
+			default:
+				PathNameCacheValue value = cache.get(parentId, name);
+				if (expected.containsKey(key)) {
+					assertEquals(expected.get(key).intValue(), value.getChildPathId());
+				} else {
+					assertNull(value);
+				}
+			}
+		}
+		
+		/* once the cache is larger than its maximum size, some mappings are discarded */
+		for (int i = 0; i != 20000; i++) {
+			cache.put(1000 + i, "overflow", i, 1);
+		}
+		assertTrue(cache.getEvictionCount() >= 10000);
+		int found = 0;
+		for (int i = 0; i != 20000; i++) {
+			PathNameCacheValue value = cache.get(1000 + i, "overflow");
+			if (value != null) {
+				assertEquals(i, value.getChildPathId());
+				found++;
+			}
+		}
+		assertTrue((found > 0) && (found <= 10000));
 	}
 
 	/*-------------------------------------------------------------------------------------*/
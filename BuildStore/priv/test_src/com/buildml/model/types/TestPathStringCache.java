@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.model.types;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.buildml.model.IFileMgrListener;
+import com.buildml.model.types.PathStringCache.PathStringCacheEntry;
+
+/**
+ * @author "Arapiki Solutions Inc."
+ *
+ */
+public class TestPathStringCache {
+
+	/**
+	 * The PathStringCache object under test
+	 */
+	PathStringCache psc;
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+
+		/* create a cache with maximum size of 5. The perfect size for testing */
+		psc = new PathStringCache(5);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that path names are constructed from the cached directory entries.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testGetPathName() throws Exception {
+
+		PathStringCacheEntry root = psc.put(0, null, null);
+		PathStringCacheEntry usr = psc.put(1, root, "usr");
+		PathStringCacheEntry include = psc.put(2, usr, "include");
+
+		assertEquals("/usr", PathStringCache.getPathName(root, "usr"));
+		assertEquals("/usr/include", PathStringCache.getPathName(usr, "include"));
+		assertEquals("/usr/include/stdio.h", PathStringCache.getPathName(include, "stdio.h"));
+		assertSame(include, psc.get(2));
+		assertNull(psc.get(3));
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that entries are discarded when the cache is cleared, when the path is
+	 * removed, or when the cache overflows.
+	 * @throws Exception Something bad happened
+	 */
+	@Test
+	public void testRemove() throws Exception {
+
+		PathStringCacheEntry root = psc.put(0, null, null);
+		PathStringCacheEntry usr = psc.put(1, root, "usr");
+		psc.put(2, usr, "include");
+
+		/* new paths make no difference, but removed paths are forgotten */
+		psc.pathChangeNotification(2, IFileMgrListener.NEW_PATH);
+		assertNotNull(psc.get(2));
+		psc.pathChangeNotification(2, IFileMgrListener.PATH_REMOVED);
+		assertNull(psc.get(2));
+
+		/* a child's entry is still valid after its parent's entry is removed */
+		PathStringCacheEntry lib = psc.put(3, usr, "lib");
+		psc.remove(1);
+		assertNull(psc.get(1));
+		assertEquals("/usr/lib/libc.so", PathStringCache.getPathName(lib, "libc.so"));
+
+		/* the least recently accessed entries disappear once the cache fills up */
+		for (int i = 10; i < 15; i++) {
+			psc.put(i, root, "dir" + i);
+		}
+		assertNull(psc.get(0));
+		assertNotNull(psc.get(14));
+
+		psc.clear();
+		assertNull(psc.get(14));
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
@@ -72,31 +72,41 @@ public class FileSystemScanner {
 		/* these need to be final so the callback class (see later) can access them */
 		final IFileMgr fileMgr = buildStore.getFileMgr();
 		
-		/* make the database really fast (turn off auto-commit ). */
-		boolean prevState = buildStore.setFastAccessMode(true);
+		/* make the database really fast (commit all the new files at once). */
+		buildStore.beginBatch();
+		boolean completed = false;
 		
-		/* now traverse the file system */
-		SystemUtils.traverseFileSystem(fileSystemPath, 
-				null, 
-				"CVS|.git", 
-				SystemUtils.REPORT_FILES, 
-				new FileSystemTraverseCallback() {
-					
-					/**
-					 * When a file is located, add it to the BuildStore.
-					 */
-					@Override
-					public void callback(File thisPath) {
-						String pathName = thisPath.toString();
-						if (fileMgr.addFile("@" + rootName + "/" + pathName) == ErrorCode.BAD_PATH){
-							throw new FatalBuildTreeScannerError("Adding file name /" + pathName +
-									" to BuildStore returned an error."); 
+		/* now traverse the file system (if that fails, none of the new files are kept) */
+		try {
+			SystemUtils.traverseFileSystem(fileSystemPath, 
+					null, 
+					"CVS|.git", 
+					SystemUtils.REPORT_FILES, 
+					new FileSystemTraverseCallback() {
+						
+						/**
+						 * When a file is located, add it to the BuildStore.
+						 */
+						@Override
+						public void callback(File thisPath) {
+							String pathName = thisPath.toString();
+							if (fileMgr.addFile("@" + rootName + "/" + pathName) == ErrorCode.BAD_PATH){
+								throw new FatalBuildTreeScannerError("Adding file name /" + pathName +
+										" to BuildStore returned an error."); 
+							}
 						}
-					}
-				});
-		
-		/* now commit everything */
-		buildStore.setFastAccessMode(prevState);
+					});
+			completed = true;
+			
+		} finally {
+			
+			/* now commit everything */
+			if (completed) {
+				buildStore.commitBatch();
+			} else {
+				buildStore.rollbackBatch();
+			}
+		}
 	}
 
 	/*-------------------------------------------------------------------------------------*/
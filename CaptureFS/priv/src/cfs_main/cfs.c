@@ -28,6 +28,8 @@
  *    trace file. If -o is not specified, write the data to "cfs.trace" by default.
  *    -l <log-file> - write debug information to this file. Defaults to "cfs.log".
  *    -d <level> - set the debug verbosity level, default to 0, but can be 0, 1 or 2.
+ *    -u - write the trace file without compression (see trace_file_format.h). This
+ *    is faster for local builds, where the cost of compression outweighs the I/O saved.
  *    -h - displays help information.
  */
 
@@ -41,6 +43,7 @@
 #include <sys/wait.h>
 
 #include "trace_buffer.h"
+#include "trace_file_format.h"
 
 /* functions in other source files */
 extern int traverse_and_trace_source();
@@ -76,6 +79,15 @@ int debug_level = 0;
 /* is cfs executing an interactive shell? */
 int is_interactive_shell = 0;
 
+/* should the trace file be written without compression? (the -u option) */
+int uncompressed_trace = FALSE;
+
+/* the trace file handle, if the trace file is compressed */
+static gzFile trace_file_gz = NULL;
+
+/* the trace file handle, if the trace file is uncompressed */
+static FILE *trace_file_raw = NULL;
+
 /*======================================================================
  * parse_args()
  *
@@ -88,7 +100,7 @@ int is_interactive_shell = 0;
 static char **parse_options(int argc, char *argv[])
 {
 	int opt;
-	while ((opt = getopt(argc, argv, "+hcro:l:d:")) != -1){
+	while ((opt = getopt(argc, argv, "+hcruo:l:d:")) != -1){
 		switch (opt){
 		case 'o':
 			/* -o <trace-file> */
@@ -106,6 +118,10 @@ static char **parse_options(int argc, char *argv[])
 			/* -c - pass the command line argument through a command shell */
 			command_string = TRUE;
 			break;
+		case 'u':
+			/* -u - write an uncompressed trace file */
+			uncompressed_trace = TRUE;
+			break;
 		case 'd':
 			/* -d - set debugging output level. Restrict to 0, 1 or 2 */
 			if (!strcmp(optarg, "0") || !strcmp(optarg, "1") || !strcmp(optarg, "2")){
@@ -119,7 +135,7 @@ static char **parse_options(int argc, char *argv[])
 		case '?':
 		case 'h':
 			fprintf(stderr, "Usage:\n");
-			fprintf(stderr, "    cfs [-h | -o trace-file | -d debug-level | -c] [ command args ...]\n");
+			fprintf(stderr, "    cfs [-h | -o trace-file | -d debug-level | -c | -u] [ command args ...]\n");
 			exit(-1);
 		default:
 			/* ignore */
@@ -173,6 +189,76 @@ static char **parse_options(int argc, char *argv[])
 	}
 }
 
+/*======================================================================
+ * trace_file_open()
+ *
+ * Open the trace file for writing. By default, the trace file is
+ * compressed to keep the output small. If the -u option was given, the
+ * trace file is uncompressed, and starts with a trace_file_header so that
+ * readers can tell the two formats apart. Returns 0 on success, or -1
+ * on failure.
+ *
+ *======================================================================*/
+
+static int trace_file_open()
+{
+	if (!uncompressed_trace) {
+		trace_file_gz = gzopen(trace_file_name, "wb");
+		return (trace_file_gz == NULL) ? -1 : 0;
+	}
+
+	trace_file_raw = fopen(trace_file_name, "wb");
+	if (trace_file_raw == NULL) {
+		return -1;
+	}
+	trace_file_header header;
+	header.tf_magic = TF_MAGIC;
+	header.tf_version = TF_VERSION;
+	if (fwrite(&header, sizeof(header), 1, trace_file_raw) != 1) {
+		return -1;
+	}
+	return 0;
+}
+
+/*======================================================================
+ * trace_file_write()
+ *
+ * Write a piece of the trace buffer's content to the trace file. This is
+ * called by trace_buffer_drain(). For an uncompressed trace file, the data
+ * is preceded by its length. Returns 0 on success, or -1 on failure.
+ *
+ *======================================================================*/
+
+static int trace_file_write(void *ptr, unsigned long size)
+{
+	if (!uncompressed_trace) {
+		return (gzwrite(trace_file_gz, ptr, size) <= 0) ? -1 : 0;
+	}
+
+	unsigned int chunk_size = size;
+	if ((fwrite(&chunk_size, sizeof(chunk_size), 1, trace_file_raw) != 1) ||
+			(fwrite(ptr, size, 1, trace_file_raw) != 1)) {
+		return -1;
+	}
+	return 0;
+}
+
+/*======================================================================
+ * trace_file_close()
+ *
+ * Flush and close the trace file.
+ *
+ *======================================================================*/
+
+static void trace_file_close()
+{
+	if (!uncompressed_trace) {
+		gzclose(trace_file_gz);
+	} else {
+		fclose(trace_file_raw);
+	}
+}
+
 /*======================================================================
  * main
  *
@@ -216,9 +302,8 @@ int main(int argc, char *argv[], char *envp[])
 	 */
 	char **program_args = parse_options(argc, argv);
 
-	/* open the trace output file, using compression to keep the output small */
-	gzFile trace_file_h = gzopen(trace_file_name, "wb");
-	if (!trace_file_h) {
+	/* open the trace output file, by default using compression to keep the output small */
+	if (trace_file_open() != 0) {
 		fprintf(stderr, "Error: unable to create trace file %s: ", trace_file_name);
 		perror("");
 		exit(-1);
@@ -317,45 +402,33 @@ int main(int argc, char *argv[], char *envp[])
 	default:
 		{
 			/*
-			 * Parent - continuously wait until the trace buffer is full, or until
-			 * the child process terminates. When data is available, write it to
-			 * disk and reset the buffer to empty. This loop continues indefinitely
-			 * until the child process terminates.
+			 * Parent - continuously wait until there's trace data in the buffer,
+			 * or until the child process terminates. When data is available, write
+			 * it to disk and release the space in the buffer. This loop continues
+			 * indefinitely until the child process terminates.
 			 */
 			int status;
 			do {
 				/*
-				 * Wait until a child process (a producer) tells us the buffer is
-				 * full. Note that 'status == 0' indicates that the child is still
-				 * alive and is ready to produce more data. If 'status == 1', then
-				 * the child has terminated, and there might be data in the buffer.
-				 * If 'status == -1', something bad happened.
+				 * Wait until there's (potentially) data in the buffer. Note that
+				 * 'status == 0' indicates that the child is still alive and is
+				 * producing more data. If 'status == 1', then the child has terminated,
+				 * and there might be data in the buffer. If 'status == -1', something
+				 * bad happened.
 				 */
-				status = trace_buffer_wait_until_full();
+				status = trace_buffer_wait_for_data();
 				if (status == -1) {
 					perror("Fatal error while waiting for trace buffer data.");
 					exit(-1);
 				}
 
 				/*
-				 * Find out how much data is in the buffer, then write it to disk.
-				 * This step could happen, regardless of whether the child is still
-				 * alive, or not.
+				 * Write all the committed data to disk, releasing the space for the
+				 * producers to reuse. This step could happen, regardless of whether
+				 * the child is still alive, or not.
 				 */
-				void *ptr;
-				unsigned long size;
-				trace_buffer_fetch(&ptr, &size);
-				if (size != 0) {
-					if (gzwrite(trace_file_h, ptr, size) <= 0){
-						perror("Fatal error while writing trace data to file");
-						exit(-1);
-					}
-				}
-
-				/* empty the buffer and signal the child to continue */
-				trace_buffer_empty_content();
-				if (trace_buffer_mark_full(FALSE) != 0){
-					perror("Fatal error while restart child process after writing data to disk.");
+				if (trace_buffer_drain(trace_file_write) != 0){
+					perror("Fatal error while writing trace data to file");
 					exit(-1);
 				}
 
@@ -369,18 +442,34 @@ int main(int argc, char *argv[], char *envp[])
 	int exitStatus;
 	wait(&exitStatus);
 
+	/*
+	 * If a traced process died while writing a trace record, some of the trace data
+	 * will have been discarded (see trace_buffer.h). The trace file can't be trusted,
+	 * so the build must fail.
+	 */
+	int trace_incomplete = (trace_buffer_count_abandoned_lanes() > 0);
+	if (trace_incomplete) {
+		fprintf(stderr, "Error: a traced process died while writing trace data, "
+				"so the trace file is incomplete.\n");
+	}
+
 	/* we're done - the child has terminated, and the resources should be deallocated. */
 	if (is_interactive_shell) {
 		printf("CaptureFS terminated\n");
 	}
-	gzclose(trace_file_h);
+	trace_file_close();
 
 	if (trace_buffer_delete() != 0){
 		perror("Fatal error removing the trace buffer");
 		exit(-1);
 	}
 
-	/* we'll exit with the exact same return code our child returned */
+	/* the trace data is missing, so report an error */
+	if (trace_incomplete) {
+		exit(-1);
+	}
+
+	/* otherwise, we'll exit with the exact same return code our child returned */
 	return WEXITSTATUS(exitStatus);
 }
 
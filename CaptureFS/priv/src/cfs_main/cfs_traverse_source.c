@@ -41,9 +41,14 @@ static int process_file(const char *fpath, const struct stat *sb, int typeflag)
 {
 	switch (typeflag) {
 	case FTW_F:
+		if (trace_buffer_begin_record() != 0){
+			fprintf(stderr, "Error: unable to write to the trace buffer.\n");
+			exit(-1);
+		}
 		trace_buffer_write_byte(TRACE_FILE_REGISTER);
 		trace_buffer_write_int(0);
 		trace_buffer_write_string(fpath);
+		trace_buffer_end_record();
 		break;
 	default:
 		;
@@ -66,23 +71,12 @@ int traverse_and_trace_source()
 		exit(-1);
 	}
 
-	/* acquire the trace buffer lock */
-	if (trace_buffer_lock() != 0){
-		fprintf(stderr, "Error: unable to obtain trace buffer lock.\n");
-		exit(-1);
-	}
-
 	/*
 	 * Walk the current subtree and call process_file() for each file/dir.
 	 * Use no more than 20 file descriptors.
 	 */
 	ftw(cwd, process_file, 20);
 
-	if (trace_buffer_unlock() != 0){
-		fprintf(stderr, "Error: unable to release the trace buffer lock.\n");
-		exit(-1);
-	}
-
 	return 0;
 }
 
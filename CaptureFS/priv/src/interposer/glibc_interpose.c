@@ -228,7 +228,7 @@ void _cfs_init_interposer()
 	 * Allocate a process number for this newly started process. This process
 	 * number is added to each trace message.
 	 */
-	if (trace_buffer_lock() == 0){
+	if (trace_buffer_begin_record() == 0){
 		_cfs_my_process_number = trace_buffer_next_process_number();
 
 		/* trace the argv and envp arrays */
@@ -238,7 +238,7 @@ void _cfs_init_interposer()
 		trace_buffer_write_string(_cfs_get_cwd(TRUE));
 		trace_buffer_write_int(argv_count);
 		trace_buffer_write_bytes(argv_and_envp, argv_size + envp_size + 1);
-		trace_buffer_unlock();
+		trace_buffer_end_record();
 	}
 
 	// TODO: should there be an else here?
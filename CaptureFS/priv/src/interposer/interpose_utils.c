@@ -50,6 +50,37 @@ static int _cfs_debug_level;
 
 static char *_cfs_log_file_name = DEFAULT_LOG_FILE_NAME;
 
+/*
+ * Each process keeps a table of the paths it has traced. Each path is assigned a
+ * path number (see TRACE_PATH_DEFINE), so that later trace records can refer to the
+ * path by number. The table also records which operations have already been traced
+ * for each path, so that repeated accesses (such as a compiler repeatedly opening the
+ * same header file) aren't traced more than once.
+ */
+typedef struct path_entry {
+	char *pe_path;				/* the absolute path name, or NULL for an empty slot */
+	unsigned int pe_hash;		/* the hash value of pe_path */
+	int pe_number;				/* the path number, as defined by TRACE_PATH_DEFINE */
+	unsigned int pe_traced;		/* bit mask (1 << tag) of the operations already traced */
+	int pe_generation;			/* the delete generation that pe_traced is valid for */
+} path_entry;
+
+/* The path table (an open-addressing hash table), and the number of slots in use */
+static path_entry *_cfs_path_table = NULL;
+static unsigned int _cfs_path_table_size = 0;
+static unsigned int _cfs_path_table_count = 0;
+
+/*
+ * The path table can be accessed by multiple threads, so it's protected by a lock.
+ * If the lock isn't available (for example, a signal handler interrupted a thread that
+ * was holding it), the path is traced in full, rather than waiting for the lock.
+ */
+static volatile int _cfs_path_table_lock = 0;
+
+/* The initial, and maximum, number of slots in the path table (must be powers of two) */
+#define PATH_TABLE_INITIAL_SIZE		1024
+#define PATH_TABLE_MAX_SIZE			65536
+
 /*======================================================================
  * _cfs_get_cwd
  *
@@ -316,6 +347,208 @@ int _cfs_is_system_path(const char *pathname)
 		(strncmp(pathname, "/sys/", 5) == 0));
 }
 
+/*======================================================================
+ * Helper - _cfs_hash_path(const char *path)
+ *
+ * Compute the hash value of a path name, for use in the path table.
+ *
+ *======================================================================*/
+
+static unsigned int _cfs_hash_path(const char *path)
+{
+	unsigned int hash = 0;
+	while (*path) {
+		hash = (31 * hash) + (unsigned char)*path++;
+	}
+	return hash ^ (hash >> 16);
+}
+
+/*======================================================================
+ * Helper - _cfs_find_path_slot(const char *path, unsigned int hash)
+ *
+ * Search the path table for the specified path. Return the path's slot,
+ * or the empty slot where the path should be added.
+ *
+ *======================================================================*/
+
+static path_entry *_cfs_find_path_slot(const char *path, unsigned int hash)
+{
+	unsigned int mask = _cfs_path_table_size - 1;
+	unsigned int slot = hash & mask;
+
+	while (_cfs_path_table[slot].pe_path != NULL) {
+		if ((_cfs_path_table[slot].pe_hash == hash) &&
+				(strcmp(_cfs_path_table[slot].pe_path, path) == 0)) {
+			break;
+		}
+		slot = (slot + 1) & mask;
+	}
+	return &_cfs_path_table[slot];
+}
+
+/*======================================================================
+ * Helper - _cfs_grow_path_table()
+ *
+ * Make sure the path table has room for at least one more path,
+ * doubling its size if necessary. Return 0 on success, or -1 if the
+ * table can't grow any further.
+ *
+ *======================================================================*/
+
+static int _cfs_grow_path_table()
+{
+	unsigned int new_size;
+
+	if (_cfs_path_table == NULL) {
+		new_size = PATH_TABLE_INITIAL_SIZE;
+	} else if ((_cfs_path_table_count + 1) * 2 <= _cfs_path_table_size) {
+		return 0;
+	} else if (_cfs_path_table_size == PATH_TABLE_MAX_SIZE) {
+		return -1;
+	} else {
+		new_size = _cfs_path_table_size * 2;
+	}
+
+	path_entry *new_table = calloc(new_size, sizeof(path_entry));
+	if (new_table == NULL) {
+		return -1;
+	}
+
+	/* move the existing paths into the new table */
+	path_entry *old_table = _cfs_path_table;
+	unsigned int old_size = _cfs_path_table_size;
+	_cfs_path_table = new_table;
+	_cfs_path_table_size = new_size;
+
+	unsigned int i;
+	for (i = 0; i != old_size; i++) {
+		if (old_table[i].pe_path != NULL) {
+			*_cfs_find_path_slot(old_table[i].pe_path, old_table[i].pe_hash) = old_table[i];
+		}
+	}
+	free(old_table);
+	return 0;
+}
+
+/*======================================================================
+ * Helper - _cfs_lookup_path(const char *path, unsigned int hash)
+ *
+ * Look up a path (with the specified hash value) in the path table. If the path hasn't been seen
+ * before, a new path number is allocated, and a TRACE_PATH_DEFINE
+ * record is written to the trace buffer. Return the path's entry, or
+ * NULL if the path couldn't be added (in which case the path should
+ * be traced by name). The path table lock must be held.
+ *
+ *======================================================================*/
+
+static path_entry *_cfs_lookup_path(const char *path, unsigned int hash)
+{
+	if (_cfs_grow_path_table() != 0) {
+		if (_cfs_path_table == NULL) {
+			return NULL;
+		}
+		/* the table is full, but existing paths can still be found */
+	}
+
+	path_entry *entry = _cfs_find_path_slot(path, hash);
+	if (entry->pe_path != NULL) {
+		return entry;
+	}
+
+	/* we need an empty slot to add the path */
+	if ((_cfs_path_table_count + 1) * 2 > _cfs_path_table_size) {
+		return NULL;
+	}
+
+	/* allocate a path number and tell the trace buffer what it means */
+	char *path_copy = strdup(path);
+	if (path_copy == NULL) {
+		return NULL;
+	}
+	int number = trace_buffer_next_path_number();
+	if ((number == -1) || (trace_buffer_begin_record() != 0)) {
+		free(path_copy);
+		return NULL;
+	}
+	trace_buffer_write_byte(TRACE_PATH_DEFINE);
+	trace_buffer_write_int(_cfs_my_process_number);
+	trace_buffer_write_int(number);
+	trace_buffer_write_string(path);
+	if (trace_buffer_end_record() != 0) {
+		free(path_copy);
+		return NULL;
+	}
+
+	entry->pe_path = path_copy;
+	entry->pe_hash = hash;
+	entry->pe_number = number;
+	entry->pe_traced = 0;
+	entry->pe_generation = trace_buffer_get_delete_generation(hash);
+	_cfs_path_table_count++;
+	return entry;
+}
+
+/*======================================================================
+ * _cfs_trace_path()
+ *
+ * Write a trace record, stating that the current process has accessed
+ * a path. If the process has already traced the same operation on the
+ * same path, nothing is written. Note that once a path is deleted (by
+ * any process), all operations on that path must be traced again, since
+ * the delete changes the meaning of a later access.
+ *
+ * - tag  - the trace record's tag, such as TRACE_FILE_READ.
+ * - path - the absolute (normalized) path name.
+ *======================================================================*/
+
+static void
+_cfs_trace_path(int tag, const char *path)
+{
+	int is_delete = (tag == TRACE_FILE_DELETE) || (tag == TRACE_DIR_DELETE);
+	int number = -1;
+
+	unsigned int hash = _cfs_hash_path(path);
+	if (is_delete) {
+		trace_buffer_note_delete(hash);
+	}
+
+	if (__sync_lock_test_and_set(&_cfs_path_table_lock, 1) == 0) {
+		path_entry *entry = _cfs_lookup_path(path, hash);
+		if (entry != NULL) {
+
+			/* forget about earlier operations, if there's been a delete since then */
+			int generation = trace_buffer_get_delete_generation(hash);
+			if (entry->pe_generation != generation) {
+				entry->pe_traced = 0;
+				entry->pe_generation = generation;
+			}
+
+			/* if this operation has already been traced, there's nothing to do */
+			if (!is_delete && (entry->pe_traced & (1 << tag))) {
+				__sync_lock_release(&_cfs_path_table_lock);
+				return;
+			}
+			entry->pe_traced |= (1 << tag);
+			number = entry->pe_number;
+		}
+		__sync_lock_release(&_cfs_path_table_lock);
+	}
+
+	/* write the record, referring to the path by number if possible */
+	if (trace_buffer_begin_record() == 0){
+		if (number != -1) {
+			trace_buffer_write_byte(tag | TRACE_BY_PATH_NUMBER);
+			trace_buffer_write_int(_cfs_my_process_number);
+			trace_buffer_write_int(number);
+		} else {
+			trace_buffer_write_byte(tag);
+			trace_buffer_write_int(_cfs_my_process_number);
+			trace_buffer_write_string(path);
+		}
+		trace_buffer_end_record();
+	}
+}
+
 /*======================================================================
  * _cfs_open_common()
  *
@@ -354,18 +587,13 @@ _cfs_open_common(const char *filename, int flags, int normalize)
 	/* determine if we're opening a directory */
 	int isdir = _cfs_isdirectory(new_path);
 
-	/* if there's a trace buffer, write the file name to it */
-	if (trace_buffer_lock() == 0){
-		if ((flags & (O_APPEND|O_CREAT)) || ((flags & O_ACCMODE) == O_WRONLY)) {
-			trace_buffer_write_byte(isdir ? TRACE_DIR_WRITE : TRACE_FILE_WRITE);
-		} else if ((flags & O_ACCMODE) == O_RDWR) {
-			trace_buffer_write_byte(isdir ? TRACE_DIR_MODIFY : TRACE_FILE_MODIFY);
-		} else {
-			trace_buffer_write_byte(isdir ? TRACE_DIR_READ : TRACE_FILE_READ);
-		}
-		trace_buffer_write_int(_cfs_my_process_number);
-		trace_buffer_write_string(new_path);
-		trace_buffer_unlock();
+	/* write the file name to the trace buffer */
+	if ((flags & (O_APPEND|O_CREAT)) || ((flags & O_ACCMODE) == O_WRONLY)) {
+		_cfs_trace_path(isdir ? TRACE_DIR_WRITE : TRACE_FILE_WRITE, new_path);
+	} else if ((flags & O_ACCMODE) == O_RDWR) {
+		_cfs_trace_path(isdir ? TRACE_DIR_MODIFY : TRACE_FILE_MODIFY, new_path);
+	} else {
+		_cfs_trace_path(isdir ? TRACE_DIR_READ : TRACE_FILE_READ, new_path);
 	}
 	errno = tmp_errno;					/* restore original errno value */
 
@@ -398,13 +626,8 @@ _cfs_delete_common(const char *filename, int is_dir)
 		return 0;
 	}
 
-	/* if there's a trace buffer, write the file name to it */
-	if (trace_buffer_lock() == 0){
-		trace_buffer_write_byte(is_dir ? TRACE_DIR_DELETE : TRACE_FILE_DELETE);
-		trace_buffer_write_int(_cfs_my_process_number);
-		trace_buffer_write_string(new_path);
-		trace_buffer_unlock();
-	}
+	/* write the file name to the trace buffer */
+	_cfs_trace_path(is_dir ? TRACE_DIR_DELETE : TRACE_FILE_DELETE, new_path);
 	errno = tmp_errno;					/* restore original errno value */
 
 	/* all is good */
@@ -686,29 +909,21 @@ _cfs_fopen_common(const char *filename, const char *opentype)
 	int isdir = _cfs_isdirectory(new_path);
 
 	/*
-	 * Grab a lock on the trace buffer. If it hasn't been initialized yet,
-	 * just return and don't trace anything.
+	 * for 'r' and 'rb' modes, the operation is a read, for "r+" and "rb+",
+	 * or "r+b" it's modify, else it's a write. Note that GNU C supports
+	 * non-standard flags, such as "c", "m", "e" and "x". We should ignore
+	 * all of these. If the trace buffer hasn't been initialized yet, nothing
+	 * is traced.
 	 */
-	if (trace_buffer_lock() == 0){
-		/*
-		 * for 'r' and 'rb' modes, the operation is a read, for "r+" and "rb+",
-		 * or "r+b" it's modify, else it's a write. Note that GNU C supports
-		 * non-standard flags, such as "c", "m", "e" and "x". We should ignore
-		 * all of these.
-		 */
-		if ((strstr(opentype, "r+") != NULL) ||
-			(strstr(opentype, "rb+") != NULL) ||
-			(strstr(opentype, "r+b") != NULL)) {
-				trace_buffer_write_byte(isdir ? TRACE_DIR_MODIFY : TRACE_FILE_MODIFY);
-		} else if ((strstr(opentype, "r") != NULL) ||
-			       (strstr(opentype, "rb") != NULL)){
-				trace_buffer_write_byte(isdir ? TRACE_DIR_READ : TRACE_FILE_READ);
-		} else {
-			trace_buffer_write_byte(isdir ? TRACE_DIR_WRITE : TRACE_FILE_WRITE);
-		}
-		trace_buffer_write_int(_cfs_my_process_number);
-		trace_buffer_write_string(new_path);
-		trace_buffer_unlock();
+	if ((strstr(opentype, "r+") != NULL) ||
+		(strstr(opentype, "rb+") != NULL) ||
+		(strstr(opentype, "r+b") != NULL)) {
+			_cfs_trace_path(isdir ? TRACE_DIR_MODIFY : TRACE_FILE_MODIFY, new_path);
+	} else if ((strstr(opentype, "r") != NULL) ||
+		       (strstr(opentype, "rb") != NULL)){
+			_cfs_trace_path(isdir ? TRACE_DIR_READ : TRACE_FILE_READ, new_path);
+	} else {
+		_cfs_trace_path(isdir ? TRACE_DIR_WRITE : TRACE_FILE_WRITE, new_path);
 	}
 	errno = tmp_errno;
 	return 0;
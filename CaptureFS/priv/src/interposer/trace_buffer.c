@@ -17,7 +17,7 @@
  * There can be multiple producers that write into a shared in-memory buffer (implemented
  * as a Linux shared-memory segment), but only one consumer. Each of the producers
  * writes trace data into the trace buffer, whereas the consumer periodically saves the
- * buffer content to a disk file, then resets the buffer so that more data can be written
+ * buffer content to a disk file, releasing the space so that more data can be written
  * to it.
  *
  * It would normally be the parent process (cfs) that creates the trace buffer, then passes
@@ -25,8 +25,11 @@
  * they use the definition of CFS_ID to determine which Linux shared memory segment to attach
  * to.
  *
- * To control access to the trace buffer, a couple of Linux semaphores are used. For more
- * information on the structure of the trace buffer, see trace_buffer.h.
+ * Producers don't lock the trace buffer. Instead, each trace record is assembled in a
+ * per-thread staging area (between calls to trace_buffer_begin_record() and
+ * trace_buffer_end_record()), then copied into one of the trace buffer's lanes using
+ * atomic operations. For more information on the structure of the trace buffer, see
+ * trace_buffer.h.
  */
 
 #include <errno.h>
@@ -34,13 +37,17 @@
 #include <stdlib.h>
 #include <string.h>
 #include <signal.h>
+#include <sched.h>
 #include <unistd.h>
+#include <fcntl.h>
 #include <sys/ipc.h>
 #include <sys/types.h>
 #include <sys/sem.h>
 #include <sys/shm.h>
+#include <sys/syscall.h>
 
 #include "trace_buffer.h"
+#include "trace_file_format.h"
 
 /*
  * If there's a trace buffer attached to the current process, these variables
@@ -52,6 +59,39 @@
 trace_buffer_id our_trace_buffer_id = -1;
 trace_buffer_header *trace_buffer = NULL;
 
+/*
+ * The lane that this process writes its trace records into. This is lane 0 until
+ * the process is allocated a process number.
+ */
+static int our_lane = 0;
+
+/*
+ * Each thread assembles its current trace record in a private staging area, before
+ * copying the complete record into the trace buffer. The staging area grows as necessary.
+ */
+static __thread char *record_buf = NULL;
+static __thread unsigned long record_size = 0;
+static __thread unsigned long record_capacity = 0;
+static __thread int record_active = FALSE;
+
+/* The number of microseconds the consumer sleeps for, while waiting for trace data */
+#define TB_CONSUMER_POLL_USEC	2000
+
+/* A waiting producer yields the CPU this many times, before it starts sleeping instead */
+#define TB_PRODUCER_SPINS		100
+
+/* The number of microseconds a producer sleeps for, while waiting for progress in its lane */
+#define TB_PRODUCER_WAIT_USEC	100
+
+/*
+ * While a producer is waiting on an uncommitted reservation, it checks whether the
+ * reservation's owner has died each time it has slept this many times.
+ */
+#define TB_OWNER_CHECK_SLEEPS	100
+
+/* If any lane contains this much undrained data, the consumer shouldn't sleep */
+#define TB_DRAIN_THRESHOLD		(TB_LANE_SIZE / 2)
+
 /*======================================================================
  * sigchild_handler
  *
@@ -93,28 +133,12 @@ trace_buffer_id trace_buffer_create(void)
 		goto error;
 	}
 
-	/* allocate a new set of semaphores for controlling access to the buffer */
+	/* allocate a new set of semaphores for controlling access to the log file */
 	sem_id = semget(IPC_PRIVATE, TB_SEM_MAX, IPC_CREAT|0600);
 	if (sem_id == -1) {
 		goto error;
 	}
 
-	/*
-	 * Initialize the TB_SEM_MASTER semaphore to 1, meaning that only one process can be
-	 * using the trace buffer at one time. As a process is accessing the trace buffer,
-	 * this semaphore is set to 0. If it's already 0, the process must block until it
-	 * returns to value 1.
-	 */
-	semctl(sem_id, TB_SEM_MASTER, SETVAL, 1);
-
-	/*
-	 * Initialize the TB_SEM_FULL semaphore to 1 to indicate that it's not yet full
-	 * and the consumer process should block until it is. If this semaphore is 0,
-	 * this indicates that the consumer is currently writing data to the disk and
-	 * the producer processes should block.
-	 */
-	semctl(sem_id, TB_SEM_FULL, SETVAL, 1);
-
 	/*
 	 * Initialize the TB_SEM_LOG_FILE semaphore to 1, meaning that only one process can
 	 * be writing to the log file at one time. The avoids have different processes
@@ -144,19 +168,39 @@ trace_buffer_id trace_buffer_create(void)
 
 	/* initialize the header of the newly created trace buffer */
 	trace_buffer->tb_magic = TB_MAGIC;        /* for identification purposes */
-	trace_buffer->tb_size = 0;                /* current no data has been written to it */
 	trace_buffer->tb_sem_id = sem_id;         /* the ID of our semaphore set */
 	trace_buffer->tb_creator_pid = getpid(); /* the PID of the process that created the buffer */
 	trace_buffer->tb_process_number = 1;	  /* each new process must have a unique process number */
+	trace_buffer->tb_path_number = 0;	  /* path numbers are unique across all processes */
+
+	/* no paths have been deleted yet */
+	int i;
+	for (i = 0; i != TB_DELETE_BUCKETS; i++) {
+		trace_buffer->tb_delete_generations[i] = 0;
+	}
+
+	/* currently no data has been written to any of the lanes */
+	for (i = 0; i != TB_NUM_LANES; i++) {
+		trace_buffer->tb_lanes[i].tl_reserved = 0;
+		trace_buffer->tb_lanes[i].tl_committed = 0;
+		trace_buffer->tb_lanes[i].tl_consumed = 0;
+		trace_buffer->tb_lanes[i].tl_abandoned = FALSE;
+
+		int j;
+		for (j = 0; j != TB_LANE_PRODUCERS; j++) {
+			trace_buffer->tb_lanes[i].tl_producers[j].tp_pid = 0;
+			trace_buffer->tb_lanes[i].tl_producers[j].tp_pos = TB_POS_UNKNOWN;
+		}
+	}
 
 	/* remember the shared memory ID for later */
 	our_trace_buffer_id = shm_id;
 
 	/*
-	 * Make sure we catch SIGCHLD so that trace_buffer_wait_until_full() will
-	 * unblock if the child process dies while the parent is waiting. We also
+	 * Make sure we catch SIGCHLD so that trace_buffer_wait_for_data() will
+	 * notice if the child process dies while the parent is waiting. We also
 	 * set the child_terminated variable inside sigchild_handler() just in
-	 * case the child dies immediately before trace_buffer_wait_until_full()
+	 * case the child dies immediately before trace_buffer_wait_for_data()
 	 * is called.
 	 */
 	signal(SIGCHLD, sigchild_handler);
@@ -173,7 +217,7 @@ error:
 		shmctl(shm_id, IPC_RMID, NULL);
 	}
 	if (sem_id != -1) {
-
+		semctl(sem_id, 0, IPC_RMID, 0);
 	}
 	if (trace_buffer != NULL) {
 		shmdt(trace_buffer);
@@ -254,41 +298,24 @@ int trace_buffer_delete(void)
 }
 
 /*======================================================================
- * trace_buffer_empty_content()
- *
- * This function empties the content of the trace buffer. This would
- * typically be called by the consumer once the content had been
- * written to disk.
- *======================================================================*/
-
-void trace_buffer_empty_content()
-{
-	/* only empty the content, if there's a trace buffer attached */
-	if (our_trace_buffer_id != -1){
-		trace_buffer->tb_size = 0;
-	}
-}
-
-/*======================================================================
- * trace_buffer_fetch()
+ * trace_buffer_begin_record()
  *
- * Fetch the content of the trace buffer. This function takes two
- * reference parameters (base_ptr and size_ptr) which upon return
- * will contain the memory address of the trace buffer data, and the
- * number of bytes of data provided. Unless the caller has the buffer
- * locked, these values will quickly become meaningless if producers
- * are still writing into the buffer.
+ * Start assembling a new trace record. The record's content is provided
+ * by calling the trace_buffer_write_*() functions, and the record is
+ * added to the trace buffer by trace_buffer_end_record().
  *
- * Return 0 on success or -1 to indicate failure.
+ * Return 0 on success, or -1 if there's no trace buffer.
  *======================================================================*/
 
-int trace_buffer_fetch(void **base_ptr, unsigned long *size_ptr)
+int trace_buffer_begin_record(void)
 {
+	/* if there's no trace buffer, return -1 */
 	if (our_trace_buffer_id == -1){
 		return -1;
 	}
-	*base_ptr = trace_buffer + 1; /* skip over the header struct */
-	*size_ptr = trace_buffer->tb_size;
+
+	record_size = 0;
+	record_active = TRUE;
 	return 0;
 }
 
@@ -296,41 +323,38 @@ int trace_buffer_fetch(void **base_ptr, unsigned long *size_ptr)
  * trace_buffer_get_pos()
  *
  * This internal function is used as a helper by a number of functions
- * that write to the trace buffer. The goal is to make sure there's
- * enough room in the trace buffer to write the new data, as well as to
- * figure out where the data should be written. If there's not enough
- * data, this function signals the consumer process to write the
- * existing data to disk. When a child process calls this function, they
- * may block for a period of time.
+ * that write to the current trace record. The goal is to make sure
+ * there's enough room in this thread's staging area to write the new
+ * data, as well as to figure out where the data should be written.
  *
  * Returns the memory address where the new data can be written. If an
  * error occurs, NULL is returned.
  *======================================================================*/
 
-static char *trace_buffer_get_pos(int size)
+static char *trace_buffer_get_pos(unsigned long size)
 {
-	/*
-	 * Will the new bytes we're about to write cause a buffer overflow?
-	 * If so, block this thread until the consumer can empty the buffer
-	 * again.
-	 */
-	if (trace_buffer->tb_size + sizeof(trace_buffer_header) + size
-			>= TRACE_BUFFER_SIZE){
-		if (trace_buffer_mark_full(TRUE) != 0) {
+	/* we must be assembling a record */
+	if (!record_active) {
+		return NULL;
+	}
+
+	/* grow the staging area, if the new data won't fit */
+	if (record_size + size > record_capacity) {
+		unsigned long new_capacity = (record_capacity == 0) ? 4096 : record_capacity;
+		while (new_capacity < record_size + size) {
+			new_capacity *= 2;
+		}
+		char *new_buf = realloc(record_buf, new_capacity);
+		if (!new_buf) {
 			return NULL;
 		}
-		/*
-		 * when we get here, the consumer has emptied the buffer and
-		 * trace_buffer->tb_size is now 0.
-		 */
+		record_buf = new_buf;
+		record_capacity = new_capacity;
 	}
 
-	/* compute where the new data should be written */
-	char *new_base = (char *)trace_buffer + sizeof(trace_buffer_header)
-			+ trace_buffer->tb_size;
-
-	/* increment the buffer size, now that we have room for the new data */
-	trace_buffer->tb_size += size;
+	/* compute where the new data should be written, and increment the record size */
+	char *new_base = record_buf + record_size;
+	record_size += size;
 	return new_base;
 }
 
@@ -427,6 +451,295 @@ int trace_buffer_write_byte(char value)
 	return 0;
 }
 
+/*======================================================================
+ * trace_buffer_process_died()
+ *
+ * This internal function determines whether the process with the
+ * specified PID has died. A process that has exited, but hasn't yet
+ * been reaped by its parent (a zombie) is also considered to have
+ * died. Return TRUE if the process has definitely died, or FALSE if
+ * it's still running (or stopped), or if we can't tell.
+ *======================================================================*/
+
+static int trace_buffer_process_died(int pid)
+{
+	int saved_errno = errno;
+	int died = FALSE;
+
+	/* a signal number of 0 only checks whether the process exists */
+	if (kill(pid, 0) == -1) {
+		died = (errno == ESRCH);
+	}
+
+	/*
+	 * Otherwise, check whether the process is a zombie. The state is in /proc/<pid>/stat,
+	 * directly after the command name (which is in parentheses). We use raw system calls,
+	 * since the library versions of open() and read() are interposed.
+	 */
+	else {
+		char path[32], stat[128];
+		snprintf(path, sizeof(path), "/proc/%d/stat", pid);
+		int fd = syscall(SYS_openat, AT_FDCWD, path, O_RDONLY);
+		if (fd != -1) {
+			long len = syscall(SYS_read, fd, stat, sizeof(stat) - 1);
+			syscall(SYS_close, fd);
+			if (len > 0) {
+				stat[len] = '\0';
+				char *state = strrchr(stat, ')');
+				died = (state != NULL) && (state[1] == ' ') &&
+						((state[2] == 'Z') || (state[2] == 'X'));
+			}
+		}
+	}
+
+	errno = saved_errno;
+	return died;
+}
+
+/*======================================================================
+ * trace_buffer_owner_died()
+ *
+ * This internal function is used by a producer that's waiting on an
+ * uncommitted reservation in the specified lane. It uses the lane's
+ * producer slots to find the process that owns the reservation (the
+ * one starting at the lane's "committed" counter), and determines
+ * whether that process has died.
+ *
+ * Note that the owner may have died after reserving space, but before
+ * recording the reservation's position in its slot. In that case, the
+ * owner's slot is the only one with an unknown position that belongs
+ * to a dead process (all live producers eventually record their
+ * position).
+ *
+ * Return TRUE if the owner has definitely died (so the reservation will
+ * never be committed), or FALSE otherwise.
+ *======================================================================*/
+
+static int trace_buffer_owner_died(trace_buffer_lane *lane)
+{
+	unsigned long committed = lane->tl_committed;
+	if (committed == lane->tl_reserved) {
+		return FALSE;
+	}
+
+	int i, found_dead = FALSE;
+	for (i = 0; i != TB_LANE_PRODUCERS; i++) {
+		trace_buffer_producer *slot = &lane->tl_producers[i];
+		int pid = slot->tp_pid;
+		unsigned long pos = slot->tp_pos;
+		if ((pid == 0) || (slot->tp_pid != pid)) {
+			continue;
+		}
+
+		/* is this the owner of the reservation? */
+		if (pos == committed) {
+			found_dead = trace_buffer_process_died(pid);
+			break;
+		}
+
+		/* a live process that hasn't recorded its position yet may be the owner */
+		if (pos == TB_POS_UNKNOWN) {
+			if (!trace_buffer_process_died(pid)) {
+				return FALSE;
+			}
+			found_dead = TRUE;
+		}
+	}
+
+	/* if the reservation was committed while we were looking, the owner didn't die */
+	return found_dead && (lane->tl_committed == committed);
+}
+
+/*======================================================================
+ * trace_buffer_wait_for_progress()
+ *
+ * This internal function is used by trace_buffer_end_record() whenever
+ * a producer must wait for one of its lane's counters to advance. The
+ * 'counter' is the lane counter being waited on, whereas 'last_value'
+ * and 'waits' record the state of the wait so far (the caller should
+ * initialize 'waits' to 0, and 'last_value' to the counter's value).
+ *
+ * A producer may wait for as long as necessary, since the consumer
+ * (or the producer that owns an earlier reservation) may simply be
+ * slow. However, if 'check_owner' is TRUE, the producer is waiting on
+ * an uncommitted reservation, so it periodically checks whether the
+ * reservation's owner has died. If so, the lane is abandoned.
+ *
+ * Return TRUE if the caller should check the counter again, or FALSE
+ * if the lane has been abandoned.
+ *======================================================================*/
+
+static int trace_buffer_wait_for_progress(trace_buffer_lane *lane,
+		volatile unsigned long *counter, unsigned long *last_value,
+		unsigned long *waits, int check_owner)
+{
+	if (lane->tl_abandoned) {
+		return FALSE;
+	}
+
+	/* any progress means that we start waiting all over again */
+	unsigned long value = *counter;
+	if (value != *last_value) {
+		*last_value = value;
+		*waits = 0;
+	}
+
+	/* the wait is usually very short, so only sleep if yielding doesn't help */
+	if (++(*waits) < TB_PRODUCER_SPINS) {
+		sched_yield();
+		return TRUE;
+	}
+	if (check_owner && ((*waits % TB_OWNER_CHECK_SLEEPS) == 0) &&
+			trace_buffer_owner_died(lane)) {
+		lane->tl_abandoned = TRUE;
+		return FALSE;
+	}
+	usleep(TB_PRODUCER_WAIT_USEC);
+	return TRUE;
+}
+
+/*======================================================================
+ * trace_buffer_claim_slot()
+ *
+ * This internal function claims a free producer slot in the specified
+ * lane, on behalf of the current process (see trace_buffer.h). If all
+ * the slots are in use, wait until one is released.
+ *
+ * Return the claimed slot, or NULL if the lane has been abandoned.
+ *======================================================================*/
+
+static trace_buffer_producer *trace_buffer_claim_slot(trace_buffer_lane *lane)
+{
+	int pid = getpid();
+	unsigned long waits = 0;
+
+	/* start searching at a different slot for each process, to avoid contention */
+	while (!lane->tl_abandoned) {
+		int i;
+		for (i = 0; i != TB_LANE_PRODUCERS; i++) {
+			trace_buffer_producer *slot = &lane->tl_producers[(pid + i) % TB_LANE_PRODUCERS];
+			if ((slot->tp_pid == 0) && __sync_bool_compare_and_swap(&slot->tp_pid, 0, pid)) {
+				return slot;
+			}
+		}
+		if (++waits < TB_PRODUCER_SPINS) {
+			sched_yield();
+		} else {
+			usleep(TB_PRODUCER_WAIT_USEC);
+		}
+	}
+	return NULL;
+}
+
+/*======================================================================
+ * trace_buffer_release_slot()
+ *
+ * This internal function releases a producer slot that was claimed by
+ * trace_buffer_claim_slot().
+ *======================================================================*/
+
+static void trace_buffer_release_slot(trace_buffer_producer *slot)
+{
+	slot->tp_pos = TB_POS_UNKNOWN;
+	__sync_lock_release(&slot->tp_pid);
+}
+
+/*======================================================================
+ * trace_buffer_end_record()
+ *
+ * Add the trace record that's been assembled (since the call to
+ * trace_buffer_begin_record()) to the trace buffer. No locks are
+ * used. Instead, space is reserved in the lane by atomically
+ * incrementing the lane's "reserved" counter. Once the record has
+ * been copied into the lane, it's committed by advancing the lane's
+ * "committed" counter, which is done in the same order as the space
+ * was reserved. Since each process normally has a lane to itself,
+ * a producer will only rarely need to wait for another producer.
+ *
+ * If the lane is full, this function blocks until the consumer has
+ * drained enough data from the lane.
+ *
+ * Return 0 on success, or -1 if anything goes wrong (including if the
+ * lane has been abandoned, in which case the record is discarded).
+ *======================================================================*/
+
+int trace_buffer_end_record(void)
+{
+	if (!record_active) {
+		return -1;
+	}
+	record_active = FALSE;
+
+	/* a record that won't fit in a lane is discarded */
+	unsigned long size = record_size;
+	if ((size == 0) || (size > TB_LANE_SIZE)) {
+		return -1;
+	}
+
+	/*
+	 * TRACE_FILE_NEW_PROGRAM records must be written into lane 0 (see trace_buffer.h),
+	 * whereas all other records go into this process's own lane.
+	 */
+	trace_buffer_lane *lane =
+			&trace_buffer->tb_lanes[(record_buf[0] == TRACE_FILE_NEW_PROGRAM) ? 0 : our_lane];
+
+	/*
+	 * Register as one of the lane's producers, so that other producers can tell if
+	 * we die before committing our record. There's no point writing into a lane
+	 * that'll never be drained again.
+	 */
+	trace_buffer_producer *slot = trace_buffer_claim_slot(lane);
+	if (slot == NULL) {
+		return -1;
+	}
+
+	/* reserve space for the record */
+	unsigned long pos = __sync_fetch_and_add(&lane->tl_reserved, size);
+	slot->tp_pos = pos;
+
+	/*
+	 * Wait until the consumer has drained enough data to make room for the record. If
+	 * the consumer has drained everything that's been committed, we're actually waiting
+	 * on an earlier reservation, so we need to watch for its owner dying.
+	 */
+	unsigned long last_value = lane->tl_consumed;
+	unsigned long waits = 0;
+	while (pos + size - lane->tl_consumed > TB_LANE_SIZE) {
+		if (!trace_buffer_wait_for_progress(lane, &lane->tl_consumed, &last_value, &waits,
+				lane->tl_consumed == lane->tl_committed)) {
+			trace_buffer_release_slot(slot);
+			return -1;
+		}
+	}
+
+	/* copy the record into the ring, possibly wrapping around to the start */
+	unsigned long offset = pos % TB_LANE_SIZE;
+	unsigned long first_part = TB_LANE_SIZE - offset;
+	if (first_part > size) {
+		first_part = size;
+	}
+	memcpy(&lane->tl_data[offset], record_buf, first_part);
+	memcpy(&lane->tl_data[0], record_buf + first_part, size - first_part);
+
+	/*
+	 * Wait until all earlier reservations in this lane have been committed, then
+	 * commit our own record. The memory barrier ensures that the consumer can't see the
+	 * new "committed" value before it can see the record's data.
+	 */
+	last_value = lane->tl_committed;
+	waits = 0;
+	while (lane->tl_committed != pos) {
+		if (!trace_buffer_wait_for_progress(lane, &lane->tl_committed, &last_value, &waits, TRUE)) {
+			trace_buffer_release_slot(slot);
+			return -1;
+		}
+	}
+	__sync_synchronize();
+	lane->tl_committed = pos + size;
+	trace_buffer_release_slot(slot);
+	return 0;
+}
+
 /*======================================================================
  * trace_buffer_lock_common()
  *
@@ -483,35 +796,6 @@ static int trace_buffer_unlock_common(int semId)
 	return 0;
 }
 
-/*======================================================================
- * trace_buffer_lock()
- *
- * When a process wishes to access the trace buffer, it must first
- * acquire a lock. If the lock's not available, the process should block.
- *
- * Return 0 on success (after the lock is acquired), or -1 if an error
- * occurred (and the lock wasn't obtained).
- *======================================================================*/
-
-int trace_buffer_lock()
-{
-	return trace_buffer_lock_common(TB_SEM_MASTER);
-}
-
-/*======================================================================
- * trace_buffer_unlock()
- *
- * Release the lock on the trace buffer.
- *
- * The current process has the trace buffer locked, but now it
- * wants to release the lock. Return 0 on success, or -1 on error.
- *======================================================================*/
-
-int trace_buffer_unlock()
-{
-	return trace_buffer_unlock_common(TB_SEM_MASTER);
-}
-
 /*======================================================================
  * trace_buffer_lock_logfile()
  *
@@ -542,137 +826,153 @@ int trace_buffer_unlock_logfile()
 }
 
 /*======================================================================
- * trace_buffer_mark_full()
+ * trace_buffer_wait_for_data()
+ *
+ * The consumer process calls this function when it's waiting for
+ * data to be written into the trace buffer. If any lane is filling
+ * up, this function returns immediately, otherwise it sleeps for a
+ * short period of time (so that data can be drained in reasonably
+ * large amounts). The caller should then drain the trace buffer
+ * with trace_buffer_drain().
  *
- * This function can be called by either the producer or the consumer.
- * If it's the producer, it's because they've noticed the trace buffer is
- * full and it needs to be empty. In this scenario, the value of 'state'
- * should be TRUE.
- * If it's the consumer, 'state' should be FALSE, to indicate they've emptied
- * the trace buffer and it's ready to take more data.
- * Returns 0 on success, or -1 on failure.
+ * Return codes:
+ *   0 - There may be data in the trace buffer.
+ *   1 - Our child process has terminated, and there may (or may not)
+ *       be content in the buffer.
+ *  -1 - Some other error occurred.
  *
  *======================================================================*/
 
-int trace_buffer_mark_full(int state)
+int trace_buffer_wait_for_data()
 {
-	struct sembuf sem_ops[1];
-	sem_ops[0].sem_num = TB_SEM_FULL;
-	sem_ops[0].sem_flg = 0;
+	/* if there's no trace buffer, return an error */
+	if (our_trace_buffer_id == -1){
+		return -1;
+	}
 
 	/*
-	 * When called with state==TRUE, we are the producer and we've noticed that the buffer
-	 * is full. We need to inform the consumer that the buffer must be cleaned up.
+	 * If our immediate child process has terminated, we simply return 1 to let
+	 * the caller know that there might be content in the buffer, but the child
+	 * has terminated. Clearly, no new content will be added after this point in time.
 	 */
-	if (state == 1) {
-
-		/*
-		 * The producer signals the consumer process. Both producer and consumer are now unblocked
-		 * as the semaphore is now 0.
-		 */
-		sem_ops[0].sem_op = -1;
-		if (semop(trace_buffer->tb_sem_id, sem_ops, 1) == -1){
-			return -1;
-		}
-
-		/*
-		 * The producer must block until the consumer wakes it up again. The semaphore is 0, so we'll
-		 * need to block until it's > 0 again.
-		 */
-		sem_ops[0].sem_op = -1;
-		if (semop(trace_buffer->tb_sem_id, sem_ops, 1) == -1){
-			return -1;
-		}
+	if (child_terminated) {
+		return 1;
+	}
 
-	} else {
-		/*
-		 * When called with state==FALSE, we are the consumer. Wake up the producer to let
-		 * it know we've emptied the buffer. Note that only one producer will need to
-		 * be awoken, since only one can hold the master lock. All others may be blocked
-		 * too, but they're waiting for the master lock first.
-		 * By adding 2 to the semaphore, we unblock the producer, but also block ourselves
-		 * next time we call trace_buffer_wait_until_full()
-		 */
-		sem_ops[0].sem_op = 2;
-		if (semop(trace_buffer->tb_sem_id, sem_ops, 1) == -1){
-			return -1;
+	/* if any lane is filling up, it should be drained immediately (abandoned lanes can't be) */
+	int i;
+	for (i = 0; i != TB_NUM_LANES; i++) {
+		trace_buffer_lane *lane = &trace_buffer->tb_lanes[i];
+		if (!lane->tl_abandoned && (lane->tl_reserved - lane->tl_consumed >= TB_DRAIN_THRESHOLD)) {
+			return 0;
 		}
 	}
-	return 0;
+
+	/*
+	 * Sleep for a short time. If our child process dies during this time, the sleep
+	 * is interrupted.
+	 */
+	usleep(TB_CONSUMER_POLL_USEC);
+	return child_terminated ? 1 : 0;
 }
 
 /*======================================================================
- * trace_buffer_wait_until_full()
+ * trace_buffer_drain()
  *
- * The consumer process calls this function when they're waiting for
- * the trace buffer to fill up. This function blocks until there's
- * enough data in the buffer. The function returns when the buffer is full,
- * or when the child process terminates after having written some data.
+ * The consumer process calls this function to remove all committed
+ * data from the trace buffer. The 'consumer' function is called for
+ * each contiguous piece of data (typically to write the data to disk),
+ * and the space is then released so that producers can reuse it.
  *
- * Return codes:
- *   0 - The buffer is full and there's data to be read.
- *   1 - Our child process has terminated, and there may (or may not)
- *       be content in the buffer.
- *  -1 - Some other error occurred.
+ * The "committed" counter of each lane is read before the data is
+ * drained, with lane 0 being read last. Since each process writes its
+ * TRACE_FILE_NEW_PROGRAM record (into lane 0) before any other records,
+ * and since lane 0 is drained first, a process's records can never
+ * be drained before its TRACE_FILE_NEW_PROGRAM record.
  *
+ * Return 0 on success, or -1 on failure (including if 'consumer'
+ * returns a non-zero value).
  *======================================================================*/
 
-int trace_buffer_wait_until_full()
+int trace_buffer_drain(trace_buffer_consumer consumer)
 {
-	/*
-	 * TODO: make this function more intelligent by having two buffers and alternating
-	 * between them. The producer can be writing to one while the consumer empties
-	 * the other. With the current implementation, the producers must block while the
-	 * consumer dumps the data to disk.
-	 */
+	unsigned long snapshot[TB_NUM_LANES];
+	int i;
 
 	/* if there's no trace buffer, return an error */
 	if (our_trace_buffer_id == -1){
 		return -1;
 	}
 
-	/*
-	 * If our immediate child process has terminated, we simply return 1 to let
-	 * the caller know that there might be content in the buffer, but the child
-	 * has terminated. Clearly, no new content will be added after this point in time.
-	 */
-	if (child_terminated) {
-		return 1;
+	/* take a snapshot of how much data has been committed, reading lane 0 last */
+	for (i = 1; i != TB_NUM_LANES; i++) {
+		snapshot[i] = trace_buffer->tb_lanes[i].tl_committed;
 	}
+	__sync_synchronize();
+	snapshot[0] = trace_buffer->tb_lanes[0].tl_committed;
+	__sync_synchronize();
+
+	/* drain each lane (lane 0 first), up to the snapshot position */
+	for (i = 0; i != TB_NUM_LANES; i++) {
+		trace_buffer_lane *lane = &trace_buffer->tb_lanes[i];
+		unsigned long start = lane->tl_consumed;
+		unsigned long size = snapshot[i] - start;
+		if (size == 0) {
+			continue;
+		}
 
-	/*
-	 * We are the consumer. Block until a producer tells us the buffer is
-	 * full, or until our child process has exited. A zero-valued semaphore
-	 * will wake us up.
-	 */
-	struct sembuf sem_ops[1];
-	sem_ops[0].sem_num = TB_SEM_FULL;
-	sem_ops[0].sem_op = 0;
-	sem_ops[0].sem_flg = 0;
-	if (semop(trace_buffer->tb_sem_id, sem_ops, 1) == -1){
-		/*
-		 * For some reason the semop() call failed. If errno is EINTR, it was
-		 * because our child process died. That's OK (and normal), so return 1.
-		 * On the other hand, any other error should be reported differently.
-		 */
-		if (errno == EINTR) {
-			return 1;
-		} else {
+		/* the data may wrap around the end of the ring */
+		unsigned long offset = start % TB_LANE_SIZE;
+		unsigned long first_part = TB_LANE_SIZE - offset;
+		if (first_part > size) {
+			first_part = size;
+		}
+		if (consumer(&lane->tl_data[offset], first_part) != 0) {
+			return -1;
+		}
+		if ((size > first_part) && (consumer(&lane->tl_data[0], size - first_part) != 0)) {
 			return -1;
 		}
-	}
 
-	/* we've unblocked, but the child is still alive - proceed normally */
+		/* release the space, but only once we've finished reading it */
+		__sync_synchronize();
+		lane->tl_consumed = snapshot[i];
+	}
 	return 0;
 }
 
+/*======================================================================
+ * trace_buffer_count_abandoned_lanes()
+ *
+ * Return the number of lanes that have been abandoned, because a
+ * producer died between reserving space for a record and committing
+ * it. Any records written to those lanes since then have been discarded,
+ * so a non-zero value means the trace data is incomplete. Return -1
+ * if the trace buffer isn't initialized properly.
+ *======================================================================*/
+
+int trace_buffer_count_abandoned_lanes(void)
+{
+	if (our_trace_buffer_id == -1){
+		return -1;
+	}
+
+	int i, count = 0;
+	for (i = 0; i != TB_NUM_LANES; i++) {
+		if (trace_buffer->tb_lanes[i].tl_abandoned) {
+			count++;
+		}
+	}
+	return count;
+}
 
 /*======================================================================
  * trace_buffer_next_process_number()
  *
- * Allocate and return the next unique process number. The trace buffer
- * must be locked before calling this function. Return -1 if the trace
- * buffer isn't initialized properly.
+ * Allocate and return the next unique process number. The number is
+ * allocated atomically, so no locking is required. This also selects
+ * the lane that this process's trace records will be written into.
+ * Return -1 if the trace buffer isn't initialized properly.
  *======================================================================*/
 
 int trace_buffer_next_process_number(void)
@@ -681,8 +981,60 @@ int trace_buffer_next_process_number(void)
 		return -1;
 	}
 
-	return trace_buffer->tb_process_number++;
+	int process_number = __sync_fetch_and_add(&trace_buffer->tb_process_number, 1);
+	our_lane = 1 + (process_number % (TB_NUM_LANES - 1));
+	return process_number;
 }
 
-/*======================================================================*/
+/*======================================================================
+ * trace_buffer_next_path_number()
+ *
+ * Allocate and return the next unique path number (see TRACE_PATH_DEFINE
+ * in trace_file_format.h). Path numbers are unique across all processes
+ * that share the trace buffer. Return -1 if the trace buffer isn't
+ * initialized properly.
+ *======================================================================*/
+
+int trace_buffer_next_path_number(void)
+{
+	if (our_trace_buffer_id == -1){
+		return -1;
+	}
+	return __sync_fetch_and_add(&trace_buffer->tb_path_number, 1);
+}
+
+/*======================================================================
+ * trace_buffer_get_delete_generation()
+ *
+ * Return the current delete generation for paths with the specified
+ * hash value. This number changes whenever any process deletes a path
+ * with the same hash value (or, occasionally, a different hash value
+ * that shares the same generation), which lets each process know when
+ * a path it has already traced may need to be traced again. Return -1
+ * if the trace buffer isn't initialized properly.
+ *======================================================================*/
 
+int trace_buffer_get_delete_generation(unsigned int hash)
+{
+	if (our_trace_buffer_id == -1){
+		return -1;
+	}
+	return trace_buffer->tb_delete_generations[hash & (TB_DELETE_BUCKETS - 1)];
+}
+
+/*======================================================================
+ * trace_buffer_note_delete()
+ *
+ * Record the fact that a path with the specified hash value has been
+ * deleted, by advancing the delete generation for that hash value.
+ *======================================================================*/
+
+void trace_buffer_note_delete(unsigned int hash)
+{
+	if (our_trace_buffer_id != -1){
+		__sync_fetch_and_add(
+				&trace_buffer->tb_delete_generations[hash & (TB_DELETE_BUCKETS - 1)], 1);
+	}
+}
+
+/*======================================================================*/
@@ -22,6 +22,32 @@
  * managed (which producers writing into the buffer, and the one consumer dumping it to disk).
  * For detail of the actual trace information that's written into the buffer,
  * see trace_file_format.h.
+ *
+ * To avoid serializing all producers through a single lock, the trace buffer is divided
+ * into a number of "lanes", each of which is a ring buffer. Each producer process writes
+ * into a lane selected by its process number, so that concurrent processes rarely share
+ * a lane. Within a lane, a producer reserves space for a complete trace record using an
+ * atomic fetch-and-add, copies the record into the ring, then commits it. The consumer
+ * periodically drains all committed data from all lanes.
+ *
+ * Lane 0 is special, and is used for all TRACE_FILE_NEW_PROGRAM records (as well as
+ * records written by processes that don't yet have a process number). The consumer drains
+ * lane 0 after taking a snapshot of all other lanes, which guarantees that a process's
+ * TRACE_FILE_NEW_PROGRAM record appears in the trace file before any of its other records,
+ * and that parent processes appear before their children.
+ *
+ * Records within a lane are committed in the same order they were reserved, so a producer
+ * that's slow to commit its record (for example, because it's been descheduled or stopped
+ * with SIGSTOP) makes the later producers in the same lane wait. Waiting for the consumer,
+ * or for a slow producer, never causes a record to be lost. However, if a producer dies
+ * between reserving space and committing its record, no later record in that lane can
+ * ever be committed. To detect this, each producer registers itself (by PID) in one of
+ * its lane's producer slots before reserving space, and records the position of its
+ * reservation in that slot. A producer that's waiting on an uncommitted reservation
+ * periodically checks whether the reservation's owner has died, in which case the lane
+ * is "abandoned". From then on, all records written into that lane are discarded, and
+ * the consumer uses trace_buffer_count_abandoned_lanes() to report that the trace data
+ * is incomplete.
  */
 
 #ifndef TRACE_BUFFER_H_
@@ -38,50 +64,91 @@
  */
 typedef unsigned long trace_buffer_id;
 
-/* Trace buffers are this large (in bytes), which includes a small header */
-#define TRACE_BUFFER_SIZE 1048576
+/* The number of lanes in the trace buffer (lane 0, plus the lanes for normal records) */
+#define TB_NUM_LANES 17
+
+/* The size (in bytes) of each lane's ring buffer. No single trace record may be larger */
+#define TB_LANE_SIZE 524288
+
+/* The number of producers that can be writing into a single lane at the same time */
+#define TB_LANE_PRODUCERS 64
+
+/* The tp_pos value of a producer slot whose owner hasn't yet reserved space */
+#define TB_POS_UNKNOWN ((unsigned long)-1)
+
+/* The number of delete generations (see trace_buffer_get_delete_generation). Must be a power of 2 */
+#define TB_DELETE_BUCKETS 4096
+
+/*
+ * Each lane has a fixed number of producer slots, which record which processes are
+ * currently writing into the lane, and where their reservations start.
+ */
+typedef struct trace_buffer_producer {
+	volatile int tp_pid;				/* PID of the producer using this slot, or 0 if the slot is free. */
+	volatile unsigned long tp_pos;		/* start of the producer's reservation, or TB_POS_UNKNOWN. */
+} trace_buffer_producer;
+
+/*
+ * Each lane is a ring buffer, with the following counters. The counters increase
+ * monotonically (they're never reset), and the position of a byte within tl_data is
+ * given by (counter % TB_LANE_SIZE).
+ */
+typedef struct trace_buffer_lane {
+	volatile unsigned long tl_reserved;	/* bytes reserved by producers (may not yet be written). */
+	volatile unsigned long tl_committed;	/* bytes fully written by producers. */
+	volatile unsigned long tl_consumed;	/* bytes drained by the consumer. */
+	volatile int tl_abandoned;			/* TRUE if no more records can be committed to this lane. */
+	trace_buffer_producer tl_producers[TB_LANE_PRODUCERS];	/* the producers writing into this lane. */
+	char tl_data[TB_LANE_SIZE];			/* the ring buffer's data. */
+} trace_buffer_lane;
 
 /* Trace buffers start with the following header structure */
 typedef struct trace_buffer_header {
 	unsigned long tb_magic;    	/* must be TB_MAGIC for this trace buffer to be considered valid. */
-	unsigned long tb_size;			/* how many bytes are used so far. */
-	int	tb_sem_id;					/* ID of the semaphore for controlling access to this trace buffer. */
+	int	tb_sem_id;					/* ID of the semaphore for controlling access to the log file. */
 	int tb_creator_pid;				/* PID of the process that created this trace buffer. */
-	int tb_process_number;			/* Each new process allocates a new process number. This records the */
-									/* last number to be allocated */
+	volatile int tb_process_number;	/* Each new process allocates a new process number. This records the */
+									/* next number to be allocated */
+	volatile int tb_path_number;	/* The next path number to be allocated (see TRACE_PATH_DEFINE) */
+	volatile int tb_delete_generations[TB_DELETE_BUCKETS];	/* Incremented when a path (with the */
+									/* bucket's hash value) is deleted */
+	trace_buffer_lane tb_lanes[TB_NUM_LANES];	/* the lanes that producers write into. */
 } trace_buffer_header;
 
+/* Trace buffers are this large (in bytes), which includes the header */
+#define TRACE_BUFFER_SIZE (sizeof(trace_buffer_header))
+
 /*
- * In order for the multiple producers (child processes) and the one consumer (parent process) to
- * control access to the trace buffer, we use a couple of different semaphore. The "master" semaphore
- * is held for a very short period of time as the trace buffer is being read or written. The "full"
- * semaphore is used by the producer to indicate to the consumer that the buffer is full.
+ * Writing to the trace buffer doesn't require any locking, but processes must take turns
+ * to write to the log file.
  */
-#define TB_SEM_MASTER 		0		/* The master semaphore for controlling who writes to the trace buffer. */
-#define TB_SEM_FULL			1		/* Indicates if the buffer is full and needs to be emptied. */
-#define TB_SEM_LOG_FILE		2       /* Indicates that the log file is currently locked for writing */
-#define TB_SEM_MAX			3		/* There are this many semaphores */
-
+#define TB_SEM_LOG_FILE		0       /* Indicates that the log file is currently locked for writing */
+#define TB_SEM_MAX			1		/* There are this many semaphores */
 
 /* The magic number to identify a valid trace buffer */
-#define TB_MAGIC 0x13572468
+#define TB_MAGIC 0x13572469
+
+/* The function that the consumer provides to trace_buffer_drain(), for writing data to disk */
+typedef int (*trace_buffer_consumer)(void *ptr, unsigned long size);
 
 /* The API functions for managing trace buffers. These are all defined in trace_buffer.c */
 extern trace_buffer_id trace_buffer_create(void);
 extern int trace_buffer_use_existing(trace_buffer_id id);
 extern int trace_buffer_delete(void);
-extern void trace_buffer_empty_content(void);
-extern int trace_buffer_fetch(void **base_ptr, unsigned long *size_ptr);
+extern int trace_buffer_begin_record(void);
+extern int trace_buffer_end_record(void);
 extern int trace_buffer_write_string(const char *string);
 extern int trace_buffer_write_bytes(void *bytes, unsigned long size);
 extern int trace_buffer_write_int(int value);
 extern int trace_buffer_write_byte(char value);
-extern int trace_buffer_lock(void);
-extern int trace_buffer_unlock(void);
 extern int trace_buffer_lock_logfile();
 extern int trace_buffer_unlock_logfile();
-extern int trace_buffer_mark_full(int);
-extern int trace_buffer_wait_until_full(void);
+extern int trace_buffer_wait_for_data(void);
+extern int trace_buffer_drain(trace_buffer_consumer consumer);
+extern int trace_buffer_count_abandoned_lanes(void);
 extern int trace_buffer_next_process_number(void);
+extern int trace_buffer_next_path_number(void);
+extern int trace_buffer_get_delete_generation(unsigned int hash);
+extern void trace_buffer_note_delete(unsigned int hash);
 
 #endif /* TRACE_BUFFER_H_ */
@@ -22,7 +22,22 @@
 #define TRACE_FILE_FORMAT_H_
 
 /*
- * Each trace file starts with the following short header
+ * A trace file is written in one of two formats:
+ *
+ *   1) By default, the trace file is gzip-compressed. The uncompressed content is
+ *      simply the sequence of trace entries described below.
+ *
+ *   2) If cfs is given the -u option, the trace file is uncompressed. It starts with
+ *      a trace_file_header, followed by a sequence of chunks (written as the trace
+ *      buffer is drained). Each chunk is a 4-byte length, followed by that many bytes
+ *      of trace entries. A trace entry may be split across two consecutive chunks.
+ *
+ * Readers can distinguish the formats by looking for the gzip magic number, or the
+ * TF_MAGIC number, at the start of the file.
+ */
+
+/*
+ * Each uncompressed trace file starts with the following short header
  */
 typedef struct trace_file_header {
 	unsigned int tf_magic;		/* magic number to identify this as a trace file */
@@ -145,4 +160,25 @@ typedef struct trace_file_header {
  */
 #define TRACE_DIR_DELETE 			12
 
+/*
+ * TRACE_PATH_DEFINE - assign a number to a path, so that later records can refer to
+ * the path by number, rather than by name. Path numbers are unique within the trace file.
+ * 		- 1 byte : TRACE_PATH_DEFINE
+ * 		- 4 bytes : process number (defining the path)
+ * 		- 4 bytes : path number
+ *      - nul-terminated string : the absolute path name.
+ */
+#define TRACE_PATH_DEFINE			13
+
+/*
+ * TRACE_BY_PATH_NUMBER - this flag may be added to the tag of a TRACE_FILE_WRITE,
+ * TRACE_FILE_READ, TRACE_FILE_MODIFY, TRACE_FILE_DELETE, TRACE_DIR_WRITE, TRACE_DIR_READ,
+ * TRACE_DIR_MODIFY or TRACE_DIR_DELETE entry, in which case the path name is replaced by
+ * the path's number (which must have been previously defined by TRACE_PATH_DEFINE).
+ * 		- 1 byte : tag | TRACE_BY_PATH_NUMBER
+ * 		- 4 bytes : process number
+ * 		- 4 bytes : path number
+ */
+#define TRACE_BY_PATH_NUMBER		0x80
+
 #endif /* TRACE_FILE_FORMAT_H_ */
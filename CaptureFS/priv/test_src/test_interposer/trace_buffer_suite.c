@@ -12,6 +12,8 @@
 
 #include <stdlib.h>
 #include <stdio.h>
+#include <string.h>
+#include <signal.h>
 #include <unistd.h>
 #include <sys/time.h>
 #include <sys/types.h>
@@ -22,6 +24,90 @@
 
 /* include the trace buffer API functions */
 #include "trace_buffer.h"
+#include "trace_file_format.h"
+
+/*
+ * The trace buffer that's attached to this process. Some tests need to look inside
+ * the buffer's lanes, or to simulate a producer that misbehaves.
+ */
+extern trace_buffer_header *trace_buffer;
+
+/*
+ * All the data that trace_buffer_drain() passes to collect_data() is appended to
+ * this buffer, so that the tests can validate it.
+ */
+static char *collected_data = NULL;
+static unsigned long collected_size = 0;
+static unsigned long collected_capacity = 0;
+static int collected_chunks = 0;
+
+/*======================================================================
+ * collect_data()
+ *
+ * A trace_buffer_consumer function that appends the drained data to
+ * the end of collected_data. Returns 0 on success, or -1 on failure.
+ *======================================================================*/
+
+static int collect_data(void *ptr, unsigned long size)
+{
+	/* grow the buffer, if the new data won't fit */
+	if (collected_size + size > collected_capacity) {
+		unsigned long new_capacity = (collected_capacity == 0) ? 65536 : collected_capacity;
+		while (new_capacity < collected_size + size) {
+			new_capacity *= 2;
+		}
+		char *new_data = realloc(collected_data, new_capacity);
+		if (!new_data) {
+			return -1;
+		}
+		collected_data = new_data;
+		collected_capacity = new_capacity;
+	}
+
+	memcpy(collected_data + collected_size, ptr, size);
+	collected_size += size;
+	collected_chunks++;
+	return 0;
+}
+
+/*======================================================================
+ * reject_data()
+ *
+ * A trace_buffer_consumer function that always fails.
+ *======================================================================*/
+
+static int reject_data(void *ptr, unsigned long size)
+{
+	return -1;
+}
+
+/*======================================================================
+ * reset_collected_data()
+ *
+ * Forget about any data that collect_data() has already collected.
+ *======================================================================*/
+
+static void reset_collected_data(void)
+{
+	collected_size = 0;
+	collected_chunks = 0;
+}
+
+/*======================================================================
+ * write_record()
+ *
+ * Helper function for writing a complete trace record, containing
+ * 'size' bytes from 'data'. Returns 0 on success, or -1 on failure.
+ *======================================================================*/
+
+static int write_record(const void *data, unsigned long size)
+{
+	if (trace_buffer_begin_record() != 0) {
+		return -1;
+	}
+	trace_buffer_write_bytes((void *)data, size);
+	return trace_buffer_end_record();
+}
 
 /*======================================================================
  * setup - Set-up function for this suite
@@ -29,6 +115,7 @@
 
 static int setup(void)
 {
+	reset_collected_data();
 	return 0;
 }
 
@@ -38,6 +125,10 @@ static int setup(void)
 
 static int teardown(void)
 {
+	free(collected_data);
+	collected_data = NULL;
+	collected_capacity = 0;
+	reset_collected_data();
 	return 0;
 }
 
@@ -57,6 +148,15 @@ static void test_trace_buffer_create(void)
 	trace_buffer_id id2 = trace_buffer_create();
 	CU_ASSERT_EQUAL(id2, -1);
 
+	/* all the lanes should be empty */
+	int i;
+	for (i = 0; i != TB_NUM_LANES; i++) {
+		CU_ASSERT_EQUAL(trace_buffer->tb_lanes[i].tl_reserved, 0);
+		CU_ASSERT_EQUAL(trace_buffer->tb_lanes[i].tl_committed, 0);
+		CU_ASSERT_EQUAL(trace_buffer->tb_lanes[i].tl_consumed, 0);
+	}
+	CU_ASSERT_EQUAL(trace_buffer_count_abandoned_lanes(), 0);
+
 	/* Now delete the trace buffer - should succeed */
 	CU_ASSERT_EQUAL(trace_buffer_delete(), 0);
 }
@@ -88,13 +188,17 @@ static void test_trace_buffer_use_existing(void)
 		trace_buffer_delete();
 
 		/* attach to the existing trace buffer - this is the function we're testing. */
-		CU_ASSERT_NOT_EQUAL(trace_buffer_use_existing(id1), -1);
+		if (trace_buffer_use_existing(id1) == -1) {
+			exit(1);
+		}
 
 		/*
 		 * write some data for the parent to read upon attaching
 		 * to the trace buffer
 		 */
+		trace_buffer_begin_record();
 		trace_buffer_write_int(0x13572468);
+		trace_buffer_end_record();
 
 		/* return to the parent, but with the data written to the trace buffer. */
 		trace_buffer_delete();
@@ -110,19 +214,22 @@ static void test_trace_buffer_use_existing(void)
 
 		/* wait for the child to exit. */
 		wait(&status);
+		CU_ASSERT_EQUAL(WEXITSTATUS(status), 0);
 
 		/* validate we can see the data written by the child. */
-		char *ptr;
-		unsigned long size;
-		trace_buffer_fetch((void **)&ptr, &size);
-		CU_ASSERT_EQUAL(size, sizeof(int));
-		CU_ASSERT_TRUE((ptr[0] == 0x68) && (ptr[1] == 0x24) &&
-				(ptr[2] == 0x57) && (ptr[3] == 0x13));
+		reset_collected_data();
+		CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+		CU_ASSERT_EQUAL(collected_size, sizeof(int));
+		CU_ASSERT_TRUE((collected_data[0] == 0x68) && (collected_data[1] == 0x24) &&
+				(collected_data[2] == 0x57) && (collected_data[3] == 0x13));
 		break;
 	}
 
 	/* completely remove the trace buffer. */
 	trace_buffer_delete();
+
+	/* attaching to a trace buffer that doesn't exist should fail */
+	CU_ASSERT_EQUAL(trace_buffer_use_existing(id1), -1);
 }
 
 /*======================================================================
@@ -148,36 +255,42 @@ static void test_trace_buffer_delete(void)
 }
 
 /*======================================================================
- * test_trace_buffer_fetch()
+ * test_trace_buffer_drain()
  *
- * Test the trace_buffer_fetch() function.
+ * Test the trace_buffer_drain() function.
  *======================================================================*/
 
-static void test_trace_buffer_fetch(void)
+static void test_trace_buffer_drain(void)
 {
-	void *buffer_base;
-	unsigned long buffer_size;
-
-	/* Try fetching a buffer that doesn't exist - should fail */
-	CU_ASSERT_EQUAL(trace_buffer_fetch(&buffer_base, &buffer_size), -1);
+	/* Try draining a buffer that doesn't exist - should fail */
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), -1);
 
 	/* Create a new buffer - should succeed */
 	trace_buffer_id id1 = trace_buffer_create();
 	CU_ASSERT_NOT_EQUAL(id1, -1);
 
-	/*
-	 * Fetch the trace buffer's body (excluding the header).
-	 * Should have a valid base pointer, and a zero size.
-	 */
-	CU_ASSERT_EQUAL(trace_buffer_fetch(&buffer_base, &buffer_size), 0);
-	CU_ASSERT_NOT_EQUAL(buffer_base, NULL);
-	CU_ASSERT_EQUAL(buffer_size, 0);
+	/* Drain the empty buffer - should succeed, without any data */
+	reset_collected_data();
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_chunks, 0);
+
+	/* If the consumer fails, drain should fail and the data should remain in the buffer */
+	CU_ASSERT_EQUAL(write_record("Hello", 5), 0);
+	CU_ASSERT_EQUAL(trace_buffer_drain(reject_data), -1);
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 5);
+	CU_ASSERT_EQUAL(memcmp(collected_data, "Hello", 5), 0);
+
+	/* Once drained, the data is gone */
+	reset_collected_data();
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 0);
 
 	/* Delete the trace buffer - should succeed */
 	CU_ASSERT_EQUAL(trace_buffer_delete(), 0);
 
-	/* Try again to fetch the content - should fail. */
-	CU_ASSERT_EQUAL(trace_buffer_fetch(&buffer_base, &buffer_size), -1);
+	/* Try again to drain the content - should fail. */
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), -1);
 }
 
 /*======================================================================
@@ -188,28 +301,31 @@ static void test_trace_buffer_fetch(void)
 
 static void test_trace_buffer_write_string(void)
 {
-	void *buffer_base;
-	unsigned long buffer_size;
-
 	/* Create a new buffer - should succeed */
 	trace_buffer_id id1 = trace_buffer_create();
 	CU_ASSERT_NOT_EQUAL(id1, -1);
 
 	/* write a string */
-	trace_buffer_write_string("Hello World");
+	CU_ASSERT_EQUAL(trace_buffer_begin_record(), 0);
+	CU_ASSERT_EQUAL(trace_buffer_write_string("Hello World"), 0);
+	CU_ASSERT_EQUAL(trace_buffer_end_record(), 0);
 
 	/* validate that the string was written correctly. */
-	CU_ASSERT_EQUAL(trace_buffer_fetch(&buffer_base, &buffer_size), 0);
-	CU_ASSERT_EQUAL(buffer_size, 12);
-	CU_ASSERT_EQUAL(memcmp(buffer_base, "Hello World", 12), 0);
+	reset_collected_data();
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 12);
+	CU_ASSERT_EQUAL(memcmp(collected_data, "Hello World", 12), 0);
 
-	/* write another string to the same buffer */
-	trace_buffer_write_string("Hi World");
+	/* write two more strings, in the same record */
+	CU_ASSERT_EQUAL(trace_buffer_begin_record(), 0);
+	CU_ASSERT_EQUAL(trace_buffer_write_string("Hi World"), 0);
+	CU_ASSERT_EQUAL(trace_buffer_write_string("Bye"), 0);
+	CU_ASSERT_EQUAL(trace_buffer_end_record(), 0);
 
 	/* validate that the strings are now both in the buffer */
-	CU_ASSERT_EQUAL(trace_buffer_fetch(&buffer_base, &buffer_size), 0);
-	CU_ASSERT_EQUAL(buffer_size, 21);
-	CU_ASSERT_EQUAL(memcmp(buffer_base, "Hello World\0Hi World", 21), 0);
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 25);
+	CU_ASSERT_EQUAL(memcmp(collected_data, "Hello World\0Hi World\0Bye", 25), 0);
 
 	/* Delete the trace buffer */
 	CU_ASSERT_EQUAL(trace_buffer_delete(), 0);
@@ -223,9 +339,6 @@ static void test_trace_buffer_write_string(void)
 
 static void test_trace_buffer_write_bytes(void)
 {
-	void *buffer_base;
-	unsigned long buffer_size;
-
 	/* we'll write these byte arrays */
 	char buf1[10] = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
 	char buf2[10] = {10, 9, 12, 14, 65, 3, 2, -2, 8, 3};
@@ -236,20 +349,21 @@ static void test_trace_buffer_write_bytes(void)
 	CU_ASSERT_NOT_EQUAL(id1, -1);
 
 	/* write a sequence of bytes to the trace buffer. */
-	trace_buffer_write_bytes(buf1, 10);
+	CU_ASSERT_EQUAL(write_record(buf1, 10), 0);
 
 	/* validate that the bytes were written correctly. */
-	CU_ASSERT_EQUAL(trace_buffer_fetch(&buffer_base, &buffer_size), 0);
-	CU_ASSERT_EQUAL(buffer_size, 10);
-	CU_ASSERT_EQUAL(memcmp(buffer_base, buf1, 10), 0);
+	reset_collected_data();
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 10);
+	CU_ASSERT_EQUAL(memcmp(collected_data, buf1, 10), 0);
 
 	/* write a second sequence of bytes to the trace buffer. */
-	trace_buffer_write_bytes(buf2, 10);
+	CU_ASSERT_EQUAL(write_record(buf2, 10), 0);
 
 	/* validate that both byte arrays were written correctly. */
-	CU_ASSERT_EQUAL(trace_buffer_fetch(&buffer_base, &buffer_size), 0);
-	CU_ASSERT_EQUAL(buffer_size, 20);
-	CU_ASSERT_EQUAL(memcmp(buffer_base, buf3, 20), 0);
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 20);
+	CU_ASSERT_EQUAL(memcmp(collected_data, buf3, 20), 0);
 
 	/* Delete the trace buffer */
 	CU_ASSERT_EQUAL(trace_buffer_delete(), 0);
@@ -264,32 +378,34 @@ static void test_trace_buffer_write_bytes(void)
 
 static void test_trace_buffer_write_int(void)
 {
-	void *buffer_base;
-	unsigned long buffer_size;
-
 	/* these byte arrays are used for validation. */
-	char buf1[4] = {0x78, 0x56, 0x34, 0x12};
-	char buf2[8] = {0x78, 0x56, 0x34, 0x12, 0xfe, 0x01, 0x00, 0xff};
+	unsigned char buf1[4] = {0x78, 0x56, 0x34, 0x12};
+	unsigned char buf2[8] = {0x78, 0x56, 0x34, 0x12, 0xfe, 0x01, 0x00, 0xff};
 
 	/* Create a new buffer - should succeed */
 	trace_buffer_id id1 = trace_buffer_create();
 	CU_ASSERT_NOT_EQUAL(id1, -1);
 
 	/* write a 4-byte integer to the trace buffer. */
-	trace_buffer_write_int(0x12345678);
+	CU_ASSERT_EQUAL(trace_buffer_begin_record(), 0);
+	CU_ASSERT_EQUAL(trace_buffer_write_int(0x12345678), 0);
+	CU_ASSERT_EQUAL(trace_buffer_end_record(), 0);
 
 	/* validate that the bytes were written correctly. */
-	CU_ASSERT_EQUAL(trace_buffer_fetch(&buffer_base, &buffer_size), 0);
-	CU_ASSERT_EQUAL(buffer_size, 4);
-	CU_ASSERT_EQUAL(memcmp(buffer_base, buf1, sizeof(int)), 0);
+	reset_collected_data();
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 4);
+	CU_ASSERT_EQUAL(memcmp(collected_data, buf1, sizeof(int)), 0);
 
 	/* write another 4-byte integer to the trace buffer. */
-	trace_buffer_write_int(0xff0001fe);
+	CU_ASSERT_EQUAL(trace_buffer_begin_record(), 0);
+	CU_ASSERT_EQUAL(trace_buffer_write_int(0xff0001fe), 0);
+	CU_ASSERT_EQUAL(trace_buffer_end_record(), 0);
 
 	/* validate that all the bytes were written correctly. */
-	CU_ASSERT_EQUAL(trace_buffer_fetch(&buffer_base, &buffer_size), 0);
-	CU_ASSERT_EQUAL(buffer_size, 8);
-	CU_ASSERT_EQUAL(memcmp(buffer_base, buf2, 2 * sizeof(int)), 0);
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 8);
+	CU_ASSERT_EQUAL(memcmp(collected_data, buf2, 2 * sizeof(int)), 0);
 
 	/* Delete the trace buffer */
 	CU_ASSERT_EQUAL(trace_buffer_delete(), 0);
@@ -303,8 +419,6 @@ static void test_trace_buffer_write_int(void)
 
 static void test_trace_buffer_write_byte(void)
 {
-	char *buffer_base;
-	unsigned long buffer_size;
 	char byte1 = 0x42, byte2 = 0x82;
 
 	/* Create a new buffer - should succeed */
@@ -312,195 +426,170 @@ static void test_trace_buffer_write_byte(void)
 	CU_ASSERT_NOT_EQUAL(id1, -1);
 
 	/* write a single byte to the trace buffer. */
-	trace_buffer_write_byte(byte1);
+	CU_ASSERT_EQUAL(trace_buffer_begin_record(), 0);
+	CU_ASSERT_EQUAL(trace_buffer_write_byte(byte1), 0);
+	CU_ASSERT_EQUAL(trace_buffer_end_record(), 0);
 
 	/* validate that the bytes were written correctly. */
-	CU_ASSERT_EQUAL(trace_buffer_fetch((void **)&buffer_base, &buffer_size), 0);
-	CU_ASSERT_EQUAL(buffer_size, 1);
-	CU_ASSERT_EQUAL(buffer_base[0], byte1);
+	reset_collected_data();
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 1);
+	CU_ASSERT_EQUAL(collected_data[0], byte1);
 
 	/* write another byte to the trace buffer. */
-	trace_buffer_write_byte(byte2);
+	CU_ASSERT_EQUAL(trace_buffer_begin_record(), 0);
+	CU_ASSERT_EQUAL(trace_buffer_write_byte(byte2), 0);
+	CU_ASSERT_EQUAL(trace_buffer_end_record(), 0);
 
 	/* validate that the bytes were written correctly. */
-	CU_ASSERT_EQUAL(trace_buffer_fetch((void **)&buffer_base, &buffer_size), 0);
-	CU_ASSERT_EQUAL(buffer_size, 2);
-	CU_ASSERT_EQUAL(buffer_base[0], byte1);
-	CU_ASSERT_EQUAL(buffer_base[1], byte2);
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 2);
+	CU_ASSERT_EQUAL(collected_data[0], byte1);
+	CU_ASSERT_EQUAL(collected_data[1], byte2);
 
 	/* Delete the trace buffer */
 	CU_ASSERT_EQUAL(trace_buffer_delete(), 0);
 }
 
 /*======================================================================
- * test_trace_buffer_lock()
+ * test_trace_buffer_reserve_commit()
  *
- * Test the trace_buffer_lock() function.
+ * Test that a record only becomes visible to the consumer once it's
+ * been committed by trace_buffer_end_record(), and that invalid records
+ * are rejected.
  *======================================================================*/
 
-static void test_trace_buffer_lock(void)
+static void test_trace_buffer_reserve_commit(void)
 {
+	/* Without a trace buffer, records can't be written */
+	CU_ASSERT_EQUAL(trace_buffer_begin_record(), -1);
+
 	/* Create a new buffer - should succeed */
 	trace_buffer_id id1 = trace_buffer_create();
 	CU_ASSERT_NOT_EQUAL(id1, -1);
 
-	/* we need both a producer and a consumer */
-	switch (fork()){
-	case 0:
-		/* child */
-
-		/* acquire the lock, sleep, then release the lock */
-		CU_ASSERT_EQUAL(trace_buffer_lock(), 0);
-		usleep(100000);
-		trace_buffer_unlock();
-		exit(0);
-
-	case -1:
-		/* error */
-		CU_FAIL("Failed to fork a child process.");
-		break;
-
-	default:
-		/* parent */
+	/* Writing data, or ending a record, before a record is started should fail */
+	CU_ASSERT_EQUAL(trace_buffer_write_int(1), -1);
+	CU_ASSERT_EQUAL(trace_buffer_end_record(), -1);
+
+	/* While a record is being assembled, nothing is reserved and nothing can be drained */
+	CU_ASSERT_EQUAL(trace_buffer_begin_record(), 0);
+	CU_ASSERT_EQUAL(trace_buffer_write_string("Partial"), 0);
+	CU_ASSERT_EQUAL(trace_buffer->tb_lanes[0].tl_reserved, 0);
+	reset_collected_data();
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 0);
+
+	/* Once the record has ended, it's reserved, committed and can be drained */
+	CU_ASSERT_EQUAL(trace_buffer_end_record(), 0);
+	CU_ASSERT_EQUAL(trace_buffer->tb_lanes[0].tl_reserved, 8);
+	CU_ASSERT_EQUAL(trace_buffer->tb_lanes[0].tl_committed, 8);
+	CU_ASSERT_EQUAL(trace_buffer->tb_lanes[0].tl_consumed, 0);
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 8);
+	CU_ASSERT_EQUAL(memcmp(collected_data, "Partial", 8), 0);
+	CU_ASSERT_EQUAL(trace_buffer->tb_lanes[0].tl_consumed, 8);
+
+	/* A record can only be ended once */
+	CU_ASSERT_EQUAL(trace_buffer_end_record(), -1);
+
+	/* An empty record is rejected */
+	CU_ASSERT_EQUAL(trace_buffer_begin_record(), 0);
+	CU_ASSERT_EQUAL(trace_buffer_end_record(), -1);
+
+	/* A record that won't fit in a lane is rejected, without reserving any space */
+	char *big = calloc(TB_LANE_SIZE + 1, 1);
+	CU_ASSERT_EQUAL(write_record(big, TB_LANE_SIZE + 1), -1);
+	CU_ASSERT_EQUAL(trace_buffer->tb_lanes[0].tl_reserved, 8);
+
+	/* ... but a record that fills the whole lane is fine */
+	big[0] = 'B';
+	big[TB_LANE_SIZE - 1] = 'E';
+	CU_ASSERT_EQUAL(write_record(big, TB_LANE_SIZE), 0);
+	reset_collected_data();
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, TB_LANE_SIZE);
+	CU_ASSERT_EQUAL(memcmp(collected_data, big, TB_LANE_SIZE), 0);
+	free(big);
 
-		/* wait just long enough for the child to acquire the lock. */
-		usleep(10000);
-
-		/*
-		 * acquire the lock - this could take a while, since the child has it locked
-		 * already. We need to test whether the duration for acquiring the lock is
-		 * at least as long as the child held it (50ms).
-		 */
-		struct timeval before, after;
-		gettimeofday(&before, NULL);
-		CU_ASSERT_EQUAL(trace_buffer_lock(), 0);
-		gettimeofday(&after, NULL);
-		unsigned long duration = (after.tv_sec - before.tv_sec) * 1000000 +
-				(after.tv_usec - before.tv_usec);
-		CU_ASSERT_TRUE(duration > 50000);
-
-		/* release the lock. Test is complete. */
-		trace_buffer_unlock();
-
-		/* wait for the child to exit. */
-		int status;
-		wait(&status);
-		break;
-	}
-
-	/* completely remove the trace buffer. */
-	trace_buffer_delete();
+	/* Delete the trace buffer */
+	CU_ASSERT_EQUAL(trace_buffer_delete(), 0);
 }
 
-
 /*======================================================================
- * test_trace_buffer_mark_full()
+ * test_trace_buffer_wrap_around()
  *
- * Test the trace_buffer_mark_full() function.
+ * Test that records are correctly written and drained when they wrap
+ * around the end of a lane's ring buffer.
  *======================================================================*/
 
-static void test_trace_buffer_mark_full(void)
+static void test_trace_buffer_wrap_around(void)
 {
+	/* 1000 doesn't divide the lane size, so some records will wrap around the end */
+	char record[1000];
+	int num_records = (3 * TB_LANE_SIZE) / sizeof(record);
+	int i, num_drains = 0;
+
 	/* Create a new buffer - should succeed */
 	trace_buffer_id id1 = trace_buffer_create();
 	CU_ASSERT_NOT_EQUAL(id1, -1);
+	reset_collected_data();
 
-	switch (fork()){
-	case 0:
-		/* child - note, we can't use CU_ASSERT_x in the child process */
-
-		/* wait long enough for the parent to block. */
-		usleep(100000);
-
-		/* write a byte of data to the trace buffer, to make it non-empty. */
-		trace_buffer_write_byte(1);
-
-		/*
-		 * Let's pretend it's now full. This should block until the parent
-		 * cleans up the buffer.
-		 */
-		struct timeval before, after;
-		gettimeofday(&before, NULL);
-		trace_buffer_mark_full(TRUE);
-		gettimeofday(&after, NULL);
-		unsigned long duration = (after.tv_sec - before.tv_sec) * 1000000 +
-				(after.tv_usec - before.tv_usec);
-
-		/*
-		 * if we ended up waiting for > 90ms, write another byte. The parent
-		 * will therefore see 2 bytes in the buffer on success, or 1 on failure.
-		 * We do this as a work-around for not being able to CU_ASSERT in the
-		 * child process.
-		 */
-		if (duration > 90000) {
-			trace_buffer_write_byte(2);
+	/*
+	 * Write the records, each containing its own sequence number. We drain the lane
+	 * after every 100 records, which is frequently enough that the lane never fills up.
+	 */
+	for (i = 0; i != num_records; i++) {
+		memset(record, i & 0x7f, sizeof(record));
+		memcpy(record, &i, sizeof(i));
+		if (write_record(record, sizeof(record)) != 0) {
+			CU_FAIL("Failed to write a record.");
+			break;
+		}
+		if (i % 100 == 99) {
+			CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+			num_drains++;
+		}
+	}
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	num_drains++;
+
+	/* each time the data wrapped around, drain would have passed it to us in two pieces */
+	CU_ASSERT_EQUAL(collected_size, num_records * sizeof(record));
+	CU_ASSERT_EQUAL(collected_chunks, num_drains + 2);
+	CU_ASSERT_TRUE(trace_buffer->tb_lanes[0].tl_consumed > 2 * TB_LANE_SIZE);
+
+	/* validate that the records were drained in the order they were written */
+	for (i = 0; i != num_records; i++) {
+		char *ptr = collected_data + i * sizeof(record);
+		int seqno;
+		memcpy(&seqno, ptr, sizeof(seqno));
+		if ((seqno != i) || (ptr[sizeof(record) - 1] != (i & 0x7f))) {
+			CU_FAIL("trace buffer content is incorrect");
+			break;
 		}
-
-		/* exit - this should cause the parent to unblock. */
-		usleep(50000);
-		exit(0);
-
-	case -1:
-		/* error */
-		CU_FAIL("Failed to fork a child process.");
-		break;
-
-	default:
-		/* parent */
-
-		/*
-		 * wait until the child tells us the buffer is full.
-		 * The return value should be 0 to indicate that data is
-		 * available.
-		 */
-		CU_ASSERT_EQUAL(trace_buffer_wait_until_full(), 0);
-
-		/* There should be content, assuming we blocked successfully. */
-		void *ptr;
-		unsigned long size;
-		trace_buffer_fetch(&ptr, &size);
-		CU_ASSERT_EQUAL(size, 1);
-
-		/*
-		 * Wait for a while, to make sure the child blocks for a measurable
-		 * period of time, the mark then trace buffer as being empty (this
-		 * should wake up the child).
-		 */
-		usleep(100000);
-		CU_ASSERT_EQUAL(trace_buffer_mark_full(FALSE), 0);
-
-		/*
-		 * Wait again, but this time the child terminated.
-		 * The return value should be 1 to indicate EOF.
-		 */
-		CU_ASSERT_EQUAL(trace_buffer_wait_until_full(), 1);
-
-		/*
-		 * Check the final buffer - on success there should be 2 bytes.
-		 * note that the second byte was put there because the child
-		 * blocked long enough while it waited for the parent
-		 */
-		trace_buffer_fetch(&ptr, &size);
-		CU_ASSERT_EQUAL(size, 2);
-		break;
 	}
 
-	/* Completely remove the trace buffer. */
-	trace_buffer_delete();
+	/* Delete the trace buffer */
+	CU_ASSERT_EQUAL(trace_buffer_delete(), 0);
 }
 
 /*======================================================================
  * test_trace_buffer_large_writes()
  *
- * Test that large writes of data (many times larger than the trace
- * buffer) will succeed.
+ * Test that large writes of data (many times larger than a lane)
+ * will succeed, with the producer blocking whenever its lane is full.
  *======================================================================*/
 
 static void test_trace_buffer_large_writes(void)
 {
+	int num_ints = TB_LANE_SIZE * 5;
+	int ints_per_record = 64;
+
 	/* Create a new buffer - should succeed */
 	trace_buffer_id id1 = trace_buffer_create();
 	CU_ASSERT_NOT_EQUAL(id1, -1);
+	reset_collected_data();
 
 	/* we need a producer and a consumer */
 	switch (fork()){
@@ -508,20 +597,22 @@ static void test_trace_buffer_large_writes(void)
 		/* child */ ;
 		int i;
 
-		CU_ASSERT_EQUAL(trace_buffer_lock(), 0);
-
 		/*
-		 * Generate a very long sequential stream of numbers.
-		 * With each iteration, we write a 4-byte word into buffer. This
-		 * will overflow the buffer multiple times, allowing us to test
-		 * whether the data is passed through to the parent correctly.
+		 * Generate a very long sequential stream of numbers. With each iteration,
+		 * we write a record of 4-byte words into the buffer. This will overflow the
+		 * lane multiple times, allowing us to test whether the data is passed through
+		 * to the parent correctly.
 		 */
-		for (i = 0; i != TRACE_BUFFER_SIZE * 20; i++){
+		for (i = 0; i != num_ints; i++){
+			if ((i % ints_per_record == 0) && (trace_buffer_begin_record() != 0)) {
+				exit(1);
+			}
 			trace_buffer_write_int(i);
+			if ((i % ints_per_record == ints_per_record - 1) && (trace_buffer_end_record() != 0)) {
+				exit(1);
+			}
 		}
 
-		CU_ASSERT_TRUE(trace_buffer_unlock());
-
 		/* exit - the parent's loop should now terminate normally. */
 		exit(0);
 
@@ -533,47 +624,82 @@ static void test_trace_buffer_large_writes(void)
 	default:
 		/* parent */ ;
 		int child_done = FALSE;
-		int counter = 0;
+		int status;
 
 		/*
-		 * Loop indefinitely, until the child process exits. Our 'counter'
-		 * starts and 0 and increments as we receive data from the child.
-		 * Naturally, since the child's counter also starts from 0, we should
-		 * expect the same sequence of numbers.
+		 * Loop until the child process exits, draining the data it writes. The child
+		 * can't write more than a lane's worth of data until we do.
 		 */
 		do {
-			/* Wait until the child tells us the buffer is full */
-			child_done = trace_buffer_wait_until_full();
+			child_done = trace_buffer_wait_for_data();
 			if (child_done == -1) {
-				CU_FAIL("trace_buffer_wait_until_full returned -1");
-			}
-
-			/* fetch the buffer base and size */
-			int *buf_ptr;
-			unsigned long buf_size;
-			trace_buffer_fetch((void **)&buf_ptr, &buf_size);
-
-			/* validate the content of the buffer */
-			CU_ASSERT_TRUE(buf_size % sizeof(int) == 0);
-			while (buf_size != 0) {
-				if (*buf_ptr++ != counter++) {
-					CU_FAIL("trace buffer content is incorrect");
-					break;
-				}
-				buf_size -= sizeof(int);
+				CU_FAIL("trace_buffer_wait_for_data returned -1");
+				break;
 			}
+			CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+		} while (!child_done);
 
-			/* mark the buffer as empty, and start the child again */
-			trace_buffer_empty_content();
-			CU_ASSERT_EQUAL(trace_buffer_mark_full(FALSE), 0);
+		/* drain anything that was written after our last drain */
+		wait(&status);
+		CU_ASSERT_EQUAL(WEXITSTATUS(status), 0);
+		CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
 
-		} while (!child_done);
+		/*
+		 * validate the content of the buffer. Since the child's counter also started
+		 * from 0, we should expect the same sequence of numbers.
+		 */
+		CU_ASSERT_EQUAL(collected_size, num_ints * sizeof(int));
+		int *buf_ptr = (int *)collected_data;
+		int counter;
+		for (counter = 0; counter != collected_size / sizeof(int); counter++) {
+			if (*buf_ptr++ != counter) {
+				CU_FAIL("trace buffer content is incorrect");
+				break;
+			}
+		}
 	}
 
 	/* completely remove the trace buffer. */
 	trace_buffer_delete();
 }
 
+/*======================================================================
+ * test_trace_buffer_drain_order()
+ *
+ * Test that TRACE_FILE_NEW_PROGRAM records are drained before any other
+ * records that were written at the same time, and that records within
+ * a lane are drained in the order they were written.
+ *======================================================================*/
+
+static void test_trace_buffer_drain_order(void)
+{
+	char new_program[] = { TRACE_FILE_NEW_PROGRAM, 'N' };
+
+	/* Create a new buffer - should succeed */
+	trace_buffer_id id1 = trace_buffer_create();
+	CU_ASSERT_NOT_EQUAL(id1, -1);
+
+	/* Once we have a process number, normal records are written into our own lane */
+	CU_ASSERT_NOT_EQUAL(trace_buffer_next_process_number(), -1);
+	CU_ASSERT_EQUAL(write_record("A", 1), 0);
+	CU_ASSERT_EQUAL(trace_buffer->tb_lanes[0].tl_reserved, 0);
+
+	/* ... whereas TRACE_FILE_NEW_PROGRAM records go into lane 0 */
+	CU_ASSERT_EQUAL(write_record(new_program, sizeof(new_program)), 0);
+	CU_ASSERT_EQUAL(trace_buffer->tb_lanes[0].tl_reserved, sizeof(new_program));
+	CU_ASSERT_EQUAL(write_record("B", 1), 0);
+	CU_ASSERT_EQUAL(write_record("C", 1), 0);
+
+	/* The TRACE_FILE_NEW_PROGRAM record is drained first, even though it was written later */
+	reset_collected_data();
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 5);
+	CU_ASSERT_EQUAL(memcmp(collected_data, "\010NABC", 5), 0);
+
+	/* Delete the trace buffer */
+	CU_ASSERT_EQUAL(trace_buffer_delete(), 0);
+}
+
 /*======================================================================
  * test_trace_buffer_next_process_number()
  *
@@ -582,6 +708,9 @@ static void test_trace_buffer_large_writes(void)
 
 static void test_trace_buffer_next_process_number(void)
 {
+	/* Without a trace buffer, there are no process numbers */
+	CU_ASSERT_EQUAL(trace_buffer_next_process_number(), -1);
+
 	/* Create a new buffer - should succeed */
 	trace_buffer_id id1 = trace_buffer_create();
 	CU_ASSERT_NOT_EQUAL(id1, -1);
@@ -595,120 +724,391 @@ static void test_trace_buffer_next_process_number(void)
 }
 
 /*======================================================================
- * test_trace_buffer_stress()
+ * test_trace_buffer_delete_generation()
  *
- * Test that locking works when two or more processes write to the
- * buffer at the same time. Each process writes a predetermine sequence
- * of bytes, and assuming that buffer locking works as expected, each
- * sequence of bytes should be written atomically.
+ * Test that deleting a path only changes the delete generation of
+ * paths with the same hash value.
  *======================================================================*/
 
-static void test_trace_buffer_stress(void)
+static void test_trace_buffer_delete_generation(void)
 {
-	int num_writers = 2;
-	int bytes_per_writer = (TRACE_BUFFER_SIZE / num_writers) * 0.9;
-	int bytes_written = 0;
-	int is_parent;
+	/* Without a trace buffer, there are no delete generations */
+	CU_ASSERT_EQUAL(trace_buffer_get_delete_generation(1234), -1);
 
 	/* Create a new buffer - should succeed */
 	trace_buffer_id id1 = trace_buffer_create();
 	CU_ASSERT_NOT_EQUAL(id1, -1);
 
-	/*
-	 * Create a child process that will run in parallel with the parent
-	 * process.
-	 */
-	switch(fork()) {
-	case 0:
-		/* child process */
-		is_parent = FALSE;
-		break;
+	CU_ASSERT_EQUAL(trace_buffer_get_delete_generation(1234), 0);
+	CU_ASSERT_EQUAL(trace_buffer_get_delete_generation(5678), 0);
 
-	default:
-		/* parent process */
-		is_parent = TRUE;
-		break;
+	/* deleting a path only affects that path's generation */
+	trace_buffer_note_delete(1234);
+	trace_buffer_note_delete(1234);
+	CU_ASSERT_EQUAL(trace_buffer_get_delete_generation(1234), 2);
+	CU_ASSERT_EQUAL(trace_buffer_get_delete_generation(5678), 0);
 
-	case -1:
-		/* error */
-		CU_FAIL("Unable to fork off a child process.");
-		return;
+	/* ... and the generation of any other hash values that share it */
+	CU_ASSERT_EQUAL(trace_buffer_get_delete_generation(1234 + TB_DELETE_BUCKETS), 2);
+
+	/* completely remove the trace buffer. */
+	trace_buffer_delete();
+}
+
+/*======================================================================
+ * test_trace_buffer_multiple_producers()
+ *
+ * Test that many processes can write to the trace buffer at the same
+ * time, while the consumer drains it. There are more producers than
+ * lanes, so some producers must share a lane. Each producer writes a
+ * sequence of variable-length records, and each record must be drained
+ * intact, and in the order that its producer wrote it.
+ *======================================================================*/
+
+/*
+ * Each record starts with these fields, followed by (rec_length - sizeof(stress_record)) bytes.
+ * The first byte of a record is its type, and these must not look like TRACE_FILE_NEW_PROGRAM
+ * records, which are written to a different lane.
+ */
+typedef struct stress_record {
+	int rec_tag;
+	int rec_length;
+	int rec_process_number;
+	int rec_seqno;
+} stress_record;
+
+#define STRESS_TAG			0x5a5a5a5a
+#define STRESS_PRODUCERS	24
+#define STRESS_RECORDS		2000
+
+static void test_trace_buffer_multiple_producers(void)
+{
+	int i;
+
+	/* Create a new buffer - should succeed */
+	trace_buffer_id id1 = trace_buffer_create();
+	CU_ASSERT_NOT_EQUAL(id1, -1);
+	reset_collected_data();
+
+	/* start all the producers, which will run in parallel with each other */
+	for (i = 0; i != STRESS_PRODUCERS; i++) {
+		switch (fork()) {
+		case 0:
+			/* child - note, we can't use CU_ASSERT_x in the child process */ ;
+			char filler[400];
+			stress_record rec;
+			rec.rec_tag = STRESS_TAG;
+			rec.rec_process_number = trace_buffer_next_process_number();
+
+			for (rec.rec_seqno = 0; rec.rec_seqno != STRESS_RECORDS; rec.rec_seqno++) {
+				int filler_length = (rec.rec_seqno * 7 + rec.rec_process_number) % sizeof(filler);
+				rec.rec_length = sizeof(rec) + filler_length;
+				memset(filler, rec.rec_seqno + rec.rec_process_number, filler_length);
+
+				if ((trace_buffer_begin_record() != 0) ||
+						(trace_buffer_write_bytes(&rec, sizeof(rec)) != 0) ||
+						(trace_buffer_write_bytes(filler, filler_length) != 0) ||
+						(trace_buffer_end_record() != 0)) {
+					exit(1);
+				}
+			}
+			exit(0);
+
+		case -1:
+			/* error */
+			CU_FAIL("Failed to fork a child process.");
+			break;
+		}
+	}
+
+	/* drain the buffer until all the producers have exited */
+	int producers_left = STRESS_PRODUCERS;
+	while (producers_left != 0) {
+		int status;
+		while ((producers_left != 0) && (waitpid(-1, &status, WNOHANG) > 0)) {
+			CU_ASSERT_EQUAL(WEXITSTATUS(status), 0);
+			producers_left--;
+		}
+
+		/* once the first child has exited, wait_for_data() no longer sleeps */
+		if (trace_buffer_wait_for_data() != 0) {
+			usleep(1000);
+		}
+		CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
 	}
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
 
 	/*
-	 * Both the parent and child will execute this code - filling up the trace buffer.
-	 * We follow this algorithm:
-	 * 		- Each process picks a random number (which should be different from one the
-	 *        other process chose).
-	 *      - The process writes that number as a 4-byte integer.
-	 *      - The process writes the low-order byte of that number to the trace buffer
-	 *        a total of num % 10 times (from 0 to 9 repetitions).
-	 * This is repeated until the process has written bytesPerWriter bytes to the buffer
-	 * (to ensure we won't run out of buffer space).
+	 * Walk through the drained data, validating each record. The records from the
+	 * different producers are interleaved, but each producer's records must appear
+	 * in sequence.
 	 */
-	srand(getpid());
-	while (bytes_written < bytes_per_writer) {
-
-		/* pick a random number */
-		unsigned int num = rand();
-		int count;
-		if (trace_buffer_lock() == 0) {
-
-			/* write that integer to the trace buffer */
-			trace_buffer_write_int(num);
-
-			/* now write the low-order byte num % 10 times */
-			count = num % 10;
-			int i = 0;
-			while (i++ != count) {
-				trace_buffer_write_byte((unsigned char )(num & 0xff));
-			}
-			if (trace_buffer_unlock() != 0){
-				CU_FAIL("Unable to unlock trace buffer.");
+	int next_seqno[STRESS_PRODUCERS + 1];
+	memset(next_seqno, 0, sizeof(next_seqno));
+	unsigned long offset = 0;
+	while (offset + sizeof(stress_record) <= collected_size) {
+		stress_record rec;
+		memcpy(&rec, collected_data + offset, sizeof(rec));
+		if ((rec.rec_tag != STRESS_TAG) ||
+				(rec.rec_process_number < 1) || (rec.rec_process_number > STRESS_PRODUCERS) ||
+				(rec.rec_seqno != next_seqno[rec.rec_process_number]) ||
+				(rec.rec_length < (int)sizeof(rec)) || (offset + rec.rec_length > collected_size)) {
+			CU_FAIL("trace buffer record header is incorrect");
+			break;
+		}
+		char *filler = collected_data + offset + sizeof(rec);
+		for (i = 0; i != rec.rec_length - (int)sizeof(rec); i++) {
+			if (filler[i] != (char)(rec.rec_seqno + rec.rec_process_number)) {
+				CU_FAIL("trace buffer record content is incorrect");
+				break;
 			}
-		} else {
-			CU_FAIL("Unable to lock trace buffer.");
 		}
-		bytes_written += sizeof(int) + count;
+		next_seqno[rec.rec_process_number]++;
+		offset += rec.rec_length;
 	}
+	CU_ASSERT_EQUAL(offset, collected_size);
 
-	/*
-	 * Both parent and child are done writing, so the parent process must wait
-	 * for the child to exit.
-	 */
-	if (is_parent) {
-		int status;
-		wait(&status);
+	/* every producer's records should all be present */
+	for (i = 1; i <= STRESS_PRODUCERS; i++) {
+		CU_ASSERT_EQUAL(next_seqno[i], STRESS_RECORDS);
+	}
+	CU_ASSERT_EQUAL(trace_buffer_count_abandoned_lanes(), 0);
+
+	/* completely remove the trace buffer. */
+	trace_buffer_delete();
+}
+
+/*======================================================================
+ * fake_reservation()
+ *
+ * Helper function for pretending that the process 'pid' has reserved
+ * 'size' bytes in lane 0, but hasn't yet committed them. If 'known_pos'
+ * is FALSE, the process hasn't yet recorded the reservation's position.
+ * Returns the position of the reservation.
+ *======================================================================*/
+
+static unsigned long fake_reservation(int pid, unsigned long size, int known_pos)
+{
+	trace_buffer_lane *lane = &trace_buffer->tb_lanes[0];
+	lane->tl_producers[0].tp_pid = pid;
+	unsigned long pos = __sync_fetch_and_add(&lane->tl_reserved, size);
+	if (known_pos) {
+		lane->tl_producers[0].tp_pos = pos;
 	}
+	return pos;
+}
+
+/*======================================================================
+ * test_trace_buffer_slow_producer()
+ *
+ * Test what happens when a producer takes a long time (for example,
+ * because it's been stopped) between reserving space in a lane and
+ * committing its record. The other producers in that lane must wait,
+ * but none of their records are lost.
+ *======================================================================*/
 
-	/* the child process exists, passing control back to the parent */
-	else {
+static void test_trace_buffer_slow_producer(void)
+{
+	/* TRACE_FILE_NEW_PROGRAM records are always written to lane 0 */
+	char record_x[] = { TRACE_FILE_NEW_PROGRAM, 'X' };
+	char record_y[] = { TRACE_FILE_NEW_PROGRAM, 'Y' };
+	char record_z[] = { TRACE_FILE_NEW_PROGRAM, 'Z' };
+	int status;
+
+	/* Create a new buffer - should succeed */
+	trace_buffer_id id1 = trace_buffer_create();
+	CU_ASSERT_NOT_EQUAL(id1, -1);
+	CU_ASSERT_EQUAL(write_record(record_x, sizeof(record_x)), 0);
+
+	/* The slow producer is a child process that stays alive until we kill it */
+	pid_t slow_pid = fork();
+	if (slow_pid == 0) {
+		pause();
 		exit(0);
 	}
+	CU_ASSERT_NOT_EQUAL(slow_pid, -1);
+
+	/* Pretend that it has reserved space in lane 0, then have another child write a record */
+	unsigned long pos = fake_reservation(slow_pid, sizeof(record_y), TRUE);
+	pid_t writer_pid = fork();
+	if (writer_pid == 0) {
+		exit((write_record(record_z, sizeof(record_z)) == 0) ? 0 : 1);
+	}
+	CU_ASSERT_NOT_EQUAL(writer_pid, -1);
+
+	/* After a few seconds, the writer should still be waiting, and nothing is abandoned */
+	unsigned int remaining = 3;
+	while ((remaining = sleep(remaining)) != 0) {
+		/* keep sleeping */
+	}
+	CU_ASSERT_EQUAL(waitpid(writer_pid, &status, WNOHANG), 0);
+	CU_ASSERT_EQUAL(trace_buffer_count_abandoned_lanes(), 0);
+
+	/* Now the slow producer commits its record, so the writer can finish */
+	trace_buffer_lane *lane = &trace_buffer->tb_lanes[0];
+	memcpy(&lane->tl_data[pos], record_y, sizeof(record_y));
+	__sync_synchronize();
+	lane->tl_committed = pos + sizeof(record_y);
+	lane->tl_producers[0].tp_pos = TB_POS_UNKNOWN;
+	lane->tl_producers[0].tp_pid = 0;
+	CU_ASSERT_EQUAL(waitpid(writer_pid, &status, 0), writer_pid);
+	CU_ASSERT_EQUAL(WEXITSTATUS(status), 0);
+	kill(slow_pid, SIGKILL);
+	waitpid(slow_pid, &status, 0);
+
+	/* All the records are present, in the order they were reserved */
+	reset_collected_data();
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 6);
+	CU_ASSERT_EQUAL(memcmp(collected_data, "\010X\010Y\010Z", 6), 0);
+	CU_ASSERT_EQUAL(trace_buffer_count_abandoned_lanes(), 0);
+
+	/* completely remove the trace buffer. */
+	trace_buffer_delete();
+}
+
+/*======================================================================
+ * test_trace_buffer_abandoned_lane()
+ *
+ * Test what happens when a producer dies between reserving space in a
+ * lane and committing its record. The other producers in that lane
+ * shouldn't block forever, although their records are discarded.
+ * Producers in other lanes should be unaffected.
+ *======================================================================*/
+
+static void test_trace_buffer_abandoned_lane(void)
+{
+	/* TRACE_FILE_NEW_PROGRAM records are always written to lane 0 */
+	char record_x[] = { TRACE_FILE_NEW_PROGRAM, 'X' };
+	char record_y[] = { TRACE_FILE_NEW_PROGRAM, 'Y' };
+	int status;
+
+	/* Create a new buffer - should succeed */
+	trace_buffer_id id1 = trace_buffer_create();
+	CU_ASSERT_NOT_EQUAL(id1, -1);
+
+	/* Pretend that a child process reserved space in lane 0, then died (and was reaped) */
+	CU_ASSERT_EQUAL(write_record(record_x, sizeof(record_x)), 0);
+	pid_t dead_pid = fork();
+	if (dead_pid == 0) {
+		exit(0);
+	}
+	CU_ASSERT_EQUAL(waitpid(dead_pid, &status, 0), dead_pid);
+	fake_reservation(dead_pid, 10, TRUE);
+
+	/* Our next record can't be committed, so it's discarded */
+	CU_ASSERT_EQUAL(write_record(record_y, sizeof(record_y)), -1);
+	CU_ASSERT_EQUAL(trace_buffer_count_abandoned_lanes(), 1);
+	CU_ASSERT_TRUE(trace_buffer->tb_lanes[0].tl_abandoned);
+
+	/* Later records in that lane are discarded immediately, without reserving space */
+	unsigned long reserved = trace_buffer->tb_lanes[0].tl_reserved;
+	CU_ASSERT_EQUAL(write_record(record_y, sizeof(record_y)), -1);
+	CU_ASSERT_EQUAL(trace_buffer->tb_lanes[0].tl_reserved, reserved);
+
+	/* Records in other lanes are still written */
+	CU_ASSERT_NOT_EQUAL(trace_buffer_next_process_number(), -1);
+	CU_ASSERT_EQUAL(write_record("W", 1), 0);
+
+	/* Only the records that were committed can be drained */
+	reset_collected_data();
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	CU_ASSERT_EQUAL(collected_size, 3);
+	CU_ASSERT_EQUAL(memcmp(collected_data, "\010XW", 3), 0);
+	trace_buffer_delete();
 
 	/*
-	 * The parent now checks the buffer to make sure it contains valid content.
+	 * Now try a child that died (but hasn't yet been reaped) before recording the
+	 * position of its reservation. This lane should also be abandoned.
 	 */
-	void *ptr;
-	unsigned long buffer_size;
-	int bytes_checked = 0;
-	CU_ASSERT_EQUAL(trace_buffer_fetch((void **)&ptr, &buffer_size), 0);
-
-	while (bytes_checked != buffer_size) {
-
-		/* read the num */
-		unsigned int num = *(int *)ptr;
-		ptr += sizeof(int);
-
-		/* check that the low-order byte was written enough times */
-		int count = num % 10;
-		int i = 0;
-		while (i++ != count) {
-			CU_ASSERT_EQUAL((unsigned char)(num & 0xff), *(unsigned char *)ptr);
-			ptr++;
+	id1 = trace_buffer_create();
+	CU_ASSERT_NOT_EQUAL(id1, -1);
+	dead_pid = fork();
+	if (dead_pid == 0) {
+		exit(0);
+	}
+	siginfo_t info;
+	CU_ASSERT_EQUAL(waitid(P_PID, dead_pid, &info, WEXITED | WNOWAIT), 0);
+	fake_reservation(dead_pid, 10, FALSE);
+	CU_ASSERT_EQUAL(write_record(record_y, sizeof(record_y)), -1);
+	CU_ASSERT_EQUAL(trace_buffer_count_abandoned_lanes(), 1);
+	waitpid(dead_pid, &status, 0);
+
+	/* completely remove the trace buffer. */
+	trace_buffer_delete();
+}
+
+/*======================================================================
+ * test_trace_buffer_slow_consumer()
+ *
+ * Test that producers wait for as long as necessary when their lane is
+ * full, and the consumer is slow to drain it. No records should be lost.
+ *======================================================================*/
+
+static void test_trace_buffer_slow_consumer(void)
+{
+	int num_ints = TB_LANE_SIZE;
+	int ints_per_record = 64;
+	int status;
+
+	/* Create a new buffer - should succeed */
+	trace_buffer_id id1 = trace_buffer_create();
+	CU_ASSERT_NOT_EQUAL(id1, -1);
+	reset_collected_data();
+
+	/* the child writes four lanes' worth of data, so it'll fill its lane */
+	pid_t child_pid = fork();
+	if (child_pid == 0) {
+		int i;
+		for (i = 0; i != num_ints; i++){
+			if ((i % ints_per_record == 0) && (trace_buffer_begin_record() != 0)) {
+				exit(1);
+			}
+			trace_buffer_write_int(i);
+			if ((i % ints_per_record == ints_per_record - 1) && (trace_buffer_end_record() != 0)) {
+				exit(1);
+			}
+		}
+		exit(0);
+	}
+	CU_ASSERT_NOT_EQUAL(child_pid, -1);
+
+	/* Don't drain anything for a few seconds. The child must still be waiting */
+	unsigned int remaining = 3;
+	while ((remaining = sleep(remaining)) != 0) {
+		/* keep sleeping */
+	}
+	CU_ASSERT_EQUAL(waitpid(child_pid, &status, WNOHANG), 0);
+	CU_ASSERT_EQUAL(trace_buffer_count_abandoned_lanes(), 0);
+
+	/* Now drain everything, until the child exits */
+	int child_done;
+	do {
+		child_done = trace_buffer_wait_for_data();
+		if (child_done == -1) {
+			CU_FAIL("trace_buffer_wait_for_data returned -1");
+			break;
+		}
+		CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+	} while (!child_done);
+	CU_ASSERT_EQUAL(waitpid(child_pid, &status, 0), child_pid);
+	CU_ASSERT_EQUAL(WEXITSTATUS(status), 0);
+	CU_ASSERT_EQUAL(trace_buffer_drain(collect_data), 0);
+
+	/* every record should be present, in order */
+	CU_ASSERT_EQUAL(collected_size, num_ints * sizeof(int));
+	int *buf_ptr = (int *)collected_data;
+	int counter;
+	for (counter = 0; counter != collected_size / sizeof(int); counter++) {
+		if (*buf_ptr++ != counter) {
+			CU_FAIL("trace buffer content is incorrect");
+			break;
 		}
-		bytes_checked += sizeof(int) + count;
 	}
+	CU_ASSERT_EQUAL(trace_buffer_count_abandoned_lanes(), 0);
+
+	/* completely remove the trace buffer. */
+	trace_buffer_delete();
 }
 
 /*======================================================================
@@ -724,16 +1124,21 @@ int init_trace_buffer_suite()
 	ADD_TEST_CASE(test_trace_buffer_create, "Test trace_buffer_create()");
 	ADD_TEST_CASE(test_trace_buffer_use_existing, "Test trace_buffer_use_existing()");
 	ADD_TEST_CASE(test_trace_buffer_delete, "Test trace_buffer_delete()");
-	ADD_TEST_CASE(test_trace_buffer_fetch, "Test trace_buffer_fetch()");
+	ADD_TEST_CASE(test_trace_buffer_drain, "Test trace_buffer_drain()");
 	ADD_TEST_CASE(test_trace_buffer_write_string, "Test trace_buffer_write_string()");
 	ADD_TEST_CASE(test_trace_buffer_write_bytes, "Test trace_buffer_write_bytes()");
 	ADD_TEST_CASE(test_trace_buffer_write_int, "Test trace_buffer_write_int()");
 	ADD_TEST_CASE(test_trace_buffer_write_byte, "Test trace_buffer_write_byte()");
-	ADD_TEST_CASE(test_trace_buffer_lock, "Test trace_buffer_lock()");
-	ADD_TEST_CASE(test_trace_buffer_mark_full, "Test trace_buffer_mark_full()");
+	ADD_TEST_CASE(test_trace_buffer_reserve_commit, "Test that records are only visible once committed.");
+	ADD_TEST_CASE(test_trace_buffer_wrap_around, "Test that records can wrap around the end of a lane.");
 	ADD_TEST_CASE(test_trace_buffer_large_writes, "Test that trace_buffer manages large amounts of data.");
+	ADD_TEST_CASE(test_trace_buffer_drain_order, "Test the order in which records are drained.");
 	ADD_TEST_CASE(test_trace_buffer_next_process_number, "Test trace_buffer_next_process_number()");
-	ADD_TEST_CASE(test_trace_buffer_stress, "Test trace_buffer_stress()");
+	ADD_TEST_CASE(test_trace_buffer_delete_generation, "Test trace_buffer_note_delete()");
+	ADD_TEST_CASE(test_trace_buffer_multiple_producers, "Test many producers writing at the same time.");
+	ADD_TEST_CASE(test_trace_buffer_slow_producer, "Test a producer that's slow to commit its record.");
+	ADD_TEST_CASE(test_trace_buffer_abandoned_lane, "Test a lane whose producer died before committing.");
+	ADD_TEST_CASE(test_trace_buffer_slow_consumer, "Test a consumer that's slow to drain a full lane.");
 
 	return 0;
 }
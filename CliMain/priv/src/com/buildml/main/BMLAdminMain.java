@@ -479,6 +479,14 @@ public final class BMLAdminMain {
 		} catch (BuildStoreVersionException ex) {
 			CliUtils.reportErrorAndExit(ex.getMessage());				
 		}
+		
+		/* 
+		 * Commands typically look up many paths, so hold the whole path tree in memory. It's
+		 * only loaded if the command actually looks up a path.
+		 */
+		if (buildStore != null) {
+			buildStore.getFileMgr().setPathTreeResident(true);
+		}
 
 		/*
 		 * Fetch the command's command line options (Options object) which
@@ -510,12 +518,27 @@ public final class BMLAdminMain {
 		/*
 		 * Now, invoke the command. If the invoke() method wants to, it may completely
 		 * exit from the program. This is the typical case when an error is reported
-		 * via the CliUtils.reportErrorAndExit() method.
+		 * via the CliUtils.reportErrorAndExit() method. All of the command's changes are
+		 * made in a single batch, so an early exit leaves the BuildStore unchanged.
 		 */
-		cmd.invoke(buildStore, buildStoreFileName, remainingArgs);
+		if (buildStore != null) {
+			buildStore.beginBatch();
+		}
+		boolean completed = false;
+		try {
+			cmd.invoke(buildStore, buildStoreFileName, remainingArgs);
+			completed = true;
+		} finally {
+
+			/* if the command failed with an exception, discard its changes */
+			if ((buildStore != null) && !completed) {
+				buildStore.rollbackBatch();
+			}
+		}
 
-		/* release resources */
+		/* commit the changes, and release resources */
 		if (buildStore != null) {
+			buildStore.commitBatch();
 			buildStore.close();
 		}
 	}
@@ -15,6 +15,8 @@ package com.buildml.main;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 
@@ -29,6 +31,7 @@ import com.buildml.model.IPackageRootMgr;
 import com.buildml.model.types.FileSet;
 import com.buildml.model.types.ActionSet;
 import com.buildml.utils.errors.ErrorCode;
+import com.buildml.utils.errors.FatalError;
 import com.buildml.utils.print.PrintUtils;
 import com.buildml.utils.string.ShellCommandUtils;
 
@@ -177,28 +180,103 @@ public class CliUtils {
 			PrintStream outStream, IBuildStore buildStore, FileSet resultFileSet,
 			FileSet filterFileSet, boolean showRoots, boolean showPkgs) {
 		
+		IFileMgr fileMgr = buildStore.getFileMgr();
+		IPackageMgr pkgMgr = buildStore.getPackageMgr();
+		IPackageMemberMgr pkgMemberMgr = buildStore.getPackageMemberMgr();
 		IPackageRootMgr pkgRootMgr = buildStore.getPackageRootMgr();
 		
 		/*
-		 * This method uses recursion to traverse the VFS from the root to the leaves 
-		 * of the tree. It maintains a StringBuilder with the path encountered so far. 
-		 * That is, if the StringBuilder contains "/a/b/c" and the path "d" is encountered, 
-		 * then append "/d" to the StringBuilder to get "/a/b/c/d". Once we've finished 
-		 * traversing directory "d", we pop it off the StringBuilder and return to 
-		 * "/a/b/c/". This allows us to do a depth-first traversal of the VFS tree 
-		 * without doing more database access than we need to.
+		 * Start by traversing the VFS from the root to the leaves of the tree, collecting
+		 * the IDs of the paths to be displayed (in display order). 
 		 * 
 		 * The resultFileSet and filterFileSet work together to determine which paths are
 		 * to be displayed. resultFileSet contains all the files from the relevant database
 		 * query. On the other hand, filterFileSet is the list of files that have been
 		 * selected by the user's command line argument (e.g. selecting a subdirectory, or
-		 * selecting files that match a pattern, such as *.c).
+		 * selecting files that match a pattern, such as *.c). The two sets are intersected
+		 * up-front, so that each path only needs to be tested against a single set.
 		 */		
-		StringBuffer sb = new StringBuffer();					
+		FileSet displayFileSet = intersectSets(resultFileSet, filterFileSet);
+		List<Integer> pathIdList = new ArrayList<Integer>();
+		collectFileSetHelper(pathIdList, fileMgr, pkgRootMgr.getRootPath("root"), displayFileSet);
+		int pathIds[] = new int[pathIdList.size()];
+		for (int i = 0; i < pathIds.length; i++) {
+			pathIds[i] = pathIdList.get(i);
+		}
 		
-		/* call the helper function to display each of our children */
-		printFileSetHelper(outStream, sb, buildStore, pkgRootMgr.getRootPath("root"), 
-				resultFileSet, filterFileSet, showRoots, showPkgs);
+		/* 
+		 * Now fetch the names (and packages, if required) of all the paths at once, which
+		 * is much faster than fetching them individually.
+		 */
+		String pathNames[] = fileMgr.getPathNames(pathIds);
+		PackageDesc pathPackages[] = null;
+		if (showPkgs) {
+			pathPackages = pkgMemberMgr.getPackagesOfMembers(IPackageMemberMgr.TYPE_FILE, pathIds);
+		}
+		
+		for (int i = 0; i < pathIds.length; i++) {
+			
+			/* 
+			 * If we've been asked to display file packages, prepare the string to be printed.
+			 */
+			if (showPkgs) {
+				StringBuilder pkgString = new StringBuilder();
+				
+				/* fetch the file's package and scope */
+				PackageDesc pkgAndScopeId = pathPackages[i];
+				if (pkgAndScopeId == null) {
+					pkgString.append("Invalid file");
+				} 
+				
+				/* if valid, fetch the human-readable names */
+				else {
+					String pkgName = pkgMgr.getName(pkgAndScopeId.pkgId);
+					String scopeName = pkgMemberMgr.getScopeName(pkgAndScopeId.pkgScopeId);
+				
+					/* if we can't fetch the text name of the package or scope... */
+					if (pkgName == null || scopeName == null) {
+						pkgString.append("Invalid package");
+					}
+				
+					/* else, both names are valid, append them to the string */
+					else {
+						pkgString.append(pkgName);
+						pkgString.append(" - ");
+						pkgString.append(scopeName);
+					}
+				}
+				
+				/* Truncate to a fixed column width. */
+				if (pkgString.length() > PACKAGE_NAME_WIDTH - 1) {
+					pkgString.setLength(PACKAGE_NAME_WIDTH - 1);
+				}
+				outStream.print(pkgString);
+				PrintUtils.indent(outStream, PACKAGE_NAME_WIDTH - pkgString.length());
+			}
+			
+			/* Display this path */
+			outStream.print(pathNames[i]);
+			
+			/* 
+			 * Does this path have a root (and we were asked to show roots)?
+			 * If so, display a root name, or space-separated root names.
+			 */
+			if (showRoots) {
+				String rootNames[] = pkgRootMgr.getRootsAtPath(pathIds[i]);
+				if (rootNames.length > 0) {
+					outStream.print(" (");
+					for (int j = 0; j < rootNames.length; j++) {
+						if (j != 0) {
+							outStream.print(' ');
+						}
+						outStream.print('@');
+						outStream.print(rootNames[j]);
+					}
+					outStream.print(')');
+				}
+			}
+			outStream.println();
+		}
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -226,12 +304,15 @@ public class CliUtils {
 		 * of the paths underneath that root.
 		 */
 		int topRoot = actionMgr.getRootAction("");
+		
+		/* only actions in both the result and filter sets are displayed */
+		ActionSet displayActionSet = intersectSets(resultActionSet, filterActionSet);
 	
 		/* call the helper function to display each of our children */
 		Integer children[] = actionMgr.getChildren(topRoot);
 		for (int i = 0; i < children.length; i++) {
 			printActionSetHelper(outStream, buildStore, children[i], 
-					resultActionSet, filterActionSet, outputFormat, showPkgs, 1);
+					displayActionSet, outputFormat, showPkgs, 1);
 		}
 	}
 
@@ -447,140 +528,27 @@ public class CliUtils {
 	/*-------------------------------------------------------------------------------------*/
 	
 	/**
-	 * Helper method for displaying a path and all it's children, called exclusively by
-	 * printFileSet().
+	 * Helper method for collecting the IDs of a path and all its children (in the order
+	 * they should be displayed), called exclusively by printFileSet().
 	 * 
-	 * @param outStream The PrintStream on which to display paths.
-	 * @param pathSoFar This path's parent path as a string, complete with trailing "/".
-	 * @param buildStore The BuildStore in which these paths belong.
-	 * @param thisPathId The path to display (assuming it's in the filesToShow FileSet).
-	 * @param resultFileSet The set of files to be displayed (if null, show them all).
-	 * @param filterFileSet If not-null, used to filter which paths from resultFileSet
-	 * 		   should be displayed (set to null to display everything).
-	 * @param showRoots Whether to show path roots.
-	 * @param showPkgs Whether to show the package names.
+	 * @param pathIds The list to which the displayable path IDs are appended.
+	 * @param fileMgr The FileMgr in which these paths belong.
+	 * @param thisPathId The path to collect (assuming it's in the filesToShow FileSet).
+	 * @param displayFileSet The set of files to be displayed (if null, show them all).
 	 */
-	private static void printFileSetHelper(
-			PrintStream outStream, StringBuffer pathSoFar, IBuildStore buildStore, 
-			int thisPathId, FileSet resultFileSet, FileSet filterFileSet, boolean showRoots, 
-			boolean showPkgs) {
-
-		IFileMgr fileMgr = buildStore.getFileMgr();
-		IPackageMgr pkgMgr = buildStore.getPackageMgr();
-		IPackageMemberMgr pkgMemberMgr = buildStore.getPackageMemberMgr();
-		IPackageRootMgr pkgRootMgr = buildStore.getPackageRootMgr();
-		
-		/* StringBuilders for forming the package name and the root names */
-		StringBuilder pkgString = null;
-		StringBuilder rootString = null;
+	private static void collectFileSetHelper(
+			List<Integer> pathIds, IFileMgr fileMgr, int thisPathId, FileSet displayFileSet) {
 
 		/* should this path be displayed? */
-		if (!shouldBeDisplayed(thisPathId, resultFileSet, filterFileSet)){
+		if ((displayFileSet != null) && !displayFileSet.isMember(thisPathId)){
 			return;
-		}	
-
-		/* fetch this path's name */
-		String baseName = fileMgr.getBaseName(thisPathId);
+		}
+		pathIds.add(thisPathId);
 
-		/* get this path's list of children */
+		/* if there are children, call ourselves recursively to collect them */
 		Integer children[] = fileMgr.getChildPaths(thisPathId);
-		
-		/*
-		 * Figure out whether this path has attached roots.
-		 */
-		String rootNames[] = null;
-		if (showRoots) {
-			rootNames = pkgRootMgr.getRootsAtPath(thisPathId);
-		}
-		
-		/* 
-		 * If we've been asked to display file packages, prepare the string to be printed.
-		 */
-		if (showPkgs) {
-			
-			pkgString = new StringBuilder();
-			
-			/* fetch the file's package and scope */
-			PackageDesc pkgAndScopeId = pkgMemberMgr.getPackageOfMember(IPackageMemberMgr.TYPE_FILE, thisPathId);
-			if (pkgAndScopeId == null) {
-				pkgString.append("Invalid file");
-			} 
-			
-			/* if valid, fetch the human-readable names */
-			else {
-				String pkgName = pkgMgr.getName(pkgAndScopeId.pkgId);
-				String scopeName = pkgMemberMgr.getScopeName(pkgAndScopeId.pkgScopeId);
-			
-				/* if we can't fetch the text name of the package or scope... */
-				if (pkgName == null || scopeName == null) {
-					pkgString.append("Invalid package");
-				}
-			
-				/* else, both names are valid, append them to the string */
-				else {
-					pkgString.append(pkgName);
-					pkgString.append(" - ");
-					pkgString.append(scopeName);
-				}
-			}
-		}
-		
-		/* 
-		 * Does this path have a root (and we were asked to show roots)?
-		 * If so, prepare the string to be printed.
-		 */
-		if ((rootNames != null) && (rootNames.length > 0)) {
-			rootString = new StringBuilder();
-			
-			/* display a root name, or comma-separated root names */
-			rootString.append(" (");
-			for (int i = 0; i < rootNames.length; i++) {
-				if (i != 0) {
-					rootString.append(' ');
-				}
-				rootString.append('@');
-				rootString.append(rootNames[i]);
-			}
-			rootString.append(')');
-		}
-		
-		/* show packages, if requested. Truncate to a fixed column width. */
-		if (pkgString != null) {
-			if (pkgString.length() > PACKAGE_NAME_WIDTH - 1) {
-				pkgString.setLength(PACKAGE_NAME_WIDTH - 1);
-			}
-			outStream.print(pkgString);
-			PrintUtils.indent(outStream, PACKAGE_NAME_WIDTH - pkgString.length());
-		}
-		
-		/* Display this path, prefixed by the absolute pathSoFar */
-		outStream.print(pathSoFar);		
-		outStream.print(baseName);
-		
-		/* show roots, if requested */
-		if (rootString != null) {
-			outStream.print(rootString);
-		}
-		outStream.println();
-		
-		/* if there are children, call ourselves recursively to display them */
-		if (children.length != 0) {
-			
-			/* append this path onto the pathSoFar, since it'll become the pathSoFar for each child */
-			int pathSoFarLen = pathSoFar.length();
-			pathSoFar.append(baseName);
-			if (baseName.charAt(0) != '/') {
-				pathSoFar.append('/');
-			}
-			
-			/* display each of the children */
-			for (int i = 0; i < children.length; i++) {
-				printFileSetHelper(outStream, pathSoFar, buildStore, children[i], 
-						resultFileSet, filterFileSet, showRoots, showPkgs);
-			}
-			
-			/* remove our base name from the pathSoFar, so our caller sees the correct value again */
-			pathSoFar.setLength(pathSoFarLen);
+		for (int i = 0; i < children.length; i++) {
+			collectFileSetHelper(pathIds, fileMgr, children[i], displayFileSet);
 		}
 	}
 
@@ -593,14 +561,13 @@ public class CliUtils {
 	 * @param outStream The PrintStream on which to display the output.
 	 * @param buildStore The database containing file, action and package information.
 	 * @param actionId The ID of the action we're currently displaying (at this level of recursion).
-	 * @param resultActionSet The full set of actions to be displayed (the result of some previous query).
-	 * @param filterActionSet The set of actions to actually be displayed (for post-filtering the query results).
+	 * @param displayActionSet The set of actions to be displayed (if null, show them all).
 	 * @param outputFormat The way in which the actions should be formatted.
 	 * @param showPkgs Set to true if we should display package names.
 	 * @param indentLevel The number of spaces to indent this action by (at this recursion level).
 	 */
 	private static void printActionSetHelper(PrintStream outStream, IBuildStore buildStore, 
-			int actionId, ActionSet resultActionSet, ActionSet filterActionSet, 
+			int actionId, ActionSet displayActionSet, 
 			DisplayWidth outputFormat, boolean showPkgs, int indentLevel) {
 	
 		IActionMgr actionMgr = buildStore.getActionMgr();
@@ -621,8 +588,7 @@ public class CliUtils {
 	     */
 		
 		/* is this action in the ActionSet to be printed? If not, terminate recursion */
-		if (! (((resultActionSet == null) || (resultActionSet.isMember(actionId))) &&
-			((filterActionSet == null) || (filterActionSet.isMember(actionId))))) {
+		if ((displayActionSet != null) && !displayActionSet.isMember(actionId)) {
 			return;
 		}	
 	
@@ -676,7 +642,7 @@ public class CliUtils {
 		Integer children[] = actionMgr.getChildren(actionId);
 		for (int i = 0; i < children.length; i++) {
 			printActionSetHelper(outStream, buildStore, children[i], 
-					resultActionSet, filterActionSet, outputFormat, showPkgs, indentLevel + 1);
+					displayActionSet, outputFormat, showPkgs, indentLevel + 1);
 		}
 		
 	}
@@ -684,19 +650,49 @@ public class CliUtils {
 	/*-------------------------------------------------------------------------------------*/
 
 	/**
-	 * Determine whether this path is in the set of paths to be displayed. That is, it's
-	 * in the resultFileSet as well as being part of filterFileSet.
+	 * Compute the intersection of a result FileSet and a filter FileSet, either of which
+	 * may be null (meaning "all paths"). Neither of the input sets is modified.
 	 * 
-	 * @param thisPathId The ID of the path we might want to display.
-	 * @param resultFileSet The set of paths in the result set.
-	 * @param filterFileSet The set of paths in the filter set.
-	 * @return Whether or not the path should be displayed.
+	 * @param resultFileSet The set of paths in the result set (or null).
+	 * @param filterFileSet The set of paths in the filter set (or null).
+	 * @return The paths that are in both sets, or null if both sets are null.
 	 */
-	private static boolean shouldBeDisplayed(int thisPathId, 
-			FileSet resultFileSet, FileSet filterFileSet) {
+	private static FileSet intersectSets(FileSet resultFileSet, FileSet filterFileSet) {
 		
-		return ((resultFileSet == null) || (resultFileSet.isMember(thisPathId))) &&
-				((filterFileSet == null) || (filterFileSet.isMember(thisPathId)));
+		if ((resultFileSet == null) || (filterFileSet == null)) {
+			return (resultFileSet == null) ? filterFileSet : resultFileSet;
+		}
+		try {
+			FileSet displayFileSet = (FileSet)resultFileSet.clone();
+			displayFileSet.maskSet(filterFileSet);
+			return displayFileSet;
+		} catch (CloneNotSupportedException e) {
+			throw new FatalError("clone() not supported for FileSet.");
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Compute the intersection of a result ActionSet and a filter ActionSet, either of
+	 * which may be null (meaning "all actions"). Neither of the input sets is modified.
+	 * 
+	 * @param resultActionSet The set of actions in the result set (or null).
+	 * @param filterActionSet The set of actions in the filter set (or null).
+	 * @return The actions that are in both sets, or null if both sets are null.
+	 */
+	private static ActionSet intersectSets(ActionSet resultActionSet, ActionSet filterActionSet) {
+		
+		if ((resultActionSet == null) || (filterActionSet == null)) {
+			return (resultActionSet == null) ? filterActionSet : resultActionSet;
+		}
+		try {
+			ActionSet displayActionSet = (ActionSet)resultActionSet.clone();
+			displayActionSet.maskSet(filterActionSet);
+			return displayActionSet;
+		} catch (CloneNotSupportedException e) {
+			throw new FatalError("clone() not supported for ActionSet.");
+		}
 	}
 
 	/*-------------------------------------------------------------------------------------*/
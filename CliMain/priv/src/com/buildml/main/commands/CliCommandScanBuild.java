@@ -41,6 +41,9 @@ public class CliCommandScanBuild implements ICliCommand {
 	/** Set if the user specified -c, to pass the single argument through a shell. */
 	private boolean optionUseShell = false;
 
+	/** Set if the user specified --uncompressed, to write an uncompressed trace file. */
+	private boolean optionUncompressed = false;
+
 	/** Set if the user specified --trace-level=. */
 	private int optionDebugLevel = 0;
 	
@@ -104,6 +107,11 @@ public class CliCommandScanBuild implements ICliCommand {
 				"Execute the quoted string as the whole command line.");
 		opts.addOption(useShellOpt);
 
+		/* add the --uncompressed option */
+		Option uncompressedOpt = new Option("u", "uncompressed", false, 
+				"Write an uncompressed trace file (faster, but larger).");
+		opts.addOption(uncompressedOpt);
+
 		/* add the --log-file option */
 		Option logFileOpt = new Option("l", "log-file", true, 
 				"File for capturing debug information (default: cfs.log).");
@@ -145,6 +153,7 @@ public class CliCommandScanBuild implements ICliCommand {
 		optionTraceOnly = cmdLine.hasOption("trace-only");
 		optionReadTrace = cmdLine.hasOption("read-trace");
 		optionUseShell = cmdLine.hasOption("command-string");
+		optionUncompressed = cmdLine.hasOption("uncompressed");
 		traceFileName = cmdLine.getOptionValue("trace-file");
 		logFileName = cmdLine.getOptionValue("log-file");
 		
@@ -190,7 +199,7 @@ public class CliCommandScanBuild implements ICliCommand {
 		LegacyBuildScanner lbs = new LegacyBuildScanner();
 		
 		/* set the trace file (if this is null, the default will be used */
-		lbs.setTraceFile(traceFileName);
+		lbs.setTraceFile(traceFileName, !optionUncompressed);
 		
 		/* set the log file (if this is null, the default will be used */
 		lbs.setLogFile(logFileName);
@@ -118,11 +118,9 @@ public class CliCommandSetActionPkg implements ICliCommand {
 		ActionSet actionsToSet = CliUtils.getCmdLineActionSet(actionMgr, actionSpecs);
 		
 		/* now visit each action in the ActionSet and set its package */
-		boolean prevState = buildStore.setFastAccessMode(true);
 		for (int actionId : actionsToSet) {
 			pkgMemberMgr.setPackageOfMember(IPackageMemberMgr.TYPE_ACTION, actionId, pkgId);
 		}
-		buildStore.setFastAccessMode(prevState);	
 	}
 
 	/*-------------------------------------------------------------------------------------*/
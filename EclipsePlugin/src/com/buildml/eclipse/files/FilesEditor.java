@@ -103,6 +103,9 @@ public class FilesEditor extends ImportSubEditor
 	/** The ArrayContentProvider object providing this editor's content */
 	private FilesEditorContentProvider contentProvider;
 
+	/** The object providing this editor's text and image labels */
+	private FilesEditorLabelProvider labelProvider;
+
 	/** The set of paths (within the FileMgr) that are currently visible. */
 	private FileSet visiblePaths = null;
 
@@ -224,8 +227,7 @@ public class FilesEditor extends ImportSubEditor
 		 * Add the tree/table content and label providers.
 		 */
 		contentProvider = new FilesEditorContentProvider(this, fileMgr, pkgRootMgr);
-		FilesEditorLabelProvider labelProvider = 
-				new FilesEditorLabelProvider(this, buildStore);
+		labelProvider = new FilesEditorLabelProvider(this, buildStore);
 		FilesEditorViewerSorter viewerSorter = new FilesEditorViewerSorter(this, fileMgr);
 		filesTreeViewer.setContentProvider(contentProvider);
 		filesTreeViewer.setLabelProvider(labelProvider);
@@ -477,6 +479,7 @@ public class FilesEditor extends ImportSubEditor
 					@Override
 					public void run() {
 						Object[] expandedElements = filesTreeViewer.getExpandedElements();
+						labelProvider.clearPackageCache();
 						filesTreeViewer.setInput(contentProvider.getRootElements());
 						filesTreeViewer.refresh();
 						
@@ -552,8 +555,12 @@ public class FilesEditor extends ImportSubEditor
 			 */
 			String eol = System.getProperty("line.separator");
 			StringBuffer sb = new StringBuffer();
+			int pathIds[] = new int[fileSet.size()];
+			int i = 0;
 			for (int pathId : fileSet) {
-				String path = fileMgr.getPathName(pathId);
+				pathIds[i++] = pathId;
+			}
+			for (String path : fileMgr.getPathNames(pathIds)) {
 				sb.append(path);
 				sb.append(eol);
 			}
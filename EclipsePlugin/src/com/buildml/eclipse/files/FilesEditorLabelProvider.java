@@ -12,6 +12,8 @@
 
 package com.buildml.eclipse.files;
 
+import java.util.HashMap;
+
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.resource.ImageRegistry;
 import org.eclipse.jface.viewers.ILabelProviderListener;
@@ -57,6 +59,12 @@ public class FilesEditorLabelProvider implements ITableLabelProvider {
 	/** The ID of the top-root for our FileMgr object */
 	private int topRootId;
 	
+	/**
+	 * The packages of the paths we've recently displayed. These are fetched for a whole
+	 * directory at a time, rather than for each path individually.
+	 */
+	private HashMap<Integer, PackageDesc> pathPackages = new HashMap<Integer, PackageDesc>();
+	
 	/** Images we'll use when displaying a tree of files */
 	Image 
 		folderImage,
@@ -157,7 +165,7 @@ public class FilesEditorLabelProvider implements ITableLabelProvider {
 				
 			/* select text for the package column */
 			case 1:
-				PackageDesc pkgInfo = pkgMemberMgr.getPackageOfMember(IPackageMemberMgr.TYPE_FILE, pathId);
+				PackageDesc pkgInfo = getPackageOfPath(pathId);
 				if (pkgInfo == null) {
 					break;	/* return "invalid" */
 				}
@@ -172,7 +180,7 @@ public class FilesEditorLabelProvider implements ITableLabelProvider {
 				
 			/* select text for the visibility column */
 			case 2:
-				pkgInfo = pkgMemberMgr.getPackageOfMember(IPackageMemberMgr.TYPE_FILE, pathId);
+				pkgInfo = getPackageOfPath(pathId);
 				if (pkgInfo == null) {
 					break;	/* return "invalid" */
 				}
@@ -193,6 +201,16 @@ public class FilesEditorLabelProvider implements ITableLabelProvider {
 	
 	/*-------------------------------------------------------------------------------------*/
 
+	/**
+	 * Forget the packages of all paths we've displayed so far. This must be called
+	 * whenever the tree is refreshed, in case package membership has changed.
+	 */
+	public void clearPackageCache() {
+		pathPackages.clear();
+	}
+	
+	/*-------------------------------------------------------------------------------------*/
+
 	/**
 	 * @param pathId The ID of the top path.
 	 * @return The coalesced path name, containing one or more path components.
@@ -310,5 +328,35 @@ public class FilesEditorLabelProvider implements ITableLabelProvider {
 		/* empty */
 	}
 	
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Return the package of the specified path. Since the tree is displayed one directory
+	 * at a time, we fetch the packages of all the path's siblings at the same time.
+	 * 
+	 * @param pathId The ID of the path to query.
+	 * @return The path's package, or null if the path isn't valid.
+	 */
+	private PackageDesc getPackageOfPath(int pathId) {
+		
+		if (!pathPackages.containsKey(pathId)) {
+			Integer siblings[] = fileMgr.getChildPaths(fileMgr.getParentPath(pathId));
+			int pathIds[] = new int[siblings.length + 1];
+			for (int i = 0; i < siblings.length; i++) {
+				pathIds[i] = siblings[i];
+			}
+			pathIds[siblings.length] = pathId;
+			
+			PackageDesc packages[] = 
+					pkgMemberMgr.getPackagesOfMembers(IPackageMemberMgr.TYPE_FILE, pathIds);
+			for (int i = 0; i < pathIds.length; i++) {
+				pathPackages.put(pathIds[i], packages[i]);
+			}
+		}
+		return pathPackages.get(pathId);
+	}
+	
 	/*-------------------------------------------------------------------------------------*/
 }
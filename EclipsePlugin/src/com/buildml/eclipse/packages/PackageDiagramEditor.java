@@ -435,6 +435,13 @@ public class PackageDiagramEditor extends DiagramEditor
 	 */
 	@Override
 	public void actionChangeNotification(int actionId, int how, int changeId) {
+		
+		/* the diagram doesn't show the files accessed by an action */
+		if ((how == IActionMgrListener.CHANGED_FILE_ACCESS) ||
+				(how == IActionMgrListener.NEW_FILE_ACCESS) ||
+				(how == IActionMgrListener.REMOVED_FILE_ACCESS)) {
+			return;
+		}
 		PackageDesc pkg = pkgMemberMgr.getPackageOfMember(IPackageMemberMgr.TYPE_ACTION, actionId);
 		if ((pkg == null) || (pkg.pkgId != this.packageId)) {
 			return;
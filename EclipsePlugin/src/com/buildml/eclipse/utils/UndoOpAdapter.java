@@ -113,9 +113,19 @@ public class UndoOpAdapter extends AbstractOperation {
 		 * dirty so that it reflects in the editor tab's title with a "*"
 		 */
 		IBuildStore buildStore = mainEditor.getBuildStore();
-		boolean prevState = buildStore.setFastAccessMode(true);
-		boolean opState = operation.redo();
-		buildStore.setFastAccessMode(prevState);
+		buildStore.beginBatch();
+		boolean opState = false;
+		boolean completed = false;
+		try {
+			opState = operation.redo();
+			completed = true;
+		} finally {
+			if (completed) {
+				buildStore.commitBatch();
+			} else {
+				buildStore.rollbackBatch();
+			}
+		}
 		if (opState) {
 			MainEditor editor = EclipsePartUtils.getActiveMainEditor();
 			if (editor != null) {
@@ -148,9 +158,19 @@ public class UndoOpAdapter extends AbstractOperation {
 		 * dirty so that it reflects in the editor tab's title with a "*"
 		 */
 		IBuildStore buildStore = mainEditor.getBuildStore();
-		boolean prevState = buildStore.setFastAccessMode(true);
-		boolean opState = operation.undo();
-		buildStore.setFastAccessMode(prevState);
+		buildStore.beginBatch();
+		boolean opState = false;
+		boolean completed = false;
+		try {
+			opState = operation.undo();
+			completed = true;
+		} finally {
+			if (completed) {
+				buildStore.commitBatch();
+			} else {
+				buildStore.rollbackBatch();
+			}
+		}
 		if (opState) {
 			MainEditor editor = EclipsePartUtils.getActiveMainEditor();
 			if (editor != null) {
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.utils.types;
+
+/**
+ * A callback interface for receiving a stream of primitive int values (such as the path
+ * or action IDs returned by a database query), one at a time. This allows large results
+ * to be processed as they're produced, without first being gathered into an Integer[]
+ * array (and without boxing each value).
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+public interface IIntConsumer {
+
+	/**
+	 * Accept the next value in the stream.
+	 * 
+	 * @param value The value.
+	 */
+	public void accept(int value);
+}
@@ -0,0 +1,950 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.utils.types;
+
+/**
+ * A compressed bitmap of non-negative integers, used as the storage for IntegerTreeSet.
+ * <p>
+ * The integer range is divided into chunks of 65536 values (keyed by the upper 16 bits
+ * of each value), and each non-empty chunk is stored in a "container" that's chosen to
+ * suit the chunk's content (this is the "roaring bitmap" approach):
+ * <ul>
+ *   <li>An array container holds a sorted array of up to ARRAY_MAX values. This is
+ *       used for sparse chunks.</li>
+ *   <li>A bitmap container holds a fixed-size bitmap of 65536 bits. This is used for
+ *       dense chunks.</li>
+ *   <li>A run container holds a sorted list of [start, end] runs. This is used for
+ *       chunks containing long sequences of consecutive values, but only once
+ *       optimize() has been called.</li>
+ * </ul>
+ * The union, intersection and difference operations work a whole container at a time
+ * (and in the case of bitmap containers, a 64-bit word at a time), rather than one value
+ * at a time.
+ * <p>
+ * Note: this class is not thread-safe.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+/* package private */ class IntegerBitmap implements Cloneable {
+
+	/*=====================================================================================*
+	 * FIELDS/TYPES
+	 *=====================================================================================*/
+
+	/** The maximum number of values held by an array container. */
+	private static final int ARRAY_MAX = 4096;
+
+	/** The number of 64-bit words in a bitmap container. */
+	private static final int BITMAP_WORDS = 1024;
+
+	/** The containers, indexed by the upper 16 bits of their values (null if empty). */
+	private Container containers[] = new Container[1];
+
+	/** The total number of values in the bitmap. */
+	private int cardinality = 0;
+
+	/*=====================================================================================*
+	 * NESTED CLASSES
+	 *=====================================================================================*/
+
+	/**
+	 * The common interface for all container types. Each value passed to, or returned
+	 * from, a container is the lower 16 bits of a member (in the range 0 to 65535).
+	 * Modification methods return the container that now holds the content, since a
+	 * container may need to change its type.
+	 */
+	private static abstract class Container {
+
+		/** @return The number of values in this container. */
+		abstract int cardinality();
+
+		/**
+		 * @param low The value to test for.
+		 * @return True if the value is in this container.
+		 */
+		abstract boolean contains(int low);
+
+		/**
+		 * @param low The value to add.
+		 * @return The container that now holds the content.
+		 */
+		abstract Container add(int low);
+
+		/**
+		 * @param low The value to remove.
+		 * @return The container that now holds the content (or null if it's now empty).
+		 */
+		abstract Container remove(int low);
+
+		/**
+		 * @param low The value to start searching from.
+		 * @return The smallest value in this container that's greater than or equal to
+		 * "low", or -1 if there is no such value.
+		 */
+		abstract int nextValue(int low);
+
+		/**
+		 * Pass all the values in this container to a consumer, in increasing order.
+		 * @param base The value to add to each of the container's values.
+		 * @param consumer The object that receives each value.
+		 */
+		abstract void forEach(int base, IIntConsumer consumer);
+
+		/**
+		 * Set the bits for all the values in this container.
+		 * @param words A bitmap (of BITMAP_WORDS words) to be modified.
+		 */
+		abstract void orInto(long words[]);
+
+		/**
+		 * Clear the bits for all the values in this container.
+		 * @param words A bitmap (of BITMAP_WORDS words) to be modified.
+		 */
+		abstract void andNotFrom(long words[]);
+
+		/** @return The number of runs of consecutive values in this container. */
+		abstract int numRuns();
+
+		/** @return The approximate number of bytes used to store this container's content. */
+		abstract int sizeInBytes();
+
+		/** @return A deep copy of this container. */
+		abstract Container copy();
+
+		/** @return A new bitmap (of BITMAP_WORDS words) holding this container's values. */
+		long[] toWords() {
+			long words[] = new long[BITMAP_WORDS];
+			orInto(words);
+			return words;
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * A container holding a sorted array of values.
+	 */
+	private static class ArrayContainer extends Container {
+
+		/** The values, in increasing order. Only the first "size" entries are used. */
+		private char values[];
+
+		/** The number of values in the container. */
+		private int size;
+
+		/**
+		 * Create a new ArrayContainer.
+		 * @param values The (sorted) values, which are used directly, not copied.
+		 * @param size The number of used entries in "values".
+		 */
+		ArrayContainer(char values[], int size) {
+			this.values = values;
+			this.size = size;
+		}
+
+		@Override
+		int cardinality() {
+			return size;
+		}
+
+		@Override
+		boolean contains(int low) {
+			return search(low) >= 0;
+		}
+
+		@Override
+		Container add(int low) {
+			int pos = search(low);
+			if (pos >= 0) {
+				return this;
+			}
+			if (size == ARRAY_MAX) {
+				return new BitmapContainer(toWords(), size).add(low);
+			}
+			pos = -pos - 1;
+			if (size == values.length) {
+				char newValues[] = new char[Math.min(ARRAY_MAX, Math.max(4, size * 2))];
+				System.arraycopy(values, 0, newValues, 0, size);
+				values = newValues;
+			}
+			System.arraycopy(values, pos, values, pos + 1, size - pos);
+			values[pos] = (char)low;
+			size++;
+			return this;
+		}
+
+		@Override
+		Container remove(int low) {
+			int pos = search(low);
+			if (pos < 0) {
+				return this;
+			}
+			if (size == 1) {
+				return null;
+			}
+			System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+			size--;
+			return this;
+		}
+
+		@Override
+		int nextValue(int low) {
+			int pos = search(low);
+			if (pos < 0) {
+				pos = -pos - 1;
+			}
+			return (pos < size) ? values[pos] : -1;
+		}
+
+		@Override
+		void forEach(int base, IIntConsumer consumer) {
+			for (int i = 0; i != size; i++) {
+				consumer.accept(base + values[i]);
+			}
+		}
+
+		@Override
+		void orInto(long words[]) {
+			for (int i = 0; i != size; i++) {
+				words[values[i] >>> 6] |= 1L << values[i];
+			}
+		}
+
+		@Override
+		void andNotFrom(long words[]) {
+			for (int i = 0; i != size; i++) {
+				words[values[i] >>> 6] &= ~(1L << values[i]);
+			}
+		}
+
+		@Override
+		int numRuns() {
+			int runs = (size == 0) ? 0 : 1;
+			for (int i = 1; i < size; i++) {
+				if (values[i] != values[i - 1] + 1) {
+					runs++;
+				}
+			}
+			return runs;
+		}
+
+		@Override
+		int sizeInBytes() {
+			return 2 * size;
+		}
+
+		@Override
+		Container copy() {
+			char newValues[] = new char[size];
+			System.arraycopy(values, 0, newValues, 0, size);
+			return new ArrayContainer(newValues, size);
+		}
+
+		/**
+		 * Binary search for a value.
+		 * @param low The value to search for.
+		 * @return The value's index, or (-insertionPoint - 1) if it's not present.
+		 */
+		private int search(int low) {
+			int lo = 0;
+			int hi = size - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				int value = values[mid];
+				if (value < low) {
+					lo = mid + 1;
+				} else if (value > low) {
+					hi = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -lo - 1;
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * A container holding a complete bitmap of 65536 bits.
+	 */
+	private static class BitmapContainer extends Container {
+
+		/** The bitmap, as BITMAP_WORDS 64-bit words. */
+		private long words[];
+
+		/** The number of bits that are set. */
+		private int card;
+
+		/**
+		 * Create a new BitmapContainer.
+		 * @param words The bitmap, which is used directly, not copied.
+		 * @param card The number of bits set in "words".
+		 */
+		BitmapContainer(long words[], int card) {
+			this.words = words;
+			this.card = card;
+		}
+
+		@Override
+		int cardinality() {
+			return card;
+		}
+
+		@Override
+		boolean contains(int low) {
+			return (words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		@Override
+		Container add(int low) {
+			long bit = 1L << low;
+			if ((words[low >>> 6] & bit) == 0) {
+				words[low >>> 6] |= bit;
+				card++;
+			}
+			return this;
+		}
+
+		@Override
+		Container remove(int low) {
+			long bit = 1L << low;
+			if ((words[low >>> 6] & bit) != 0) {
+				words[low >>> 6] &= ~bit;
+				card--;
+				if (card <= ARRAY_MAX) {
+					return fromWords(words);
+				}
+			}
+			return this;
+		}
+
+		@Override
+		int nextValue(int low) {
+			int wordIndex = low >>> 6;
+			long word = words[wordIndex] & (-1L << low);
+			while (true) {
+				if (word != 0) {
+					return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+				}
+				if (++wordIndex == BITMAP_WORDS) {
+					return -1;
+				}
+				word = words[wordIndex];
+			}
+		}
+
+		@Override
+		void forEach(int base, IIntConsumer consumer) {
+			for (int i = 0; i != BITMAP_WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					consumer.accept(base + (i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+
+		@Override
+		void orInto(long target[]) {
+			for (int i = 0; i != BITMAP_WORDS; i++) {
+				target[i] |= words[i];
+			}
+		}
+
+		@Override
+		void andNotFrom(long target[]) {
+			for (int i = 0; i != BITMAP_WORDS; i++) {
+				target[i] &= ~words[i];
+			}
+		}
+
+		@Override
+		long[] toWords() {
+			return words.clone();
+		}
+
+		@Override
+		int numRuns() {
+			int runs = 0;
+			long previousTopBit = 0;
+			for (int i = 0; i != BITMAP_WORDS; i++) {
+				long word = words[i];
+
+				/* a run starts at each set bit whose lower neighbour is clear */
+				runs += Long.bitCount(word & ~((word << 1) | previousTopBit));
+				previousTopBit = word >>> 63;
+			}
+			return runs;
+		}
+
+		@Override
+		int sizeInBytes() {
+			return 8 * BITMAP_WORDS;
+		}
+
+		@Override
+		Container copy() {
+			return new BitmapContainer(words.clone(), card);
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * A container holding runs of consecutive values. Run containers are only created by
+	 * optimize(), and are converted back to an array or bitmap container when they're
+	 * modified.
+	 */
+	private static class RunContainer extends Container {
+
+		/** The first value of each run, in increasing order. */
+		private char starts[];
+
+		/** The last value of each run. */
+		private char ends[];
+
+		/** The number of values in the container. */
+		private int card;
+
+		/**
+		 * Create a new (uninitialized) RunContainer, for use by copy().
+		 */
+		private RunContainer() {
+		}
+
+		/**
+		 * Create a new RunContainer holding the content of another container.
+		 * @param source The container to copy from.
+		 */
+		RunContainer(Container source) {
+			int numRuns = source.numRuns();
+			starts = new char[numRuns];
+			ends = new char[numRuns];
+			card = source.cardinality();
+			int run = 0;
+			int low = source.nextValue(0);
+			while (low != -1) {
+				int end = low;
+				while ((end < 0xffff) && source.contains(end + 1)) {
+					end++;
+				}
+				starts[run] = (char)low;
+				ends[run] = (char)end;
+				run++;
+				low = (end == 0xffff) ? -1 : source.nextValue(end + 1);
+			}
+		}
+
+		@Override
+		int cardinality() {
+			return card;
+		}
+
+		@Override
+		boolean contains(int low) {
+			int run = findRun(low);
+			return (run >= 0) && (low <= ends[run]);
+		}
+
+		@Override
+		Container add(int low) {
+			return contains(low) ? this : fromWords(toWords()).add(low);
+		}
+
+		@Override
+		Container remove(int low) {
+			return contains(low) ? fromWords(toWords()).remove(low) : this;
+		}
+
+		@Override
+		int nextValue(int low) {
+			int run = findRun(low);
+			if ((run >= 0) && (low <= ends[run])) {
+				return low;
+			}
+			return (run + 1 < starts.length) ? starts[run + 1] : -1;
+		}
+
+		@Override
+		void forEach(int base, IIntConsumer consumer) {
+			for (int run = 0; run != starts.length; run++) {
+				for (int low = starts[run]; low <= ends[run]; low++) {
+					consumer.accept(base + low);
+				}
+			}
+		}
+
+		@Override
+		void orInto(long words[]) {
+			for (int run = 0; run != starts.length; run++) {
+				setRange(words, starts[run], ends[run], true);
+			}
+		}
+
+		@Override
+		void andNotFrom(long words[]) {
+			for (int run = 0; run != starts.length; run++) {
+				setRange(words, starts[run], ends[run], false);
+			}
+		}
+
+		@Override
+		int numRuns() {
+			return starts.length;
+		}
+
+		@Override
+		int sizeInBytes() {
+			return 4 * starts.length;
+		}
+
+		@Override
+		Container copy() {
+			RunContainer newContainer = new RunContainer();
+			newContainer.starts = starts.clone();
+			newContainer.ends = ends.clone();
+			newContainer.card = card;
+			return newContainer;
+		}
+
+		/**
+		 * @param low The value to search for.
+		 * @return The index of the last run that starts at, or before, "low" (or -1 if
+		 * all runs start after "low").
+		 */
+		private int findRun(int low) {
+			int lo = 0;
+			int hi = starts.length - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (starts[mid] <= low) {
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			return hi;
+		}
+
+		/**
+		 * Set or clear a range of bits in a bitmap.
+		 * @param words The bitmap to modify.
+		 * @param first The first bit in the range.
+		 * @param last The last bit in the range (inclusive).
+		 * @param set True to set the bits, or false to clear them.
+		 */
+		private static void setRange(long words[], int first, int last, boolean set) {
+			for (int wordIndex = first >>> 6; wordIndex <= (last >>> 6); wordIndex++) {
+				long mask = -1L;
+				if (wordIndex == (first >>> 6)) {
+					mask &= -1L << first;
+				}
+				if (wordIndex == (last >>> 6)) {
+					mask &= -1L >>> (63 - (last & 63));
+				}
+				if (set) {
+					words[wordIndex] |= mask;
+				} else {
+					words[wordIndex] &= ~mask;
+				}
+			}
+		}
+	}
+
+	/*=====================================================================================*
+	 * PACKAGE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Add a value to the bitmap.
+	 * @param value The (non-negative) value to add.
+	 */
+	/* package private */
+	void add(int value) {
+		int key = value >>> 16;
+		if (key >= containers.length) {
+			growContainers(key);
+		}
+		Container container = containers[key];
+		if (container == null) {
+			containers[key] = new ArrayContainer(new char[] { (char)value }, 1);
+			cardinality++;
+			return;
+		}
+		int oldCard = container.cardinality();
+		containers[key] = container = container.add(value & 0xffff);
+		cardinality += container.cardinality() - oldCard;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Remove a value from the bitmap. If the value isn't present, do nothing.
+	 * @param value The value to remove.
+	 */
+	/* package private */
+	void remove(int value) {
+		int key = value >>> 16;
+		if ((value < 0) || (key >= containers.length) || (containers[key] == null)) {
+			return;
+		}
+		Container container = containers[key];
+		int oldCard = container.cardinality();
+		containers[key] = container = container.remove(value & 0xffff);
+		cardinality -= oldCard - ((container == null) ? 0 : container.cardinality());
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @param value The value to test for.
+	 * @return True if the value is in the bitmap.
+	 */
+	/* package private */
+	boolean contains(int value) {
+		int key = value >>> 16;
+		if ((value < 0) || (key >= containers.length) || (containers[key] == null)) {
+			return false;
+		}
+		return containers[key].contains(value & 0xffff);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return The number of values in the bitmap.
+	 */
+	/* package private */
+	int cardinality() {
+		return cardinality;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @param value The value to start searching from.
+	 * @return The smallest member that's greater than or equal to "value", or -1 if there
+	 * is no such member.
+	 */
+	/* package private */
+	int nextValue(int value) {
+		if (value < 0) {
+			value = 0;
+		}
+		int low = value & 0xffff;
+		for (int key = value >>> 16; key < containers.length; key++) {
+			if (containers[key] != null) {
+				int next = containers[key].nextValue(low);
+				if (next != -1) {
+					return (key << 16) + next;
+				}
+			}
+			low = 0;
+		}
+		return -1;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Pass all the members of the bitmap to a consumer, in increasing order.
+	 * @param consumer The object that receives each member.
+	 */
+	/* package private */
+	void forEachInt(IIntConsumer consumer) {
+		for (int key = 0; key != containers.length; key++) {
+			if (containers[key] != null) {
+				containers[key].forEach(key << 16, consumer);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Add all the members of a second bitmap to this bitmap.
+	 * @param other The bitmap to merge into this bitmap.
+	 */
+	/* package private */
+	void or(IntegerBitmap other) {
+		if (other.containers.length > containers.length) {
+			growContainers(other.containers.length - 1);
+		}
+		for (int key = 0; key != other.containers.length; key++) {
+			Container theirs = other.containers[key];
+			if (theirs == null) {
+				continue;
+			}
+			Container ours = containers[key];
+			if (ours == null) {
+				containers[key] = theirs.copy();
+			} else if ((ours instanceof ArrayContainer) && (theirs instanceof ArrayContainer) &&
+					(ours.cardinality() + theirs.cardinality() <= ARRAY_MAX)) {
+				containers[key] = mergeArrays((ArrayContainer)ours, (ArrayContainer)theirs);
+			} else {
+				long words[] = ours.toWords();
+				theirs.orInto(words);
+				containers[key] = fromWords(words);
+			}
+		}
+		recount();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Remove all the values from this bitmap that aren't in the second bitmap.
+	 * @param other The bitmap to intersect with this bitmap.
+	 */
+	/* package private */
+	void and(IntegerBitmap other) {
+		for (int key = 0; key != containers.length; key++) {
+			Container ours = containers[key];
+			if (ours == null) {
+				continue;
+			}
+			Container theirs = (key < other.containers.length) ? other.containers[key] : null;
+			if (theirs == null) {
+				containers[key] = null;
+			} else if (ours instanceof ArrayContainer) {
+				containers[key] = filterArray((ArrayContainer)ours, theirs, true);
+			} else if (theirs instanceof ArrayContainer) {
+				containers[key] = filterArray((ArrayContainer)theirs.copy(), ours, true);
+			} else {
+				long words[] = ours.toWords();
+				long mask[] = theirs.toWords();
+				for (int i = 0; i != BITMAP_WORDS; i++) {
+					words[i] &= mask[i];
+				}
+				containers[key] = fromWords(words);
+			}
+		}
+		recount();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Remove all the values from this bitmap that are in the second bitmap.
+	 * @param other The bitmap containing the values to remove.
+	 */
+	/* package private */
+	void andNot(IntegerBitmap other) {
+		int numKeys = Math.min(containers.length, other.containers.length);
+		for (int key = 0; key != numKeys; key++) {
+			Container ours = containers[key];
+			Container theirs = other.containers[key];
+			if ((ours == null) || (theirs == null)) {
+				continue;
+			}
+			if (ours instanceof ArrayContainer) {
+				containers[key] = filterArray((ArrayContainer)ours, theirs, false);
+			} else {
+				long words[] = ours.toWords();
+				theirs.andNotFrom(words);
+				containers[key] = fromWords(words);
+			}
+		}
+		recount();
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Convert each container to whichever representation uses the least memory. In
+	 * particular, containers holding long runs of consecutive values are converted into
+	 * run containers. This is best done once a bitmap's content is unlikely to change.
+	 */
+	/* package private */
+	void optimize() {
+		for (int key = 0; key != containers.length; key++) {
+			Container container = containers[key];
+			if (container == null) {
+				continue;
+			}
+			int runBytes = 4 * container.numRuns();
+			int otherBytes = (container.cardinality() <= ARRAY_MAX) ?
+					2 * container.cardinality() : 8 * BITMAP_WORDS;
+			if (runBytes < otherBytes) {
+				if (!(container instanceof RunContainer)) {
+					containers[key] = new RunContainer(container);
+				}
+			} else if (container instanceof RunContainer) {
+				containers[key] = fromWords(container.toWords());
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * @return The approximate number of bytes used to store the bitmap's content.
+	 */
+	/* package private */
+	int sizeInBytes() {
+		int bytes = 4 * containers.length;
+		for (int key = 0; key != containers.length; key++) {
+			if (containers[key] != null) {
+				bytes += containers[key].sizeInBytes();
+			}
+		}
+		return bytes;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#clone()
+	 */
+	@Override
+	public IntegerBitmap clone() {
+		IntegerBitmap newBitmap;
+		try {
+			newBitmap = (IntegerBitmap)super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new InternalError();
+		}
+		newBitmap.containers = new Container[containers.length];
+		for (int key = 0; key != containers.length; key++) {
+			if (containers[key] != null) {
+				newBitmap.containers[key] = containers[key].copy();
+			}
+		}
+		return newBitmap;
+	}
+
+	/*=====================================================================================*
+	 * PRIVATE METHODS
+	 *=====================================================================================*/
+
+	/**
+	 * Grow the container array so that it can hold the specified key.
+	 * @param key The largest key that must be accommodated.
+	 */
+	private void growContainers(int key) {
+		int newLength = containers.length;
+		while (newLength <= key) {
+			newLength *= 2;
+		}
+		Container newContainers[] = new Container[newLength];
+		System.arraycopy(containers, 0, newContainers, 0, containers.length);
+		containers = newContainers;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Recompute the total cardinality, after a bulk operation.
+	 */
+	private void recount() {
+		cardinality = 0;
+		for (int key = 0; key != containers.length; key++) {
+			if (containers[key] != null) {
+				cardinality += containers[key].cardinality();
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Create the appropriate container for the content of a bitmap.
+	 * @param words The bitmap (which may be used directly by the new container).
+	 * @return An array container (for sparse bitmaps), a bitmap container (for dense
+	 * bitmaps), or null (for empty bitmaps).
+	 */
+	private static Container fromWords(long words[]) {
+		int card = 0;
+		for (int i = 0; i != BITMAP_WORDS; i++) {
+			card += Long.bitCount(words[i]);
+		}
+		if (card == 0) {
+			return null;
+		}
+		if (card > ARRAY_MAX) {
+			return new BitmapContainer(words, card);
+		}
+		char values[] = new char[card];
+		int size = 0;
+		for (int i = 0; i != BITMAP_WORDS; i++) {
+			long word = words[i];
+			while (word != 0) {
+				values[size++] = (char)((i << 6) + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return new ArrayContainer(values, size);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Merge two array containers, whose combined size is no larger than ARRAY_MAX.
+	 * @param first The first container.
+	 * @param second The second container.
+	 * @return A new array container holding the union of the two containers.
+	 */
+	private static Container mergeArrays(ArrayContainer first, ArrayContainer second) {
+		char values[] = new char[first.size + second.size];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while ((i < first.size) && (j < second.size)) {
+			char a = first.values[i];
+			char b = second.values[j];
+			if (a <= b) {
+				values[size++] = a;
+				i++;
+				if (a == b) {
+					j++;
+				}
+			} else {
+				values[size++] = b;
+				j++;
+			}
+		}
+		while (i < first.size) {
+			values[size++] = first.values[i++];
+		}
+		while (j < second.size) {
+			values[size++] = second.values[j++];
+		}
+		return new ArrayContainer(values, size);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Filter an array container (in place), keeping only those values that are (or
+	 * aren't) in a second container.
+	 * @param array The array container to be filtered.
+	 * @param other The container to test each value against.
+	 * @param keepIfPresent True to keep values that are in "other", or false to keep
+	 * values that aren't.
+	 * @return The filtered container, or null if it's now empty.
+	 */
+	private static Container filterArray(ArrayContainer array, Container other,
+			boolean keepIfPresent) {
+		int size = 0;
+		for (int i = 0; i != array.size; i++) {
+			if (other.contains(array.values[i]) == keepIfPresent) {
+				array.values[size++] = array.values[i];
+			}
+		}
+		array.size = size;
+		return (size == 0) ? null : array;
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}
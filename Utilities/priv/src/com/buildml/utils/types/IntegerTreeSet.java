@@ -11,7 +11,6 @@
  *******************************************************************************/
 
 package com.buildml.utils.types;
-
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -37,69 +36,17 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 	 *=====================================================================================*/
 
 	/*
-	 * In order to store a bitmap of entries, we use a bucket-like system that's similar
-	 * to how Unix file systems work. That is, we keep a top-level "bucket array" where
-	 * each entry points to a second-level bitmap. If one of the bucket array's pointers
-	 * is null, then that portion of the set is considered to be completely empty. This
-	 * permits the allocation of a small amount of memory for small sets, and a larger amount
-	 * for larger sets. It also allows the creation of a sparse bit-map, which is necessary
-	 * to represents sets resulting from a database query (where the query returns a small
-	 * number of sparsely distributed results).
-	 */
-	
-	/** 
-	 * The number of bits represented in each bucket (must be a multiple of 8). Also, 
-	 * getMaxIdNumber() must be evenly divisible by BUCKET_SIZE.
-	 */
-	private static final int BUCKET_SIZE = 2048;
-	
-	/** The initial number of buckets that a newly-created set will start with. */
-	private static final int INITIAL_NUM_BUCKETS = 1;
-	
-	/**
-	 * When the bucket array needs to grow, we'll increase it by this many new buckets.
-	 * Note that each time we grow the bucket array, we also increase this value. Therefore,
-	 * our first increase will add 1 new bucket, the second increase will add 2, the third
-	 * increase will add 3 new buckets, etc. Therefore, for small sets we'll only add
-	 * small increments, but for large sets we'll pre-allocate a larger number of new
-	 * buckets.
-	 */
-	private int currentBucketIncrease = 1;
-
-	/**
-	 * Each entry in the bucket array has the following content. It tracks the set
-	 * membership for BUCKET_SI
-	 */
-	private class IntegerTreeSetBucket {
-		
-		/** the number of bits set in this bucket */
-		public int size;
-		
-		/** the actual bit map of set members (numbered 0 -> BUCKET_SIZE - 1) */
-		public byte content[];
-		
-		/** create a new bucket, with a newly allocated bitmap */
-		public IntegerTreeSetBucket() {
-			size = 0;
-			content = new byte[BUCKET_SIZE];
-		}
-	}
-	
-	/** 
-	 * The top-level array of buckets. This start out having INITIAL_NUM_BUCKETS members,
-	 * and can grow to a maximum of (getMaxIdNumber() / BUCKET_SIZE) entries.
-	 */
-	private IntegerTreeSetBucket bucketArray[] = null;
-
-	/**
-	 * The current size of bucketArray[].
+	 * The set's members are stored in a compressed bitmap (see IntegerBitmap), which
+	 * adapts its representation to the density of each part of the ID range. A sparse
+	 * set (such as the result of a database query) therefore only requires a small
+	 * amount of memory, whereas a dense set (such as the complete set of files) is
+	 * stored as a plain bitmap. Operations that combine two sets (mergeSet(), maskSet(),
+	 * extractSet() and complementSet()) are performed on large chunks of the bitmaps
+	 * at a time.
 	 */
-	private int currentBucketArraySize;
 	
-	/**
-	 * The current number of members in this set.
-	 */
-	private int totalMembers;
+	/** The members of this set. */
+	private IntegerBitmap members = new IntegerBitmap();
 	
 	/*=====================================================================================*
 	 * NESTED CLASS - IntegerTreeSetIterator
@@ -111,92 +58,26 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 	private class IntegerTreeSetIterator implements Iterator<Integer> {
 
 		/**
-		 * The most recent element of the TreeSet that we reported to the user.
-		 */
-		private int currentId = -1;
-		
-		/**
-		 * Have we identified a "next" element to report when the user calls next()?
-		 */
-		private boolean nextAvailable = false;
-		
-		/*---------------------------------------------------------------------------------*/
-
-		/**
-		 * Search through the set to find the next element that's set. 
+		 * The next element of the set to report to the user (or -1 if there are no more).
 		 */
-		private void searchForNext() {
-			int id = currentId + 1;
-			
-			while (true) {
-				
-				int idBucket = (id / BUCKET_SIZE);
-
-				/* reached the end of whole bucketArray? */
-				if (idBucket == currentBucketArraySize) {
-					currentId = -1;
-					return;
-				}
-			
-				/* current bucket is empty, skip to the start of the next */
-				IntegerTreeSetBucket bucket = bucketArray[idBucket];
-				if (bucket == null) {
-					id = (id + BUCKET_SIZE) & ~(BUCKET_SIZE - 1);
-				}
-				
-				/*
-				 * We know there's something in this bucket. Look forward
-				 * (beyond the current point), in case we find it (we may not,
-				 * if we already reported it).
-				 */
-				else {
-					int bucketOffset = (id & (BUCKET_SIZE - 1)) >> 3;
-					for (int i = bucketOffset; i != (BUCKET_SIZE >> 3); i++){
-				
-						/* current byte is empty, skip to the start of the next */
-						if (bucket.content[i] == 0) {
-							id = (id + 8) & ~7;
-						}
-						else
-						{							
-							/* check the individual bits in the byte */
-							int bucketBit = id & 7;
-							byte bitMap = bucket.content[i]; 
-							for (int j = bucketBit; j != 8; j++){
-								if ((bitMap & (1 << bucketBit)) != 0) {
-									currentId = id;
-									return;
-								}
-								else {
-									bucketBit++;
-									id++;
-								}		
-							}
-						}
-					}
-				}
-			}
-		}
+		private int nextId = members.nextValue(0);
 		
 		/*---------------------------------------------------------------------------------*/
 
 		@Override
 		public boolean hasNext() {
-			if (!nextAvailable){
-				searchForNext();
-				nextAvailable = true;
-			}
-			return (currentId != -1);
+			return (nextId != -1);
 		}
 
 		/*---------------------------------------------------------------------------------*/
 
 		@Override
 		public Integer next() {
-			if (!hasNext()) {
+			if (nextId == -1) {
 				throw new NoSuchElementException(); 
 			}
-			nextAvailable = false;
+			int currentId = nextId;
+			nextId = members.nextValue(currentId + 1);
 			return currentId;
 		}
 
@@ -219,11 +100,7 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 	 * Create a new IntegerTreeSet object.
 	 */
 	public IntegerTreeSet() {
-		
-		/* create an initial bucket array, with nothing in it */
-		currentBucketArraySize = INITIAL_NUM_BUCKETS;
-		bucketArray = new IntegerTreeSetBucket[currentBucketArraySize];
-		totalMembers = 0;
+		/* nothing to do - the set starts out empty */
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -252,49 +129,13 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 	 */
 	public void add(int id) {
 
-		/*
-		 * There are several cases to consider here:
-		 *   1) Is the 'id' within the range of 0 -> getMaxIdNumber()? If not, throw
-		 *      an exception. This is a programming error.
-		 *   2) Is the 'id' within the range of 0 -> (currentBucketArraySize * BUCKET_SIZE) - 1?
-		 *      If not, we'll need to grow the bucketArray to allow for this new element.
-		 *   3) Is the 'id' within a bucket that currently exists, or is the bucketArray
-		 *      pointer currently null?
-		 *   4) If the bucket already exists, is the bit already set?
-		 */
-		
-		/* case 1 - ID completely out of range - programming error */
+		/* ID completely out of range - programming error */
 		if ((id < 0) || (id >= getMaxIdNumber())) {
 			throw new FatalError(
 					"New entry to set: " + id + " is beyond maximum allowed value: " + 
 					getMaxIdNumber());
 		}
-		
-		/* case 2 - grow the bucket array to contain the new ID. */
-		int idBucket = (id / BUCKET_SIZE);
-		if (idBucket >= currentBucketArraySize) {
-			growBucketArray(idBucket);
-		}
-		
-		/* case 3 - if the bucket for this 'id' is null */
-		if (bucketArray[idBucket] == null) {
-			bucketArray[idBucket] = new IntegerTreeSetBucket();
-		}
-		
-		/* case 4 - is the corresponding bit already set? */
-		IntegerTreeSetBucket bucket = bucketArray[idBucket];
-		int bucketOffset = (id & (BUCKET_SIZE - 1)) >> 3;
-		int bucketBit = (id & 0x7);
-		if ((bucket.content[bucketOffset] & (1 << bucketBit)) != 0) {
-			/* bit already set - do nothing */
-		}
-		
-		/* set the bit, and update the bucket's size */
-		else {
-			bucket.content[bucketOffset] |= (1 << bucketBit);
-			bucket.size++;
-			totalMembers++;
-		}
+		members.add(id);
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -306,29 +147,7 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 	 * @return True or False to indicate the members presence.
 	 */
 	public boolean isMember(int id) {
-
-		/*
-		 * Cases to consider:
-		 *   1) Is the 'id' beyond the end of the bucketArray? Return false.
-		 *   2) Is the 'id' in a bucket that has a null pointer? Return false.
-		 *   3) Is the 'id' present in the bucket's bitmap?
-		 */
-		
-		/* case 1 */
-		if ((id < 0) || (id >= (currentBucketArraySize * BUCKET_SIZE))) {
-			return false;
-		}
-		
-		/* case 2 */
-		int idBucket = (id / BUCKET_SIZE);
-		if (bucketArray[idBucket] == null) {
-			return false;
-		}
-		
-		IntegerTreeSetBucket bucket = bucketArray[idBucket];
-		int bucketOffset = (id & (BUCKET_SIZE - 1)) >> 3;
-		int bucketBit = (id & 0x7);
-		return (bucket.content[bucketOffset] & (1 << bucketBit)) != 0;
+		return members.contains(id);
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -340,42 +159,7 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 	 * @param id The ID of the element we're removing.
 	 */
 	public void remove(int id) {
-		
-		/*
-		 * Cases to consider:
-		 *   1) Is the 'id' beyond the end of the bucketArray? Do nothing.
-		 *   2) Is the 'id' in a bucket that has a null pointer? Do nothing.
-		 *   3) Is the 'id' bit in the bucket's bit map set? If not, do nothing.
-		 *   4) Remove the bit from the set, decrement the size, and possibly
-		 *      remove the bucket (setting it to null in the array) if size is now 0.
-		 */
-		
-		/* case 1 */
-		if ((id < 0) || (id >= (currentBucketArraySize * BUCKET_SIZE))) {
-			return;
-		}
-		
-		/* case 2 */
-		int idBucket = (id / BUCKET_SIZE);
-		if (bucketArray[idBucket] == null) {
-			return;
-		}
-		
-		/* case 3 */
-		IntegerTreeSetBucket bucket = bucketArray[idBucket];
-		int bucketOffset = (id & (BUCKET_SIZE -1 )) >> 3;
-		int bucketBit = (id & 0x7);
-		if ((bucket.content[bucketOffset] & (1 << bucketBit)) == 0) {
-			return;
-		}
-		
-		/* case 4 - remove the element, decrement the size */
-		bucket.content[bucketOffset] &= ~(1 << bucketBit);
-		bucket.size--;
-		totalMembers--;
-		if (bucket.size == 0) {
-			bucketArray[idBucket] = null;
-		}
+		members.remove(id);
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -386,7 +170,7 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 	 * @return the number of members in the set.
 	 */
 	public int size() {		
-		return totalMembers;
+		return members.cardinality();
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -401,6 +185,31 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 		return new IntegerTreeSetIterator();
 	}
 
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Pass each of the keys in the set to the consumer, in increasing numeric order. This
+	 * is faster than using iterator(), since the keys are not boxed into Integer objects.
+	 * 
+	 * @param consumer The object that receives each of the set's keys.
+	 */
+	public void forEachInt(IIntConsumer consumer) {
+		members.forEachInt(consumer);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Compact the set's internal representation, for a set whose content is unlikely to
+	 * change much in future. In particular, ranges of consecutive IDs (such as those of a
+	 * complete directory hierarchy) are stored as a single [first, last] pair. The set
+	 * continues to work normally after compaction, although adding or removing members
+	 * may undo some of the savings.
+	 */
+	public void compact() {
+		members.optimize();
+	}
+
 	/*-------------------------------------------------------------------------------------*/
 	
 	/**
@@ -409,25 +218,9 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 	 */
 	public Object clone() throws CloneNotSupportedException {
 		
-		/* retrieve the new object */
+		/* retrieve the new object, then give it its own copy of the members */
 		IntegerTreeSet newSet = (IntegerTreeSet)super.clone();
-		
-		/* clone the top-level fields */
-		newSet.currentBucketArraySize = this.currentBucketArraySize;
-		newSet.currentBucketIncrease = this.currentBucketIncrease;
-		newSet.totalMembers = this.totalMembers;
-		newSet.bucketArray = new IntegerTreeSetBucket[newSet.currentBucketArraySize];
-		
-		/* clone each element of the bucket array */
-		for (int i = 0; i != newSet.currentBucketArraySize; i++) {
-			IntegerTreeSetBucket oldBucket = this.bucketArray[i]; 
-			if (oldBucket != null) {
-				IntegerTreeSetBucket newBucket = new IntegerTreeSetBucket();
-				newSet.bucketArray[i] = newBucket;
-				newBucket.size = oldBucket.size;
-				newBucket.content = oldBucket.content.clone();
-			}
-		}
+		newSet.members = this.members.clone();
 		return newSet;
 	}
 	
@@ -531,7 +324,7 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 	 * @param mask The second set that acts as a mask value.
 	 */
 	public void maskSet(IntegerTreeSet mask) {
-		// TODO: implement this if ever needed
+		members.and(mask.members);
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
@@ -542,39 +335,34 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 	 * @param second The second set containing the values to be removed.
 	 */
 	public void extractSet(IntegerTreeSet second) {
-		
-		/* for each element in the second IntegerTreeSet */
-		for (Iterator<Integer> iterator = second.iterator(); iterator.hasNext();) {
-			Integer elementId = (Integer) iterator.next();
-			
-			/* if it's currently in "this" IntegerTreeSet, remove it */
-			if (isMember(elementId) && second.isMember(elementId)) {
-				remove(elementId);
-			}
-		}
+		members.andNot(second.members);
 	}
 
 	/*-------------------------------------------------------------------------------------*/
 
 	/**
 	 * Given a second set, merge all the files from that second set into this set. This is
-	 * essentially a bitwise "or". If a particular path is already present in "this" set,
-	 * we won't override it with the IntegerTreeRecord from "second" (this fact is only interesting if
-	 * you care about the content of the IntegerTreeRecord).
+	 * essentially a bitwise "or".
 	 * 
 	 * @param second The second set to merge into this set
 	 */
 	public void mergeSet(IntegerTreeSet second) {
-			
-		/* for each element in the second IntegerTreeSet */
-		for (Iterator<Integer> iterator = second.iterator(); iterator.hasNext();) {
-			Integer elementId = (Integer) iterator.next();
-			
-			/* if it's not already in "this" IntegerTreeSet, add it */
-			if (!isMember(elementId) && second.isMember(elementId)) {
-				add(elementId);
-			}
-		}
+		members.or(second.members);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Given a universe set (typically the set of all files, or all actions), replace the
+	 * content of this set with all the members of the universe that are not currently in
+	 * this set.
+	 * 
+	 * @param universe The set of all members that this set's complement may contain.
+	 */
+	public void complementSet(IntegerTreeSet universe) {
+		IntegerBitmap complement = universe.members.clone();
+		complement.andNot(members);
+		members = complement;
 	}
 
 	/*-------------------------------------------------------------------------------------*/
@@ -648,33 +436,4 @@ public abstract class IntegerTreeSet implements Iterable<Integer>, Cloneable {
 	}
 	
 	/*-------------------------------------------------------------------------------------*/
-
-	/**
-	 * Grow the current bucket array so that it's large enough to contain the specified
-	 * ID number. In fact, we may grow by more than the minimum necessary size, to make
-	 * sure we have room for growth. We already know that 'id' is less than our absolute
-	 * maximum value, so that doesn't need to be checked twice.
-	 * 
-	 * @param idBucket The new bucket number that must be accommodated in the bucket array.
-	 */
-	private void growBucketArray(int idBucket) {
-		
-		int newBucketArraySize = idBucket + currentBucketIncrease;
-		
-		/* but never grow larger than the maximum bucket size allows */
-		if (newBucketArraySize > (getMaxIdNumber() / BUCKET_SIZE)) {
-			newBucketArraySize = getMaxIdNumber() / BUCKET_SIZE;
-		}
-		
-		/* allocate a new bucketArray, copy over the old content, then discard the old array */
-		IntegerTreeSetBucket newArray[] = new IntegerTreeSetBucket[newBucketArraySize];
-		System.arraycopy(bucketArray, 0, newArray, 0, currentBucketArraySize);
-		bucketArray = newArray;
-		currentBucketArraySize = newBucketArraySize;
-		
-		/* the more often we grow the array, the larger we should grow each time */
-		currentBucketIncrease++;
-	}
-
-	/*-------------------------------------------------------------------------------------*/
-}
\ No newline at end of file
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2026 Arapiki Solutions Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    "Arapiki Solutions Inc." - initial API and
+ *        implementation and/or initial documentation
+ *******************************************************************************/
+
+package com.buildml.utils.types;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test methods for the IntegerBitmap class. Each test compares the bitmap's content
+ * against a java.util.BitSet that's been given the same operations.
+ *
+ * @author "Arapiki Solutions Inc."
+ */
+public class TestIntegerBitmap {
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Validate that an IntegerBitmap has the same content as a BitSet.
+	 *
+	 * @param expected The expected content.
+	 * @param bitmap The IntegerBitmap to validate.
+	 */
+	private void assertSameContent(BitSet expected, IntegerBitmap bitmap) {
+
+		assertEquals(expected.cardinality(), bitmap.cardinality());
+
+		/* nextValue() visits the members in increasing order */
+		int value = bitmap.nextValue(0);
+		for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+			assertEquals(i, value);
+			assertTrue(bitmap.contains(i));
+			value = bitmap.nextValue(value + 1);
+		}
+		assertEquals(-1, value);
+
+		/* forEachInt() visits the same members */
+		final BitSet visited = new BitSet();
+		bitmap.forEachInt(new IIntConsumer() {
+			@Override
+			public void accept(int value) {
+				visited.set(value);
+			}
+		});
+		assertEquals(expected, visited);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Populate a bitmap (and a BitSet) with random values.
+	 *
+	 * @param random The random number generator.
+	 * @param bitmap The bitmap to add values to.
+	 * @param bits The BitSet to add values to.
+	 * @param count The number of values to add.
+	 * @param range The values are in the range 0 to range-1.
+	 */
+	private void addRandom(Random random, IntegerBitmap bitmap, BitSet bits, int count, int range) {
+		for (int i = 0; i != count; i++) {
+			int value = random.nextInt(range);
+			bitmap.add(value);
+			bits.set(value);
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test adding, removing and querying individual values, for both sparse and dense
+	 * content (so that containers switch between their array and bitmap forms).
+	 */
+	@Test
+	public void testAddRemove() {
+		Random random = new Random(1);
+		IntegerBitmap bitmap = new IntegerBitmap();
+		BitSet bits = new BitSet();
+
+		assertSameContent(bits, bitmap);
+		assertFalse(bitmap.contains(-1));
+		assertFalse(bitmap.contains(1000000));
+		bitmap.remove(1000000);
+
+		/* sparse values across several containers */
+		addRandom(random, bitmap, bits, 1000, 1 << 20);
+		assertSameContent(bits, bitmap);
+
+		/* enough values to make the first container dense */
+		addRandom(random, bitmap, bits, 20000, 65536);
+		assertSameContent(bits, bitmap);
+
+		/* remove most values again, so the first container becomes sparse */
+		for (int i = 0; i != 65536; i++) {
+			if ((i % 20) != 0) {
+				bitmap.remove(i);
+				bits.clear(i);
+			}
+		}
+		assertSameContent(bits, bitmap);
+
+		/* remove everything */
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			bitmap.remove(i);
+		}
+		assertSameContent(new BitSet(), bitmap);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test the or(), and() and andNot() operations, with every combination of sparse and
+	 * dense content.
+	 */
+	@Test
+	public void testSetAlgebra() {
+		Random random = new Random(2);
+		int counts[] = { 0, 100, 3000, 30000 };
+
+		for (int first : counts) {
+			for (int second : counts) {
+				IntegerBitmap bitmap1 = new IntegerBitmap();
+				IntegerBitmap bitmap2 = new IntegerBitmap();
+				BitSet bits1 = new BitSet();
+				BitSet bits2 = new BitSet();
+				addRandom(random, bitmap1, bits1, first, 3 * 65536);
+				addRandom(random, bitmap2, bits2, second, 2 * 65536);
+
+				IntegerBitmap result = bitmap1.clone();
+				BitSet expected = (BitSet)bits1.clone();
+				result.or(bitmap2);
+				expected.or(bits2);
+				assertSameContent(expected, result);
+
+				result = bitmap1.clone();
+				expected = (BitSet)bits1.clone();
+				result.and(bitmap2);
+				expected.and(bits2);
+				assertSameContent(expected, result);
+
+				result = bitmap1.clone();
+				expected = (BitSet)bits1.clone();
+				result.andNot(bitmap2);
+				expected.andNot(bits2);
+				assertSameContent(expected, result);
+
+				/* the operations didn't modify the original bitmaps */
+				assertSameContent(bits1, bitmap1);
+				assertSameContent(bits2, bitmap2);
+			}
+		}
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+
+	/**
+	 * Test that optimize() stores ranges of consecutive values as runs, and that the
+	 * resulting run containers still support all operations.
+	 */
+	@Test
+	public void testOptimize() {
+		IntegerBitmap bitmap = new IntegerBitmap();
+		BitSet bits = new BitSet();
+
+		/* a few long ranges, including one that fills a whole container */
+		int ranges[][] = { { 5, 40000 }, { 65536, 131071 }, { 140000, 140009 }, { 200000, 200000 } };
+		for (int range[] : ranges) {
+			for (int i = range[0]; i <= range[1]; i++) {
+				bitmap.add(i);
+				bits.set(i);
+			}
+		}
+		int oldSize = bitmap.sizeInBytes();
+		bitmap.optimize();
+		assertTrue(bitmap.sizeInBytes() < oldSize / 100);
+		assertSameContent(bits, bitmap);
+		assertFalse(bitmap.contains(4));
+		assertFalse(bitmap.contains(40001));
+		assertEquals(140000, bitmap.nextValue(131072));
+
+		/* run containers can be copied and combined with other containers */
+		IntegerBitmap copy = bitmap.clone();
+		IntegerBitmap other = new IntegerBitmap();
+		BitSet otherBits = new BitSet();
+		addRandom(new Random(3), other, otherBits, 5000, 4 * 65536);
+		copy.and(other);
+		BitSet expected = (BitSet)bits.clone();
+		expected.and(otherBits);
+		assertSameContent(expected, copy);
+		copy = bitmap.clone();
+		copy.andNot(other);
+		expected = (BitSet)bits.clone();
+		expected.andNot(otherBits);
+		assertSameContent(expected, copy);
+		other.or(bitmap);
+		otherBits.or(bits);
+		assertSameContent(otherBits, other);
+
+		/* modifying a run container converts it back */
+		bitmap.remove(20000);
+		bitmap.add(40001);
+		bitmap.remove(65536);
+		bits.clear(20000);
+		bits.set(40001);
+		bits.clear(65536);
+		assertSameContent(bits, bitmap);
+	}
+
+	/*-------------------------------------------------------------------------------------*/
+}